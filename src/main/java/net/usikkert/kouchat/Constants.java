@@ -115,6 +115,18 @@ public interface Constants {
      */
     String NETWORK_TEMP_IP = "224.168.5.250";
 
+    /**
+     * The multicast address used for sending a file
+     * to many users at once.
+     */
+    String NETWORK_FILE_MULTICAST_IP = "224.168.5.201";
+
+    /**
+     * The multicast udp port used for sending a file
+     * to many users at once.
+     */
+    int NETWORK_FILE_MULTICAST_PORT = 40856;
+
     /**
      * The character set used for messages.
      */
@@ -22,6 +22,8 @@
 
 package net.usikkert.kouchat.autocomplete;
 
+import java.util.List;
+
 /**
  * This interface is used by {@link AutoCompleter} to check for suggestions
  * for autocompleting a word.
@@ -33,11 +35,12 @@ package net.usikkert.kouchat.autocomplete;
 public interface AutoCompleteList {
 
     /**
-     * Gets the list of words this autocompleter currently contains.
+     * Gets the words this autocompleter currently contains that start with the word, ignoring case.
      *
-     * @return The list of words for this autocompleter.
+     * @param word The start of the words to get.
+     * @return The matching words for this autocompleter.
      */
-    String[] getWordList();
+    List<String> getSuggestions(String word);
 
     /**
      * Checks if this autocompleter supports that type of word.
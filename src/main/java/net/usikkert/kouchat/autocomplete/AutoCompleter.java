@@ -112,8 +112,7 @@ public class AutoCompleter {
                 final AutoCompleteList autoCompleteList = getAutoCompleteList(checkword);
 
                 if (autoCompleteList != null) {
-                    final List<String> suggestions = getAutoCompleteSuggestions(
-                            autoCompleteList.getWordList(), checkword);
+                    final List<String> suggestions = autoCompleteList.getSuggestions(checkword);
 
                     if (suggestions.size() > 0) {
                         final int nextSuggestionPosition = findNextSuggestionPosition(
@@ -248,26 +247,6 @@ public class AutoCompleter {
         return null;
     }
 
-    /**
-     * Compares the word with the word list to find suggestions for
-     * autocompleting the word.
-     *
-     * @param wordList A list of words to compare the word with.
-     * @param word The word to get suggestions for.
-     * @return A list of suggestions.
-     */
-    private List<String> getAutoCompleteSuggestions(final String[] wordList, final String word) {
-        final List<String> suggestions = new ArrayList<>();
-
-        for (final String wordFromList : wordList) {
-            if (wordFromList.toLowerCase().startsWith(word.toLowerCase())) {
-                suggestions.add(wordFromList);
-            }
-        }
-
-        return suggestions;
-    }
-
     /**
      * Returns the new caret position for the last completed search.
      *
@@ -22,6 +22,8 @@
 
 package net.usikkert.kouchat.autocomplete;
 
+import java.util.List;
+
 /**
  * This autocompleter has a list of all the commands the application
  * supports.
@@ -31,7 +33,7 @@ package net.usikkert.kouchat.autocomplete;
 public class CommandAutoCompleteList implements AutoCompleteList {
 
     /** The commands. */
-    private static final String[] COMMANDS = {
+    private static final PrefixIndex COMMANDS = new PrefixIndex(
         "/about",
         "/away",
         "/back",
@@ -44,12 +46,13 @@ public class CommandAutoCompleteList implements AutoCompleteList {
         "/receive",
         "/reject",
         "/send",
+        "/sendall",
         "/topic",
         "/transfers",
         "/users",
         "/whois",
         "//"
-    };
+    );
 
     /**
      * Checks if the word is a command, by seeing if the first character is
@@ -64,11 +67,12 @@ public class CommandAutoCompleteList implements AutoCompleteList {
     }
 
     /**
-     * Returns the list of commands.
-     * @return The list of commands.
+     * Returns the commands starting with the word.
+     *
+     * {@inheritDoc}
      */
     @Override
-    public String[] getWordList() {
-        return COMMANDS;
+    public List<String> getSuggestions(final String word) {
+        return COMMANDS.find(word);
     }
 }
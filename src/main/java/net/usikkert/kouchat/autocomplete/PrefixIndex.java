@@ -0,0 +1,197 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.autocomplete;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.usikkert.kouchat.util.Validate;
+
+/**
+ * An index of words that finds all the words starting with a prefix, ignoring case.
+ *
+ * <p>The words are kept in an array sorted by the lower case version of the word, so the words
+ * starting with a prefix are next to each other. Finding them is a binary search for the first match,
+ * followed by reading the matches. Words are added and removed one at a time, without sorting
+ * the whole index again.</p>
+ *
+ * <p>The same word can be added more than once, and is then found once for each time it was added.</p>
+ *
+ * @author Christian Ihle
+ */
+public class PrefixIndex {
+
+    /** The words, sorted by the lower case version of the word, and then by the word itself. */
+    private final List<Entry> entries;
+
+    /**
+     * Constructor. Creates an empty index.
+     */
+    public PrefixIndex() {
+        entries = new ArrayList<>();
+    }
+
+    /**
+     * Constructor. Creates an index with the words.
+     *
+     * @param words The words to add.
+     */
+    public PrefixIndex(final String... words) {
+        this();
+
+        for (final String word : words) {
+            add(word);
+        }
+    }
+
+    /**
+     * Adds a word to the index.
+     *
+     * @param word The word to add.
+     */
+    public synchronized void add(final String word) {
+        Validate.notNull(word, "Word can not be null");
+
+        final Entry entry = new Entry(word);
+        entries.add(findPosition(entry), entry);
+    }
+
+    /**
+     * Removes a word from the index.
+     *
+     * @param word The word to remove.
+     * @return If the word was in the index.
+     */
+    public synchronized boolean remove(final String word) {
+        Validate.notNull(word, "Word can not be null");
+
+        final Entry entry = new Entry(word);
+        final int position = findPosition(entry);
+
+        if (position < entries.size() && entries.get(position).compareTo(entry) == 0) {
+            entries.remove(position);
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Finds all the words starting with the prefix, ignoring case.
+     *
+     * @param prefix The prefix to find words for.
+     * @return The words starting with the prefix, in sorted order.
+     */
+    public synchronized List<String> find(final String prefix) {
+        Validate.notNull(prefix, "Prefix can not be null");
+
+        final String lowerCasePrefix = prefix.toLowerCase();
+        final List<String> words = new ArrayList<>();
+
+        for (int i = findFirst(lowerCasePrefix); i < entries.size(); i++) {
+            final Entry entry = entries.get(i);
+
+            if (!entry.key.startsWith(lowerCasePrefix)) {
+                break;
+            }
+
+            words.add(entry.word);
+        }
+
+        return words;
+    }
+
+    /**
+     * Gets the number of words in the index.
+     *
+     * @return The number of words.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Finds the position of the first entry that is equal to or sorted after the entry.
+     */
+    private int findPosition(final Entry entry) {
+        int low = 0;
+        int high = entries.size();
+
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+
+            if (entries.get(middle).compareTo(entry) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * Finds the position of the first entry with a key equal to or sorted after the lower case prefix.
+     */
+    private int findFirst(final String lowerCasePrefix) {
+        int low = 0;
+        int high = entries.size();
+
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+
+            if (entries.get(middle).key.compareTo(lowerCasePrefix) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * A word in the index, with the lower case version of the word as the key.
+     */
+    private static class Entry implements Comparable<Entry> {
+
+        private final String word;
+        private final String key;
+
+        Entry(final String word) {
+            this.word = word;
+            key = word.toLowerCase();
+        }
+
+        @Override
+        public int compareTo(final Entry other) {
+            final int keyCompare = key.compareTo(other.key);
+
+            if (keyCompare != 0) {
+                return keyCompare;
+            }
+
+            return word.compareTo(other.word);
+        }
+    }
+}
@@ -22,6 +22,10 @@
 
 package net.usikkert.kouchat.autocomplete;
 
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import net.usikkert.kouchat.event.UserListListener;
 import net.usikkert.kouchat.misc.User;
 import net.usikkert.kouchat.misc.UserList;
@@ -30,69 +34,112 @@ import net.usikkert.kouchat.util.Tools;
 /**
  * This autocompleter has a list of all the users currently online.
  *
+ * <p>The nick names are kept in a {@link PrefixIndex}, updated one user at a time from the
+ * events of the user list. The nick name of each user is remembered, so a changed nick name
+ * can be replaced in the index without building it again.</p>
+ *
  * @author Christian Ihle
  */
 public class UserAutoCompleteList implements AutoCompleteList, UserListListener {
 
-    /** The real user list. */
-    private final UserList userList;
+    /** The nick names of the users, for use in auto completion. */
+    private final PrefixIndex nickNames;
 
-    /** A simple array with users, for use in auto completion. */
-    private String[] users;
+    /** The nick name in the index for each user code. */
+    private final Map<Integer, String> indexedNickNames;
 
     /**
-     * Constructor. Registers itself as a user list listener.
+     * Constructor. Registers itself as a user list listener, and adds the users already in the list.
      *
      * @param userList The list of online users.
      */
     public UserAutoCompleteList(final UserList userList) {
-        this.userList = userList;
+        nickNames = new PrefixIndex();
+        indexedNickNames = new HashMap<>();
+
         userList.addUserListListener(this);
-        updateWords();
+
+        for (final User user : userList.getSnapshot()) {
+            indexUser(user);
+        }
     }
 
     /**
-     * Updates the list of users.
+     * Adds the user to the index.
      *
      * {@inheritDoc}
      */
     @Override
     public void userAdded(final int pos, final User user) {
-        updateWords();
+        indexUser(user);
+    }
+
+    /**
+     * Adds the users to the index.
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public void usersAdded(final List<User> users) {
+        for (final User user : users) {
+            indexUser(user);
+        }
     }
 
     /**
-     * Updates the list of users.
+     * Updates the nick name of the user in the index, if changed.
      *
      * {@inheritDoc}
      */
     @Override
     public void userChanged(final int pos, final User user) {
-        updateWords();
+        indexUser(user);
     }
 
     /**
-     * Updates the list of users.
+     * Updates the nick name of the user in the index, if changed.
      *
      * {@inheritDoc}
      */
     @Override
-    public void userRemoved(final int pos, final User user) {
-        updateWords();
+    public void userMoved(final int oldPos, final int newPos, final User user) {
+        indexUser(user);
     }
 
     /**
-     * Iterates through the user list, and adds all the nick names to the
-     * list of words.
+     * Removes the user from the index.
+     *
+     * {@inheritDoc}
      */
-    private void updateWords() {
-        users = new String[userList.size()];
+    @Override
+    public synchronized void userRemoved(final int pos, final User user) {
+        final String oldNickName = indexedNickNames.remove(user.getCode());
 
-        for (int i = 0; i < userList.size(); i++) {
-            users[i] = userList.get(i).getNick();
+        if (oldNickName != null) {
+            nickNames.remove(oldNickName);
         }
     }
 
+    /**
+     * Adds the nick name of the user to the index, replacing the old nick name of the user if it changed.
+     *
+     * @param user The user to add or update.
+     */
+    private synchronized void indexUser(final User user) {
+        final String nickName = user.getNick();
+        final String oldNickName = indexedNickNames.put(user.getCode(), nickName);
+
+        if (nickName.equals(oldNickName)) {
+            return;
+        }
+
+        if (oldNickName != null) {
+            nickNames.remove(oldNickName);
+        }
+
+        nickNames.add(nickName);
+    }
+
     /**
      * Checks if the word is a valid nick name.
      *
@@ -104,12 +151,12 @@ public class UserAutoCompleteList implements AutoCompleteList, UserListListener
     }
 
     /**
-     * Returns a list of all the users.
+     * Returns the nick names of the users starting with the word.
      *
      * {@inheritDoc}
      */
     @Override
-    public String[] getWordList() {
-        return users;
+    public List<String> getSuggestions(final String word) {
+        return nickNames.find(word);
     }
 }
@@ -22,6 +22,8 @@
 
 package net.usikkert.kouchat.event;
 
+import java.util.List;
+
 import net.usikkert.kouchat.misc.User;
 
 /**
@@ -41,6 +43,14 @@ public interface UserListListener {
      */
     void userAdded(int pos, User user);
 
+    /**
+     * Several new users have been added to the user list at once,
+     * as a single change.
+     *
+     * @param users The users that were added, in the order they are sorted in the user list.
+     */
+    void usersAdded(List<User> users);
+
     /**
      * A user has updated some of its fields,
      * so the ui needs to refresh.
@@ -50,6 +60,17 @@ public interface UserListListener {
      */
     void userChanged(int pos, User user);
 
+    /**
+     * A user has updated some of its fields, and
+     * had to be moved to a new position in the user list
+     * to keep the list sorted.
+     *
+     * @param oldPos The old position of the changed user in the user list.
+     * @param newPos The new position of the changed user in the user list.
+     * @param user The (new) changed user.
+     */
+    void userMoved(int oldPos, int newPos, User user);
+
     /**
      * A user has been removed from the user list.
      *
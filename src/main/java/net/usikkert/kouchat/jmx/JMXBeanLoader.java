@@ -40,6 +40,7 @@ import net.usikkert.kouchat.util.Validate;
  *   <li>{@link NetworkInformation}</li>
  *   <li>{@link ControllerInformation}</li>
  *   <li>{@link GeneralInformation}</li>
+ *   <li>{@link TransferInformation}</li>
  * </ul>
  *
  * @author Christian Ihle
@@ -66,7 +67,9 @@ public class JMXBeanLoader {
         jmxBeans = Arrays.asList(
                 new NetworkInformation(connectionWorker, settings, errorHandler),
                 new ControllerInformation(controller),
-                new GeneralInformation(settings));
+                new GeneralInformation(settings),
+                new TransferInformation(controller, settings),
+                new TimerInformation(controller.getTimer()));
     }
 
     public List<JMXBean> getJMXBeans() {
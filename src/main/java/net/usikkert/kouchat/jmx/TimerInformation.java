@@ -0,0 +1,101 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+package net.usikkert.kouchat.jmx;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.usikkert.kouchat.util.HashedWheelTimer;
+import net.usikkert.kouchat.util.TimerHandle;
+import net.usikkert.kouchat.util.Validate;
+
+/**
+ * This is a JMX MBean for the timer shared by the scheduled tasks in the application.
+ *
+ * @author Christian Ihle
+ */
+public class TimerInformation implements TimerInformationMBean {
+
+    private final HashedWheelTimer timer;
+
+    /**
+     * Constructor.
+     *
+     * @param timer The timer to show information about.
+     */
+    public TimerInformation(final HashedWheelTimer timer) {
+        Validate.notNull(timer, "Timer can not be null");
+
+        this.timer = timer;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getPendingTimerCount() {
+        return timer.getPendingTimerCount();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getTickDuration() {
+        return timer.getTickDuration();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String[] showPendingTimers() {
+        final List<TimerHandle> pendingTimers = timer.getPendingTimers();
+
+        if (pendingTimers.isEmpty()) {
+            return new String[] {"No pending timers."};
+        }
+
+        final List<String> list = new ArrayList<>();
+
+        for (final TimerHandle pendingTimer : pendingTimers) {
+            final StringBuilder sb = new StringBuilder();
+            sb.append(pendingTimer.getName() + ": runs in " + pendingTimer.getDelay() + " ms");
+
+            if (pendingTimer.isPeriodic()) {
+                sb.append(", then every " + pendingTimer.getPeriod() + " ms");
+            }
+
+            list.add(sb.toString());
+        }
+
+        return list.toArray(new String[list.size()]);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getBeanName() {
+        return "Timers";
+    }
+}
@@ -19,54 +19,33 @@
  *   License along with KouChat.                                           *
  *   If not, see <http://www.gnu.org/licenses/>.                           *
  ***************************************************************************/
-
-package net.usikkert.kouchat.util;
-
-import static org.mockito.Mockito.verify;
-import static org.powermock.api.mockito.PowerMockito.*;
-
-import java.util.Timer;
-import java.util.TimerTask;
-
-import org.junit.Before;
-import org.junit.Test;
-import org.junit.runner.RunWith;
-import org.powermock.core.classloader.annotations.PrepareForTest;
-import org.powermock.modules.junit4.PowerMockRunner;
+package net.usikkert.kouchat.jmx;
 
 /**
- * Test of {@link TimerTools}.
+ * This is a JMX MBean interface for the timer shared by the scheduled tasks in the application.
  *
  * @author Christian Ihle
  */
-@RunWith(PowerMockRunner.class)
-@PrepareForTest(TimerTools.class)
-public class TimerToolsTest {
-
-    private TimerTools timerTools;
-
-    @Before
-    public void setUp() {
-        timerTools = new TimerTools();
-    }
-
-    @Test
-    public void scheduleTimerTaskShouldScheduleOneTimeTaskWithCorrectNameAndDelay() throws Exception {
-        final Timer timer = mock(Timer.class);
-        final TimerTask timerTask = createTimerTask();
-
-        whenNew(Timer.class).withAnyArguments().thenReturn(timer);
-
-        timerTools.scheduleTimerTask("TheTimer", timerTask, 123);
-
-        verifyNew(Timer.class).withArguments("TheTimer");
-        verify(timer).schedule(timerTask, 123);
-    }
-
-    private TimerTask createTimerTask() {
-        return new TimerTask() {
-            @Override
-            public void run() { }
-        };
-    }
+public interface TimerInformationMBean extends JMXBean {
+
+    /**
+     * Gets the number of tasks waiting to run.
+     *
+     * @return The number of pending tasks.
+     */
+    int getPendingTimerCount();
+
+    /**
+     * Gets the accuracy of the timer, in milliseconds.
+     *
+     * @return The tick duration.
+     */
+    long getTickDuration();
+
+    /**
+     * Shows the tasks waiting to run, with the time left until they run.
+     *
+     * @return A string with information about each pending task.
+     */
+    String[] showPendingTimers();
 }
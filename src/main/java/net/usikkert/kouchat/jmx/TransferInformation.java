@@ -0,0 +1,182 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.jmx;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.usikkert.kouchat.misc.Controller;
+import net.usikkert.kouchat.net.FileTransfer;
+import net.usikkert.kouchat.net.TransferExecutor;
+import net.usikkert.kouchat.net.TransferList;
+import net.usikkert.kouchat.net.TransferScheduler;
+import net.usikkert.kouchat.settings.Settings;
+import net.usikkert.kouchat.util.Tools;
+import net.usikkert.kouchat.util.Validate;
+
+/**
+ * This is a JMX MBean for the file transfers.
+ *
+ * @author Christian Ihle
+ */
+public class TransferInformation implements TransferInformationMBean {
+
+    private final Controller controller;
+    private final Settings settings;
+
+    /**
+     * Constructor.
+     *
+     * @param controller The controller, to get the file transfers from.
+     * @param settings The settings to use.
+     */
+    public TransferInformation(final Controller controller, final Settings settings) {
+        Validate.notNull(controller, "Controller can not be null");
+        Validate.notNull(settings, "Settings can not be null");
+
+        this.controller = controller;
+        this.settings = settings;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getTransferRateLimit() {
+        return settings.getTransferRateLimit();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setTransferRateLimit(final int transferRateLimit) {
+        settings.setTransferRateLimit(transferRateLimit);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMaxConcurrentSends() {
+        return settings.getMaxConcurrentSends();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setMaxConcurrentSends(final int maxConcurrentSends) {
+        settings.setMaxConcurrentSends(maxConcurrentSends);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMaxConcurrentReceives() {
+        return settings.getMaxConcurrentReceives();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setMaxConcurrentReceives(final int maxConcurrentReceives) {
+        settings.setMaxConcurrentReceives(maxConcurrentReceives);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String[] showTransfers() {
+        final TransferList transferList = controller.getTransferList();
+        final TransferScheduler transferScheduler = transferList.getTransferScheduler();
+        final TransferExecutor transferExecutor = controller.getTransferExecutor();
+
+        final List<FileTransfer> fileTransfers = new ArrayList<>();
+        fileTransfers.addAll(transferList.getFileSenders());
+        fileTransfers.addAll(transferList.getFileReceivers());
+
+        if (fileTransfers.isEmpty()) {
+            return new String[] {"No file transfers."};
+        }
+
+        final List<String> list = new ArrayList<>();
+
+        for (final FileTransfer fileTransfer : fileTransfers) {
+            final String transferText = "#" + fileTransfer.getId() + " " + fileTransfer.getDirection() +
+                    " " + fileTransfer.getFileName() +
+                    " (" + fileTransfer.getUser().getNick() + ")";
+
+            if (fileTransfer.isQueued()) {
+                list.add(transferText + ": queued, priority " + transferExecutor.getPriority(fileTransfer.getId()));
+            }
+
+            else {
+                list.add(transferText +
+                                 ": " + fileTransfer.getPercent() + "%" +
+                                 ", " + Tools.byteToString(fileTransfer.getSpeed()) + "/s" +
+                                 " (" + Tools.byteToString(fileTransfer.getWireSpeed()) + "/s on the network)" +
+                                 ", average " + Tools.byteToString(fileTransfer.getAverageSpeed()) + "/s" +
+                                 ", " + createTimeLeftText(fileTransfer.getSecondsLeft()) + " left" +
+                                 ", weight " + transferScheduler.getWeight(fileTransfer.getId()));
+            }
+        }
+
+        return list.toArray(new String[list.size()]);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean changeTransferWeight(final int transferId, final int weight) {
+        return controller.getTransferList().getTransferScheduler().setWeight(transferId, weight);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean changeTransferPriority(final int transferId, final int priority) {
+        return controller.getTransferExecutor().setPriority(transferId, priority);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getBeanName() {
+        return "Transfers";
+    }
+
+    private String createTimeLeftText(final long secondsLeft) {
+        if (secondsLeft < 0) {
+            return "unknown time";
+        }
+
+        return Tools.secondsToString(secondsLeft);
+    }
+}
@@ -0,0 +1,99 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.jmx;
+
+/**
+ * This is the JMX MBean interface for the file transfers.
+ *
+ * @author Christian Ihle
+ */
+public interface TransferInformationMBean extends JMXBean {
+
+    /**
+     * Gets the max speed of all the file transfers combined.
+     *
+     * @return The rate limit in kilobytes per second, or 0 for unlimited.
+     */
+    int getTransferRateLimit();
+
+    /**
+     * Sets the max speed of all the file transfers combined. Takes effect immediately.
+     *
+     * @param transferRateLimit The rate limit in kilobytes per second, or 0 for unlimited.
+     */
+    void setTransferRateLimit(int transferRateLimit);
+
+    /**
+     * Gets the max number of files to send at the same time.
+     *
+     * @return The max number of concurrent sends.
+     */
+    int getMaxConcurrentSends();
+
+    /**
+     * Sets the max number of files to send at the same time. Takes effect immediately.
+     *
+     * @param maxConcurrentSends The max number of concurrent sends. Must be at least 1.
+     */
+    void setMaxConcurrentSends(int maxConcurrentSends);
+
+    /**
+     * Gets the max number of files to receive at the same time.
+     *
+     * @return The max number of concurrent receives.
+     */
+    int getMaxConcurrentReceives();
+
+    /**
+     * Sets the max number of files to receive at the same time. Takes effect immediately.
+     *
+     * @param maxConcurrentReceives The max number of concurrent receives. Must be at least 1.
+     */
+    void setMaxConcurrentReceives(int maxConcurrentReceives);
+
+    /**
+     * Shows the file transfers, with their speed and share of the bandwidth, or their priority if queued.
+     *
+     * @return A string with information about each transfer.
+     */
+    String[] showTransfers();
+
+    /**
+     * Changes the share of the bandwidth an active file transfer gets, compared to the others.
+     *
+     * @param transferId The id of the file transfer.
+     * @param weight The new weight. Must be at least 1.
+     * @return If the file transfer was found and changed.
+     */
+    boolean changeTransferWeight(int transferId, int weight);
+
+    /**
+     * Changes the priority of a queued file transfer. File transfers with higher priority
+     * are started first when a slot is free.
+     *
+     * @param transferId The id of the file transfer.
+     * @param priority The new priority.
+     * @return If the file transfer was queued and changed.
+     */
+    boolean changeTransferPriority(int transferId, int priority);
+}
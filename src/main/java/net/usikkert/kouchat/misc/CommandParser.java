@@ -23,16 +23,23 @@
 package net.usikkert.kouchat.misc;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.regex.Pattern;
 
 import net.usikkert.kouchat.Constants;
 import net.usikkert.kouchat.message.CoreMessages;
+import net.usikkert.kouchat.net.ClientCapability;
+import net.usikkert.kouchat.net.FileBatch;
 import net.usikkert.kouchat.net.FileReceiver;
 import net.usikkert.kouchat.net.FileSender;
 import net.usikkert.kouchat.net.FileToSend;
 import net.usikkert.kouchat.net.FileTransfer;
+import net.usikkert.kouchat.net.MulticastFileSession;
+import net.usikkert.kouchat.net.ServerException;
+import net.usikkert.kouchat.net.TransferExecutor;
 import net.usikkert.kouchat.net.TransferList;
 import net.usikkert.kouchat.settings.Settings;
 import net.usikkert.kouchat.ui.UserInterface;
@@ -264,9 +271,9 @@ public class CommandParser {
     /**
      * Command: <em>/send &lt;nick&gt; &lt;file&gt;</em>.
      *
-     * <p>Send a file to a user.</p>
+     * <p>Send a file to a user. A folder is sent as a single batch with all the files in it.</p>
      *
-     * @param args First argument is the user to send to, and the second is the file to send to the user.
+     * @param args First argument is the user to send to, and the second is the file or folder to send to the user.
      */
     private void cmdSend(final String args) {
         final String[] argsArray = args.split(WHITESPACE);
@@ -295,9 +302,9 @@ public class CommandParser {
                     file = file.trim();
                     final File sendFile = new File(file);
 
-                    if (sendFile.exists() && sendFile.isFile()) {
+                    if (sendFile.exists() && (sendFile.isFile() || sendFile.isDirectory())) {
                         try {
-                            sendFile(user, new FileToSend(sendFile));
+                            sendFileOrFolder(user, sendFile);
                         }
 
                         catch (final CommandException e) {
@@ -318,6 +325,106 @@ public class CommandParser {
         }
     }
 
+    /**
+     * Command: <em>/sendall &lt;file&gt;</em>.
+     *
+     * <p>Send a file to all the users at once. Users supporting it share the same
+     * {@link MulticastFileSession}, so the file is only sent once over the network.
+     * Other users get the file sent the normal way.</p>
+     *
+     * @param args The file to send.
+     */
+    private void cmdSendAll(final String args) {
+        final String file = args.trim();
+
+        if (file.length() == 0) {
+            msgController.showSystemMessage(coreMessages.getMessage("core.command.sendall.systemMessage.missingArguments"));
+            return;
+        }
+
+        final File sendFile = new File(file);
+
+        if (!sendFile.exists()) {
+            msgController.showSystemMessage(coreMessages.getMessage("core.command.sendall.systemMessage.noSuchFile", file));
+            return;
+        }
+
+        if (!sendFile.isFile()) {
+            msgController.showSystemMessage(coreMessages.getMessage("core.command.sendall.systemMessage.notAFile", file));
+            return;
+        }
+
+        final List<User> users = new ArrayList<>();
+        boolean multicast = false;
+
+        for (final User user : controller.getUserList().getSnapshot()) {
+            if (user.isMe()) {
+                continue;
+            }
+
+            users.add(user);
+
+            if (user.hasCapability(ClientCapability.MULTICAST_FILE)) {
+                multicast = true;
+            }
+        }
+
+        if (users.isEmpty()) {
+            msgController.showSystemMessage(coreMessages.getMessage("core.command.sendall.systemMessage.noUsers"));
+            return;
+        }
+
+        // Started before any file transfers are added, so there is nothing to clean up except the session if it fails
+        MulticastFileSession session = null;
+
+        if (multicast) {
+            session = createMulticastFileSession(sendFile);
+
+            try {
+                session.start();
+            }
+
+            catch (final ServerException e) {
+                session.close();
+                msgController.showSystemMessage(coreMessages.getMessage(
+                        "core.command.sendall.systemMessage.failedToStart", file));
+                return;
+            }
+        }
+
+        final FileToSend fileToSend = new FileToSend(sendFile);
+
+        for (final User user : users) {
+            try {
+                if (session != null && user.hasCapability(ClientCapability.MULTICAST_FILE)) {
+                    sendMulticastFile(user, fileToSend, session);
+                }
+
+                else {
+                    sendFile(user, fileToSend);
+                }
+            }
+
+            catch (final CommandException e) {
+                msgController.showSystemMessage(e.getMessage());
+            }
+        }
+
+        if (session != null && !session.hasRecipients()) {
+            session.close();
+        }
+    }
+
+    /**
+     * Creates a multicast session for sending the file to all the users supporting it.
+     *
+     * @param file The file to send.
+     * @return A new session that is not started.
+     */
+    MulticastFileSession createMulticastFileSession(final File file) {
+        return new MulticastFileSession(me.getCode(), file);
+    }
+
     /**
      * Command: <em>/receive &lt;nick&gt; &lt;id&gt;</em>.
      *
@@ -702,6 +809,11 @@ public class CommandParser {
             transferInfo.append(coreMessages.getMessage("core.command.transfers.receivingFile",
                                                         fileTransferId, fileName, fileSize, percent, speed, user));
         }
+
+        if (fileTransfer.isQueued()) {
+            transferInfo.append(" ");
+            transferInfo.append(coreMessages.getMessage("core.command.transfers.queued"));
+        }
     }
 
     /**
@@ -759,18 +871,120 @@ public class CommandParser {
         }
     }
 
+    /**
+     * Sends a file or a folder to a user.
+     *
+     * <p>A folder is sent as a {@link FileBatch}. Finding all the files in a large folder can take a while,
+     * so it's done in a background thread in the {@link TransferExecutor}, like creating the hash of a file
+     * in {@link #sendFile(User, FileToSend)}, and not in the calling thread. Problems sending a folder are
+     * shown as system messages, since they happen after this method has returned.</p>
+     *
+     * @param user The user to send to.
+     * @param file The file or folder to send to the user.
+     * @throws CommandException If there was a problem sending a file.
+     */
+    public void sendFileOrFolder(final User user, final File file) throws CommandException {
+        if (!file.isDirectory()) {
+            sendFile(user, new FileToSend(file));
+            return;
+        }
+
+        controller.getTransferExecutor().prepare(new Runnable() {
+            @Override
+            public void run() {
+                sendFolder(user, file);
+            }
+        });
+    }
+
+    /**
+     * Finds all the files in the folder, and sends them to the user as a {@link FileBatch}.
+     * Runs in a background thread.
+     *
+     * @param user The user to send to.
+     * @param folder The folder to send to the user.
+     */
+    void sendFolder(final User user, final File folder) {
+        try {
+            sendFile(user, new FileBatch(folder).createFileToSend());
+        }
+
+        catch (final CommandException e) {
+            msgController.showSystemMessage(e.getMessage());
+        }
+
+        catch (final IOException e) {
+            msgController.showSystemMessage(
+                    coreMessages.getMessage("core.command.send.systemMessage.failedToReadFolder", folder.getPath()));
+        }
+    }
+
     /**
      * Sends a file to a user.
      *
+     * <p>The offer includes the hash of the content, so the offer is sent from a background thread in the
+     * {@link TransferExecutor}, and not from the calling thread. That is usually the event dispatch thread,
+     * when a file is chosen or dropped. No send slot is used before the user accepts the offer, so offers
+     * nobody answers do not keep other files from being sent.</p>
+     *
      * @param user The user to send to.
      * @param file The file to send to the user.
      * @throws CommandException If there was a problem sending the file.
      */
     public void sendFile(final User user, final FileToSend file) throws CommandException {
-        controller.sendFile(user, file);
+        controller.validateSendFile(user, file);
         final FileSender fileSend = tList.addFileSender(user, file);
         ui.showTransfer(fileSend);
 
+        final String size = Tools.byteToString(file.length());
+        msgController.showSystemMessage(coreMessages.getMessage(
+                "core.command.send.systemMessage.sendingFile",
+                file.getName(), fileSend.getId(), size, user.getNick()));
+
+        controller.getTransferExecutor().prepare(new Runnable() {
+            @Override
+            public void run() {
+                offerFile(fileSend);
+            }
+        });
+    }
+
+    /**
+     * Sends the offer of the file. The file transfer is queued for a free send slot
+     * when the user accepts the offer.
+     *
+     * @param fileSend The file transfer to offer.
+     */
+    void offerFile(final FileSender fileSend) {
+        if (fileSend.isCanceled()) {
+            return;
+        }
+
+        try {
+            controller.sendFile(fileSend.getUser(), fileSend.getFile());
+        }
+
+        catch (final CommandException e) {
+            msgController.showSystemMessage(e.getMessage());
+            fileSend.cancel();
+            tList.removeFileSender(fileSend);
+        }
+    }
+
+    /**
+     * Sends a file to a user, using a multicast session shared with other users.
+     *
+     * @param user The user to send to.
+     * @param file The file to send to the user.
+     * @param session The started session sending the file.
+     * @throws CommandException If there was a problem sending the file.
+     */
+    public void sendMulticastFile(final User user, final FileToSend file, final MulticastFileSession session)
+            throws CommandException {
+        controller.sendMulticastFile(user, file, session);
+        final FileSender fileSend = tList.addFileSender(user, file, session);
+        ui.showTransfer(fileSend);
+
         final String size = Tools.byteToString(file.length());
         msgController.showSystemMessage(coreMessages.getMessage(
                 "core.command.send.systemMessage.sendingFile",
@@ -820,6 +1034,7 @@ public class CommandParser {
                         coreMessages.getMessage("core.command.receive.systemMessage.help") + "\n" +
                         coreMessages.getMessage("core.command.reject.systemMessage.help") + "\n" +
                         coreMessages.getMessage("core.command.send.systemMessage.help") + "\n" +
+                        coreMessages.getMessage("core.command.sendall.systemMessage.help") + "\n" +
                         coreMessages.getMessage("core.command.topic.systemMessage.help") + "\n" +
                         coreMessages.getMessage("core.command.transfers.systemMessage.help") + "\n" +
                         coreMessages.getMessage("core.command.users.systemMessage.help") + "\n" +
@@ -862,6 +1077,8 @@ public class CommandParser {
                 cmdWhois(args);
             } else if (command.equals("send")) {
                 cmdSend(args);
+            } else if (command.equals("sendall")) {
+                cmdSendAll(args);
             } else if (command.equals("receive")) {
                 cmdReceive(args);
             } else if (command.equals("reject")) {
@@ -22,6 +22,7 @@
 
 package net.usikkert.kouchat.misc;
 
+import java.io.File;
 import java.util.List;
 
 import net.usikkert.kouchat.Constants;
@@ -32,23 +33,31 @@ import net.usikkert.kouchat.event.NetworkConnectionListener;
 import net.usikkert.kouchat.jmx.JMXBeanLoader;
 import net.usikkert.kouchat.message.CoreMessages;
 import net.usikkert.kouchat.net.AsyncMessageResponderWrapper;
+import net.usikkert.kouchat.net.ChatHistory;
+import net.usikkert.kouchat.net.ClientCapability;
 import net.usikkert.kouchat.net.DefaultMessageResponder;
 import net.usikkert.kouchat.net.DefaultPrivateMessageResponder;
+import net.usikkert.kouchat.net.FileContentCache;
 import net.usikkert.kouchat.net.FileReceiver;
 import net.usikkert.kouchat.net.FileSender;
 import net.usikkert.kouchat.net.FileToSend;
+import net.usikkert.kouchat.net.FileTransferServer;
+import net.usikkert.kouchat.net.HistoryRequester;
 import net.usikkert.kouchat.net.MessageParser;
 import net.usikkert.kouchat.net.MessageResponder;
+import net.usikkert.kouchat.net.MulticastFileSession;
 import net.usikkert.kouchat.net.NetworkMessages;
 import net.usikkert.kouchat.net.NetworkService;
 import net.usikkert.kouchat.net.PrivateMessageParser;
 import net.usikkert.kouchat.net.PrivateMessageResponder;
+import net.usikkert.kouchat.net.TransferExecutor;
 import net.usikkert.kouchat.net.TransferList;
+import net.usikkert.kouchat.net.TransferScheduler;
 import net.usikkert.kouchat.settings.Settings;
 import net.usikkert.kouchat.settings.SettingsSaver;
 import net.usikkert.kouchat.ui.UserInterface;
 import net.usikkert.kouchat.util.DateTools;
-import net.usikkert.kouchat.util.TimerTools;
+import net.usikkert.kouchat.util.HashedWheelTimer;
 import net.usikkert.kouchat.util.Tools;
 import net.usikkert.kouchat.util.Validate;
 
@@ -71,14 +80,19 @@ public class Controller implements NetworkConnectionListener {
     private static final int LOGON_DELAY = 1500;
 
     private final DateTools dateTools = new DateTools();
-    private final TimerTools timerTools = new TimerTools();
 
     private final ChatState chatState;
     private final UserListController userListController;
     private final NetworkService networkService;
     private final NetworkMessages networkMessages;
-    private final IdleThread idleThread;
+    private final IdleTimer idleTimer;
+    private final WritingNotifier writingNotifier;
+    private final ChatHistory chatHistory;
+    private final HistoryRequester historyRequester;
     private final TransferList tList;
+    private final FileTransferServer fileTransferServer;
+    private final FileContentCache fileContentCache;
+    private final TransferExecutor transferExecutor;
     private final WaitingList wList;
     private final User me;
     private final UserInterface ui;
@@ -86,6 +100,7 @@ public class Controller implements NetworkConnectionListener {
     private final Settings settings;
     private final SettingsSaver settingsSaver;
     private final DayTimer dayTimer;
+    private final HashedWheelTimer timer;
     private final Thread shutdownHook;
     private final CoreMessages coreMessages;
     private final ErrorHandler errorHandler;
@@ -126,12 +141,18 @@ public class Controller implements NetworkConnectionListener {
         Runtime.getRuntime().addShutdownHook(shutdownHook);
 
         me = settings.getMe();
+        timer = new HashedWheelTimer("KouChatTimer");
+        chatHistory = new ChatHistory();
+        historyRequester = new HistoryRequester(this, chatHistory, timer);
         userListController = new UserListController(settings);
         chatState = new ChatState();
-        tList = new TransferList();
-        wList = new WaitingList();
-        idleThread = new IdleThread(this, ui, settings);
-        dayTimer = new DayTimer(ui);
+        tList = new TransferList(new TransferScheduler(settings), timer);
+        fileTransferServer = new FileTransferServer(timer);
+        fileContentCache = new FileContentCache(new File(Constants.APP_FOLDER, "receivecache"));
+        transferExecutor = new TransferExecutor(settings);
+        wList = new WaitingList(timer);
+        idleTimer = new IdleTimer(this, ui, settings, timer);
+        dayTimer = new DayTimer(ui, timer);
         networkService = new NetworkService(this, settings, errorHandler);
         final MessageResponder msgResponder = new DefaultMessageResponder(this, ui, settings, coreMessages);
         final AsyncMessageResponderWrapper msgResponderWrapper = new AsyncMessageResponderWrapper(msgResponder, this);
@@ -141,6 +162,7 @@ public class Controller implements NetworkConnectionListener {
         final PrivateMessageParser privmsgParser = new PrivateMessageParser(privmsgResponder, settings);
         networkService.registerPrivateChatReceiverListener(privmsgParser);
         networkMessages = new NetworkMessages(networkService, settings);
+        writingNotifier = new WritingNotifier(networkMessages, userListController, timer);
         networkService.registerNetworkConnectionListener(this);
         msgController = ui.getMessageController();
     }
@@ -150,7 +172,7 @@ public class Controller implements NetworkConnectionListener {
      */
     public void start() {
         dayTimer.startTimer();
-        idleThread.start();
+        idleTimer.start();
 
         msgController.showSystemMessage(coreMessages.getMessage("core.startup.systemMessage.welcome",
                                                                 Constants.APP_NAME));
@@ -192,7 +214,7 @@ public class Controller implements NetworkConnectionListener {
      * users are currently writing.
      *
      * If the user is the application user, messages will be sent to the
-     * other clients to notify of changes.
+     * other clients to notify of changes, using the {@link WritingNotifier}.
      *
      * @param code The user code for the user to update.
      * @param writing True if the user is writing.
@@ -202,12 +224,7 @@ public class Controller implements NetworkConnectionListener {
 
         if (code == me.getCode()) {
             chatState.setWrote(writing);
-
-            if (writing) {
-                networkMessages.sendWritingMessage();
-            } else {
-                networkMessages.sendStoppedWritingMessage();
-            }
+            writingNotifier.writingChanged(writing);
         }
     }
 
@@ -221,6 +238,8 @@ public class Controller implements NetworkConnectionListener {
         if (isCurrentlyWriting) {
             if (!isWrote()) {
                 changeWriting(me.getCode(), true);
+            } else {
+                writingNotifier.stillWriting();
             }
         }
 
@@ -280,11 +299,17 @@ public class Controller implements NetworkConnectionListener {
         final String trimmedAwayMessage = awaymsg.trim();
 
         if (code == me.getCode()) {
-            if (away) {
-                networkMessages.sendAwayMessage(trimmedAwayMessage);
-            } else {
-                networkMessages.sendBackMessage();
+            me.setPresenceVersion(me.getPresenceVersion() + 1);
+
+            if (!isPresenceSupportedByAll()) {
+                if (away) {
+                    networkMessages.sendAwayMessage(trimmedAwayMessage);
+                } else {
+                    networkMessages.sendBackMessage();
+                }
             }
+
+            networkMessages.sendAwayPresenceMessage(away, away ? trimmedAwayMessage : "");
         }
 
         userListController.changeAwayStatus(code, away, trimmedAwayMessage);
@@ -310,6 +335,27 @@ public class Controller implements NetworkConnectionListener {
         return userListController.isNewUser(code);
     }
 
+    /**
+     * Checks if all the other users support {@link ClientCapability#PRESENCE}. If they do, the
+     * changes to the presence state of the application user are only sent as presence deltas.
+     *
+     * @return If all the other users support presence deltas.
+     */
+    public boolean isPresenceSupportedByAll() {
+        return userListController.isCapabilitySupportedByAll(ClientCapability.PRESENCE);
+    }
+
+    /**
+     * Adds the users that are not already in the user list, in one batch.
+     *
+     * @param users The users to add.
+     * @return The users that were added.
+     * @see UserListController#addUsers(List)
+     */
+    public List<User> addUsers(final List<User> users) {
+        return userListController.addUsers(users);
+    }
+
     /**
      * Changes the nick for the application user, sends a message over the
      * network to notify the other clients of the change, and saves the changes.
@@ -322,7 +368,13 @@ public class Controller implements NetworkConnectionListener {
             throw new CommandException(coreMessages.getMessage("core.nick.error.meIsAway"));
         }
 
-        networkMessages.sendNickMessage(newNick);
+        me.setPresenceVersion(me.getPresenceVersion() + 1);
+
+        if (!isPresenceSupportedByAll()) {
+            networkMessages.sendNickMessage(newNick);
+        }
+
+        networkMessages.sendNickPresenceMessage(newNick);
         changeNick(me.getCode(), newNick);
         saveSettings();
     }
@@ -381,7 +433,7 @@ public class Controller implements NetworkConnectionListener {
      * This should be run after a successful logon, to update the connection state.
      */
     private void runDelayedLogon() {
-        timerTools.scheduleTimerTask("DelayedLogonTimer", new DelayedLogonTask(networkService, chatState), LOGON_DELAY);
+        timer.schedule("DelayedLogonTimer", new DelayedLogonTask(networkService, chatState), LOGON_DELAY);
     }
 
     /**
@@ -405,6 +457,8 @@ public class Controller implements NetworkConnectionListener {
      * @param removeUsers Set to true to remove users from the user list.
      */
     public void logOff(final boolean removeUsers) {
+        writingNotifier.reset();
+        historyRequester.stop();
         networkMessages.sendLogoffMessage();
         chatState.setLoggedOn(false);
         chatState.setLogonCompleted(false);
@@ -426,14 +480,9 @@ public class Controller implements NetworkConnectionListener {
      * and removes them from the user list.
      */
     private void removeAllUsers() {
-        final UserList userList = getUserList();
-
-        for (int i = 0; i < userList.size(); i++) {
-            final User user = userList.get(i);
-
+        for (final User user : getUserList().getSnapshot()) {
             if (!user.isMe()) {
                 removeUser(user, coreMessages.getMessage("core.network.systemMessage.meLogOff"));
-                i--;
             }
         }
     }
@@ -462,11 +511,7 @@ public class Controller implements NetworkConnectionListener {
     }
 
     private void closeAllUserResources() {
-        final UserList userList = getUserList();
-
-        for (int i = 0; i < userList.size(); i++) {
-            final User user = userList.get(i);
-
+        for (final User user : getUserList().getSnapshot()) {
             cancelFileTransfers(user);
             closePrivateChatLogger(user);
         }
@@ -508,9 +553,11 @@ public class Controller implements NetworkConnectionListener {
     }
 
     private void doShutdown() {
-        idleThread.stopThread();
+        idleTimer.stop();
         dayTimer.stopTimer();
+        fileTransferServer.stopServer();
         msgController.shutdown();
+        timer.stop();
     }
 
     /**
@@ -521,6 +568,106 @@ public class Controller implements NetworkConnectionListener {
         networkMessages.sendExposeMessage();
     }
 
+    /**
+     * Sends a message over the network to ask a single unknown user to identify.
+     *
+     * @param userCode The unique code of the user to ask.
+     */
+    public void sendExposeMessage(final int userCode) {
+        networkMessages.sendExposeMessage(userCode);
+    }
+
+    /**
+     * Sends the complete presence state of the application user to a user that missed a change.
+     *
+     * @param user The user that asked for the presence state.
+     */
+    public void sendPresenceMessage(final User user) {
+        networkMessages.sendPresenceMessage(user);
+    }
+
+    /**
+     * Asks a user for its complete presence state, after missing a change.
+     *
+     * @param user The user to ask.
+     */
+    public void sendPresenceRequest(final User user) {
+        networkMessages.sendPresenceRequest(user);
+    }
+
+    /**
+     * Asks a user to send chat messages again, after they were missed.
+     *
+     * @param user The user who sent the messages.
+     * @param privateChat If the messages are from the private chat with the user, instead of the main chat.
+     * @param sequences The sequence numbers of the missing messages.
+     */
+    public void sendMessageRequest(final User user, final boolean privateChat, final List<Integer> sequences) {
+        networkMessages.sendMessageRequest(user, privateChat, sequences);
+    }
+
+    /**
+     * Sends chat messages again to a user who missed them. Main chat messages are only sent to all
+     * users as a fallback if all the users can ignore the messages they have already seen.
+     *
+     * @param user The user who asked for the messages.
+     * @param privateChat If the messages are from the private chat with the user, instead of the main chat.
+     * @param sequences The sequence numbers of the missing messages.
+     */
+    public void resendMessages(final User user, final boolean privateChat, final List<Integer> sequences) {
+        networkMessages.resendMessages(user, privateChat, sequences,
+                                       userListController.isCapabilitySupportedByAll(ClientCapability.MESSAGE_SEQUENCE));
+    }
+
+    /**
+     * Gets the recent messages in the main chat.
+     *
+     * @return The chat history.
+     */
+    public ChatHistory getChatHistory() {
+        return chatHistory;
+    }
+
+    /**
+     * Starts asking another user for the messages in the main chat that were missed while not logged on.
+     */
+    public void requestChatHistory() {
+        historyRequester.requestHistory();
+    }
+
+    /**
+     * Checks if the messages in the main chat from the user were asked for.
+     *
+     * @param userCode The unique code of the user who sent the messages.
+     * @return If the messages should be shown.
+     */
+    public boolean acceptChatHistory(final int userCode) {
+        return historyRequester.historyArrived(userCode);
+    }
+
+    /**
+     * Asks a user for the recent messages in the main chat.
+     *
+     * @param user The user to ask.
+     * @param age Milliseconds back in time to get messages from, or -1 to get all the messages.
+     * @return If the request was sent.
+     */
+    public boolean sendHistoryRequest(final User user, final long age) {
+        return networkMessages.sendHistoryRequest(user, age);
+    }
+
+    /**
+     * Sends the recent messages in the main chat to the user who asked for them.
+     *
+     * @param user The user who asked.
+     * @param age Milliseconds back in time to send messages from, or -1 to send all the messages.
+     * @return If the messages were sent.
+     */
+    public boolean sendChatHistory(final User user, final long age) {
+        final long since = age < 0 ? 0 : System.currentTimeMillis() - age;
+        return networkMessages.sendHistory(user, chatHistory.getEntriesSince(since));
+    }
+
     /**
      * Sends a message over the network to identify this client.
      */
@@ -565,7 +712,11 @@ public class Controller implements NetworkConnectionListener {
             throw new CommandException(coreMessages.getMessage("core.chatMessage.error.messageTooLong",
                                                                Constants.MESSAGE_MAX_BYTES));
         } else {
+            tList.getTransferScheduler().chatTrafficSent();
             networkMessages.sendChatMessage(msg);
+            writingNotifier.chatMessageSent();
+            chatHistory.add(new ChatHistory.Entry(System.currentTimeMillis(), me.getCode(), me.getNick(),
+                                                  settings.getOwnColor(), msg));
         }
     }
 
@@ -633,16 +784,35 @@ public class Controller implements NetworkConnectionListener {
      *             to start the file transfer.
      * @param fileHash The unique hash code of the file.
      * @param fileName The name of the file.
+     * @param compressed If the file should be sent compressed.
+     * @param transferId The id of the file transfer, if the port is shared, or 0.
+     * @throws CommandException If the message was not sent successfully.
+     */
+    public void sendFileAccept(final User user, final int port, final int fileHash, final String fileName,
+                               final boolean compressed, final int transferId) throws CommandException {
+        networkMessages.sendFileAccept(user, port, fileHash, fileName, compressed, transferId);
+    }
+
+    /**
+     * Sends a message over the network to notify another user that the file
+     * was restored from the receive cache, and does not need to be sent.
+     *
+     * @param user The user sending a file.
+     * @param fileHash The unique hash code of the file.
+     * @param fileName The name of the file.
      * @throws CommandException If the message was not sent successfully.
      */
-    public void sendFileAccept(final User user, final int port, final int fileHash, final String fileName) throws CommandException {
-        networkMessages.sendFileAccept(user, port, fileHash, fileName);
+    public void sendFileAcceptCached(final User user, final int fileHash, final String fileName) throws CommandException {
+        networkMessages.sendFileAcceptCached(user, fileHash, fileName);
     }
 
     /**
      * Sends a message over the network to notify another user that the
      * application user wants to send a file.
      *
+     * <p>The offer may include a hash of the content of the file, which is slow to create for big files,
+     * so this must not be called from the event dispatch thread.</p>
+     *
      * @param user The user asked to receive a file.
      * @param file The file to send.
      * @throws CommandException If the specified user is the application user,
@@ -652,6 +822,43 @@ public class Controller implements NetworkConnectionListener {
      *                          or the file name is too long.
      */
     public void sendFile(final User user, final FileToSend file) throws CommandException {
+        validateSendFile(user, file);
+        networkMessages.sendFile(user, file);
+    }
+
+    /**
+     * Sends a message over the network to notify another user that the application user
+     * wants to send a file, using a multicast session shared with other users.
+     *
+     * @param user The user asked to receive a file.
+     * @param file The file to send.
+     * @param session The started session sending the file.
+     * @throws CommandException If the specified user is the application user,
+     *                          or there is no connection to the network,
+     *                          or the application user is away,
+     *                          or the specified user is away,
+     *                          or the file name is too long.
+     */
+    public void sendMulticastFile(final User user, final FileToSend file, final MulticastFileSession session)
+            throws CommandException {
+        Validate.notNull(session, "Multicast file session can not be null");
+
+        validateSendFile(user, file);
+        networkMessages.sendMulticastFile(user, file, session.getSessionId(), session.getPort());
+    }
+
+    /**
+     * Checks if the file can be sent to the user, without sending anything.
+     *
+     * @param user The user asked to receive a file.
+     * @param file The file to send.
+     * @throws CommandException If the specified user is the application user,
+     *                          or there is no connection to the network,
+     *                          or the application user is away,
+     *                          or the specified user is away,
+     *                          or the file name is too long.
+     */
+    public void validateSendFile(final User user, final FileToSend file) throws CommandException {
         Validate.notNull(user, "User can not be null");
         Validate.notNull(file, "File can not be null");
 
@@ -666,8 +873,6 @@ public class Controller implements NetworkConnectionListener {
         } else if (Tools.getBytes(file.getName()) > Constants.MESSAGE_MAX_BYTES) {
             throw new CommandException(coreMessages.getMessage("core.sendFile.error.messageTooLong",
                                                                Constants.MESSAGE_MAX_BYTES));
-        } else {
-            networkMessages.sendFile(user, file);
         }
     }
 
@@ -680,6 +885,42 @@ public class Controller implements NetworkConnectionListener {
         return tList;
     }
 
+    /**
+     * Gets the server shared by incoming file transfers.
+     *
+     * @return The shared file transfer server.
+     */
+    public FileTransferServer getFileTransferServer() {
+        return fileTransferServer;
+    }
+
+    /**
+     * Gets the cache of received files, to avoid receiving the same file again.
+     *
+     * @return The receive cache.
+     */
+    public FileContentCache getFileContentCache() {
+        return fileContentCache;
+    }
+
+    /**
+     * Gets the executor running the file transfers.
+     *
+     * @return The transfer executor.
+     */
+    public TransferExecutor getTransferExecutor() {
+        return transferExecutor;
+    }
+
+    /**
+     * Gets the timer shared by all the scheduled tasks in the application.
+     *
+     * @return The timer.
+     */
+    public HashedWheelTimer getTimer() {
+        return timer;
+    }
+
     /**
      * Gets the list of unidentified users.
      *
@@ -689,6 +930,15 @@ public class Controller implements NetworkConnectionListener {
         return wList;
     }
 
+    /**
+     * Moves the timeout of the user, after the last idle time of the user was updated.
+     *
+     * @param user The user to reschedule the timeout for.
+     */
+    public void rescheduleTimeout(final User user) {
+        idleTimer.rescheduleTimeout(user);
+    }
+
     /**
      * If any users have timed out because of missed idle messages, then
      * send a message over the network to ask all clients to identify
@@ -707,6 +957,26 @@ public class Controller implements NetworkConnectionListener {
         networkMessages.sendClient();
     }
 
+    /**
+     * Asks the user for a snapshot of all the users it knows about.
+     *
+     * @param user The user to ask.
+     * @return If the request was sent.
+     */
+    public boolean sendRosterRequest(final User user) {
+        return networkMessages.sendRosterRequest(user);
+    }
+
+    /**
+     * Sends a snapshot of all the users in the user list to the user who asked for it.
+     *
+     * @param user The user who asked for the snapshot.
+     * @return If the snapshot was sent.
+     */
+    public boolean sendRoster(final User user) {
+        return networkMessages.sendRoster(user, getUserList().getSnapshot());
+    }
+
     /**
      * Sends a private chat message over the network, to the specified user.
      *
@@ -738,6 +1008,7 @@ public class Controller implements NetworkConnectionListener {
         } else if (settings.isNoPrivateChat()) {
             throw new CommandException(coreMessages.getMessage("core.privateChatMessage.error.privateChatDisabled"));
         } else {
+            tList.getTransferScheduler().chatTrafficSent();
             networkMessages.sendPrivateMessage(privmsg, user);
         }
     }
@@ -824,6 +1095,7 @@ public class Controller implements NetworkConnectionListener {
             networkMessages.sendGetTopicMessage();
             networkMessages.sendExposeMessage();
             networkMessages.sendIdleMessage();
+            historyRequester.requestHistory();
         }
     }
 
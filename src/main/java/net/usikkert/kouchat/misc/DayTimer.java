@@ -23,12 +23,14 @@
 package net.usikkert.kouchat.misc;
 
 import java.util.Calendar;
-import java.util.Date;
-import java.util.Timer;
-import java.util.TimerTask;
 
 import net.usikkert.kouchat.ui.UserInterface;
+import net.usikkert.kouchat.util.HashedWheelTimer;
+import net.usikkert.kouchat.util.TimerHandle;
 import net.usikkert.kouchat.util.Tools;
+import net.usikkert.kouchat.util.Validate;
+
+import org.jetbrains.annotations.Nullable;
 
 /**
  * Notifies the user interface when the day changes.
@@ -36,7 +38,7 @@ import net.usikkert.kouchat.util.Tools;
  *
  * @author Christian Ihle
  */
-public class DayTimer extends TimerTask {
+public class DayTimer implements Runnable {
 
     /**
      * Which hour of the day the timer should notify about
@@ -51,7 +53,11 @@ public class DayTimer extends TimerTask {
     private static final long TIMER_INTERVAL = 1000 * 60 * 60;
 
     /** The actual timer. */
-    private final Timer timer;
+    private final HashedWheelTimer timer;
+
+    /** The scheduled day check, while the timer is running. */
+    @Nullable
+    private TimerHandle dayCheck;
 
     /** The controller for showing messages in the ui. */
     private final MessageController msgController;
@@ -60,16 +66,20 @@ public class DayTimer extends TimerTask {
     private boolean done;
 
     /**
-     * Constructor. Starts the timer.
+     * Constructor.
      *
      * @param ui The user interface.
+     * @param timer The timer to schedule the day checks with.
      */
-    public DayTimer(final UserInterface ui) {
+    public DayTimer(final UserInterface ui, final HashedWheelTimer timer) {
+        Validate.notNull(ui, "User interface can not be null");
+        Validate.notNull(timer, "Timer can not be null");
+
         msgController = ui.getMessageController();
-        timer = new Timer("DayTimer");
+        this.timer = timer;
     }
 
-    public void startTimer() {
+    public synchronized void startTimer() {
         final Calendar cal = Calendar.getInstance();
 
         // Starts the timer at the next hour
@@ -77,14 +87,18 @@ public class DayTimer extends TimerTask {
         cal.set(Calendar.MINUTE, 0);
         cal.set(Calendar.SECOND, 0);
 
-        timer.scheduleAtFixedRate(this, new Date(cal.getTimeInMillis()), TIMER_INTERVAL);
+        final long delay = cal.getTimeInMillis() - System.currentTimeMillis();
+        dayCheck = timer.scheduleAtFixedRate("DayTimer", this, delay, TIMER_INTERVAL);
     }
 
     /**
      * Stops the timer. After this, no more day checks are made.
      */
-    public void stopTimer() {
-        timer.cancel();
+    public synchronized void stopTimer() {
+        if (dayCheck != null) {
+            dayCheck.cancel();
+            dayCheck = null;
+        }
     }
 
     /**
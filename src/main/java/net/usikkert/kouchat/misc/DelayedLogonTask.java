@@ -22,8 +22,6 @@
 
 package net.usikkert.kouchat.misc;
 
-import java.util.TimerTask;
-
 import net.usikkert.kouchat.net.NetworkService;
 import net.usikkert.kouchat.util.Validate;
 
@@ -37,7 +35,7 @@ import net.usikkert.kouchat.util.Validate;
  *
  * @author Christian Ihle
  */
-public class DelayedLogonTask extends TimerTask {
+public class DelayedLogonTask implements Runnable {
 
     private final NetworkService networkService;
     private final ChatState chatState;
@@ -0,0 +1,326 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.misc;
+
+import java.util.List;
+import java.util.Random;
+
+import net.usikkert.kouchat.event.UserListListener;
+import net.usikkert.kouchat.settings.Settings;
+import net.usikkert.kouchat.ui.UserInterface;
+import net.usikkert.kouchat.util.HashedWheelTimer;
+import net.usikkert.kouchat.util.TimerHandle;
+import net.usikkert.kouchat.util.Validate;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * This timer is responsible for sending a special "idle"
+ * message every IDLE_TIME milliseconds to inform other clients
+ * that this client is still online. It will also check if
+ * other clients have stopped sending these messages,
+ * and if that is the case, remove them and show a message
+ * in the user interface.
+ *
+ * <p>The timeouts are tracked in a {@link UserTimeoutQueue}, ordered by deadline.
+ * Users get a deadline when they are added to the user list, and the deadline is moved
+ * with {@link #rescheduleTimeout(User)} every time an idle message arrives from the user.
+ * Checking for timeouts only touches the users that actually expired.</p>
+ *
+ * <p>The interval between idle messages grows with the number of users, to keep the total
+ * number of idle messages on the network about the same in large groups. The interval is
+ * announced in the {@link net.usikkert.kouchat.net.NetworkMessageType#CLIENT} message, and the timeout
+ * of each user is scaled to match the interval the user announced. The interval is kept short
+ * enough for the fixed timeout of older clients as long as any of them are in the chat.
+ * Each interval gets some random jitter, so the clients don't send their idle messages at the same time.</p>
+ *
+ * @author Christian Ihle
+ */
+public class IdleTimer implements Runnable {
+
+    /**
+     * Number of milliseconds to wait before the next
+     * idle message will be sent, in a small chat.
+     */
+    static final int IDLE_TIME = 15000;
+
+    /** The longest interval between idle messages, in a large chat. */
+    static final int MAX_IDLE_TIME = 60000;
+
+    /** The longest interval between idle messages, when there are clients in the chat with a fixed timeout. */
+    static final int LEGACY_MAX_IDLE_TIME = 30000;
+
+    /** The interval between idle messages grows by IDLE_TIME for every this number of users. */
+    static final int USERS_PER_IDLE_TIME = 10;
+
+    /** The random jitter added to each interval, in percent of the interval. */
+    static final int JITTER_PERCENT = 10;
+
+    /**
+     * If an idle message has not been received from another
+     * client in this number of milliseconds, then it's not
+     * on the network anymore and must be removed.
+     *
+     * <p>This is the timeout for clients sending idle messages every IDLE_TIME milliseconds.
+     * The timeout is scaled for clients announcing a longer interval.</p>
+     */
+    static final int TIMEOUT = 120000;
+
+    private final Controller controller;
+    private final UserList userList;
+    private final User me;
+    private final MessageController msgController;
+    private final HashedWheelTimer timer;
+    private final UserTimeoutQueue timeoutQueue;
+    private final Random random;
+
+    /** The scheduled idle task, while the timer is running. */
+    @Nullable
+    private TimerHandle idleTask;
+
+    /** If the timer is running. */
+    private boolean running;
+
+    /**
+     * Constructor. Makes sure the timer is ready to start.
+     *
+     * @param controller The controller.
+     * @param ui The user interface.
+     * @param settings The settings to use.
+     * @param timer The timer to schedule the idle task with.
+     */
+    public IdleTimer(final Controller controller, final UserInterface ui, final Settings settings,
+                     final HashedWheelTimer timer) {
+        Validate.notNull(controller, "Controller can not be null");
+        Validate.notNull(ui, "User interface can not be null");
+        Validate.notNull(settings, "Settings can not be null");
+        Validate.notNull(timer, "Timer can not be null");
+
+        this.controller = controller;
+        this.timer = timer;
+
+        userList = controller.getUserList();
+        me = settings.getMe();
+        msgController = ui.getMessageController();
+        timeoutQueue = new UserTimeoutQueue();
+        random = new Random();
+
+        userList.addUserListListener(new TimeoutScheduler());
+    }
+
+    /**
+     * Starts sending idle messages, and checking for timeouts, every IDLE_TIME milliseconds
+     * or more, depending on the number of users.
+     */
+    public synchronized void start() {
+        if (!running) {
+            running = true;
+
+            // In case of any error messages during startup
+            me.setLastIdle(System.currentTimeMillis());
+            me.setIdleInterval(IDLE_TIME);
+            idleTask = timer.schedule("IdleTimer", this, 0);
+        }
+    }
+
+    /**
+     * This is where most of the action is.
+     *
+     * <li>Sends idle messages
+     * <li>Removes timed out clients
+     */
+    @Override
+    public void run() {
+        controller.sendIdleMessage();
+        boolean timeout = false;
+
+        final long now = System.currentTimeMillis();
+
+        for (final User user : timeoutQueue.pollExpired(now)) {
+            // The idle time or interval may have been updated without rescheduling, like when a user exposes itself
+            if (user.getLastIdle() + getTimeout(user) > now) {
+                timeoutQueue.schedule(user, user.getLastIdle() + getTimeout(user));
+            }
+
+            else {
+                userTimedOut(user);
+                timeout = true;
+            }
+        }
+
+        if (timeout) {
+            controller.updateAfterTimeout();
+        }
+
+        scheduleNext();
+    }
+
+    /**
+     * Calculates the interval to use for the next idle message, and schedules it with some jitter.
+     * If the interval changed, the new interval is announced to the other clients first.
+     */
+    private void scheduleNext() {
+        final int idleTime = calculateIdleTime();
+
+        if (idleTime != me.getIdleInterval()) {
+            me.setIdleInterval(idleTime);
+
+            if (controller.isConnected()) {
+                controller.sendClientInfo();
+            }
+        }
+
+        synchronized (this) {
+            if (running) {
+                idleTask = timer.schedule("IdleTimer", this, addJitter(idleTime));
+            }
+        }
+    }
+
+    /**
+     * Calculates the interval between idle messages, based on the number of users in the chat.
+     * The interval grows by IDLE_TIME for every USERS_PER_IDLE_TIME users, up to MAX_IDLE_TIME,
+     * or LEGACY_MAX_IDLE_TIME if any of the users have not announced an idle interval.
+     *
+     * @return The number of milliseconds between idle messages.
+     */
+    int calculateIdleTime() {
+        int maxIdleTime = MAX_IDLE_TIME;
+        int users = 0;
+
+        for (final User user : userList.getSnapshot()) {
+            users++;
+
+            if (!user.isMe() && user.getIdleInterval() <= 0) {
+                maxIdleTime = LEGACY_MAX_IDLE_TIME;
+            }
+        }
+
+        final int steps = Math.max(1, users / USERS_PER_IDLE_TIME);
+
+        return Math.min(maxIdleTime, steps * IDLE_TIME);
+    }
+
+    /**
+     * Adds a random jitter of up to JITTER_PERCENT of the interval, in either direction.
+     *
+     * @param idleTime The interval to add jitter to.
+     * @return The interval with jitter.
+     */
+    long addJitter(final int idleTime) {
+        final int jitter = idleTime * JITTER_PERCENT / 100;
+
+        return idleTime - jitter + random.nextInt(jitter * 2 + 1);
+    }
+
+    /**
+     * Gets the number of milliseconds without idle messages before the user times out.
+     * The timeout is scaled with the idle interval announced by the user.
+     *
+     * @param user The user to get the timeout for.
+     * @return The timeout of the user.
+     */
+    long getTimeout(final User user) {
+        final int idleInterval = user.getIdleInterval();
+
+        if (idleInterval <= IDLE_TIME) {
+            return TIMEOUT;
+        }
+
+        return (long) TIMEOUT * idleInterval / IDLE_TIME;
+    }
+
+    /**
+     * Moves the timeout deadline of the user to the timeout after the last idle time of the user.
+     * Should be used every time the last idle time is updated.
+     *
+     * @param user The user to reschedule the timeout for.
+     */
+    public void rescheduleTimeout(final User user) {
+        Validate.notNull(user, "User can not be null");
+
+        if (!user.isMe()) {
+            timeoutQueue.schedule(user, user.getLastIdle() + getTimeout(user));
+        }
+    }
+
+    /**
+     * When a user times out, all current file transfers must
+     * be canceled, and messages must be shown in the normal
+     * chat window, and the private chat window.
+     *
+     * @param user The user which timed out.
+     */
+    private void userTimedOut(final User user) {
+        final String timeOutMessage = user.getNick() + " timed out";
+
+        controller.removeUser(user, timeOutMessage);
+        msgController.showSystemMessage(timeOutMessage);
+    }
+
+    /**
+     * Stops the timer in a controlled manner.
+     */
+    public synchronized void stop() {
+        running = false;
+
+        if (idleTask != null) {
+            idleTask.cancel();
+            idleTask = null;
+        }
+    }
+
+    /**
+     * Schedules the timeout of users added to the user list, and removes the timeout of users
+     * removed from the user list.
+     */
+    private class TimeoutScheduler implements UserListListener {
+
+        @Override
+        public void userAdded(final int pos, final User user) {
+            rescheduleTimeout(user);
+        }
+
+        @Override
+        public void usersAdded(final List<User> users) {
+            for (final User user : users) {
+                rescheduleTimeout(user);
+            }
+        }
+
+        @Override
+        public void userChanged(final int pos, final User user) {
+
+        }
+
+        @Override
+        public void userMoved(final int oldPos, final int newPos, final User user) {
+
+        }
+
+        @Override
+        public void userRemoved(final int pos, final User user) {
+            timeoutQueue.remove(user);
+        }
+    }
+}
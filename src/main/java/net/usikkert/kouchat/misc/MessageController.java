@@ -81,6 +81,22 @@ public class MessageController {
         cLog.append(msg);
     }
 
+    /**
+     * This is a message from another user, that was missed and sent again later.
+     * It looks like {@link #showUserMessage(String, String, int)}, but with the time
+     * the message was originally written.
+     *
+     * @param time The time the message was written.
+     * @param user The user who wrote the message.
+     * @param message The message the user wrote.
+     * @param color The color the user chose for the message.
+     */
+    public void showHistoryMessage(final long time, final String user, final String message, final int color) {
+        final String msg = Tools.getTime(time) + " <" + user + ">: " + message;
+        chat.appendToChat(msg, color);
+        cLog.append(msg);
+    }
+
     /**
      * This is an information message from the system. The result
      * will look like this:<br />
@@ -19,12 +19,16 @@
  *   License along with KouChat.                                           *
  *   If not, see <http://www.gnu.org/licenses/>.                           *
  ***************************************************************************/
-
 package net.usikkert.kouchat.misc;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import net.usikkert.kouchat.event.UserListListener;
 import net.usikkert.kouchat.util.Validate;
@@ -37,26 +41,53 @@ import org.jetbrains.annotations.Nullable;
  * <p>The users in the list are sorted by nick name,
  * as specified in {@link User#compareTo(User)}.</p>
  *
+ * <p>The list is kept sorted at all times. Users are inserted at their sorted position
+ * using binary search, after any users with an equal nick name, so the order stays the same
+ * as a stable sort would give.</p>
+ *
+ * <p>The list is copy-on-write. Every change creates a new immutable array of users, with a new version,
+ * and publishes it through a single atomic reference. Readers never lock, and can iterate a consistent
+ * snapshot from {@link #getSnapshot()} while other threads change the list. Changes are serialized,
+ * and listeners are notified in the same order as the changes were made.</p>
+ *
+ * <p>The listeners are notified after the lock for changes is released, so slow listeners or listeners
+ * with locks of their own don't block other changes. The events are queued in the order of the changes,
+ * with the positions from the time of the change, and delivered by one thread at a time. A change made
+ * while another thread is notifying the listeners is delivered by that thread, so the listeners may not
+ * have been notified yet when the method making the change returns.</p>
+ *
  * @author Christian Ihle
  */
 public class SortedUserList implements UserList {
 
-    /** The list of users in the chat. */
-    private final List<User> userList;
+    /** The current snapshot of the users in the chat. */
+    private final AtomicReference<Snapshot> snapshot;
 
     /** The list of listeners of changes to the user list. */
     private final List<UserListListener> listeners;
 
+    /** Lock to serialize changes to the list. */
+    private final Object writeLock;
+
+    /** Events waiting to be delivered to the listeners, in the order of the changes. */
+    private final Queue<Runnable> events;
+
+    /** If a thread is delivering events to the listeners. */
+    private final AtomicBoolean firing;
+
     /**
      * Constructor.
      */
     public SortedUserList() {
-        userList = new ArrayList<>();
-        listeners = new ArrayList<>();
+        snapshot = new AtomicReference<>(new Snapshot(new User[0], 0));
+        listeners = new CopyOnWriteArrayList<>();
+        writeLock = new Object();
+        events = new ConcurrentLinkedQueue<>();
+        firing = new AtomicBoolean();
     }
 
     /**
-     * Adds the user, and then sorts the list.
+     * Adds the user at its sorted position.
      *
      * {@inheritDoc}
      */
@@ -64,14 +95,62 @@ public class SortedUserList implements UserList {
     public boolean add(final User user) {
         Validate.notNull(user, "User can not be null");
 
-        final boolean success = userList.add(user);
+        synchronized (writeLock) {
+            final Snapshot current = snapshot.get();
+            final int pos = findInsertPosition(current.users, user);
+
+            publish(current, insert(current.users, pos, user));
+            queueEvent(new Runnable() {
+                @Override
+                public void run() {
+                    fireUserAdded(pos, user);
+                }
+            });
+        }
+
+        fireQueuedEvents();
+
+        return true;
+    }
+
+    /**
+     * Adds the users at their sorted positions. The new users are sorted first, and then merged
+     * with the users already in the list, so the users end up in the same order as if they had been
+     * added one at a time.
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean addAll(final List<User> users) {
+        Validate.notNull(users, "Users can not be null");
+
+        if (users.isEmpty()) {
+            return false;
+        }
+
+        final User[] added = users.toArray(new User[users.size()]);
+
+        for (final User user : added) {
+            Validate.notNull(user, "User can not be null");
+        }
+
+        Arrays.sort(added);
+
+        synchronized (writeLock) {
+            final Snapshot current = snapshot.get();
 
-        if (success) {
-            Collections.sort(userList);
-            fireUserAdded(userList.indexOf(user), user);
+            publish(current, merge(current.users, added));
+            queueEvent(new Runnable() {
+                @Override
+                public void run() {
+                    fireUsersAdded(Collections.unmodifiableList(Arrays.asList(added)));
+                }
+            });
         }
 
-        return success;
+        fireQueuedEvents();
+
+        return true;
     }
 
     /**
@@ -80,8 +159,10 @@ public class SortedUserList implements UserList {
     @Nullable
     @Override
     public User get(final int pos) {
-        if (pos < userList.size()) {
-            return userList.get(pos);
+        final User[] users = snapshot.get().users;
+
+        if (pos < users.length) {
+            return users[pos];
         } else {
             return null;
         }
@@ -94,7 +175,7 @@ public class SortedUserList implements UserList {
     public int indexOf(final User user) {
         Validate.notNull(user, "User can not be null");
 
-        return userList.indexOf(user);
+        return indexOf(snapshot.get().users, user);
     }
 
     /**
@@ -104,18 +185,34 @@ public class SortedUserList implements UserList {
     public boolean remove(final User user) {
         Validate.notNull(user, "User can not be null");
 
-        final int pos = userList.indexOf(user);
-        final boolean success = userList.remove(user);
-
-        if (success) {
-            fireUserRemoved(pos, user);
+        synchronized (writeLock) {
+            final Snapshot current = snapshot.get();
+            final int pos = indexOf(current.users, user);
+
+            if (pos == -1) {
+                return false;
+            }
+
+            publish(current, delete(current.users, pos));
+            queueEvent(new Runnable() {
+                @Override
+                public void run() {
+                    fireUserRemoved(pos, user);
+                }
+            });
         }
 
-        return success;
+        fireQueuedEvents();
+
+        return true;
     }
 
     /**
-     * Sets the user, and then sorts the list.
+     * Sets the user, and moves it to its sorted position if necessary.
+     *
+     * <p>If the user stays at the same position the listeners are notified with
+     * {@link UserListListener#userChanged(int, User)}. If the user had to be moved,
+     * they are notified with {@link UserListListener#userMoved(int, int, User)}.</p>
      *
      * {@inheritDoc}
      */
@@ -123,19 +220,104 @@ public class SortedUserList implements UserList {
     public User set(final int pos, final User user) {
         Validate.notNull(user, "User can not be null");
 
-        final User oldUser = userList.set(pos, user);
-        Collections.sort(userList);
-        fireUserChanged(userList.indexOf(user), user);
+        final User oldUser;
+
+        synchronized (writeLock) {
+            final Snapshot current = snapshot.get();
+
+            if (pos < 0 || pos >= current.users.length) {
+                throw new IndexOutOfBoundsException("Index: " + pos + ", Size: " + current.users.length);
+            }
+
+            oldUser = current.users[pos];
+            replace(current, pos, user);
+        }
+
+        fireQueuedEvents();
 
         return oldUser;
     }
 
+    /**
+     * Sets the user in the position of the equal user already in the list, and moves it to its sorted
+     * position if necessary. Finding the position and setting the user is done as a single operation,
+     * so other threads can not change the position in between.
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean update(final User user) {
+        Validate.notNull(user, "User can not be null");
+
+        synchronized (writeLock) {
+            final Snapshot current = snapshot.get();
+            final int pos = indexOf(current.users, user);
+
+            if (pos == -1) {
+                return false;
+            }
+
+            replace(current, pos, user);
+        }
+
+        fireQueuedEvents();
+
+        return true;
+    }
+
+    /**
+     * Finds the equal user already in the list, applies the change to it, and moves it to its sorted
+     * position if necessary. The user is found before the change is applied, and all of it is done
+     * as a single operation, so other changes always see a sorted list.
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean update(final User user, final Change change) {
+        Validate.notNull(user, "User can not be null");
+        Validate.notNull(change, "Change can not be null");
+
+        synchronized (writeLock) {
+            final Snapshot current = snapshot.get();
+            final int pos = indexOf(current.users, user);
+
+            if (pos == -1) {
+                return false;
+            }
+
+            final User userInList = current.users[pos];
+            change.apply(userInList);
+            replace(current, pos, userInList);
+        }
+
+        fireQueuedEvents();
+
+        return true;
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public int size() {
-        return userList.size();
+        return snapshot.get().users.length;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<User> getSnapshot() {
+        return Collections.unmodifiableList(Arrays.asList(snapshot.get().users));
+    }
+
+    /**
+     * Returns the version of the current snapshot. The version is increased by one for every change to the list.
+     *
+     * @return The current version.
+     */
+    public long getVersion() {
+        return snapshot.get().version;
     }
 
     /**
@@ -167,6 +349,211 @@ public class SortedUserList implements UserList {
         return Collections.unmodifiableList(listeners);
     }
 
+    /**
+     * Publishes a new array of users as the next version of the snapshot.
+     *
+     * @param current The snapshot the new array is based on.
+     * @param users The new array of users. Must not be changed after this.
+     */
+    private void publish(final Snapshot current, final User[] users) {
+        snapshot.set(new Snapshot(users, current.version + 1));
+    }
+
+    /**
+     * Queues an event for the listeners. Must be called with the lock for changes held,
+     * right after the change, so the events are queued in the order of the changes.
+     *
+     * @param event The event that notifies the listeners.
+     */
+    private void queueEvent(final Runnable event) {
+        events.add(event);
+    }
+
+    /**
+     * Delivers the queued events to the listeners, unless another thread is already doing it.
+     * Must be called without the lock for changes held.
+     *
+     * <p>The queue is checked again after giving up the delivery, so an event queued just as
+     * another thread finished delivering is not left in the queue.</p>
+     */
+    private void fireQueuedEvents() {
+        while (!events.isEmpty() && firing.compareAndSet(false, true)) {
+            try {
+                Runnable event = events.poll();
+
+                while (event != null) {
+                    event.run();
+                    event = events.poll();
+                }
+            }
+
+            finally {
+                firing.set(false);
+            }
+        }
+    }
+
+    /**
+     * Replaces the user at the position, and moves it to keep the list sorted. Queues an event for
+     * {@link UserListListener#userChanged(int, User)} if the user stays at the same position,
+     * or {@link UserListListener#userMoved(int, int, User)} if the user had to be moved.
+     *
+     * @param current The current snapshot.
+     * @param pos The position of the user to replace.
+     * @param user The user to put in the position.
+     */
+    private void replace(final Snapshot current, final int pos, final User user) {
+        final User[] replaced = current.users.clone();
+        replaced[pos] = user;
+
+        final int newPos;
+
+        if (isSortedAt(replaced, pos)) {
+            newPos = pos;
+            publish(current, replaced);
+        }
+
+        else {
+            final User[] withoutUser = delete(replaced, pos);
+            newPos = findInsertPosition(withoutUser, user);
+            publish(current, insert(withoutUser, newPos, user));
+        }
+
+        queueEvent(new Runnable() {
+            @Override
+            public void run() {
+                if (newPos == pos) {
+                    fireUserChanged(pos, user);
+                } else {
+                    fireUserMoved(pos, newPos, user);
+                }
+            }
+        });
+    }
+
+    /**
+     * Creates a copy of the array, with the user inserted at the position.
+     */
+    private static User[] insert(final User[] users, final int pos, final User user) {
+        final User[] copy = new User[users.length + 1];
+
+        System.arraycopy(users, 0, copy, 0, pos);
+        copy[pos] = user;
+        System.arraycopy(users, pos, copy, pos + 1, users.length - pos);
+
+        return copy;
+    }
+
+    /**
+     * Creates a new sorted array with the users from both sorted arrays. Users with an equal nick name
+     * are kept in the order they had, with the users from the first array first.
+     */
+    private static User[] merge(final User[] users, final User[] added) {
+        final User[] merged = new User[users.length + added.length];
+        int i = 0;
+        int j = 0;
+
+        for (int pos = 0; pos < merged.length; pos++) {
+            if (j >= added.length || (i < users.length && users[i].compareTo(added[j]) <= 0)) {
+                merged[pos] = users[i++];
+            } else {
+                merged[pos] = added[j++];
+            }
+        }
+
+        return merged;
+    }
+
+    /**
+     * Creates a copy of the array, without the user at the position.
+     */
+    private static User[] delete(final User[] users, final int pos) {
+        final User[] copy = new User[users.length - 1];
+
+        System.arraycopy(users, 0, copy, 0, pos);
+        System.arraycopy(users, pos + 1, copy, pos, users.length - pos - 1);
+
+        return copy;
+    }
+
+    /**
+     * Finds the position of the user in the array.
+     *
+     * <p>The range of users with an equal nick name is found using binary search first.
+     * A different instance with another nick name may have been used, or a reader may search
+     * a snapshot while a user in it is being changed, so the array is searched from start to end
+     * if the user is not found in the range.</p>
+     *
+     * @param users The sorted array to search.
+     * @param user The user to find.
+     * @return The position of the user, or <code>-1</code> if not found.
+     */
+    private static int indexOf(final User[] users, final User user) {
+        final int end = findInsertPosition(users, user);
+
+        for (int i = end - 1; i >= 0; i--) {
+            final User current = users[i];
+
+            if (current.compareTo(user) != 0) {
+                break;
+            }
+
+            if (current.equals(user)) {
+                return i;
+            }
+        }
+
+        for (int i = 0; i < users.length; i++) {
+            if (users[i].equals(user)) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Finds the position to insert the user to keep the array sorted. That is the position
+     * after the last user with a nick name that is equal to or sorted before the nick name of the user.
+     *
+     * @param users The sorted array to search.
+     * @param user The user to find the insert position for.
+     * @return The position to insert the user.
+     */
+    private static int findInsertPosition(final User[] users, final User user) {
+        int low = 0;
+        int high = users.length;
+
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+
+            if (users[mid].compareTo(user) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * Checks if the user at the position is sorted correctly compared to its neighbours.
+     *
+     * @param users The array to check.
+     * @param pos The position to check.
+     * @return If the user is sorted correctly.
+     */
+    private static boolean isSortedAt(final User[] users, final int pos) {
+        final User user = users[pos];
+
+        if (pos > 0 && users[pos - 1].compareTo(user) > 0) {
+            return false;
+        }
+
+        return pos >= users.length - 1 || user.compareTo(users[pos + 1]) <= 0;
+    }
+
     /**
      * Notifies the listeners that a user was added.
      *
@@ -178,6 +565,17 @@ public class SortedUserList implements UserList {
         }
     }
 
+    /**
+     * Notifies the listeners that several users were added.
+     *
+     * @param users The users that were added.
+     */
+    private void fireUsersAdded(final List<User> users) {
+        for (final UserListListener listener : listeners) {
+            listener.usersAdded(users);
+        }
+    }
+
     /**
      * Notifies the listeners that a user was changed.
      *
@@ -189,6 +587,18 @@ public class SortedUserList implements UserList {
         }
     }
 
+    /**
+     * Notifies the listeners that a user was changed and moved to a new position.
+     *
+     * @param oldPos The old position of the changed user.
+     * @param newPos The new position of the changed user.
+     */
+    private void fireUserMoved(final int oldPos, final int newPos, final User user) {
+        for (final UserListListener listener : listeners) {
+            listener.userMoved(oldPos, newPos, user);
+        }
+    }
+
     /**
      * Notifies the listeners that a user was removed.
      *
@@ -199,4 +609,18 @@ public class SortedUserList implements UserList {
             listener.userRemoved(pos, user);
         }
     }
+
+    /**
+     * An immutable version of the users in the list.
+     */
+    private static final class Snapshot {
+
+        private final User[] users;
+        private final long version;
+
+        Snapshot(final User[] users, final long version) {
+            this.users = users;
+            this.version = version;
+        }
+    }
 }
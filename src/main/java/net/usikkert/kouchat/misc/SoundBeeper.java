@@ -36,7 +36,9 @@ import javax.sound.sampled.LineUnavailableException;
 import javax.sound.sampled.UnsupportedAudioFileException;
 
 import net.usikkert.kouchat.settings.Settings;
+import net.usikkert.kouchat.util.HashedWheelTimer;
 import net.usikkert.kouchat.util.ResourceLoader;
+import net.usikkert.kouchat.util.TimerHandle;
 import net.usikkert.kouchat.util.Validate;
 
 import org.jetbrains.annotations.Nullable;
@@ -65,13 +67,12 @@ public class SoundBeeper {
     private final Settings settings;
     private final ErrorHandler errorHandler;
     private final ResourceLoader resourceLoader;
+    private final HashedWheelTimer timer;
 
     @Nullable
     private Clip audioClip;
     @Nullable
-    private Thread closeTimer;
-
-    private long closeTime;
+    private TimerHandle closeTimer;
 
     /**
      * Default constructor.
@@ -79,15 +80,19 @@ public class SoundBeeper {
      * @param settings The settings to use.
      * @param resourceLoader Resource loader for the audio file.
      * @param errorHandler The error handler to use to show messages when sound isn't working.
+     * @param timer The timer to schedule the release of the sound resources with.
      */
-    public SoundBeeper(final Settings settings, final ResourceLoader resourceLoader, final ErrorHandler errorHandler) {
+    public SoundBeeper(final Settings settings, final ResourceLoader resourceLoader, final ErrorHandler errorHandler,
+                       final HashedWheelTimer timer) {
         Validate.notNull(settings, "Settings can not be null");
         Validate.notNull(resourceLoader, "Resource loader can not be null");
         Validate.notNull(errorHandler, "Error handler can not be null");
+        Validate.notNull(timer, "Timer can not be null");
 
         this.settings = settings;
         this.errorHandler = errorHandler;
         this.resourceLoader = resourceLoader;
+        this.timer = timer;
     }
 
     /**
@@ -106,12 +111,12 @@ public class SoundBeeper {
 
                 if (audioClip != null) {
                     audioClip.start();
-                    closeTime = System.currentTimeMillis() + WAIT_PERIOD;
 
-                    if (closeTimer == null) {
-                        closeTimer = new Thread(new CloseTimer(), "SoundBeeperCloseTimer");
-                        closeTimer.start();
+                    if (closeTimer != null) {
+                        closeTimer.cancel();
                     }
+
+                    closeTimer = timer.schedule("SoundBeeperCloseTimer", new CloseTimer(), WAIT_PERIOD);
                 }
 
                 else {
@@ -225,26 +230,27 @@ public class SoundBeeper {
     }
 
     /**
-     * A simple thread used for freeing sound resources when finished.
+     * Closes the audio file when the close timer has expired. If a new beep rescheduled
+     * the close timer while this was waiting for the lock, then the new timer is left to do it.
+     */
+    private synchronized void closeTimerExpired() {
+        if (closeTimer != null && closeTimer.isExpired()) {
+            close();
+            closeTimer = null;
+        }
+    }
+
+    /**
+     * A simple task used for freeing sound resources when finished.
      *
      * @author Christian Ihle
      */
     private class CloseTimer implements Runnable {
-        /** The method that runs when the thread starts. */
+
+        /** The method that runs when the timer expires. */
         @Override
         public void run() {
-            while (System.currentTimeMillis() < closeTime) {
-                try {
-                    Thread.sleep(1000);
-                }
-
-                catch (final InterruptedException e) {
-                    LOG.log(Level.WARNING, e.toString());
-                }
-            }
-
-            close();
-            closeTimer = null;
+            closeTimerExpired();
         }
     }
 }
@@ -22,6 +22,12 @@
 
 package net.usikkert.kouchat.misc;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import net.usikkert.kouchat.net.ClientCapability;
 import net.usikkert.kouchat.ui.PrivateChatWindow;
 
 import org.jetbrains.annotations.Nullable;
@@ -61,12 +67,21 @@ public class User implements Comparable<User> {
     /** The port to use when connecting to this user directly using tcp. */
     private int tcpChatPort;
 
+    /** The optional features of the network protocol supported by the user's client. See {@link ClientCapability}. */
+    private Set<String> capabilities;
+
     /** Whether a tcp connection is enabled for this user. */
     private boolean tcpEnabled;
 
     /** The time when the last idle message came from this user. */
     private long lastIdle;
 
+    /** The announced number of milliseconds between idle messages from this user, or 0 if unknown. */
+    private int idleInterval;
+
+    /** The version of the presence state of this user. Increased by the user's client on every change. */
+    private int presenceVersion;
+
     /** The time when this user logged on the chat. */
     private long logonTime;
 
@@ -118,6 +133,7 @@ public class User implements Comparable<User> {
         newMsg = false;
         privateChatPort = 0;
         tcpChatPort = 0;
+        capabilities = Collections.emptySet();
         privchat = null;
         online = true;
         newPrivMsg = false;
@@ -202,6 +218,42 @@ public class User implements Comparable<User> {
         this.lastIdle = lastIdle;
     }
 
+    /**
+     * Gets the announced number of milliseconds between idle messages from this user.
+     *
+     * @return The idle interval, or 0 if the user has not announced one.
+     */
+    public int getIdleInterval() {
+        return idleInterval;
+    }
+
+    /**
+     * Sets the announced number of milliseconds between idle messages from this user.
+     *
+     * @param idleInterval The idle interval.
+     */
+    public void setIdleInterval(final int idleInterval) {
+        this.idleInterval = idleInterval;
+    }
+
+    /**
+     * Gets the version of the presence state of this user, as last seen by this client.
+     *
+     * @return The presence version, or 0 if unknown.
+     */
+    public int getPresenceVersion() {
+        return presenceVersion;
+    }
+
+    /**
+     * Sets the version of the presence state of this user.
+     *
+     * @param presenceVersion The presence version.
+     */
+    public void setPresenceVersion(final int presenceVersion) {
+        this.presenceVersion = presenceVersion;
+    }
+
     /**
      * Checks if the user is away.
      *
@@ -401,6 +453,34 @@ public class User implements Comparable<User> {
         this.tcpChatPort = tcpChatPort;
     }
 
+    /**
+     * Gets the optional features of the network protocol supported by the user's client.
+     *
+     * @return The capabilities of the user's client.
+     */
+    public Set<String> getCapabilities() {
+        return capabilities;
+    }
+
+    /**
+     * Sets the optional features of the network protocol supported by the user's client.
+     *
+     * @param capabilities The capabilities of the user's client.
+     */
+    public void setCapabilities(final Collection<String> capabilities) {
+        this.capabilities = Collections.unmodifiableSet(new HashSet<>(capabilities));
+    }
+
+    /**
+     * Checks if the user's client supports an optional feature of the network protocol.
+     *
+     * @param capability The capability to check, from {@link ClientCapability}.
+     * @return If the capability is supported.
+     */
+    public boolean hasCapability(final String capability) {
+        return capabilities.contains(capability);
+    }
+
     /**
      * Gets whether a tcp connection is enabled for this user.
      *
@@ -22,6 +22,8 @@
 
 package net.usikkert.kouchat.misc;
 
+import java.util.List;
+
 import net.usikkert.kouchat.event.UserListListener;
 
 /**
@@ -48,6 +50,15 @@ public interface UserList {
      */
     boolean add(User user);
 
+    /**
+     * Adds several users to the list as a single change,
+     * and notifies once with {@link UserListListener#usersAdded(List)}.
+     *
+     * @param users The users to add.
+     * @return If any users were added to the list.
+     */
+    boolean addAll(List<User> users);
+
     /**
      * Gets the user at the specified position.
      *
@@ -83,6 +94,32 @@ public interface UserList {
      */
     User set(int pos, User user);
 
+    /**
+     * Sets the specified user in the position of the equal user already in the list, and notifies with
+     * {@link UserListListener#userChanged(int, User)} or {@link UserListListener#userMoved(int, int, User)}.
+     *
+     * <p>Unlike {@link #indexOf(User)} followed by {@link #set(int, User)}, the position can not
+     * be changed by other threads in between.</p>
+     *
+     * @param user The user to update.
+     * @return If the user was found in the list.
+     */
+    boolean update(User user);
+
+    /**
+     * Changes the equal user already in the list, and moves it to its sorted position if necessary.
+     * Notifies with {@link UserListListener#userChanged(int, User)} or
+     * {@link UserListListener#userMoved(int, int, User)}.
+     *
+     * <p>The change is applied while the list is locked for other changes, so users in the list
+     * must be changed through this method, and not directly, to keep the list sorted.</p>
+     *
+     * @param user The user to change.
+     * @param change The change to apply to the user in the list.
+     * @return If the user was found in the list.
+     */
+    boolean update(User user, Change change);
+
     /**
      * Gets the number for users in the list.
      *
@@ -90,6 +127,14 @@ public interface UserList {
      */
     int size();
 
+    /**
+     * Gets an immutable snapshot of the users in the list. The snapshot is not affected by
+     * later changes to the list, so it's safe to iterate while other threads change the list.
+     *
+     * @return The users in the list at the time of the call.
+     */
+    List<User> getSnapshot();
+
     /**
      * Adds a listener for changes to the user list.
      *
@@ -103,4 +148,17 @@ public interface UserList {
      * @param listener The listener to remove.
      */
     void removeUserListListener(UserListListener listener);
+
+    /**
+     * A change to a user in the list.
+     */
+    interface Change {
+
+        /**
+         * Applies the change to the user.
+         *
+         * @param user The user to change.
+         */
+        void apply(User user);
+    }
 }
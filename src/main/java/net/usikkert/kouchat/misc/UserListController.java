@@ -22,7 +22,18 @@
 
 package net.usikkert.kouchat.misc;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import net.usikkert.kouchat.event.UserListListener;
 import net.usikkert.kouchat.settings.Settings;
+import net.usikkert.kouchat.util.Tools;
 import net.usikkert.kouchat.util.Validate;
 
 import org.jetbrains.annotations.Nullable;
@@ -33,6 +44,11 @@ import org.jetbrains.annotations.Nullable;
  * It contains methods for getting information about users,
  * and updating the state of users.
  *
+ * <p>Lookups are done in indexes on the unique code and the nick name of the users, instead of searching
+ * the user list. The indexes listen for changes to the user list, so users added or removed directly in
+ * the list are indexed as well. The nick name index is case insensitive, and is updated
+ * when a user changes nick name.</p>
+ *
  * @author Christian Ihle
  */
 public class UserListController {
@@ -40,6 +56,15 @@ public class UserListController {
     /** The user list. */
     private final UserList userList;
 
+    /** The users in the list, by unique code. */
+    private final Map<Integer, User> usersByCode;
+
+    /** The users in the list, by nick name in lower case. Usually one user per nick name. */
+    private final Map<String, List<User>> usersByNick;
+
+    /** The nick name each user is indexed with, to find the old entry when the nick name changes. */
+    private final Map<User, String> indexedNicks;
+
     /**
      * Constructor.
      *
@@ -50,7 +75,12 @@ public class UserListController {
     public UserListController(final Settings settings) {
         Validate.notNull(settings, "Settings can not be null");
 
+        usersByCode = new HashMap<>();
+        usersByNick = new HashMap<>();
+        indexedNicks = new IdentityHashMap<>();
+
         userList = new SortedUserList();
+        userList.addUserListListener(new UserIndexer());
         userList.add(settings.getMe());
     }
 
@@ -61,19 +91,8 @@ public class UserListController {
      * @return The user, or <code>null</code> if the user was not found.
      */
     @Nullable
-    public User getUser(final int code) {
-        User user = null;
-
-        for (int i = 0; i < userList.size(); i++) {
-            final User temp = userList.get(i);
-
-            if (temp.getCode() == code) {
-                user = temp;
-                break;
-            }
-        }
-
-        return user;
+    public synchronized User getUser(final int code) {
+        return usersByCode.get(code);
     }
 
     /**
@@ -83,19 +102,14 @@ public class UserListController {
      * @return The user, or <code>null</code> if the user was not found.
      */
     @Nullable
-    public User getUser(final String nickname) {
-        User user = null;
-
-        for (int i = 0; i < userList.size(); i++) {
-            final User temp = userList.get(i);
+    public synchronized User getUser(final String nickname) {
+        final List<User> users = usersByNick.get(toNickKey(nickname));
 
-            if (temp.getNick().equalsIgnoreCase(nickname)) {
-                user = temp;
-                break;
-            }
+        if (users == null) {
+            return null;
         }
 
-        return user;
+        return users.get(0);
     }
 
     /**
@@ -105,15 +119,12 @@ public class UserListController {
      * @param nickname The new nick name of the user.
      */
     public void changeNickName(final int code, final String nickname) {
-        for (int i = 0; i < userList.size(); i++) {
-            final User temp = userList.get(i);
-
-            if (temp.getCode() == code) {
-                temp.setNick(nickname);
-                userList.set(i, temp);
-                break;
+        changeUser(code, new UserList.Change() {
+            @Override
+            public void apply(final User user) {
+                user.setNick(nickname);
             }
-        }
+        });
     }
 
     /**
@@ -124,16 +135,13 @@ public class UserListController {
      * @param awaymsg The new away message.
      */
     public void changeAwayStatus(final int code, final boolean away, final String awaymsg) {
-        for (int i = 0; i < userList.size(); i++) {
-            final User temp = userList.get(i);
-
-            if (temp.getCode() == code) {
-                temp.setAway(away);
-                temp.setAwayMsg(awaymsg);
-                userList.set(i, temp);
-                break;
+        changeUser(code, new UserList.Change() {
+            @Override
+            public void apply(final User user) {
+                user.setAway(away);
+                user.setAwayMsg(awaymsg);
             }
-        }
+        });
     }
 
     /**
@@ -143,15 +151,12 @@ public class UserListController {
      * @param writing If the user is writing.
      */
     public void changeWriting(final int code, final boolean writing) {
-        for (int i = 0; i < userList.size(); i++) {
-            final User temp = userList.get(i);
-
-            if (temp.getCode() == code) {
-                temp.setWriting(writing);
-                userList.set(i, temp);
-                break;
+        changeUser(code, new UserList.Change() {
+            @Override
+            public void apply(final User user) {
+                user.setWriting(writing);
             }
-        }
+        });
     }
 
     /**
@@ -161,15 +166,12 @@ public class UserListController {
      * @param newMsg If the user has new private messages.
      */
     public void changeNewMessage(final int code, final boolean newMsg) {
-        for (int i = 0; i < userList.size(); i++) {
-            final User temp = userList.get(i);
-
-            if (temp.getCode() == code) {
-                temp.setNewPrivMsg(newMsg);
-                userList.set(i, temp);
-                break;
+        changeUser(code, new UserList.Change() {
+            @Override
+            public void apply(final User user) {
+                user.setNewPrivMsg(newMsg);
             }
-        }
+        });
     }
 
     /**
@@ -178,19 +180,20 @@ public class UserListController {
      * @param nickname The nick name to check.
      * @return If the nick name is in use.
      */
-    public boolean isNickNameInUse(final String nickname) {
-        boolean inUse = false;
+    public synchronized boolean isNickNameInUse(final String nickname) {
+        final List<User> users = usersByNick.get(toNickKey(nickname));
 
-        for (int i = 0; i < userList.size(); i++) {
-            final User temp = userList.get(i);
+        if (users == null) {
+            return false;
+        }
 
-            if (temp.getNick().equalsIgnoreCase(nickname) && !temp.isMe()) {
-                inUse = true;
-                break;
+        for (final User user : users) {
+            if (!user.isMe()) {
+                return true;
             }
         }
 
-        return inUse;
+        return false;
     }
 
     /**
@@ -199,19 +202,58 @@ public class UserListController {
      * @param code The unique code of the user.
      * @return If the user is new, which means it is not in the user list.
      */
-    public boolean isNewUser(final int code) {
-        boolean newUser = true;
+    public synchronized boolean isNewUser(final int code) {
+        return !usersByCode.containsKey(code);
+    }
+
+    /**
+     * Adds the users that are not already in the user list, in one batch with a single notification
+     * to the listeners. Users with an invalid nick name, or a nick name that is already in use,
+     * get their unique code as nick name, like users logging on with a nick name in use.
+     *
+     * @param users The users to add.
+     * @return The users that were added.
+     */
+    public List<User> addUsers(final List<User> users) {
+        Validate.notNull(users, "Users can not be null");
+
+        final List<User> newUsers = new ArrayList<>();
+        final Set<Integer> newCodes = new HashSet<>();
+        final Set<String> newNicks = new HashSet<>();
+
+        for (final User user : users) {
+            if (!isNewUser(user.getCode()) || !newCodes.add(user.getCode())) {
+                continue;
+            }
 
-        for (int i = 0; i < userList.size(); i++) {
-            final User temp = userList.get(i);
+            if (!Tools.isValidNick(user.getNick()) || getUser(user.getNick()) != null
+                    || newNicks.contains(toNickKey(user.getNick()))) {
+                user.setNick("" + user.getCode());
+            }
+
+            newNicks.add(toNickKey(user.getNick()));
+            newUsers.add(user);
+        }
+
+        userList.addAll(newUsers);
+
+        return newUsers;
+    }
 
-            if (temp.getCode() == code) {
-                newUser = false;
-                break;
+    /**
+     * Checks if all the users in the list, except <code>me</code>, support the capability.
+     *
+     * @param capability The capability to check, from {@link net.usikkert.kouchat.net.ClientCapability}.
+     * @return If all the other users support the capability.
+     */
+    public boolean isCapabilitySupportedByAll(final String capability) {
+        for (final User user : userList.getSnapshot()) {
+            if (!user.isMe() && !user.hasCapability(capability)) {
+                return false;
             }
         }
 
-        return newUser;
+        return true;
     }
 
     /**
@@ -225,9 +267,7 @@ public class UserListController {
      * @return If there are any timeout users.
      */
     public boolean isTimeoutUsers() {
-        for (int i = 0; i < userList.size(); i++) {
-            final User temp = userList.get(i);
-
+        for (final User temp : userList.getSnapshot()) {
             if (temp.getNick().equals("" + temp.getCode())) {
                 return true;
             }
@@ -244,4 +284,125 @@ public class UserListController {
     public UserList getUserList() {
         return userList;
     }
+
+    /**
+     * Applies the change to the user in the user list, which sorts the list and notifies the listeners.
+     * The user is never changed outside the user list, so the list stays sorted.
+     *
+     * @param code The unique code of the user to change.
+     * @param change The change to apply.
+     */
+    private void changeUser(final int code, final UserList.Change change) {
+        final User user = getUser(code);
+
+        if (user != null) {
+            userList.update(user, change);
+        }
+    }
+
+    /**
+     * Users are equal if they have the same code, so the user removed from the list
+     * may be a different instance than the one in the index.
+     */
+    private synchronized void removeFromIndex(final User user) {
+        final User indexedUser = usersByCode.remove(user.getCode());
+
+        if (indexedUser != null) {
+            removeFromNickIndex(indexedUser);
+        }
+
+        removeFromNickIndex(user);
+    }
+
+    /**
+     * Indexes a new or changed user. The latest instance of a user wins, if the same user
+     * is added again, and the nick name index is moved if the nick name changed.
+     */
+    private synchronized void updateIndex(final User user) {
+        final User indexedUser = usersByCode.put(user.getCode(), user);
+
+        if (indexedUser != null && indexedUser != user) {
+            removeFromNickIndex(indexedUser);
+        }
+
+        final String indexedNick = indexedNicks.get(user);
+
+        if (indexedNick == null || !indexedNick.equals(toNickKey(user.getNick()))) {
+            removeFromNickIndex(user);
+            addToNickIndex(user);
+        }
+    }
+
+    private void addToNickIndex(final User user) {
+        final String nickKey = toNickKey(user.getNick());
+        List<User> users = usersByNick.get(nickKey);
+
+        if (users == null) {
+            users = new ArrayList<>(1);
+            usersByNick.put(nickKey, users);
+        }
+
+        users.add(user);
+        indexedNicks.put(user, nickKey);
+    }
+
+    private void removeFromNickIndex(final User user) {
+        final String nickKey = indexedNicks.remove(user);
+
+        if (nickKey == null) {
+            return;
+        }
+
+        final List<User> users = usersByNick.get(nickKey);
+
+        if (users != null) {
+            for (int i = 0; i < users.size(); i++) {
+                if (users.get(i) == user) {
+                    users.remove(i);
+                    break;
+                }
+            }
+
+            if (users.isEmpty()) {
+                usersByNick.remove(nickKey);
+            }
+        }
+    }
+
+    private String toNickKey(final String nickname) {
+        return nickname.toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Keeps the indexes up to date with the changes to the user list.
+     */
+    private class UserIndexer implements UserListListener {
+
+        @Override
+        public void userAdded(final int pos, final User user) {
+            updateIndex(user);
+        }
+
+        @Override
+        public void usersAdded(final List<User> users) {
+            for (final User user : users) {
+                updateIndex(user);
+            }
+        }
+
+        @Override
+        public void userChanged(final int pos, final User user) {
+            updateIndex(user);
+        }
+
+        @Override
+        public void userMoved(final int oldPos, final int newPos, final User user) {
+            updateIndex(user);
+        }
+
+        @Override
+        public void userRemoved(final int pos, final User user) {
+            removeFromIndex(user);
+        }
+    }
 }
@@ -0,0 +1,171 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.misc;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import net.usikkert.kouchat.util.Validate;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Keeps track of when users will time out, ordered by deadline.
+ *
+ * <p>Each user has a single deadline. Scheduling, rescheduling and removing a user is O(log N),
+ * and finding the expired users only looks at the users that actually expired.</p>
+ *
+ * <p>This class is thread safe.</p>
+ *
+ * @author Christian Ihle
+ */
+class UserTimeoutQueue {
+
+    /** The deadlines, with the earliest deadline first. */
+    private final TreeSet<Deadline> deadlines;
+
+    /** The deadline of each user, by user code. */
+    private final Map<Integer, Deadline> deadlinesByCode;
+
+    /**
+     * Constructor.
+     */
+    UserTimeoutQueue() {
+        deadlines = new TreeSet<>();
+        deadlinesByCode = new HashMap<>();
+    }
+
+    /**
+     * Schedules a timeout for the user at the deadline. Replaces any existing deadline for the same user.
+     *
+     * @param user The user to schedule the timeout for.
+     * @param deadline The time in milliseconds when the user times out.
+     */
+    public synchronized void schedule(final User user, final long deadline) {
+        Validate.notNull(user, "User can not be null");
+
+        final Deadline newDeadline = new Deadline(user, deadline);
+        final Deadline oldDeadline = deadlinesByCode.put(user.getCode(), newDeadline);
+
+        if (oldDeadline != null) {
+            deadlines.remove(oldDeadline);
+        }
+
+        deadlines.add(newDeadline);
+    }
+
+    /**
+     * Removes the timeout for the user, if scheduled.
+     *
+     * @param user The user to remove the timeout for.
+     * @return If the user had a timeout scheduled.
+     */
+    public synchronized boolean remove(final User user) {
+        Validate.notNull(user, "User can not be null");
+
+        final Deadline deadline = deadlinesByCode.remove(user.getCode());
+
+        if (deadline == null) {
+            return false;
+        }
+
+        deadlines.remove(deadline);
+        return true;
+    }
+
+    /**
+     * Removes and returns all the users with a deadline before or at the specified time.
+     *
+     * @param now The current time in milliseconds.
+     * @return The expired users, with the earliest deadline first.
+     */
+    public synchronized List<User> pollExpired(final long now) {
+        final List<User> expired = new ArrayList<>();
+
+        while (!deadlines.isEmpty() && deadlines.first().deadline <= now) {
+            final Deadline deadline = deadlines.pollFirst();
+            deadlinesByCode.remove(deadline.user.getCode());
+            expired.add(deadline.user);
+        }
+
+        return expired;
+    }
+
+    /**
+     * Gets the deadline for the user.
+     *
+     * @param user The user to get the deadline for.
+     * @return The deadline in milliseconds, or <code>null</code> if no timeout is scheduled.
+     */
+    @Nullable
+    public synchronized Long getDeadline(final User user) {
+        Validate.notNull(user, "User can not be null");
+
+        final Deadline deadline = deadlinesByCode.get(user.getCode());
+
+        if (deadline == null) {
+            return null;
+        }
+
+        return deadline.deadline;
+    }
+
+    /**
+     * Gets the number of users with a timeout scheduled.
+     *
+     * @return The number of users.
+     */
+    public synchronized int size() {
+        return deadlines.size();
+    }
+
+    /**
+     * The deadline of a single user. Ordered by deadline, and then by user code
+     * to keep users with the same deadline apart.
+     */
+    private static final class Deadline implements Comparable<Deadline> {
+
+        private final User user;
+        private final long deadline;
+
+        Deadline(final User user, final long deadline) {
+            this.user = user;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public int compareTo(final Deadline other) {
+            if (deadline != other.deadline) {
+                return deadline < other.deadline ? -1 : 1;
+            }
+
+            final int code = user.getCode();
+            final int otherCode = other.user.getCode();
+
+            return code < otherCode ? -1 : (code == otherCode ? 0 : 1);
+        }
+    }
+}
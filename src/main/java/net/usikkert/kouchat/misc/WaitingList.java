@@ -22,8 +22,17 @@
 
 package net.usikkert.kouchat.misc;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.usikkert.kouchat.util.HashedWheelTimer;
+import net.usikkert.kouchat.util.Logger;
+import net.usikkert.kouchat.util.TimerHandle;
+import net.usikkert.kouchat.util.Validate;
+
+import org.jetbrains.annotations.Nullable;
 
 /**
  * This waiting list is used to store unknown users while asking them to
@@ -31,26 +40,58 @@ import java.util.Set;
  * By doing this, messages from unknown users can be held back until they
  * have identified themselves.
  *
+ * <p>The operations held back for a user are run in the order they arrived, by the thread
+ * that removes the user from the waiting list. If the user does not identify within
+ * {@link #WAIT_TIMEOUT} milliseconds, the user is removed and the operations are discarded.</p>
+ *
+ * <p>This class is thread safe.</p>
+ *
  * @author Christian Ihle
  */
 public class WaitingList {
 
-    private final Set<Integer> users;
+    /** Milliseconds to wait for a user to identify before giving up. */
+    public static final long WAIT_TIMEOUT = 2000;
+
+    private static final Logger LOG = Logger.getLogger(WaitingList.class);
+
+    private final Map<Integer, WaitingUser> users;
+    private final HashedWheelTimer timer;
 
     /**
      * Constructor.
+     *
+     * @param timer The timer to use for giving up on users that don't identify.
      */
-    public WaitingList() {
-        users = new HashSet<>();
+    public WaitingList(final HashedWheelTimer timer) {
+        Validate.notNull(timer, "Timer can not be null");
+
+        this.timer = timer;
+        users = new HashMap<>();
     }
 
     /**
-     * Adds a user to the waiting list.
+     * Adds a user to the waiting list, if not already there.
      *
      * @param userCode The unique code of the user to add.
+     * @return If the user was added, or <code>false</code> if the user was already waiting.
      */
-    public void addWaitingUser(final int userCode) {
-        users.add(userCode);
+    public synchronized boolean addWaitingUser(final int userCode) {
+        if (users.containsKey(userCode)) {
+            return false;
+        }
+
+        final WaitingUser waitingUser = new WaitingUser();
+        users.put(userCode, waitingUser);
+
+        waitingUser.timeout = timer.schedule("WaitingListTimeout", new Runnable() {
+            @Override
+            public void run() {
+                timedOut(userCode, waitingUser);
+            }
+        }, WAIT_TIMEOUT);
+
+        return true;
     }
 
     /**
@@ -59,16 +100,85 @@ public class WaitingList {
      * @param userCode The unique code of the user to check for.
      * @return If the user is on the waiting list.
      */
-    public boolean isWaitingUser(final int userCode) {
-        return users.contains(userCode);
+    public synchronized boolean isWaitingUser(final int userCode) {
+        return users.containsKey(userCode);
     }
 
     /**
-     * Removes a user from the waiting list.
+     * Runs the operation when the user has identified. If the user is on the waiting list,
+     * the operation is held back until the user is removed from the list.
+     * Otherwise the operation is run right away, by the calling thread.
+     *
+     * @param userCode The unique code of the user the operation is waiting for.
+     * @param operation The operation to run.
+     */
+    public void runWhenIdentified(final int userCode, final Runnable operation) {
+        Validate.notNull(operation, "Operation can not be null");
+
+        synchronized (this) {
+            final WaitingUser waitingUser = users.get(userCode);
+
+            if (waitingUser != null) {
+                waitingUser.operations.add(operation);
+                return;
+            }
+        }
+
+        operation.run();
+    }
+
+    /**
+     * Removes a user from the waiting list, because the user has identified.
+     * The operations held back for the user are run by the calling thread,
+     * so the user must be added to the user list before this is called.
      *
      * @param userCode The unique code of the user to remove.
      */
     public void removeWaitingUser(final int userCode) {
-        users.remove(userCode);
+        final WaitingUser waitingUser;
+
+        synchronized (this) {
+            waitingUser = users.remove(userCode);
+        }
+
+        if (waitingUser == null) {
+            return;
+        }
+
+        if (waitingUser.timeout != null) {
+            waitingUser.timeout.cancel();
+        }
+
+        for (final Runnable operation : waitingUser.operations) {
+            operation.run();
+        }
+    }
+
+    /**
+     * Gives up on a user that did not identify in time.
+     */
+    private void timedOut(final int userCode, final WaitingUser waitingUser) {
+        synchronized (this) {
+            // The user identified, and maybe went on the list again, while the timeout was waiting to run
+            if (users.get(userCode) != waitingUser) {
+                return;
+            }
+
+            users.remove(userCode);
+        }
+
+        LOG.warning("User did not identify in time - discarding %s operations. userCode=%s",
+                    waitingUser.operations.size(), userCode);
+    }
+
+    /**
+     * A user on the waiting list, with the operations held back until the user identifies.
+     */
+    private static class WaitingUser {
+
+        private final List<Runnable> operations = new ArrayList<>();
+
+        @Nullable
+        private TimerHandle timeout;
     }
 }
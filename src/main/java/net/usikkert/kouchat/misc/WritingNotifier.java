@@ -0,0 +1,230 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.misc;
+
+import net.usikkert.kouchat.net.ClientCapability;
+import net.usikkert.kouchat.net.NetworkMessages;
+import net.usikkert.kouchat.util.HashedWheelTimer;
+import net.usikkert.kouchat.util.Logger;
+import net.usikkert.kouchat.util.TimerHandle;
+import net.usikkert.kouchat.util.Validate;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Tells the other clients when the application user starts and stops writing, without sending
+ * a message for every change.
+ *
+ * <p>The writing state shown locally changes right away, while the state sent to the network
+ * is held back a little:</p>
+ *
+ * <ul>
+ *   <li>There are at least MIN_INTERVAL milliseconds between two messages. A change in between
+ *       is sent when the interval is over, if it's still a change by then.</li>
+ *   <li>Stopping is only sent after STOP_DELAY milliseconds, so clearing the text and writing
+ *       something new right after does not send anything.</li>
+ *   <li>Sending a chat message counts as stopping, when all the other clients support
+ *       {@link ClientCapability#WRITING_TIMEOUT} and clear the writing state on chat messages.</li>
+ *   <li>While writing, the state is sent again every REFRESH_INTERVAL milliseconds or more,
+ *       so the other clients can let the writing state time out instead of waiting for a message
+ *       about stopping that could be lost.</li>
+ * </ul>
+ *
+ * @author Christian Ihle
+ */
+public class WritingNotifier implements Runnable {
+
+    private static final Logger LOG = Logger.getLogger(WritingNotifier.class);
+
+    /** The shortest time in milliseconds between two messages about the writing state. */
+    static final int MIN_INTERVAL = 1000;
+
+    /** Milliseconds to wait before telling the other clients that writing stopped. */
+    static final int STOP_DELAY = 1500;
+
+    /** Milliseconds between each time the writing state is sent again, while writing. */
+    static final int REFRESH_INTERVAL = 5000;
+
+    private final NetworkMessages networkMessages;
+    private final UserListController userListController;
+    private final HashedWheelTimer timer;
+
+    /** If the application user is writing. */
+    private boolean writing;
+
+    /** If the other clients were told that the application user is writing. */
+    private boolean sentWriting;
+
+    /** When the last message about the writing state was sent. */
+    private long lastSent;
+
+    /** The pending message about the writing state, if any. */
+    @Nullable
+    private TimerHandle pendingMessage;
+
+    /**
+     * Constructor.
+     *
+     * @param networkMessages The network messages, to send the writing state.
+     * @param userListController The user list controller, to check the capabilities of the other users.
+     * @param timer The timer to schedule the pending messages with.
+     */
+    public WritingNotifier(final NetworkMessages networkMessages, final UserListController userListController,
+                           final HashedWheelTimer timer) {
+        Validate.notNull(networkMessages, "Network messages can not be null");
+        Validate.notNull(userListController, "User list controller can not be null");
+        Validate.notNull(timer, "Timer can not be null");
+
+        this.networkMessages = networkMessages;
+        this.userListController = userListController;
+        this.timer = timer;
+    }
+
+    /**
+     * The application user started or stopped writing.
+     *
+     * @param isWriting If the application user is writing.
+     */
+    public void writingChanged(final boolean isWriting) {
+        writingChanged(isWriting, System.currentTimeMillis());
+    }
+
+    synchronized void writingChanged(final boolean isWriting, final long now) {
+        writing = isWriting;
+        update(now);
+    }
+
+    /**
+     * The application user is still writing. Sends the writing state again if it's time for a refresh.
+     */
+    public void stillWriting() {
+        stillWriting(System.currentTimeMillis());
+    }
+
+    synchronized void stillWriting(final long now) {
+        if (writing) {
+            update(now);
+        }
+    }
+
+    /**
+     * The application user sent a chat message. The other clients clear the writing state when the
+     * message arrives, if they support it, so there is no need to tell them about stopping afterwards.
+     */
+    public synchronized void chatMessageSent() {
+        if (sentWriting && userListController.isCapabilitySupportedByAll(ClientCapability.WRITING_TIMEOUT)) {
+            sentWriting = false;
+            cancelPendingMessage();
+        }
+    }
+
+    /**
+     * Forgets the writing state, and cancels any pending message. Used when logging off.
+     */
+    public synchronized void reset() {
+        writing = false;
+        sentWriting = false;
+        lastSent = 0;
+        cancelPendingMessage();
+    }
+
+    /**
+     * Sends the pending message, if the writing state still needs to be sent.
+     */
+    @Override
+    public synchronized void run() {
+        pendingMessage = null;
+
+        final long now = System.currentTimeMillis();
+
+        if (needsToSend(now)) {
+            send(now);
+        }
+    }
+
+    /**
+     * Checks if a message about the writing state is pending.
+     *
+     * @return If a message is pending.
+     */
+    synchronized boolean isPending() {
+        return pendingMessage != null;
+    }
+
+    /**
+     * Sends the writing state now, later, or not at all, depending on what the other clients
+     * already know, and when the last message was sent.
+     */
+    private void update(final long now) {
+        if (!needsToSend(now)) {
+            cancelPendingMessage();
+            return;
+        }
+
+        // The pending message checks the state again when it runs
+        if (pendingMessage != null) {
+            return;
+        }
+
+        final long nextAllowed = Math.max(0, lastSent + MIN_INTERVAL - now);
+        final long delay = writing ? nextAllowed : Math.max(STOP_DELAY, nextAllowed);
+
+        if (delay == 0) {
+            send(now);
+        }
+
+        else {
+            pendingMessage = timer.schedule("WritingNotifier", this, delay);
+        }
+    }
+
+    private boolean needsToSend(final long now) {
+        if (writing != sentWriting) {
+            return true;
+        }
+
+        return writing && now - lastSent >= REFRESH_INTERVAL;
+    }
+
+    private void send(final long now) {
+        sentWriting = writing;
+        lastSent = now;
+
+        if (writing) {
+            LOG.fine("Sending writing");
+            networkMessages.sendWritingMessage();
+        }
+
+        else {
+            LOG.fine("Sending stopped writing");
+            networkMessages.sendStoppedWritingMessage();
+        }
+    }
+
+    private void cancelPendingMessage() {
+        if (pendingMessage != null) {
+            pendingMessage.cancel();
+            pendingMessage = null;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+/**
+ * Output stream that compresses a file transfer, but only the parts of it that are worth compressing.
+ *
+ * <p>The data is split in blocks that are sent either compressed or raw, each with a small header.
+ * The first blocks are always tried compressed. If they don't shrink by at least 10%, like with jpg or zip
+ * files, compression is turned off to save cpu, and only tried again on a single block once in a while.
+ * This way a batch of files with mixed content is compressed where it helps.</p>
+ *
+ * <p>{@link #finish()} sends the rest of the data and marks the end of the stream. It's not done
+ * in {@link #close()}, as that may be called from another thread to cancel the file transfer.
+ * The receiving side is {@link AdaptiveInflaterInputStream}.</p>
+ *
+ * @author Christian Ihle
+ */
+public class AdaptiveDeflaterOutputStream extends FilterOutputStream {
+
+    /** Block type of raw data. */
+    static final int RAW_BLOCK = 0;
+
+    /** Block type of compressed data. */
+    static final int DEFLATED_BLOCK = 1;
+
+    /** Block type marking the end of the stream. */
+    static final int END_BLOCK = 2;
+
+    /** Max number of bytes of data in a block, before compression. */
+    static final int BLOCK_SIZE = 64 * 1024;
+
+    /** Number of blocks in a row that must fail to compress before compression is turned off. */
+    private static final int SAMPLE_BLOCKS = 4;
+
+    /** Number of raw blocks to send before trying compression again. */
+    private static final int PROBE_INTERVAL = 64;
+
+    private final DataOutputStream dataOut;
+    private final Deflater deflater;
+    private final byte[] buffer;
+    private final byte[] compressedBuffer;
+
+    private int count;
+    private boolean compressing;
+    private int poorBlocks;
+    private int rawBlocks;
+
+    private volatile long bytesWritten;
+    private volatile long wireBytesWritten;
+
+    /**
+     * Constructor.
+     *
+     * @param out The stream to the other user.
+     */
+    public AdaptiveDeflaterOutputStream(final OutputStream out) {
+        super(out);
+
+        dataOut = new DataOutputStream(out);
+        deflater = new Deflater(Deflater.BEST_SPEED, true);
+        buffer = new byte[BLOCK_SIZE];
+        compressedBuffer = new byte[BLOCK_SIZE];
+        compressing = true;
+    }
+
+    /**
+     * Number of bytes written to this stream, before compression.
+     *
+     * @return The number of bytes written.
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Number of bytes written to the other user, after compression and including the block headers.
+     *
+     * @return The number of bytes sent over the network.
+     */
+    public long getWireBytesWritten() {
+        return wireBytesWritten;
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        int offset = off;
+        int length = len;
+
+        while (length > 0) {
+            final int copied = Math.min(length, BLOCK_SIZE - count);
+            System.arraycopy(b, offset, buffer, count, copied);
+            count += copied;
+            offset += copied;
+            length -= copied;
+            bytesWritten += copied;
+
+            if (count == BLOCK_SIZE) {
+                writeBlock();
+            }
+        }
+    }
+
+    /**
+     * Sends the rest of the data, and marks the end of the stream. Nothing more can be written afterwards.
+     *
+     * @throws IOException If the data could not be sent.
+     */
+    public void finish() throws IOException {
+        try {
+            writeBlock();
+            dataOut.writeByte(END_BLOCK);
+            wireBytesWritten++;
+            dataOut.flush();
+        }
+
+        finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Closes the stream to the other user, without sending the rest of the data.
+     *
+     * @throws IOException If the stream could not be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private void writeBlock() throws IOException {
+        if (count == 0) {
+            return;
+        }
+
+        if (compressing || ++rawBlocks >= PROBE_INTERVAL) {
+            rawBlocks = 0;
+            final int compressedLength = compress();
+
+            // Only worth it if the block shrinks by at least 10%
+            if (compressedLength >= 0 && compressedLength < count - count / 10) {
+                dataOut.writeByte(DEFLATED_BLOCK);
+                dataOut.writeInt(compressedLength);
+                dataOut.writeInt(count);
+                dataOut.write(compressedBuffer, 0, compressedLength);
+                wireBytesWritten += 9 + compressedLength;
+
+                compressing = true;
+                poorBlocks = 0;
+                count = 0;
+
+                return;
+            }
+
+            if (++poorBlocks >= SAMPLE_BLOCKS) {
+                compressing = false;
+            }
+        }
+
+        dataOut.writeByte(RAW_BLOCK);
+        dataOut.writeInt(count);
+        dataOut.write(buffer, 0, count);
+        wireBytesWritten += 5 + count;
+        count = 0;
+    }
+
+    /**
+     * Compresses the buffer.
+     *
+     * @return The compressed length, or -1 if the compressed data is larger than the original.
+     */
+    private int compress() {
+        deflater.reset();
+        deflater.setInput(buffer, 0, count);
+        deflater.finish();
+
+        int length = 0;
+
+        while (!deflater.finished()) {
+            if (length == compressedBuffer.length) {
+                return -1;
+            }
+
+            length += deflater.deflate(compressedBuffer, length, compressedBuffer.length - length);
+        }
+
+        return length;
+    }
+}
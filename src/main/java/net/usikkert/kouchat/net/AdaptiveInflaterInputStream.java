@@ -0,0 +1,204 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import java.io.DataInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Input stream that reads a file transfer sent with {@link AdaptiveDeflaterOutputStream},
+ * decompressing the blocks that were compressed.
+ *
+ * @author Christian Ihle
+ */
+public class AdaptiveInflaterInputStream extends FilterInputStream {
+
+    private final DataInputStream dataIn;
+    private final Inflater inflater;
+    private final byte[] block;
+    private final byte[] compressedBlock;
+
+    private int position;
+    private int count;
+    private boolean ended;
+
+    private volatile long wireBytesRead;
+
+    /**
+     * Constructor.
+     *
+     * @param in The stream from the other user.
+     */
+    public AdaptiveInflaterInputStream(final InputStream in) {
+        super(in);
+
+        dataIn = new DataInputStream(in);
+        inflater = new Inflater(true);
+        block = new byte[AdaptiveDeflaterOutputStream.BLOCK_SIZE];
+        compressedBlock = new byte[AdaptiveDeflaterOutputStream.BLOCK_SIZE];
+    }
+
+    /**
+     * Number of bytes read from the other user, before decompression and including the block headers.
+     *
+     * @return The number of bytes received over the network.
+     */
+    public long getWireBytesRead() {
+        return wireBytesRead;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final byte[] b = new byte[1];
+        final int read = read(b, 0, 1);
+
+        if (read == -1) {
+            return -1;
+        }
+
+        return b[0] & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+
+        while (position == count) {
+            if (ended || !readBlock()) {
+                return -1;
+            }
+        }
+
+        final int read = Math.min(len, count - position);
+        System.arraycopy(block, position, b, off, read);
+        position += read;
+
+        return read;
+    }
+
+    @Override
+    public long skip(final long n) throws IOException {
+        throw new IOException("Skip is not supported");
+    }
+
+    @Override
+    public int available() {
+        return count - position;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * Reads the next block from the other user.
+     *
+     * @return If a block was read, or false if the end of the stream was reached.
+     * @throws IOException If the block is corrupt, or could not be read.
+     */
+    private boolean readBlock() throws IOException {
+        final int type = dataIn.read();
+
+        if (type == -1) {
+            ended = true;
+            return false;
+        }
+
+        if (type == AdaptiveDeflaterOutputStream.END_BLOCK) {
+            ended = true;
+            wireBytesRead++;
+            inflater.end();
+            return false;
+        }
+
+        position = 0;
+        count = 0;
+
+        if (type == AdaptiveDeflaterOutputStream.RAW_BLOCK) {
+            final int length = readLength();
+            dataIn.readFully(block, 0, length);
+            wireBytesRead += 5 + length;
+            count = length;
+        }
+
+        else if (type == AdaptiveDeflaterOutputStream.DEFLATED_BLOCK) {
+            final int compressedLength = readLength();
+            final int length = readLength();
+            dataIn.readFully(compressedBlock, 0, compressedLength);
+            wireBytesRead += 9 + compressedLength;
+            count = decompress(compressedLength, length);
+        }
+
+        else {
+            throw new IOException("Unknown block type: " + type);
+        }
+
+        return true;
+    }
+
+    private int readLength() throws IOException {
+        final int length = dataIn.readInt();
+
+        if (length < 0 || length > AdaptiveDeflaterOutputStream.BLOCK_SIZE) {
+            throw new IOException("Invalid block length: " + length);
+        }
+
+        return length;
+    }
+
+    private int decompress(final int compressedLength, final int length) throws IOException {
+        inflater.reset();
+        inflater.setInput(compressedBlock, 0, compressedLength);
+
+        try {
+            int inflated = 0;
+
+            while (inflated < length && !inflater.finished()) {
+                final int read = inflater.inflate(block, inflated, length - inflated);
+
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+
+                inflated += read;
+            }
+
+            if (inflated != length) {
+                throw new IOException("Corrupt block, expected " + length + " bytes but got " + inflated);
+            }
+
+            return inflated;
+        }
+
+        catch (final DataFormatException e) {
+            throw new IOException("Corrupt block: " + e.getMessage(), e);
+        }
+    }
+}
@@ -22,15 +22,17 @@
 
 package net.usikkert.kouchat.net;
 
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 import net.usikkert.kouchat.misc.Controller;
 import net.usikkert.kouchat.misc.User;
 import net.usikkert.kouchat.misc.WaitingList;
-import net.usikkert.kouchat.util.Sleeper;
 import net.usikkert.kouchat.util.Validate;
 
+import org.jetbrains.annotations.Nullable;
+
 /**
  * Wrapper around a real {@link MessageResponder} that handles operations that need to be async and
  * operations from unknown users.
@@ -40,26 +42,31 @@ import net.usikkert.kouchat.util.Validate;
  * avoid locking other operations.</p>
  *
  * <p>Some operations handles users appearing unexpectedly, from a timeout, or because of packet loss.
- * Those will add the user to a waiting list, ask the user to identify, and then wait for it to happen,
- * before continuing.</p>
+ * Those will add the user to a waiting list and ask the user to identify. The operations are held back
+ * in the waiting list, and continue in the order they arrived when the user identifies.</p>
  *
  * @author Christian Ihle
  */
 public class AsyncMessageResponderWrapper implements MessageResponder {
 
-    private final Sleeper sleeper = new Sleeper();
-    private final ExecutorService executorService = Executors.newCachedThreadPool();
-
+    private final ExecutorService executorService;
     private final MessageResponder messageResponder;
     private final Controller controller;
     private final WaitingList waitingList;
 
     public AsyncMessageResponderWrapper(final MessageResponder messageResponder, final Controller controller) {
+        this(messageResponder, controller, Executors.newCachedThreadPool());
+    }
+
+    AsyncMessageResponderWrapper(final MessageResponder messageResponder, final Controller controller,
+                                 final ExecutorService executorService) {
         Validate.notNull(messageResponder, "MessageResponder can not be null");
         Validate.notNull(controller, "Controller can not be null");
+        Validate.notNull(executorService, "Executor service can not be null");
 
         this.messageResponder = messageResponder;
         this.controller = controller;
+        this.executorService = executorService;
         this.waitingList = controller.getWaitingList();
     }
 
@@ -73,10 +80,9 @@ public class AsyncMessageResponderWrapper implements MessageResponder {
         if (controller.isNewUser(userCode)) {
             askUserToIdentify(userCode);
 
-            executorService.execute(new Runnable() {
+            waitingList.runWhenIdentified(userCode, new Runnable() {
                 @Override
                 public void run() {
-                    waitForUserToIdentify(userCode);
                     messageResponder.messageArrived(userCode, msg, color);
                 }
             });
@@ -194,66 +200,155 @@ public class AsyncMessageResponderWrapper implements MessageResponder {
      */
     @Override
     public void fileSend(final int userCode, final long byteSize, final String fileName,
-                         final String user, final int fileHash) {
-        if (controller.isNewUser(userCode)) {
-            askUserToIdentify(userCode);
-        }
-
-        executorService.execute(new Runnable() {
+                         final String user, final int fileHash, @Nullable final String contentHash) {
+        runAsyncWhenIdentified(userCode, new Runnable() {
             @Override
             public void run() {
-                waitForUserToIdentify(userCode);
-                messageResponder.fileSend(userCode, byteSize, fileName, user, fileHash);
+                messageResponder.fileSend(userCode, byteSize, fileName, user, fileHash, contentHash);
             }
         });
     }
 
+    /**
+     * Receives a batch of files, which may take a long time. Needs to run in a different thread.
+     * Handles unidentified users.
+     */
     @Override
-    public void fileSendAborted(final int userCode, final String fileName, final int fileHash) {
-        messageResponder.fileSendAborted(userCode, fileName, fileHash);
+    public void fileBatchSend(final int userCode, final long byteSize, final String folderName,
+                              final String user, final int fileHash) {
+        runAsyncWhenIdentified(userCode, new Runnable() {
+            @Override
+            public void run() {
+                messageResponder.fileBatchSend(userCode, byteSize, folderName, user, fileHash);
+            }
+        });
     }
 
     /**
-     * Does the actual file transfer to the other user, which may take a long time. Needs to run
-     * in a different thread.
+     * Receives a file sent to many users at once, which may take a long time. Needs to run in a different thread.
+     * Handles unidentified users.
      */
     @Override
-    public void fileSendAccepted(final int userCode, final String fileName, final int fileHash, final int port) {
-        executorService.execute(new Runnable() {
+    public void fileMulticastSend(final int userCode, final long byteSize, final String fileName,
+                                  final String user, final int fileHash, final int sessionId, final int port) {
+        runAsyncWhenIdentified(userCode, new Runnable() {
             @Override
             public void run() {
-                messageResponder.fileSendAccepted(userCode, fileName, fileHash, port);
+                messageResponder.fileMulticastSend(userCode, byteSize, fileName, user, fileHash, sessionId, port);
             }
         });
     }
 
+    @Override
+    public void fileSendAborted(final int userCode, final String fileName, final int fileHash) {
+        messageResponder.fileSendAborted(userCode, fileName, fileHash);
+    }
+
+    @Override
+    public void fileSendAccepted(final int userCode, final String fileName, final int fileHash, final int port,
+                                 final boolean compressed, final int transferId) {
+        messageResponder.fileSendAccepted(userCode, fileName, fileHash, port, compressed, transferId);
+    }
+
+    @Override
+    public void fileSendCached(final int userCode, final String fileName, final int fileHash) {
+        messageResponder.fileSendCached(userCode, fileName, fileHash);
+    }
+
     @Override
     public void clientInfo(final int userCode, final String client, final long timeSinceLogon,
-                           final String operatingSystem, final int privateChatPort, final int tcpChatPort) {
-        messageResponder.clientInfo(userCode, client, timeSinceLogon, operatingSystem, privateChatPort, tcpChatPort);
+                           final String operatingSystem, final int privateChatPort, final int tcpChatPort,
+                           final List<String> capabilities) {
+        messageResponder.clientInfo(userCode, client, timeSinceLogon, operatingSystem, privateChatPort, tcpChatPort,
+                                    capabilities);
+    }
+
+    @Override
+    public void rosterRequested(final int userCode) {
+        messageResponder.rosterRequested(userCode);
+    }
+
+    @Override
+    public void rosterArrived(final int userCode, final List<User> users) {
+        messageResponder.rosterArrived(userCode, users);
+    }
+
+    /**
+     * User changed presence state. Asked to identify instead, if unknown.
+     */
+    @Override
+    public void presenceChanged(final User presence, final boolean complete) {
+        if (controller.isNewUser(presence.getCode())) {
+            askUserToIdentify(presence.getCode());
+        }
+
+        else {
+            messageResponder.presenceChanged(presence, complete);
+        }
+    }
+
+    @Override
+    public void presenceDigestArrived(final int userCode, final int presenceVersion) {
+        messageResponder.presenceDigestArrived(userCode, presenceVersion);
+    }
+
+    @Override
+    public void presenceRequested(final int userCode) {
+        messageResponder.presenceRequested(userCode);
+    }
+
+    @Override
+    public void messagesRequested(final int userCode, final boolean privateChat, final List<Integer> sequences) {
+        messageResponder.messagesRequested(userCode, privateChat, sequences);
+    }
+
+    @Override
+    public void historyRequested(final int userCode, final long age) {
+        messageResponder.historyRequested(userCode, age);
+    }
+
+    @Override
+    public void historyArrived(final int userCode, final List<ChatHistory.Entry> entries) {
+        messageResponder.historyArrived(userCode, entries);
     }
 
     /**
      * Asks user with the specified userCode to identify with {@link #userExposing(User)}.
      * Adds user to waiting list so we know this user sent a message without being known,
      * and also so we can wait for this user to identify before continuing an operation.
+     *
+     * <p>The user is only asked once while on the waiting list, so a burst of messages from an
+     * unknown user does not send a burst of requests that every client on the network must answer.
+     * The request includes the user code, so clients supporting {@link ClientCapability#PRESENCE}
+     * leave the reply to the unknown user.</p>
      */
     void askUserToIdentify(final int userCode) {
-        waitingList.addWaitingUser(userCode);
-        controller.sendExposeMessage();
-        controller.sendGetTopicMessage();
+        if (waitingList.addWaitingUser(userCode)) {
+            controller.sendExposeMessage(userCode);
+            controller.sendGetTopicMessage();
+        }
     }
 
     /**
-     * Waits for user with the specified userCode to identify in {@link #userExposing(User)}.
-     * Gives up after 2 seconds.
+     * Runs an operation that may take a long time in a different thread. If the user with the specified userCode
+     * is unknown, the user is asked to identify, and the operation is held back in the waiting list until
+     * the user identifies in {@link #userLogOn(User)} or {@link #userExposing(User)}.
      */
-    void waitForUserToIdentify(final int userCode) {
-        int counter = 0;
+    void runAsyncWhenIdentified(final int userCode, final Runnable operation) {
+        final Runnable asyncOperation = new Runnable() {
+            @Override
+            public void run() {
+                executorService.execute(operation);
+            }
+        };
+
+        if (controller.isNewUser(userCode)) {
+            askUserToIdentify(userCode);
+            waitingList.runWhenIdentified(userCode, asyncOperation);
+        }
 
-        while (waitingList.isWaitingUser(userCode) && counter < 40) {
-            counter++;
-            sleeper.sleep(50);
+        else {
+            asyncOperation.run();
         }
     }
 }
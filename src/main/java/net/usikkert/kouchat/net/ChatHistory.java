@@ -0,0 +1,187 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import net.usikkert.kouchat.util.Validate;
+
+/**
+ * Keeps the most recent messages in the main chat, so they can be sent to users who missed them
+ * with {@link NetworkMessageType#HISTORY}.
+ *
+ * <p>Only the last MAX_MESSAGES messages are kept, in the order they arrived. The time of each message is
+ * the local time it arrived, or was sent by the application user.</p>
+ *
+ * @author Christian Ihle
+ */
+public class ChatHistory {
+
+    /** The number of messages to keep. */
+    static final int MAX_MESSAGES = 100;
+
+    /** Milliseconds between the times of two identical messages from the same user for them to be the same message. */
+    static final int DUPLICATE_TOLERANCE = 5000;
+
+    /** The kept messages, oldest first. */
+    private final Deque<Entry> entries;
+
+    /**
+     * Constructor.
+     */
+    public ChatHistory() {
+        entries = new ArrayDeque<>();
+    }
+
+    /**
+     * Keeps a message from the main chat, replacing the oldest message if the history is full.
+     *
+     * @param entry The message to keep.
+     */
+    public synchronized void add(final Entry entry) {
+        Validate.notNull(entry, "Entry can not be null");
+
+        if (entries.size() >= MAX_MESSAGES) {
+            entries.poll();
+        }
+
+        entries.add(entry);
+    }
+
+    /**
+     * Gets the kept messages that arrived at the specified time or later.
+     *
+     * @param since The time to get messages from, or 0 to get all the messages.
+     * @return The messages, oldest first.
+     */
+    public synchronized List<Entry> getEntriesSince(final long since) {
+        final List<Entry> entriesSince = new ArrayList<>();
+
+        for (final Entry entry : entries) {
+            if (entry.getTime() >= since) {
+                entriesSince.add(entry);
+            }
+        }
+
+        return entriesSince;
+    }
+
+    /**
+     * Gets the time of the most recent message. Messages that were missed and added later
+     * may be older than the messages added before them.
+     *
+     * @return The time of the most recent message, or 0 if there are no messages.
+     */
+    public synchronized long getLastTime() {
+        long lastTime = 0;
+
+        for (final Entry entry : entries) {
+            lastTime = Math.max(lastTime, entry.getTime());
+        }
+
+        return lastTime;
+    }
+
+    /**
+     * Checks if a message is already kept. The same message from the same user is treated as
+     * a duplicate if the times are close, since other clients got the message at slightly different times.
+     *
+     * @param entry The message to check.
+     * @return If the message is already kept.
+     */
+    public synchronized boolean contains(final Entry entry) {
+        Validate.notNull(entry, "Entry can not be null");
+
+        for (final Entry keptEntry : entries) {
+            if (keptEntry.getUserCode() == entry.getUserCode()
+                    && keptEntry.getMessage().equals(entry.getMessage())
+                    && Math.abs(keptEntry.getTime() - entry.getTime()) <= DUPLICATE_TOLERANCE) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Removes all the kept messages.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * A single message in the main chat.
+     */
+    public static class Entry {
+
+        private final long time;
+        private final int userCode;
+        private final String nick;
+        private final int color;
+        private final String message;
+
+        /**
+         * Constructor.
+         *
+         * @param time The time the message arrived.
+         * @param userCode The unique code of the user who wrote the message.
+         * @param nick The nick name of the user when the message was written.
+         * @param color The color of the message.
+         * @param message The message.
+         */
+        public Entry(final long time, final int userCode, final String nick, final int color, final String message) {
+            Validate.notNull(nick, "Nick can not be null");
+            Validate.notNull(message, "Message can not be null");
+
+            this.time = time;
+            this.userCode = userCode;
+            this.nick = nick;
+            this.color = color;
+            this.message = message;
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        public int getUserCode() {
+            return userCode;
+        }
+
+        public String getNick() {
+            return nick;
+        }
+
+        public int getColor() {
+            return color;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+/**
+ * Optional features of the network protocol, that a client can announce in the
+ * {@link NetworkMessageType#CLIENT} message. A feature is only used with users that
+ * have announced support for it, so older clients are not sent anything they don't understand.
+ *
+ * @author Christian Ihle
+ */
+public interface ClientCapability {
+
+    /** File transfers can be compressed with {@link AdaptiveDeflaterOutputStream}. */
+    String DEFLATE = "deflate";
+
+    /** File transfers can be received on the shared port of {@link FileTransferServer}. */
+    String SHARED_PORT = "sharedport";
+
+    /** Files can be received from a {@link MulticastFileSession}, shared with other users. */
+    String MULTICAST_FILE = "multicastfile";
+
+    /** Files can be offered with a hash of the content, and restored from a {@link FileContentCache}. */
+    String CONTENT_HASH = "contenthash";
+
+    /**
+     * Idle messages are sent at an adaptive interval, that grows with the number of users.
+     * Announced together with the current interval in milliseconds, like <code>idleinterval=30000</code>,
+     * so the other clients can scale the timeout of the user to match.
+     */
+    String IDLE_INTERVAL = "idleinterval";
+
+    /**
+     * A snapshot of all the known users can be requested with {@link NetworkMessageType#GETROSTER},
+     * and is sent back over tcp with {@link NetworkMessageType#ROSTER}.
+     */
+    String ROSTER = "roster";
+
+    /**
+     * Changes to nick name and away state are sent as versioned deltas with {@link NetworkMessageType#PRESENCE}.
+     * Announced together with the current version, like <code>presence=12</code>. The version is also sent
+     * with every {@link NetworkMessageType#IDLE} message, so other clients can ask for the presence state
+     * with {@link NetworkMessageType#GETPRESENCE} if they missed a change.
+     */
+    String PRESENCE = "presence";
+
+    /**
+     * The {@link NetworkMessageType#WRITING} message is sent again while writing, so the writing state
+     * can time out on its own. A chat message also clears the writing state of the user who sent it,
+     * so {@link NetworkMessageType#STOPPEDWRITING} is not needed after a chat message.
+     */
+    String WRITING_TIMEOUT = "writingtimeout";
+
+    /**
+     * Chat messages and private messages have a sequence number, and missing messages can be asked for again
+     * with {@link NetworkMessageType#NAK}. Messages sent again are only sent to all users if every user
+     * supports this, since older clients would show them twice.
+     */
+    String MESSAGE_SEQUENCE = "msgsequence";
+
+    /**
+     * The recent messages in the main chat can be requested with {@link NetworkMessageType#GETHISTORY},
+     * and are sent back over tcp in a single compressed {@link NetworkMessageType#HISTORY} message.
+     */
+    String HISTORY = "history";
+}
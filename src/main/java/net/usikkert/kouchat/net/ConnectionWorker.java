@@ -25,22 +25,29 @@ package net.usikkert.kouchat.net;
 import java.net.NetworkInterface;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import net.usikkert.kouchat.event.NetworkConnectionListener;
 import net.usikkert.kouchat.misc.ErrorHandler;
 import net.usikkert.kouchat.settings.Settings;
+import net.usikkert.kouchat.util.HashedWheelTimer;
+import net.usikkert.kouchat.util.NamedDaemonThreadFactory;
+import net.usikkert.kouchat.util.TimerHandle;
 import net.usikkert.kouchat.util.Validate;
 
 import org.jetbrains.annotations.Nullable;
 
 /**
- * This thread is responsible for keeping the application connected
+ * This worker is responsible for keeping the application connected
  * to the network.
  *
- * Every now and then, the thread will check if there are better
+ * Every now and then, the worker will check if there are better
  * networks available, and reconnect to that network instead.
+ * The checks are scheduled with the shared timer, but run in a thread of their own, since checking
+ * the network can block for a few seconds, and would delay everything else on the timer thread.
  *
  * @author Christian Ihle
  */
@@ -57,9 +64,18 @@ public class ConnectionWorker implements Runnable {
 
     private final NetworkUtils networkUtils = new NetworkUtils();
 
-    /** Indicates whether the thread should run or not. */
+    /** Guards the scheduling of checks, separately from the network state. */
+    private final Object scheduleLock = new Object();
+
+    /** Indicates whether the worker should run or not. */
     private boolean run;
 
+    /** If the worker is running, or still stopping. */
+    private volatile boolean alive;
+
+    /** If a check was asked for while a check was already running. */
+    private boolean checkRequested;
+
     /** Whether the network is up or not. */
     private boolean networkUp;
 
@@ -67,9 +83,9 @@ public class ConnectionWorker implements Runnable {
     @Nullable
     private NetworkInterface networkInterface;
 
-    /** The working thread. */
+    /** The next scheduled check of the network. */
     @Nullable
-    private Thread worker;
+    private TimerHandle nextCheck;
 
     /** A list of connection listeners. */
     private final List<NetworkConnectionListener> listeners;
@@ -80,50 +96,100 @@ public class ConnectionWorker implements Runnable {
     /** The settings to use for the network. */
     private final Settings settings;
 
+    /** The timer to schedule the checks with. */
+    private final HashedWheelTimer timer;
+
+    /** Runs the checks, and the stop, one at a time in the order they were scheduled. */
+    private final ExecutorService executorService;
+
     /**
      * Constructor.
      *
      * @param settings The settings to use.
      * @param errorHandler The error handler to use.
+     * @param timer The timer to schedule the checks with.
+     */
+    public ConnectionWorker(final Settings settings, final ErrorHandler errorHandler, final HashedWheelTimer timer) {
+        this(settings, errorHandler, timer,
+             Executors.newSingleThreadExecutor(new NamedDaemonThreadFactory("ConnectionWorker")));
+    }
+
+    /**
+     * Constructor, with the executor service to run the checks in.
+     *
+     * @param settings The settings to use.
+     * @param errorHandler The error handler to use.
+     * @param timer The timer to schedule the checks with.
+     * @param executorService The executor service to run the checks in. Must run one task at a time.
      */
-    public ConnectionWorker(final Settings settings, final ErrorHandler errorHandler) {
+    ConnectionWorker(final Settings settings, final ErrorHandler errorHandler, final HashedWheelTimer timer,
+                     final ExecutorService executorService) {
         Validate.notNull(settings, "Settings can not be null");
         Validate.notNull(errorHandler, "Error handler can not be null");
+        Validate.notNull(timer, "Timer can not be null");
+        Validate.notNull(executorService, "Executor service can not be null");
 
         this.settings = settings;
+        this.timer = timer;
+        this.executorService = executorService;
 
         listeners = new ArrayList<>();
         osNetworkInfo = new OperatingSystemNetworkInfo(settings, errorHandler);
     }
 
     /**
-     * The thread. See {@link #updateNetwork()} for details.
+     * Hands the check of the network over to the executor service, when triggered by the timer.
+     * See {@link #check()} for details.
      */
     @Override
     public void run() {
-        LOG.log(Level.FINE, "Network is starting");
+        executorService.execute(new Runnable() {
+            @Override
+            public void run() {
+                check();
+            }
+        });
+    }
 
-        while (run) {
-            final boolean networkUp = updateNetwork();
+    /**
+     * Checks the network, and schedules the next check. See {@link #updateNetwork()} for details.
+     */
+    private void check() {
+        final boolean networkUp = updateNetwork();
+
+        synchronized (scheduleLock) {
+            if (run) {
+                final long delay = checkRequested ? 0 : (networkUp ? SLEEP_UP : SLEEP_DOWN);
+                checkRequested = false;
+                nextCheck = timer.schedule("ConnectionWorker", this, delay);
+            }
+        }
+    }
 
-            if (!run) {
-                break;
+    /**
+     * Asks the worker to check the network now to detect loss of network connectivity.
+     */
+    public void checkNetwork() {
+        synchronized (scheduleLock) {
+            if (!run || nextCheck == null) {
+                return;
             }
 
-            try {
-                if (networkUp) {
-                    Thread.sleep(SLEEP_UP);
-                } else {
-                    Thread.sleep(SLEEP_DOWN);
-                }
+            // Cancel fails if the check is running right now, so ask for another one when it's done
+            if (nextCheck.cancel()) {
+                nextCheck = timer.schedule("ConnectionWorker", this, 0);
             }
 
-            // Sleep interrupted - probably from stop() or checkNetwork()
-            catch (final InterruptedException e) {
-                LOG.log(Level.FINE, e.toString());
+            else {
+                checkRequested = true;
             }
         }
+    }
 
+    /**
+     * Notifies the listeners that the network is down, if it was up, when the worker is stopped.
+     */
+    private synchronized void networkStopped() {
         LOG.log(Level.FINE, "Network is stopping");
 
         if (networkUp) {
@@ -131,15 +197,7 @@ public class ConnectionWorker implements Runnable {
         }
 
         networkInterface = null;
-    }
-
-    /**
-     * Asks the thread to check the network now to detect loss of network connectivity.
-     */
-    public void checkNetwork() {
-        if (worker != null) {
-            worker.interrupt();
-        }
+        alive = false;
     }
 
     /**
@@ -247,24 +305,44 @@ public class ConnectionWorker implements Runnable {
     }
 
     /**
-     * Starts a new thread if no thread is already running.
+     * Starts checking the network, if the worker is not already running.
      */
-    public synchronized void start() {
-        if (!run && !isAlive()) {
-            run = true;
-            worker = new Thread(this, "ConnectionWorker");
-            worker.start();
+    public void start() {
+        synchronized (scheduleLock) {
+            if (!run && !isAlive()) {
+                LOG.log(Level.FINE, "Network is starting");
+
+                run = true;
+                alive = true;
+                nextCheck = timer.schedule("ConnectionWorker", this, 0);
+            }
         }
     }
 
     /**
-     * Stops the thread.
+     * Stops checking the network. The listeners are notified in the thread running the checks,
+     * after any check already running is done.
      */
     public void stop() {
-        run = false;
+        synchronized (scheduleLock) {
+            if (!run) {
+                return;
+            }
+
+            run = false;
+            checkRequested = false;
 
-        if (worker != null) {
-            worker.interrupt();
+            if (nextCheck != null) {
+                nextCheck.cancel();
+                nextCheck = null;
+            }
+
+            executorService.execute(new Runnable() {
+                @Override
+                public void run() {
+                    networkStopped();
+                }
+            });
         }
     }
 
@@ -346,15 +424,11 @@ public class ConnectionWorker implements Runnable {
     }
 
     /**
-     * Checks if the thread is alive.
+     * Checks if the worker is alive. The worker is alive from it's started until it's done stopping.
      *
-     * @return If the thread is alive.
+     * @return If the worker is alive.
      */
     public boolean isAlive() {
-        if (worker == null) {
-            return false;
-        } else {
-            return worker.isAlive();
-        }
+        return alive;
     }
 }
@@ -23,7 +23,9 @@
 package net.usikkert.kouchat.net;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
 import net.usikkert.kouchat.message.CoreMessages;
 import net.usikkert.kouchat.misc.ChatState;
@@ -41,6 +43,8 @@ import net.usikkert.kouchat.util.Sleeper;
 import net.usikkert.kouchat.util.Tools;
 import net.usikkert.kouchat.util.Validate;
 
+import org.jetbrains.annotations.Nullable;
+
 /**
  * This class responds to events from the message parser.
  *
@@ -57,11 +61,18 @@ public class DefaultMessageResponder implements MessageResponder {
     private final Controller controller;
     private final User me;
     private final TransferList tList;
+    private final FileTransferServer fileTransferServer;
+    private final FileContentCache fileContentCache;
+    private final TransferExecutor transferExecutor;
     private final WaitingList wList;
     private final UserInterface ui;
     private final MessageController msgController;
     private final ChatState chatState;
     private final CoreMessages coreMessages;
+    private final DelayedReply exposingReply;
+    private final DelayedReply topicReply;
+    private final RosterRequester rosterRequester;
+    private final WritingTimeouts writingTimeouts;
 
     /**
      * Constructor.
@@ -85,8 +96,29 @@ public class DefaultMessageResponder implements MessageResponder {
         msgController = ui.getMessageController();
         me = settings.getMe();
         tList = controller.getTransferList();
+        fileTransferServer = controller.getFileTransferServer();
+        fileContentCache = controller.getFileContentCache();
+        transferExecutor = controller.getTransferExecutor();
         wList = controller.getWaitingList();
         chatState = controller.getChatState();
+
+        exposingReply = new DelayedReply("ExposingReply", controller.getTimer(), controller.getUserList(), new Runnable() {
+            @Override
+            public void run() {
+                controller.sendExposingMessage();
+                controller.sendClientInfo();
+            }
+        });
+
+        topicReply = new DelayedReply("TopicReply", controller.getTimer(), controller.getUserList(), new Runnable() {
+            @Override
+            public void run() {
+                controller.sendTopicRequestedMessage();
+            }
+        });
+
+        rosterRequester = new RosterRequester(controller, controller.getTimer());
+        writingTimeouts = new WritingTimeouts(controller, controller.getTimer());
     }
 
     /**
@@ -101,8 +133,15 @@ public class DefaultMessageResponder implements MessageResponder {
         if (!controller.isNewUser(userCode)) {
             final User user = controller.getUser(userCode);
 
+            // The message means the user is done writing it
+            if (user.isWriting()) {
+                writingChanged(userCode, false);
+            }
+
             if (!user.isAway()) {
                 msgController.showUserMessage(user.getNick(), msg, color);
+                controller.getChatHistory().add(
+                        new ChatHistory.Entry(System.currentTimeMillis(), userCode, user.getNick(), color, msg));
 
                 // Visible but not in front
                 if (ui.isVisible() && !ui.isFocused()) {
@@ -173,9 +212,9 @@ public class DefaultMessageResponder implements MessageResponder {
             newUser.setNick("" + newUser.getCode());
         }
 
-        wList.removeWaitingUser(newUser.getCode());
         controller.getUserList().add(newUser);
         msgController.showSystemMessage(newUser.getNick() + " logged on from " + newUser.getIpAddress());
+        wList.removeWaitingUser(newUser.getCode()); // Messages held back for the user are shown after this
     }
 
     /**
@@ -199,13 +238,14 @@ public class DefaultMessageResponder implements MessageResponder {
             newUser.setNick("" + newUser.getCode());
         }
 
-        wList.removeWaitingUser(newUser.getCode());
         controller.getUserList().add(newUser);
         msgController.showSystemMessage(newUser.getNick() + " showed up unexpectedly from " + newUser.getIpAddress());
+        wList.removeWaitingUser(newUser.getCode());
     }
 
     /**
-     * Updates the topic, and shows it.
+     * Updates the topic, and shows it. A pending reply with the topic is suppressed
+     * if the topic is the same as the current topic.
      *
      * @param userCode The unique code of the user who changed the topic.
      * @param newTopic The new topic.
@@ -214,6 +254,15 @@ public class DefaultMessageResponder implements MessageResponder {
      */
     @Override
     public void topicChanged(final int userCode, final String newTopic, final String nick, final long time) {
+        updateTopic(newTopic, nick, time);
+
+        // Another client already sent the same topic as the pending reply would
+        if (isCurrentTopic(newTopic, time)) {
+            topicReply.suppress();
+        }
+    }
+
+    private void updateTopic(final String newTopic, final String nick, final long time) {
         if (time > 0 && nick.length() > 0) {
             final Topic topic = controller.getTopic();
 
@@ -244,6 +293,20 @@ public class DefaultMessageResponder implements MessageResponder {
         }
     }
 
+    /**
+     * Checks if the topic is the same as the current topic.
+     *
+     * @param newTopic The topic to check, or <code>null</code> if there is no topic.
+     * @param time The time when the topic was set.
+     * @return If the topic is the same as the current topic.
+     */
+    private boolean isCurrentTopic(@Nullable final String newTopic, final long time) {
+        final Topic topic = controller.getTopic();
+        final String topicText = newTopic != null ? newTopic : "";
+
+        return topic.getTime() == time && topic.getTopic().equals(topicText);
+    }
+
     /**
      * Adds unknown users that are exposing themselves.
      * This happens mostly during startup, but can also happen after a timeout.
@@ -260,8 +323,8 @@ public class DefaultMessageResponder implements MessageResponder {
 
             // This should ONLY happen during logon
             else {
-                wList.removeWaitingUser(user.getCode());
                 controller.getUserList().add(user);
+                wList.removeWaitingUser(user.getCode());
             }
         }
 
@@ -288,10 +351,12 @@ public class DefaultMessageResponder implements MessageResponder {
     @Override
     public void meLogOn(final String ipAddress) {
         chatState.setLoggedOn(true);
+        rosterRequester.reset();
         me.setIpAddress(ipAddress);
         me.setHostName(networkUtils.getLocalHostName());
         msgController.showSystemMessage("You logged on as " + me.getNick() + " from " + createHostInfo(me));
         ui.showTopic();
+        controller.requestChatHistory();
     }
 
     /**
@@ -310,7 +375,7 @@ public class DefaultMessageResponder implements MessageResponder {
     }
 
     /**
-     * Updates the writing status of the user.
+     * Updates the writing status of the user, and when it times out.
      *
      * @param userCode The unique code of the user who started or stopped writing.
      * @param writing If the user is writing or not.
@@ -318,6 +383,12 @@ public class DefaultMessageResponder implements MessageResponder {
     @Override
     public void writingChanged(final int userCode, final boolean writing) {
         controller.changeWriting(userCode, writing);
+
+        final User user = controller.getUser(userCode);
+
+        if (user != null) {
+            writingTimeouts.writingChanged(user, writing);
+        }
     }
 
     /**
@@ -337,6 +408,11 @@ public class DefaultMessageResponder implements MessageResponder {
             return;
         }
 
+        // Already seen, from a presence delta or the old away message
+        if (user.isAway() == away && user.getAwayMsg().equals(awayMsg)) {
+            return;
+        }
+
         try {
             controller.changeAwayStatus(userCode, away, awayMsg);
 
@@ -395,6 +471,7 @@ public class DefaultMessageResponder implements MessageResponder {
         }
 
         user.setLastIdle(System.currentTimeMillis());
+        controller.rescheduleTimeout(user);
 
         if (!user.getIpAddress().equals(ipAddress)) {
             msgController.showSystemMessage(user.getNick() + " changed ip from " + user.getIpAddress() + " to " + ipAddress);
@@ -403,11 +480,12 @@ public class DefaultMessageResponder implements MessageResponder {
     }
 
     /**
-     * Sends the current topic.
+     * Sends the current topic, after a random delay. The reply is suppressed if another client
+     * sends the same topic first.
      */
     @Override
     public void topicRequested() {
-        controller.sendTopicRequestedMessage();
+        topicReply.request();
     }
 
     /**
@@ -422,12 +500,11 @@ public class DefaultMessageResponder implements MessageResponder {
     }
 
     /**
-     * Sends information about this client to the other clients.
+     * Sends information about this client to the other clients, after a random delay.
      */
     @Override
     public void exposeRequested() {
-        controller.sendExposingMessage();
-        controller.sendClientInfo();
+        exposingReply.request();
     }
 
     /**
@@ -445,6 +522,11 @@ public class DefaultMessageResponder implements MessageResponder {
             return;
         }
 
+        // Already seen, from a presence delta or the old nick message
+        if (user.getNick().equals(newNick)) {
+            return;
+        }
+
         if (!controller.isNickInUse(newNick) && Tools.isValidNick(newNick)) {
             final String oldNick = user.getNick();
             controller.changeNick(userCode, newNick);
@@ -465,77 +547,177 @@ public class DefaultMessageResponder implements MessageResponder {
      * Asks if the application user wants to receive a file from another user,
      * and if so, starts a server listening for a file transfer.
      *
+     * <p>If the user sent the hash of the content, and a file with the same content has been received before,
+     * the file is restored from the {@link FileContentCache} instead.</p>
+     *
+     * <p>The file transfer waits in the queue of the {@link TransferExecutor} if too many files
+     * are being received already.</p>
+     *
+     * @param userCode The unique code of the user who is asking to send a file.
+     * @param byteSize The size of the file in bytes.
+     * @param fileName The name of the file.
+     * @param user The nick name of the user.
+     * @param fileHash The hash code of the file.
+     * @param contentHash The hash of the content of the file, or <code>null</code>.
+     */
+    @Override
+    public void fileSend(final int userCode, final long byteSize, final String fileName, final String user,
+                         final int fileHash, @Nullable final String contentHash) {
+        receiveFile(userCode, byteSize, fileName, fileHash, false, contentHash, null);
+    }
+
+    /**
+     * Asks if the application user wants to receive a folder with files from another user,
+     * and if so, starts a server listening for the batch of files.
+     *
+     * @param userCode The unique code of the user who is asking to send the files.
+     * @param byteSize The size of the batch in bytes.
+     * @param folderName The name of the folder.
+     * @param user The nick name of the user.
+     * @param fileHash The hash code of the batch.
+     */
+    @Override
+    public void fileBatchSend(final int userCode, final long byteSize, final String folderName, final String user,
+                              final int fileHash) {
+        receiveFile(userCode, byteSize, folderName, fileHash, true, null, null);
+    }
+
+    /**
+     * Asks if the application user wants to receive a file another user is sending to many users at once,
+     * and if so, joins the multicast session sending the file.
+     *
      * @param userCode The unique code of the user who is asking to send a file.
      * @param byteSize The size of the file in bytes.
      * @param fileName The name of the file.
      * @param user The nick name of the user.
      * @param fileHash The hash code of the file.
+     * @param sessionId The id of the multicast session.
+     * @param port The port of the multicast session, to report progress to.
      */
     @Override
-    public void fileSend(final int userCode, final long byteSize, final String fileName, final String user, final int fileHash) {
+    public void fileMulticastSend(final int userCode, final long byteSize, final String fileName, final String user,
+                                  final int fileHash, final int sessionId, final int port) {
+        final User tmpUser = controller.getUser(userCode);
+
+        if (tmpUser != null) {
+            final MulticastFileChannel channel = new MulticastFileChannel(
+                    me.getCode(), userCode, sessionId, tmpUser.getIpAddress(), port, byteSize);
+            receiveFile(userCode, byteSize, fileName, fileHash, false, null, channel);
+        }
+
+        else {
+            LOG.severe("Could not find user: %s", user);
+        }
+    }
+
+    private void receiveFile(final int userCode, final long byteSize, final String fileName, final int fileHash,
+                             final boolean batch, @Nullable final String contentHash,
+                             @Nullable final MulticastFileChannel channel) {
         if (!controller.isNewUser(userCode)) {
             final String size = Tools.byteToString(byteSize);
             final User tmpUser = controller.getUser(userCode);
+            final String user = tmpUser.getNick();
             final File defaultFile = new File(
                     System.getProperty("user.home") + System.getProperty("file.separator") + fileName);
-            final FileReceiver fileRes = tList.addFileReceiver(tmpUser, defaultFile, byteSize);
+            final FileReceiver fileRes = tList.addFileReceiver(tmpUser, defaultFile, byteSize, batch);
+            final String fileType = batch ? "folder" : "file";
 
             msgController.showSystemMessage(
-                    user + " is trying to send the file " + fileName + " (#" + fileRes.getId() + ") [" + size + "]");
+                    user + " is trying to send the " + fileType + " " + fileName + " (#" + fileRes.getId() + ") [" + size + "]");
 
             if (ui.askFileSave(user, fileName, size)) {
                 ui.showFileSave(fileRes);
+            }
+
+            if (fileRes.isAccepted() && !fileRes.isCanceled()) {
+                ui.showTransfer(fileRes);
 
-                if (fileRes.isAccepted() && !fileRes.isCanceled()) {
-                    ui.showTransfer(fileRes);
+                // Waits for a free slot before telling the other user to start sending
+                transferExecutor.execute(fileRes, new Runnable() {
+                    @Override
+                    public void run() {
+                        receiveAcceptedFile(tmpUser, fileRes, fileName, fileHash, contentHash, channel);
+                        tList.removeFileReceiver(fileRes);
+                    }
+                });
+            }
 
-                    try {
-                        final int port = fileRes.startServer();
-                        controller.sendFileAccept(tmpUser, port, fileHash, fileName);
+            else {
+                if (!fileRes.isCanceled()) {
+                    msgController.showSystemMessage("You declined to receive " + fileName + " from " + user);
+                    controller.sendFileAbort(tmpUser, fileHash, fileName);
+                }
 
-                        if (fileRes.transfer()) {
-                            msgController.showSystemMessage("Successfully received " + fileName +
-                                                                    " from " + user + ", and saved as " + fileRes.getFile().getName());
-                        }
+                tList.removeFileReceiver(fileRes);
+            }
+        }
 
-                        else {
-                            msgController.showSystemMessage("Failed to receive " + fileName + " from " + user);
-                            fileRes.cancel();
-                        }
-                    }
+        else {
+            LOG.severe("Could not find user: %s", userCode);
+        }
+    }
 
-                    // Failed to start the server
-                    catch (final ServerException e) {
-                        LOG.severe(e, "Failed to start server: %s", e.getMessage());
-                        msgController.showSystemMessage("Failed to receive " + fileName + " from " + user);
-                        controller.sendFileAbort(tmpUser, fileHash, fileName);
-                        fileRes.cancel();
-                    }
+    private void receiveAcceptedFile(final User tmpUser, final FileReceiver fileRes, final String fileName,
+                                     final int fileHash, @Nullable final String contentHash,
+                                     @Nullable final MulticastFileChannel channel) {
+        final String user = tmpUser.getNick();
 
-                    // Failed to send the accept message
-                    catch (final CommandException e) {
-                        msgController.showSystemMessage("Failed to receive " + fileName + " from " + user);
-                        fileRes.cancel();
-                    }
-                }
+        // Canceled while in the queue
+        if (fileRes.isCanceled()) {
+            return;
+        }
 
-                else if (!fileRes.isCanceled()) {
-                    msgController.showSystemMessage("You declined to receive " + fileName + " from " + user);
-                    controller.sendFileAbort(tmpUser, fileHash, fileName);
+        try {
+            final boolean transferred;
+
+            if (contentHash != null && fileRes.transferFromCache(fileContentCache, contentHash)) {
+                controller.sendFileAcceptCached(tmpUser, fileHash, fileName);
+                transferred = true;
+            }
+
+            else if (channel != null) {
+                channel.join();
+                controller.sendFileAccept(tmpUser, 0, fileHash, fileName, false, 0);
+                transferred = fileRes.transfer(channel);
+            }
+
+            else {
+                final boolean sharedPort = tmpUser.hasCapability(ClientCapability.SHARED_PORT);
+                final int port = sharedPort ? fileRes.startSharedServer(fileTransferServer)
+                                            : fileRes.startServer(fileTransferServer);
+                final int transferId = sharedPort ? fileRes.getId() : 0;
+                final boolean compressed = tmpUser.hasCapability(ClientCapability.DEFLATE);
+                controller.sendFileAccept(tmpUser, port, fileHash, fileName, compressed, transferId);
+                transferred = fileRes.transfer(compressed);
+
+                if (transferred && contentHash != null) {
+                    fileContentCache.store(contentHash, fileRes.getFile());
                 }
+            }
 
+            if (transferred) {
+                msgController.showSystemMessage("Successfully received " + fileName +
+                                                        " from " + user + ", and saved as " + fileRes.getFile().getName());
             }
 
-            else if (!fileRes.isCanceled()) {
-                msgController.showSystemMessage("You declined to receive " + fileName + " from " + user);
-                controller.sendFileAbort(tmpUser, fileHash, fileName);
+            else {
+                msgController.showSystemMessage("Failed to receive " + fileName + " from " + user);
+                fileRes.cancel();
             }
+        }
 
-            tList.removeFileReceiver(fileRes);
+        // Failed to start the server
+        catch (final ServerException e) {
+            LOG.severe(e, "Failed to start server: %s", e.getMessage());
+            msgController.showSystemMessage("Failed to receive " + fileName + " from " + user);
+            controller.sendFileAbort(tmpUser, fileHash, fileName);
+            fileRes.cancel();
         }
 
-        else {
-            LOG.severe("Could not find user: %s", user);
+        // Failed to send the accept message
+        catch (final CommandException e) {
+            msgController.showSystemMessage("Failed to receive " + fileName + " from " + user);
+            fileRes.cancel();
         }
     }
 
@@ -569,32 +751,62 @@ public class DefaultMessageResponder implements MessageResponder {
 
     /**
      * The other user has accepted a file transfer. Will try to connect to the
-     * user to send the file.
+     * user to send the file, when there is a free slot in the {@link TransferExecutor}.
      *
      * @param userCode The unique code of the user who accepted a file transfer.
      * @param fileName The name of the file.
      * @param fileHash The hash code of the file.
      * @param port The port to use for connecting to the other user.
+     * @param compressed If the file should be sent compressed.
+     * @param transferId The id of the file transfer at the other user, if the port is shared, or 0.
      */
     @Override
-    public void fileSendAccepted(final int userCode, final String fileName, final int fileHash, final int port) {
+    public void fileSendAccepted(final int userCode, final String fileName, final int fileHash, final int port,
+                                 final boolean compressed, final int transferId) {
         final User user = controller.getUser(userCode);
         final FileSender fileSend = tList.getFileSender(user, fileName, fileHash);
 
         if (fileSend != null) {
             msgController.showSystemMessage(user.getNick() + " accepted sending of " + fileName);
 
-            // Give the server some time to set up the connection first
-            sleeper.sleep(200);
+            transferExecutor.execute(fileSend, new Runnable() {
+                @Override
+                public void run() {
+                    // Give the server some time to set up the connection first. A shared server is already running.
+                    if (transferId == 0) {
+                        sleeper.sleep(200);
+                    }
 
-            if (fileSend.transfer(port)) {
-                msgController.showSystemMessage(fileName + " successfully sent to " + user.getNick());
-            }
+                    if (fileSend.transfer(port, compressed, transferId)) {
+                        msgController.showSystemMessage(fileName + " successfully sent to " + user.getNick());
+                    }
 
-            else {
-                msgController.showSystemMessage("Failed to send " + fileName + " to " + user.getNick());
-            }
+                    else {
+                        msgController.showSystemMessage("Failed to send " + fileName + " to " + user.getNick());
+                    }
+
+                    tList.removeFileSender(fileSend);
+                }
+            });
+        }
+    }
+
+    /**
+     * The other user already had the file in the receive cache. Completes the file transfer
+     * without sending anything.
+     *
+     * @param userCode The unique code of the user who had the file.
+     * @param fileName The name of the file.
+     * @param fileHash The hash code of the file.
+     */
+    @Override
+    public void fileSendCached(final int userCode, final String fileName, final int fileHash) {
+        final User user = controller.getUser(userCode);
+        final FileSender fileSend = tList.getFileSender(user, fileName, fileHash);
 
+        if (fileSend != null) {
+            fileSend.completeFromCache();
+            msgController.showSystemMessage(user.getNick() + " already had " + fileName + ", no need to send it");
             tList.removeFileSender(fileSend);
         }
     }
@@ -608,10 +820,12 @@ public class DefaultMessageResponder implements MessageResponder {
      * @param operatingSystem The user's operating system.
      * @param privateChatPort The port to use for sending private chat messages to this user.
      * @param tcpChatPort The port to use for sending chat messages to this user using tcp.
+     * @param capabilities The optional features of the network protocol the client supports.
      */
     @Override
     public void clientInfo(final int userCode, final String client, final long timeSinceLogon,
-                           final String operatingSystem, final int privateChatPort, final int tcpChatPort) {
+                           final String operatingSystem, final int privateChatPort, final int tcpChatPort,
+                           final List<String> capabilities) {
         final User user = controller.getUser(userCode);
 
         if (user != null) {
@@ -620,10 +834,264 @@ public class DefaultMessageResponder implements MessageResponder {
             user.setOperatingSystem(operatingSystem);
             user.setPrivateChatPort(privateChatPort);
             user.setTcpChatPort(tcpChatPort);
+            user.setCapabilities(parseCapabilities(user, capabilities));
+
+            if (user.hasCapability(ClientCapability.ROSTER)) {
+                rosterRequester.addCandidate(user);
+            }
         }
 
         else {
             LOG.severe("Could not find user: %s", userCode);
         }
     }
+
+    /**
+     * Sends a snapshot of all the users in the user list, if the user who asked is known
+     * and connected with tcp.
+     *
+     * @param userCode The unique code of the user who asked.
+     */
+    @Override
+    public void rosterRequested(final int userCode) {
+        final User user = controller.getUser(userCode);
+
+        if (user == null || !user.isTcpEnabled()) {
+            LOG.warning("Unable to send roster to user %s without a tcp connection", userCode);
+            return;
+        }
+
+        if (!controller.sendRoster(user)) {
+            LOG.warning("Failed to send roster to user %s", userCode);
+        }
+    }
+
+    /**
+     * Adds the users in the snapshot that are not already in the user list, in a single batch.
+     * Operations held back for the added users in the waiting list continue after this.
+     *
+     * @param userCode The unique code of the user who sent the snapshot.
+     * @param users The users in the snapshot.
+     */
+    @Override
+    public void rosterArrived(final int userCode, final List<User> users) {
+        rosterRequester.rosterArrived(userCode);
+
+        final List<User> addedUsers = controller.addUsers(users);
+        LOG.fine("Added %s of %s users from roster sent by user %s", addedUsers.size(), users.size(), userCode);
+
+        for (final User user : addedUsers) {
+            wList.removeWaitingUser(user.getCode());
+        }
+    }
+
+    /**
+     * Applies a presence delta from a user, unless a newer version has been seen already.
+     *
+     * <p>A delta with only the nick name can't be trusted to be the complete state if versions are
+     * missing in between, because an away change may be lost. The nick name is still updated, but the
+     * version is kept, and the complete presence state is requested from the user instead.</p>
+     *
+     * @param presence A user with the code, nick name, presence version, and the away state if included.
+     * @param complete If the away state is included.
+     */
+    @Override
+    public void presenceChanged(final User presence, final boolean complete) {
+        final User user = controller.getUser(presence.getCode());
+
+        if (user == null) {
+            LOG.severe("Could not find user: %s", presence.getCode());
+            return;
+        }
+
+        final int knownVersion = user.getPresenceVersion();
+        final int newVersion = presence.getPresenceVersion();
+
+        if (newVersion <= knownVersion) {
+            LOG.fine("Ignoring old presence version %s from user %s, already at %s", newVersion, user.getCode(), knownVersion);
+            return;
+        }
+
+        nickChanged(user.getCode(), presence.getNick());
+
+        if (complete) {
+            awayChanged(user.getCode(), presence.isAway(), presence.getAwayMsg());
+        }
+
+        if (complete || newVersion == knownVersion + 1) {
+            user.setPresenceVersion(newVersion);
+        }
+
+        else {
+            LOG.fine("Missed presence versions from user %s, from %s to %s", user.getCode(), knownVersion, newVersion);
+            controller.sendPresenceRequest(user);
+        }
+    }
+
+    /**
+     * Asks the user for the complete presence state if the version is newer than the last seen version,
+     * because a presence delta was lost.
+     *
+     * @param userCode The unique code of the user.
+     * @param presenceVersion The current version of the presence state of the user.
+     */
+    @Override
+    public void presenceDigestArrived(final int userCode, final int presenceVersion) {
+        final User user = controller.getUser(userCode);
+
+        if (user == null || !user.hasCapability(ClientCapability.PRESENCE)) {
+            return;
+        }
+
+        if (presenceVersion > user.getPresenceVersion()) {
+            LOG.fine("Missed presence versions from user %s, from %s to %s",
+                     userCode, user.getPresenceVersion(), presenceVersion);
+            controller.sendPresenceRequest(user);
+        }
+    }
+
+    /**
+     * Sends the complete presence state of the application user to the user who asked.
+     *
+     * @param userCode The unique code of the user who asked.
+     */
+    @Override
+    public void presenceRequested(final int userCode) {
+        final User user = controller.getUser(userCode);
+
+        if (user == null) {
+            LOG.severe("Could not find user: %s", userCode);
+            return;
+        }
+
+        controller.sendPresenceMessage(user);
+    }
+
+    /**
+     * Sends the missing chat messages again to the user who asked.
+     *
+     * @param userCode The unique code of the user who asked.
+     * @param privateChat If the messages are from the private chat with the user, instead of the main chat.
+     * @param sequences The sequence numbers of the missing messages.
+     */
+    @Override
+    public void messagesRequested(final int userCode, final boolean privateChat, final List<Integer> sequences) {
+        final User user = controller.getUser(userCode);
+
+        if (user == null) {
+            LOG.severe("Could not find user: %s", userCode);
+            return;
+        }
+
+        controller.resendMessages(user, privateChat, sequences);
+    }
+
+    /**
+     * Sends the recent messages in the main chat, if the user who asked is known
+     * and connected with tcp.
+     *
+     * @param userCode The unique code of the user who asked.
+     * @param age Milliseconds back in time to send messages from, or -1 to send all the messages.
+     */
+    @Override
+    public void historyRequested(final int userCode, final long age) {
+        final User user = controller.getUser(userCode);
+
+        if (user == null || !user.isTcpEnabled()) {
+            LOG.warning("Unable to send history to user %s without a tcp connection", userCode);
+            return;
+        }
+
+        if (!controller.sendChatHistory(user, age)) {
+            LOG.warning("Failed to send history to user %s", userCode);
+        }
+    }
+
+    /**
+     * Shows the messages that were missed, if they were asked for. Messages that are already
+     * shown are skipped.
+     *
+     * @param userCode The unique code of the user who sent the messages.
+     * @param entries The messages, oldest first.
+     */
+    @Override
+    public void historyArrived(final int userCode, final List<ChatHistory.Entry> entries) {
+        if (!controller.acceptChatHistory(userCode)) {
+            LOG.warning("Ignoring history from user %s that was not asked for", userCode);
+            return;
+        }
+
+        final ChatHistory chatHistory = controller.getChatHistory();
+        final List<ChatHistory.Entry> missedEntries = new ArrayList<>();
+
+        for (final ChatHistory.Entry entry : entries) {
+            if (!chatHistory.contains(entry)) {
+                missedEntries.add(entry);
+            }
+        }
+
+        LOG.fine("Missed %s of %s messages in history from user %s", missedEntries.size(), entries.size(), userCode);
+
+        if (missedEntries.isEmpty()) {
+            return;
+        }
+
+        msgController.showSystemMessage(coreMessages.getMessage("core.network.systemMessage.historyArrived",
+                                                                missedEntries.size()));
+
+        for (final ChatHistory.Entry entry : missedEntries) {
+            msgController.showHistoryMessage(entry.getTime(), entry.getNick(), entry.getMessage(), entry.getColor());
+            chatHistory.add(entry);
+        }
+    }
+
+    /**
+     * Finds the capabilities with a value, and updates the user with the value.
+     * Only the name of the capability is kept in the list of capabilities.
+     *
+     * @param user The user who sent the capabilities.
+     * @param capabilities The capabilities from the client info.
+     * @return The names of the capabilities.
+     */
+    private List<String> parseCapabilities(final User user, final List<String> capabilities) {
+        final List<String> capabilityNames = new ArrayList<>();
+        final String idleIntervalPrefix = ClientCapability.IDLE_INTERVAL + "=";
+        final String presencePrefix = ClientCapability.PRESENCE + "=";
+
+        for (final String capability : capabilities) {
+            if (capability.startsWith(idleIntervalPrefix)) {
+                try {
+                    user.setIdleInterval(Integer.parseInt(capability.substring(idleIntervalPrefix.length())));
+                    capabilityNames.add(ClientCapability.IDLE_INTERVAL);
+                }
+
+                catch (final NumberFormatException e) {
+                    LOG.warning("Invalid idle interval from user %s: %s", user.getCode(), capability);
+                }
+            }
+
+            else if (capability.startsWith(presencePrefix)) {
+                try {
+                    final int presenceVersion = Integer.parseInt(capability.substring(presencePrefix.length()));
+
+                    // Later versions are tracked from the presence deltas and digests
+                    if (user.getPresenceVersion() == 0) {
+                        user.setPresenceVersion(presenceVersion);
+                    }
+
+                    capabilityNames.add(ClientCapability.PRESENCE);
+                }
+
+                catch (final NumberFormatException e) {
+                    LOG.warning("Invalid presence version from user %s: %s", user.getCode(), capability);
+                }
+            }
+
+            else {
+                capabilityNames.add(capability);
+            }
+        }
+
+        return capabilityNames;
+    }
 }
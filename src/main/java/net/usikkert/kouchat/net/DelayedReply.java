@@ -0,0 +1,155 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import java.util.Random;
+
+import net.usikkert.kouchat.misc.UserList;
+import net.usikkert.kouchat.util.HashedWheelTimer;
+import net.usikkert.kouchat.util.TimerHandle;
+import net.usikkert.kouchat.util.Validate;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A reply to a request that every client on the network answers, like
+ * {@link NetworkMessageType#EXPOSE} and {@link NetworkMessageType#GETTOPIC}.
+ *
+ * <p>If every client replied at once, a large chat would get a burst of packets that could
+ * cause lost messages. Instead, the reply is sent after a random delay. The longest delay
+ * grows with the number of users, so the replies are spread out more in larger chats.</p>
+ *
+ * <p>Requests arriving while a reply is pending are answered by the same reply. The pending reply
+ * can also be suppressed, if an equivalent reply from another client is seen first.</p>
+ *
+ * @author Christian Ihle
+ */
+public class DelayedReply implements Runnable {
+
+    /** The longest delay in milliseconds before replying, in a large chat. */
+    static final int MAX_DELAY = 1000;
+
+    /** The longest delay grows by this number of milliseconds for every user in the chat. */
+    static final int DELAY_PER_USER = 5;
+
+    private final String name;
+    private final HashedWheelTimer timer;
+    private final UserList userList;
+    private final Runnable reply;
+    private final Random random;
+
+    /** The pending reply, if any. */
+    @Nullable
+    private TimerHandle pendingReply;
+
+    /**
+     * Constructor.
+     *
+     * @param name The name of the reply, used for the timer.
+     * @param timer The timer to schedule the reply with.
+     * @param userList The list of users in the chat, used to find the longest delay.
+     * @param reply The reply to send when the delay is over.
+     */
+    public DelayedReply(final String name, final HashedWheelTimer timer, final UserList userList, final Runnable reply) {
+        this(name, timer, userList, reply, new Random());
+    }
+
+    DelayedReply(final String name, final HashedWheelTimer timer, final UserList userList, final Runnable reply,
+                 final Random random) {
+        Validate.notEmpty(name, "Name can not be empty");
+        Validate.notNull(timer, "Timer can not be null");
+        Validate.notNull(userList, "User list can not be null");
+        Validate.notNull(reply, "Reply can not be null");
+        Validate.notNull(random, "Random can not be null");
+
+        this.name = name;
+        this.timer = timer;
+        this.userList = userList;
+        this.reply = reply;
+        this.random = random;
+    }
+
+    /**
+     * Schedules the reply after a random delay, unless a reply is pending already.
+     *
+     * @return If the reply was scheduled, or <code>false</code> if the request was answered by the pending reply.
+     */
+    public synchronized boolean request() {
+        if (pendingReply != null) {
+            return false;
+        }
+
+        pendingReply = timer.schedule(name, this, random.nextInt(getMaxDelay() + 1));
+        return true;
+    }
+
+    /**
+     * Cancels the pending reply, because an equivalent reply was seen from another client.
+     *
+     * @return If a pending reply was cancelled.
+     */
+    public synchronized boolean suppress() {
+        if (pendingReply == null) {
+            return false;
+        }
+
+        pendingReply.cancel();
+        pendingReply = null;
+
+        return true;
+    }
+
+    /**
+     * Checks if a reply is waiting to be sent.
+     *
+     * @return If a reply is pending.
+     */
+    public synchronized boolean isPending() {
+        return pendingReply != null;
+    }
+
+    /**
+     * Gets the longest delay before replying, based on the number of users in the chat.
+     *
+     * @return The longest delay in milliseconds.
+     */
+    int getMaxDelay() {
+        return Math.min(MAX_DELAY, userList.size() * DELAY_PER_USER);
+    }
+
+    /**
+     * Sends the reply, unless it was suppressed.
+     */
+    @Override
+    public void run() {
+        synchronized (this) {
+            if (pendingReply == null) {
+                return;
+            }
+
+            pendingReply = null;
+        }
+
+        reply.run();
+    }
+}
@@ -0,0 +1,305 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import net.usikkert.kouchat.util.Validate;
+
+/**
+ * A folder with files to send to another user as a single file transfer.
+ *
+ * <p>All the files and sub folders are streamed over one connection, with a small header
+ * in front of each entry. Sending many small files then costs no extra negotiation or
+ * connection setup. Each entry in the stream looks like this:</p>
+ *
+ * <ul>
+ *   <li>The path relative to the folder, with <code>/</code> as separator, written as
+ *       with {@link DataOutput#writeUTF(String)}.</li>
+ *   <li>The size of the file in bytes as a long, or {@link #FOLDER} for a folder.</li>
+ *   <li>The contents of the file.</li>
+ * </ul>
+ *
+ * <p>The stream ends with an empty path. {@link FileBatchExtractor} restores the files on the
+ * receiving side. Symbolic links to folders are skipped, to avoid loops.</p>
+ *
+ * @author Christian Ihle
+ */
+public class FileBatch implements FileToSend.InputStreamOpener {
+
+    /** The size used in the header of an entry that is a folder. */
+    static final long FOLDER = -1;
+
+    private final File folder;
+    private final List<Entry> entries;
+    private final long length;
+
+    /**
+     * Constructor. Finds all the files in the folder.
+     *
+     * @param folder The folder to send.
+     * @throws IOException If the headers could not be created.
+     */
+    public FileBatch(final File folder) throws IOException {
+        Validate.notNull(folder, "Folder can not be null");
+
+        this.folder = folder;
+        entries = new ArrayList<>();
+        addEntries(folder, "");
+
+        long totalLength = createHeader("", 0).length;
+
+        for (final Entry entry : entries) {
+            totalLength += entry.header.length + Math.max(0, entry.size);
+        }
+
+        length = totalLength;
+    }
+
+    /**
+     * Creates a file to send for the specified file, which may be a folder.
+     *
+     * @param file The file or folder to send.
+     * @return A single file to send, or a batch if the file is a folder.
+     * @throws IOException If the folder could not be read.
+     */
+    public static FileToSend createFileToSend(final File file) throws IOException {
+        if (file.isDirectory()) {
+            return new FileBatch(file).createFileToSend();
+        }
+
+        return new FileToSend(file);
+    }
+
+    /**
+     * Creates a file to send with the stream of this batch, using the name of the folder.
+     *
+     * @return The file to send.
+     */
+    public FileToSend createFileToSend() {
+        return new FileToSend(this, folder.getName(), length, true);
+    }
+
+    /**
+     * The number of files in the batch, not counting folders.
+     *
+     * @return The number of files.
+     */
+    public int getFileCount() {
+        int count = 0;
+
+        for (final Entry entry : entries) {
+            if (entry.size != FOLDER) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * The number of bytes in the stream, including the headers.
+     *
+     * @return The length of the stream.
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Opens a new stream with all the entries in the batch. The files are opened one at
+     * a time, when the stream gets to them.
+     *
+     * @return The stream.
+     */
+    @Override
+    public InputStream open() {
+        final Iterator<Entry> iterator = entries.iterator();
+
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            private Entry currentEntry;
+            private boolean done;
+
+            @Override
+            public boolean hasMoreElements() {
+                return !done;
+            }
+
+            @Override
+            public InputStream nextElement() {
+                if (done) {
+                    throw new NoSuchElementException();
+                }
+
+                // Contents of the file after its header
+                if (currentEntry != null && currentEntry.size > 0) {
+                    final InputStream contents = new EntryInputStream(currentEntry.file, currentEntry.size);
+                    currentEntry = null;
+                    return contents;
+                }
+
+                if (iterator.hasNext()) {
+                    currentEntry = iterator.next();
+                    return new ByteArrayInputStream(currentEntry.header);
+                }
+
+                done = true;
+                return new ByteArrayInputStream(createEndHeader());
+            }
+        });
+    }
+
+    private void addEntries(final File currentFolder, final String path) throws IOException {
+        final File[] files = currentFolder.listFiles();
+
+        if (files == null) {
+            return;
+        }
+
+        Arrays.sort(files);
+
+        for (final File file : files) {
+            final String filePath = path + file.getName();
+
+            if (file.isDirectory()) {
+                if (!Files.isSymbolicLink(file.toPath())) {
+                    entries.add(new Entry(file, FOLDER, createHeader(filePath, FOLDER)));
+                    addEntries(file, filePath + "/");
+                }
+            }
+
+            else if (file.isFile()) {
+                entries.add(new Entry(file, file.length(), createHeader(filePath, file.length())));
+            }
+        }
+    }
+
+    private byte[] createEndHeader() {
+        try {
+            return createHeader("", 0);
+        }
+
+        catch (final IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] createHeader(final String path, final long size) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(path);
+
+        if (!path.isEmpty()) {
+            out.writeLong(size);
+        }
+
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * A file or folder in the batch, with its header.
+     */
+    private static class Entry {
+
+        private final File file;
+        private final long size;
+        private final byte[] header;
+
+        Entry(final File file, final long size, final byte[] header) {
+            this.file = file;
+            this.size = size;
+            this.header = header;
+        }
+    }
+
+    /**
+     * Reads exactly the number of bytes announced in the header of a file. Fails if the file
+     * has become smaller since the batch was created, since the stream would be corrupt.
+     */
+    private static class EntryInputStream extends InputStream {
+
+        private final File file;
+        private long remaining;
+        private InputStream inputStream;
+
+        EntryInputStream(final File file, final long size) {
+            this.file = file;
+            this.remaining = size;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            final int read = read(b, 0, 1);
+
+            if (read == -1) {
+                return -1;
+            }
+
+            return b[0] & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (remaining == 0) {
+                return -1;
+            }
+
+            if (inputStream == null) {
+                inputStream = new FileInputStream(file);
+            }
+
+            final int read = inputStream.read(b, off, (int) Math.min(len, remaining));
+
+            if (read == -1) {
+                throw new IOException("File changed while sending: " + file);
+            }
+
+            remaining -= read;
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (inputStream != null) {
+                inputStream.close();
+            }
+        }
+    }
+}
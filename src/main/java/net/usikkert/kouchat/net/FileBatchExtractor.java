@@ -0,0 +1,228 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import net.usikkert.kouchat.util.Validate;
+
+/**
+ * Restores the files in a stream from a {@link FileBatch} to a folder, as the bytes arrive.
+ *
+ * <p>Paths that are absolute or try to escape the folder are rejected, so a batch
+ * can only create files inside the folder chosen by the user.</p>
+ *
+ * @author Christian Ihle
+ */
+public class FileBatchExtractor extends OutputStream {
+
+    /** Number of bytes in the header with the length of the path. */
+    private static final int PATH_LENGTH_SIZE = 2;
+
+    /** Number of bytes in the header with the size of the file. */
+    private static final int FILE_SIZE_SIZE = 8;
+
+    private final File folder;
+    private final String canonicalFolder;
+    private final ByteArrayOutputStream header;
+
+    private OutputStream currentFile;
+    private long remaining;
+    private boolean complete;
+
+    /**
+     * Constructor. Creates the folder if it does not exist.
+     *
+     * @param folder The folder to restore the files to.
+     * @throws IOException If the folder could not be created.
+     */
+    public FileBatchExtractor(final File folder) throws IOException {
+        Validate.notNull(folder, "Folder can not be null");
+
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            throw new IOException("Could not create folder: " + folder);
+        }
+
+        this.folder = folder;
+        canonicalFolder = folder.getCanonicalPath() + File.separator;
+        header = new ByteArrayOutputStream();
+    }
+
+    /**
+     * If the end of the batch has been reached.
+     *
+     * @return If all the files have been restored.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        int offset = off;
+        int length = len;
+
+        while (length > 0) {
+            if (complete) {
+                throw new IOException("Unexpected data after the end of the batch");
+            }
+
+            final int written;
+
+            if (currentFile != null) {
+                written = (int) Math.min(length, remaining);
+                currentFile.write(b, offset, written);
+                remaining -= written;
+
+                if (remaining == 0) {
+                    closeCurrentFile();
+                }
+            }
+
+            else {
+                written = Math.min(length, getHeaderSize() - header.size());
+                header.write(b, offset, written);
+
+                if (header.size() == getHeaderSize()) {
+                    readHeader();
+                }
+            }
+
+            offset += written;
+            length -= written;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (currentFile != null) {
+            currentFile.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closeCurrentFile();
+    }
+
+    /**
+     * Gets the size of the current header. The size is only known after the length of the path is read.
+     */
+    private int getHeaderSize() {
+        if (header.size() < PATH_LENGTH_SIZE) {
+            return PATH_LENGTH_SIZE;
+        }
+
+        final byte[] bytes = header.toByteArray();
+        final int pathLength = ((bytes[0] & 0xff) << 8) | (bytes[1] & 0xff);
+
+        // The end of the batch has no file size
+        if (pathLength == 0) {
+            return PATH_LENGTH_SIZE;
+        }
+
+        return PATH_LENGTH_SIZE + pathLength + FILE_SIZE_SIZE;
+    }
+
+    private void readHeader() throws IOException {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(header.toByteArray()));
+        final String path = in.readUTF();
+        header.reset();
+
+        if (path.isEmpty()) {
+            complete = true;
+            return;
+        }
+
+        final long size = in.readLong();
+        final File file = getFile(path);
+
+        if (size == FileBatch.FOLDER) {
+            if (!file.isDirectory() && !file.mkdirs()) {
+                throw new IOException("Could not create folder: " + file);
+            }
+        }
+
+        else if (size >= 0) {
+            final File parent = file.getParentFile();
+
+            if (!parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("Could not create folder: " + parent);
+            }
+
+            currentFile = new FileOutputStream(file);
+            remaining = size;
+
+            if (remaining == 0) {
+                closeCurrentFile();
+            }
+        }
+
+        else {
+            throw new IOException("Invalid size of " + path + ": " + size);
+        }
+    }
+
+    private File getFile(final String path) throws IOException {
+        if (path.startsWith("/") || path.contains("\\") || path.contains(":")) {
+            throw new IOException("Invalid path in file batch: " + path);
+        }
+
+        for (final String part : path.split("/")) {
+            if (part.isEmpty() || part.equals(".") || part.equals("..")) {
+                throw new IOException("Invalid path in file batch: " + path);
+            }
+        }
+
+        final File file = new File(folder, path);
+
+        if (!file.getCanonicalPath().startsWith(canonicalFolder)) {
+            throw new IOException("Invalid path in file batch: " + path);
+        }
+
+        return file;
+    }
+
+    private void closeCurrentFile() throws IOException {
+        if (currentFile != null) {
+            try {
+                currentFile.close();
+            }
+
+            finally {
+                currentFile = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,270 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.regex.Pattern;
+
+import net.usikkert.kouchat.util.Logger;
+import net.usikkert.kouchat.util.Validate;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A cache of received files, indexed by a hash of the content.
+ *
+ * <p>Users supporting {@link ClientCapability#CONTENT_HASH} include the hash of the content when asking
+ * to send a file. If a file with the same content has been received before, it's restored from the cache
+ * instead of being sent over the network again.</p>
+ *
+ * <p>Files are added to the cache as hard links to the received file when possible, so they don't use
+ * extra disk space, and copied otherwise. Since a hard link follows changes to the received file,
+ * the content is always verified against the hash before a file is restored from the cache.
+ * Files are always restored as copies, so changing a restored file does not change the cache,
+ * or the file received before. The oldest files are removed when the cache grows larger than the max size.</p>
+ *
+ * @author Christian Ihle
+ */
+public class FileContentCache {
+
+    private static final Logger LOG = Logger.getLogger(FileContentCache.class);
+
+    /** Option in {@link NetworkMessageType#SENDFILE} with the hash of the content. */
+    static final String CONTENT_HASH_OPTION = "sha256=";
+
+    /** Option in {@link NetworkMessageType#SENDFILEACCEPT} when the file was restored from the cache. */
+    static final String CACHED_OPTION = "cached";
+
+    /** The default max size of the cache, in bytes. */
+    static final long DEFAULT_MAX_SIZE = 2L * 1024 * 1024 * 1024;
+
+    private static final String HASH_ALGORITHM = "SHA-256";
+    private static final Pattern CONTENT_HASH_PATTERN = Pattern.compile("[0-9a-f]{64}");
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final File directory;
+    private final long maxSize;
+
+    /**
+     * Constructor.
+     *
+     * @param directory The directory to keep the cached files in. Created when needed.
+     */
+    public FileContentCache(final File directory) {
+        this(directory, DEFAULT_MAX_SIZE);
+    }
+
+    FileContentCache(final File directory, final long maxSize) {
+        Validate.notNull(directory, "Directory can not be null");
+
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Creates a hash of all the content in the stream. The stream is not closed.
+     *
+     * @param inputStream The stream to read the content from.
+     * @return The hash, as lower case hex.
+     * @throws IOException If reading the stream failed.
+     */
+    public static String createContentHash(final InputStream inputStream) throws IOException {
+        final MessageDigest digest = createDigest();
+        final byte[] buffer = new byte[64 * 1024];
+        int read;
+
+        while ((read = inputStream.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+        }
+
+        final byte[] hash = digest.digest();
+        final char[] hex = new char[hash.length * 2];
+
+        for (int i = 0; i < hash.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(hash[i] >> 4) & 0xF];
+            hex[i * 2 + 1] = HEX_DIGITS[hash[i] & 0xF];
+        }
+
+        return new String(hex);
+    }
+
+    /**
+     * Checks if the hash has the format created by {@link #createContentHash(InputStream)}.
+     * Hashes from the network must be checked before they are used as file names.
+     *
+     * @param contentHash The hash to check.
+     * @return If the hash is valid.
+     */
+    public static boolean isValidContentHash(@Nullable final String contentHash) {
+        return contentHash != null && CONTENT_HASH_PATTERN.matcher(contentHash).matches();
+    }
+
+    /**
+     * Restores a file with the content hash from the cache, if it's there.
+     *
+     * @param contentHash The hash of the content of the file.
+     * @param size The size of the file.
+     * @param target Where to save the file.
+     * @return If the file was restored.
+     */
+    public synchronized boolean restore(final String contentHash, final long size, final File target) {
+        Validate.notNull(target, "Target can not be null");
+
+        if (!isValidContentHash(contentHash)) {
+            return false;
+        }
+
+        final File cachedFile = new File(directory, contentHash);
+
+        if (!cachedFile.isFile() || cachedFile.length() != size) {
+            return false;
+        }
+
+        try {
+            if (!contentHash.equals(createContentHash(cachedFile))) {
+                LOG.fine("Cached file %s has changed, removing", cachedFile);
+                Files.delete(cachedFile.toPath());
+                return false;
+            }
+
+            Files.copy(cachedFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        }
+
+        catch (final IOException e) {
+            LOG.warning("Failed to restore %s from cache: %s", target, e.toString());
+            return false;
+        }
+    }
+
+    /**
+     * Adds a received file to the cache, if the content matches the hash.
+     *
+     * @param contentHash The hash of the content, as told by the sender.
+     * @param file The received file.
+     */
+    public synchronized void store(final String contentHash, final File file) {
+        Validate.notNull(file, "File can not be null");
+
+        if (!isValidContentHash(contentHash)) {
+            return;
+        }
+
+        final File cachedFile = new File(directory, contentHash);
+
+        if (cachedFile.exists()) {
+            return;
+        }
+
+        try {
+            if (!contentHash.equals(createContentHash(file))) {
+                LOG.warning("Received file %s does not match the content hash %s", file, contentHash);
+                return;
+            }
+
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                LOG.warning("Failed to create cache directory %s", directory);
+                return;
+            }
+
+            link(file, cachedFile);
+            removeOldestFiles();
+        }
+
+        catch (final IOException e) {
+            LOG.warning("Failed to add %s to cache: %s", file, e.toString());
+        }
+    }
+
+    private static String createContentHash(final File file) throws IOException {
+        final InputStream inputStream = new FileInputStream(file);
+
+        try {
+            return createContentHash(inputStream);
+        }
+
+        finally {
+            inputStream.close();
+        }
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        }
+
+        catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(HASH_ALGORITHM + " is required by the Java platform", e);
+        }
+    }
+
+    /**
+     * Creates a hard link to the file, or a copy if hard links are not supported.
+     */
+    private void link(final File existing, final File link) throws IOException {
+        try {
+            Files.deleteIfExists(link.toPath());
+            Files.createLink(link.toPath(), existing.toPath());
+        }
+
+        catch (final IOException | UnsupportedOperationException e) {
+            LOG.fine("Could not link %s to %s, copying instead: %s", link, existing, e.toString());
+            Files.copy(existing.toPath(), link.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private void removeOldestFiles() throws IOException {
+        final File[] cachedFiles = directory.listFiles();
+
+        if (cachedFiles == null) {
+            return;
+        }
+
+        long totalSize = 0;
+
+        for (final File cachedFile : cachedFiles) {
+            totalSize += cachedFile.length();
+        }
+
+        Arrays.sort(cachedFiles, new Comparator<File>() {
+            @Override
+            public int compare(final File file1, final File file2) {
+                return Long.compare(file1.lastModified(), file2.lastModified());
+            }
+        });
+
+        for (int i = 0; i < cachedFiles.length && totalSize > maxSize; i++) {
+            totalSize -= cachedFiles[i].length();
+            Files.delete(cachedFiles[i].toPath());
+        }
+    }
+}
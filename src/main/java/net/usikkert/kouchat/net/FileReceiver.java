@@ -26,15 +26,19 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import net.usikkert.kouchat.Constants;
 import net.usikkert.kouchat.event.FileTransferListener;
 import net.usikkert.kouchat.misc.User;
-import net.usikkert.kouchat.util.ByteCounter;
+import net.usikkert.kouchat.util.HashedWheelTimer;
+import net.usikkert.kouchat.util.TimerHandle;
+import net.usikkert.kouchat.util.TransferRateMeter;
 
 import org.jetbrains.annotations.Nullable;
 
@@ -42,7 +46,15 @@ import org.jetbrains.annotations.Nullable;
  * This is a class for receiving files from other users.
  *
  * <p>To receive a file, a server socket has to be opened,
- * to wait for incoming transfers.</p>
+ * to wait for incoming transfers. Clients supporting
+ * {@link ClientCapability#SHARED_PORT} connect to the shared server socket in
+ * {@link FileTransferServer} instead, and are handed over to the receiver.</p>
+ *
+ * <p>A batch of files from a {@link FileBatch} is received the same way, but is
+ * restored to a folder instead of saved as a file.</p>
+ *
+ * <p>A file sent to many users at once is received from a {@link MulticastFileChannel} instead
+ * of a connection.</p>
  *
  * @author Christian Ihle
  */
@@ -66,14 +78,17 @@ public class FileReceiver implements FileTransfer {
     /** The unique ID of this file transfer. */
     private final int id;
 
-    /** Keeps count of the transfer speed. */
-    private final ByteCounter bCounter;
+    /** Measures the transfer speed, and updates the listener with the progress. */
+    private final TransferRateMeter rateMeter;
 
-    /** Percent of the file received. */
-    private int percent;
+    /** Gives permission to use bandwidth. */
+    private final TransferScheduler transferScheduler;
+
+    /** If this is a batch of files to restore to a folder. */
+    private final boolean batch;
 
     /** Number of bytes received. */
-    private long transferred;
+    private volatile long transferred;
 
     /** If the file was successfully received. */
     private boolean received;
@@ -87,6 +102,9 @@ public class FileReceiver implements FileTransfer {
     /** If the client has rejected the file. */
     private boolean rejected;
 
+    /** If waiting in the queue for other file transfers to finish. */
+    private volatile boolean queued;
+
     /** The file transfer listener. */
     private FileTransferListener listener;
 
@@ -94,18 +112,37 @@ public class FileReceiver implements FileTransfer {
     @Nullable
     private ServerSocket sSock;
 
+    /** Closes the server socket if no one connects to it in time. */
+    @Nullable
+    private TimerHandle serverTimeout;
+
+    /** The shared server to get the connection from, instead of opening a server socket. */
+    @Nullable
+    private FileTransferServer sharedServer;
+
+    /** Released when the shared server has a connection, or gives up waiting for one. */
+    private final CountDownLatch sharedConnectionLatch = new CountDownLatch(1);
+
     /** The socket connection to the other user. */
     @Nullable
-    private Socket sock;
+    private volatile Socket sock;
 
-    /** The output stream to the file. */
+    /** The output stream to the file, or the folder for a batch. */
     @Nullable
-    private FileOutputStream fos;
+    private OutputStream fos;
 
     /** The input stream from the other user. */
     @Nullable
     private InputStream is;
 
+    /** Decompresses the file, if the file transfer is compressed. */
+    @Nullable
+    private AdaptiveInflaterInputStream inflaterStream;
+
+    /** The channel receiving the file, if the file is sent to many users at once. */
+    @Nullable
+    private volatile MulticastFileChannel multicastChannel;
+
     /**
      * Constructor. Creates a new file receiver.
      *
@@ -113,25 +150,50 @@ public class FileReceiver implements FileTransfer {
      * @param file The file the user is sending.
      * @param size The size of the file, in bytes.
      * @param id The unique ID of this file transfer.
+     * @param transferScheduler The scheduler to ask for bandwidth.
+     * @param timer The timer to measure the transfer rate with.
      */
-    public FileReceiver(final User user, final File file, final long size, final int id) {
+    public FileReceiver(final User user, final File file, final long size, final int id,
+                        final TransferScheduler transferScheduler, final HashedWheelTimer timer) {
+        this(user, file, size, id, transferScheduler, timer, false);
+    }
+
+    /**
+     * Constructor. Creates a new file receiver for a single file or a batch of files.
+     *
+     * @param user The user which sends the file.
+     * @param file The file the user is sending, or the folder to restore a batch to.
+     * @param size The size of the file, in bytes.
+     * @param id The unique ID of this file transfer.
+     * @param transferScheduler The scheduler to ask for bandwidth.
+     * @param timer The timer to measure the transfer rate with.
+     * @param batch If the user is sending a batch of files.
+     */
+    public FileReceiver(final User user, final File file, final long size, final int id,
+                        final TransferScheduler transferScheduler, final HashedWheelTimer timer, final boolean batch) {
         this.user = user;
         this.file = file;
         this.size = size;
         this.id = id;
+        this.transferScheduler = transferScheduler;
+        this.batch = batch;
         this.originalFileName = file.getName();
 
-        bCounter = new ByteCounter();
+        rateMeter = new TransferRateMeter(timer);
     }
 
     /**
      * Starts a server connection which the sender can use to connect
      * for transferring the file, and returns the opened port.
      *
+     * <p>The server connection is closed if the sender has not connected
+     * within {@link FileTransferServer#CONNECTION_TIMEOUT} milliseconds.</p>
+     *
+     * @param fileTransferServer The server to schedule the timeout with.
      * @return The port which the sender can connect to.
      * @throws ServerException If the server could not be started.
      */
-    public int startServer() throws ServerException {
+    public int startServer(final FileTransferServer fileTransferServer) throws ServerException {
         int port = Constants.NETWORK_FILE_TRANSFER_PORT;
         boolean done = false;
         int counter = 0;
@@ -139,8 +201,12 @@ public class FileReceiver implements FileTransfer {
         while (!done && counter < 50) {
             try {
                 sSock = new ServerSocket(port);
-                final TimeoutThread tt = new TimeoutThread();
-                tt.start();
+                serverTimeout = fileTransferServer.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        closeServerSocket();
+                    }
+                }, FileTransferServer.CONNECTION_TIMEOUT);
                 done = true;
             }
 
@@ -161,6 +227,41 @@ public class FileReceiver implements FileTransfer {
         return port;
     }
 
+    /**
+     * Waits for the sender to connect to the shared server, and returns the port of the shared server.
+     * The sender must identify the connection with the id of this file transfer.
+     *
+     * @param fileTransferServer The shared server to wait for the connection on.
+     * @return The port which the sender can connect to.
+     * @throws ServerException If the server could not be started.
+     */
+    public int startSharedServer(final FileTransferServer fileTransferServer) throws ServerException {
+        sharedServer = fileTransferServer;
+
+        return fileTransferServer.register(this);
+    }
+
+    /**
+     * Gives this receiver the connection from the sender. Used by the shared server.
+     *
+     * @param socket The connection from the sender.
+     */
+    void connectionAccepted(final Socket socket) {
+        sock = socket;
+        sharedConnectionLatch.countDown();
+
+        if (cancel) {
+            stopReceiver();
+        }
+    }
+
+    /**
+     * Tells this receiver that the sender never connected. Used by the shared server.
+     */
+    void connectionTimedOut() {
+        sharedConnectionLatch.countDown();
+    }
+
     /**
      * Waits for an incoming connection, then receives the
      * file from the other user.
@@ -168,41 +269,56 @@ public class FileReceiver implements FileTransfer {
      * @return If the file transfer was successful.
      */
     public boolean transfer() {
+        return transfer(false);
+    }
+
+    /**
+     * Waits for an incoming connection, then receives the
+     * file from the other user, compressed if that was agreed on.
+     *
+     * @param compressed If the file is sent with {@link AdaptiveDeflaterOutputStream}.
+     * @return If the file transfer was successful.
+     */
+    public boolean transfer(final boolean compressed) {
         listener.statusConnecting();
 
         received = false;
         cancel = false;
 
         try {
-            if (sSock != null) {
-                sock = sSock.accept();
+            waitForConnection();
+
+            if (sock != null && !cancel) {
                 listener.statusTransferring();
-                fos = new FileOutputStream(file);
+                fos = createOutputStream();
                 is = sock.getInputStream();
 
+                if (compressed) {
+                    inflaterStream = new AdaptiveInflaterInputStream(is);
+                    is = inflaterStream;
+                }
+
                 final byte[] b = new byte[1024];
                 transferred = 0;
-                percent = 0;
                 int tmpTransferred = 0;
-                int tmpPercent = 0;
-                int transCounter = 0;
-                bCounter.prepare();
+                rateMeter.start(size, new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.transferUpdate();
+                    }
+                });
+                transferScheduler.register(this);
 
                 while (!cancel && (tmpTransferred = is.read(b)) != -1) {
+                    transferScheduler.acquire(this, tmpTransferred);
                     fos.write(b, 0, tmpTransferred);
                     transferred += tmpTransferred;
-                    percent = (int) ((transferred * 100) / size);
-                    bCounter.addBytes(tmpTransferred);
-                    transCounter++;
-
-                    if (percent > tmpPercent || transCounter >= 250) {
-                        transCounter = 0;
-                        tmpPercent = percent;
-                        listener.transferUpdate();
-                    }
+                    rateMeter.addBytes(tmpTransferred);
                 }
 
-                if (!cancel && transferred == size) {
+                rateMeter.stop();
+
+                if (!cancel && transferred == size && isCompleteBatch()) {
                     received = true;
                     listener.statusCompleted();
                 }
@@ -211,6 +327,10 @@ public class FileReceiver implements FileTransfer {
                     listener.statusFailed();
                 }
             }
+
+            else {
+                listener.statusFailed();
+            }
         }
 
         catch (final IOException e) {
@@ -219,6 +339,8 @@ public class FileReceiver implements FileTransfer {
         }
 
         finally {
+            rateMeter.stop();
+            transferScheduler.unregister(this);
             stopReceiver();
             cleanupConnections();
         }
@@ -226,6 +348,116 @@ public class FileReceiver implements FileTransfer {
         return received;
     }
 
+    /**
+     * Restores the file from the cache instead of receiving it from the other user.
+     *
+     * @param fileContentCache The cache to restore the file from.
+     * @param contentHash The hash of the content of the file.
+     * @return If the file was found in the cache, and restored.
+     */
+    public boolean transferFromCache(final FileContentCache fileContentCache, final String contentHash) {
+        received = false;
+
+        if (cancel || batch || !fileContentCache.restore(contentHash, size, file)) {
+            return false;
+        }
+
+        transferred = size;
+        received = true;
+        listener.statusCompleted();
+
+        return true;
+    }
+
+    /**
+     * Receives the file from a multicast session the channel has joined.
+     *
+     * @param channel The channel to receive the file from.
+     * @return If the file transfer was successful.
+     */
+    public boolean transfer(final MulticastFileChannel channel) {
+        received = false;
+        multicastChannel = channel;
+
+        if (cancel) {
+            return false;
+        }
+
+        listener.statusTransferring();
+        transferred = 0;
+        rateMeter.start(size, new Runnable() {
+            @Override
+            public void run() {
+                listener.transferUpdate();
+            }
+        });
+
+        try {
+            final boolean complete = channel.receive(file, new MulticastFileChannel.BlockListener() {
+                @Override
+                public void blockReceived(final int bytes) {
+                    transferred += bytes;
+                    rateMeter.addBytes(bytes);
+                }
+            });
+
+            rateMeter.stop();
+
+            if (complete && !cancel && transferred == size) {
+                received = true;
+                listener.statusCompleted();
+            }
+
+            else {
+                listener.statusFailed();
+            }
+        }
+
+        catch (final IOException e) {
+            LOG.log(Level.SEVERE, e.toString());
+            listener.statusFailed();
+        }
+
+        finally {
+            rateMeter.stop();
+            multicastChannel = null;
+        }
+
+        return received;
+    }
+
+    private void waitForConnection() throws IOException {
+        if (sharedServer != null) {
+            try {
+                sharedConnectionLatch.await();
+            }
+
+            catch (final InterruptedException e) {
+                LOG.log(Level.SEVERE, e.toString(), e);
+            }
+        }
+
+        else if (sSock != null) {
+            sock = sSock.accept();
+
+            if (serverTimeout != null) {
+                serverTimeout.cancel();
+            }
+        }
+    }
+
+    private OutputStream createOutputStream() throws IOException {
+        if (batch) {
+            return new FileBatchExtractor(file);
+        }
+
+        return new FileOutputStream(file);
+    }
+
+    private boolean isCompleteBatch() {
+        return !batch || ((FileBatchExtractor) fos).isComplete();
+    }
+
     /**
      * Sets all connections to null.
      */
@@ -280,6 +512,10 @@ public class FileReceiver implements FileTransfer {
             LOG.log(Level.SEVERE, e.toString(), e);
         }
 
+        closeServerSocket();
+    }
+
+    private void closeServerSocket() {
         try {
             if (sSock != null) {
                 sSock.close();
@@ -301,14 +537,50 @@ public class FileReceiver implements FileTransfer {
         return cancel;
     }
 
+    /**
+     * Checks if the file transfer is waiting in the queue for other file transfers to finish.
+     *
+     * @return If the file transfer is queued.
+     */
+    @Override
+    public boolean isQueued() {
+        return queued;
+    }
+
+    /**
+     * Sets if the file transfer is waiting in the queue for other file transfers to finish.
+     * The listener is notified when the file transfer is queued.
+     *
+     * @param queued If the file transfer is queued.
+     */
+    void setQueued(final boolean queued) {
+        this.queued = queued;
+
+        if (queued) {
+            listener.statusQueued();
+        }
+    }
+
     /**
      * Cancels the file transfer.
      */
     @Override
     public void cancel() {
         cancel = true;
+        queued = false;
         stopReceiver();
 
+        if (sharedServer != null) {
+            sharedServer.unregister(this);
+            sharedConnectionLatch.countDown();
+        }
+
+        final MulticastFileChannel channel = multicastChannel;
+
+        if (channel != null) {
+            channel.cancel();
+        }
+
         if (listener != null) {
             listener.statusFailed();
         }
@@ -321,7 +593,13 @@ public class FileReceiver implements FileTransfer {
      */
     @Override
     public int getPercent() {
-        return percent;
+        final long fileSize = getFileSize();
+
+        if (fileSize == 0) {
+            return 0;
+        }
+
+        return (int) ((transferred * 100) / fileSize);
     }
 
     /**
@@ -343,6 +621,15 @@ public class FileReceiver implements FileTransfer {
         return file;
     }
 
+    /**
+     * Checks if this is a batch of files, to be restored to the folder in {@link #getFile()}.
+     *
+     * @return If this is a batch of files.
+     */
+    public boolean isBatch() {
+        return batch;
+    }
+
     /**
      * Changes the file to save to.
      *
@@ -413,13 +700,61 @@ public class FileReceiver implements FileTransfer {
     }
 
     /**
-     * Gets the number of bytes transferred per second.
+     * Gets the number of bytes transferred per second, smoothed over the last few seconds.
      *
      * @return The speed in bytes per second.
      */
     @Override
     public long getSpeed() {
-        return bCounter.getBytesPerSec();
+        return rateMeter.getSmoothedBytesPerSec();
+    }
+
+    /**
+     * Gets the average number of bytes transferred per second, since the file transfer started.
+     *
+     * @return The average speed in bytes per second.
+     */
+    @Override
+    public long getAverageSpeed() {
+        return rateMeter.getAverageBytesPerSec();
+    }
+
+    /**
+     * Gets the estimated number of seconds until the file transfer is complete.
+     *
+     * @return Seconds left, or -1 if unknown.
+     */
+    @Override
+    public long getSecondsLeft() {
+        return rateMeter.getSecondsLeft();
+    }
+
+    /**
+     * Gets the number of bytes received over the network, before decompression.
+     *
+     * @return Bytes transferred over the network.
+     */
+    @Override
+    public long getWireTransferred() {
+        if (inflaterStream != null) {
+            return inflaterStream.getWireBytesRead();
+        }
+
+        return transferred;
+    }
+
+    /**
+     * Gets the number of bytes received over the network per second, before decompression.
+     *
+     * @return The speed over the network in bytes per second.
+     */
+    @Override
+    public long getWireSpeed() {
+        if (transferred == 0) {
+            return getSpeed();
+        }
+
+        return (long) (getSpeed() * ((double) getWireTransferred() / transferred));
     }
 
     /**
@@ -475,48 +810,4 @@ public class FileReceiver implements FileTransfer {
     public void reject() {
         rejected = true;
     }
-
-    /**
-     * A thread for closing the server connection if no client
-     * has connected within 15 seconds.
-     *
-     * <p>This does not mean that the user only has 15 seconds to decide
-     * where to save the file. This timer is started after the user has
-     * decided, and waits for an automated response from the sender.
-     * If nothing has happened to the sender, the response should be very quick.</p>
-     */
-    private class TimeoutThread extends Thread {
-        /**
-         * Constructor. Sets the name of the thread.
-         */
-        TimeoutThread() {
-            setName("TimeoutThread");
-        }
-
-        /**
-         * The thread. Sleeps for 15 seconds, and then closes the
-         * server connection if it is not already closed.
-         */
-        @Override
-        public void run() {
-            try {
-                sleep(15000);
-            }
-
-            catch (final InterruptedException e) {
-                LOG.log(Level.SEVERE, e.toString(), e);
-            }
-
-            try {
-                if (sSock != null) {
-                    sSock.close();
-                    sSock = null;
-                }
-            }
-
-            catch (final IOException e) {
-                LOG.log(Level.SEVERE, e.toString(), e);
-            }
-        }
-    }
 }
@@ -33,7 +33,8 @@ import java.util.logging.Logger;
 
 import net.usikkert.kouchat.event.FileTransferListener;
 import net.usikkert.kouchat.misc.User;
-import net.usikkert.kouchat.util.ByteCounter;
+import net.usikkert.kouchat.util.HashedWheelTimer;
+import net.usikkert.kouchat.util.TransferRateMeter;
 
 import org.jetbrains.annotations.Nullable;
 
@@ -43,6 +44,9 @@ import org.jetbrains.annotations.Nullable;
  * <p>To send a file, the user at the other end needs to
  * open a server socket so this client can connect.</p>
  *
+ * <p>When the file is sent to many users at once, using a {@link MulticastFileSession},
+ * there is one file sender for each user, that follows the progress of that user in the session.</p>
+ *
  * @author Christian Ihle
  */
 public class FileSender implements FileTransfer {
@@ -59,14 +63,14 @@ public class FileSender implements FileTransfer {
     /** The unique ID of this file transfer. */
     private final int id;
 
-    /** Keeps count of the transfer speed. */
-    private final ByteCounter bCounter;
+    /** Measures the transfer speed, and updates the listener with the progress. */
+    private final TransferRateMeter rateMeter;
 
-    /** Percent of the file transferred. */
-    private int percent;
+    /** Gives permission to use bandwidth. */
+    private final TransferScheduler transferScheduler;
 
     /** Number of bytes transferred. */
-    private long transferred;
+    private volatile long transferred;
 
     /** If the file was successfully sent. */
     private boolean sent;
@@ -77,6 +81,9 @@ public class FileSender implements FileTransfer {
     /** If still waiting for the file transfer to begin. */
     private boolean waiting;
 
+    /** If waiting in the queue for other file transfers to finish. */
+    private volatile boolean queued;
+
     /** The file transfer listener. */
     private FileTransferListener listener;
 
@@ -88,23 +95,56 @@ public class FileSender implements FileTransfer {
     @Nullable
     private OutputStream os;
 
+    /** Compresses the file, if the other user accepted a compressed file transfer. */
+    @Nullable
+    private AdaptiveDeflaterOutputStream deflaterStream;
+
     /** The socket connection to the other user. */
     @Nullable
     private Socket sock;
 
+    /** The session sending the file to many users at once, if the file is not sent over a connection. */
+    @Nullable
+    private final MulticastFileSession multicastSession;
+
     /**
      * Constructor. Creates a new file sender.
      *
      * @param user The user to send the file to.
      * @param file The file to send.
      * @param id The unique ID of this file transfer.
+     * @param transferScheduler The scheduler to ask for bandwidth.
+     * @param timer The timer to measure the transfer rate with.
      */
-    public FileSender(final User user, final FileToSend file, final int id) {
+    public FileSender(final User user, final FileToSend file, final int id, final TransferScheduler transferScheduler,
+                      final HashedWheelTimer timer) {
+        this(user, file, id, transferScheduler, timer, null);
+    }
+
+    /**
+     * Constructor. Creates a new file sender, that sends the file using a multicast session,
+     * if there is one.
+     *
+     * @param user The user to send the file to.
+     * @param file The file to send.
+     * @param id The unique ID of this file transfer.
+     * @param transferScheduler The scheduler to ask for bandwidth.
+     * @param timer The timer to measure the transfer rate with.
+     * @param multicastSession The session to send the file with, or <code>null</code> to connect to the user.
+     */
+    public FileSender(final User user, final FileToSend file, final int id, final TransferScheduler transferScheduler,
+                      final HashedWheelTimer timer, @Nullable final MulticastFileSession multicastSession) {
         this.user = user;
         this.file = file;
         this.id = id;
+        this.transferScheduler = transferScheduler;
+        this.multicastSession = multicastSession;
+
+        if (multicastSession != null) {
+            multicastSession.addRecipient(user.getCode());
+        }
 
-        bCounter = new ByteCounter();
+        rateMeter = new TransferRateMeter(timer);
         waiting = true;
     }
 
@@ -116,6 +156,38 @@ public class FileSender implements FileTransfer {
      * @return If the file transfer was successful.
      */
     public boolean transfer(final int port) {
+        return transfer(port, false);
+    }
+
+    /**
+     * Connects to the user at the specified port and transfers the file
+     * to that user, compressed if the user asked for it.
+     *
+     * @param port The port to use when connecting to the user.
+     * @param compressed If the file should be sent with {@link AdaptiveDeflaterOutputStream}.
+     * @return If the file transfer was successful.
+     */
+    public boolean transfer(final int port, final boolean compressed) {
+        return transfer(port, compressed, 0);
+    }
+
+    /**
+     * Connects to the user at the specified port and transfers the file
+     * to that user, compressed if the user asked for it.
+     *
+     * <p>If the user is waiting for the file on a port shared by several file transfers,
+     * the connection is identified using the id of the file transfer at the user.</p>
+     *
+     * @param port The port to use when connecting to the user.
+     * @param compressed If the file should be sent with {@link AdaptiveDeflaterOutputStream}.
+     * @param transferId The id of the file transfer at the user, if the port is shared, or 0.
+     * @return If the file transfer was successful.
+     */
+    public boolean transfer(final int port, final boolean compressed, final int transferId) {
+        if (multicastSession != null) {
+            return transferMulticast(multicastSession);
+        }
+
         if (!cancel) {
             listener.statusConnecting();
 
@@ -151,29 +223,41 @@ public class FileSender implements FileTransfer {
 
                 if (sock != null && !cancel) {
                     listener.statusTransferring();
+
+                    if (transferId > 0) {
+                        FileTransferServer.writePreamble(sock, transferId);
+                    }
+
                     is = file.getInputStream();
                     os = sock.getOutputStream();
 
+                    if (compressed) {
+                        deflaterStream = new AdaptiveDeflaterOutputStream(os);
+                        os = deflaterStream;
+                    }
+
                     final byte[] b = new byte[1024];
                     transferred = 0;
-                    percent = 0;
                     int tmpTransferred = 0;
-                    int tmpPercent = 0;
-                    int transCounter = 0;
-                    bCounter.prepare();
+                    rateMeter.start(file.length(), new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.transferUpdate();
+                        }
+                    });
+                    transferScheduler.register(this);
 
                     while (!cancel && (tmpTransferred = is.read(b)) != -1) {
+                        transferScheduler.acquire(this, tmpTransferred);
                         os.write(b, 0, tmpTransferred);
                         transferred += tmpTransferred;
-                        percent = (int) ((transferred * 100) / file.length());
-                        bCounter.addBytes(tmpTransferred);
-                        transCounter++;
+                        rateMeter.addBytes(tmpTransferred);
+                    }
 
-                        if (percent > tmpPercent || transCounter >= 250) {
-                            transCounter = 0;
-                            tmpPercent = percent;
-                            listener.transferUpdate();
-                        }
+                    rateMeter.stop();
+
+                    if (deflaterStream != null && !cancel) {
+                        deflaterStream.finish();
                     }
 
                     if (!cancel && transferred == file.length()) {
@@ -202,6 +286,8 @@ public class FileSender implements FileTransfer {
             }
 
             finally {
+                rateMeter.stop();
+                transferScheduler.unregister(this);
                 stopSender();
                 cleanupConnections();
             }
@@ -210,6 +296,81 @@ public class FileSender implements FileTransfer {
         return sent;
     }
 
+    /**
+     * Completes the file transfer without sending anything, because the user
+     * restored the file from the {@link FileContentCache}.
+     */
+    public void completeFromCache() {
+        if (!cancel) {
+            waiting = false;
+            transferred = file.length();
+            sent = true;
+            listener.statusCompleted();
+        }
+    }
+
+    /**
+     * Follows the progress of the user in the multicast session, until the user
+     * has received the file, or the transfer fails.
+     *
+     * @param session The session sending the file.
+     * @return If the file transfer was successful.
+     */
+    private boolean transferMulticast(final MulticastFileSession session) {
+        final int userCode = user.getCode();
+
+        if (!cancel) {
+            waiting = false;
+            sent = false;
+            transferred = 0;
+
+            listener.statusTransferring();
+            session.recipientAccepted(userCode);
+            rateMeter.start(file.length(), new Runnable() {
+                @Override
+                public void run() {
+                    listener.transferUpdate();
+                }
+            });
+
+            try {
+                while (!cancel && !session.isDone(userCode)) {
+                    session.awaitProgress(userCode, 500);
+                    final long bytesReceived = session.getBytesReceived(userCode);
+
+                    if (bytesReceived > transferred) {
+                        rateMeter.addBytes(bytesReceived - transferred);
+                        transferred = bytesReceived;
+                    }
+                }
+
+                rateMeter.stop();
+
+                if (!cancel && session.isComplete(userCode)) {
+                    transferred = file.length();
+                    sent = true;
+                    listener.statusCompleted();
+                }
+
+                else {
+                    listener.statusFailed();
+                }
+            }
+
+            catch (final InterruptedException e) {
+                LOG.log(Level.SEVERE, e.toString(), e);
+                listener.statusFailed();
+            }
+
+            finally {
+                rateMeter.stop();
+                session.removeRecipient(userCode);
+            }
+        }
+
+        return sent;
+    }
+
     /**
      * Sets all connections to null.
      */
@@ -274,13 +435,43 @@ public class FileSender implements FileTransfer {
         return cancel;
     }
 
+    /**
+     * Checks if the file transfer is waiting in the queue for other file transfers to finish.
+     *
+     * @return If the file transfer is queued.
+     */
+    @Override
+    public boolean isQueued() {
+        return queued;
+    }
+
+    /**
+     * Sets if the file transfer is waiting in the queue for other file transfers to finish.
+     * The listener is notified when the file transfer is queued.
+     *
+     * @param queued If the file transfer is queued.
+     */
+    void setQueued(final boolean queued) {
+        this.queued = queued;
+
+        if (queued) {
+            listener.statusQueued();
+        }
+    }
+
     /**
      * Cancels the file transfer.
      */
     @Override
     public void cancel() {
         cancel = true;
+        queued = false;
         stopSender();
+
+        if (multicastSession != null) {
+            multicastSession.removeRecipient(user.getCode());
+        }
+
         listener.statusFailed();
     }
 
@@ -301,7 +492,13 @@ public class FileSender implements FileTransfer {
      */
     @Override
     public int getPercent() {
-        return percent;
+        final long fileSize = getFileSize();
+
+        if (fileSize == 0) {
+            return 0;
+        }
+
+        return (int) ((transferred * 100) / fileSize);
     }
 
     /**
@@ -355,13 +552,61 @@ public class FileSender implements FileTransfer {
     }
 
     /**
-     * Gets the number of bytes transferred per second.
+     * Gets the number of bytes transferred per second, smoothed over the last few seconds.
      *
      * @return The speed in bytes per second.
      */
     @Override
     public long getSpeed() {
-        return bCounter.getBytesPerSec();
+        return rateMeter.getSmoothedBytesPerSec();
+    }
+
+    /**
+     * Gets the average number of bytes transferred per second, since the file transfer started.
+     *
+     * @return The average speed in bytes per second.
+     */
+    @Override
+    public long getAverageSpeed() {
+        return rateMeter.getAverageBytesPerSec();
+    }
+
+    /**
+     * Gets the estimated number of seconds until the file transfer is complete.
+     *
+     * @return Seconds left, or -1 if unknown.
+     */
+    @Override
+    public long getSecondsLeft() {
+        return rateMeter.getSecondsLeft();
+    }
+
+    /**
+     * Gets the number of bytes sent over the network, after compression.
+     *
+     * @return Bytes transferred over the network.
+     */
+    @Override
+    public long getWireTransferred() {
+        if (deflaterStream != null) {
+            return deflaterStream.getWireBytesWritten();
+        }
+
+        return transferred;
+    }
+
+    /**
+     * Gets the number of bytes sent over the network per second, after compression.
+     *
+     * @return The speed over the network in bytes per second.
+     */
+    @Override
+    public long getWireSpeed() {
+        if (transferred == 0) {
+            return getSpeed();
+        }
+
+        return (long) (getSpeed() * ((double) getWireTransferred() / transferred));
     }
 
     /**
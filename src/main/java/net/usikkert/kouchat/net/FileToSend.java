@@ -27,8 +27,11 @@ import net.usikkert.kouchat.util.Validate;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
 
+import org.jetbrains.annotations.Nullable;
+
 /**
  * Abstraction around a file to send to another user.
  *
@@ -39,6 +42,10 @@ public class FileToSend {
     private final InputStreamOpener inputStreamOpener;
     private final String name;
     private final long length;
+    private final boolean batch;
+
+    @Nullable
+    private volatile String contentHash;
 
     public FileToSend(final File file) {
         Validate.notNull(file, "File to send can not be null");
@@ -46,16 +53,34 @@ public class FileToSend {
         this.inputStreamOpener = new FileInputStreamOpener(file);
         this.name = file.getName();
         this.length = file.length();
+        this.batch = false;
     }
 
     public FileToSend(final InputStreamOpener inputStreamOpener,
                       final String name,
                       final long length) {
+        this(inputStreamOpener, name, length, false);
+    }
+
+    /**
+     * Constructor for a file to send that is either a single file, or a batch of files
+     * streamed in the format of {@link FileBatch}.
+     *
+     * @param inputStreamOpener Opens the stream with the data to send.
+     * @param name The name of the file, or the folder for a batch.
+     * @param length The number of bytes in the stream.
+     * @param batch If the stream is a batch of files.
+     */
+    public FileToSend(final InputStreamOpener inputStreamOpener,
+                      final String name,
+                      final long length,
+                      final boolean batch) {
         Validate.notNull(inputStreamOpener, "InputStreamOpener can not be null");
 
         this.inputStreamOpener = inputStreamOpener;
         this.name = name;
         this.length = length;
+        this.batch = batch;
     }
 
     public long length() {
@@ -66,10 +91,42 @@ public class FileToSend {
         return name;
     }
 
+    /**
+     * If this is a batch of files streamed as one, instead of a single file.
+     *
+     * @return If this is a batch of files.
+     */
+    public boolean isBatch() {
+        return batch;
+    }
+
     public InputStream getInputStream() throws FileNotFoundException {
         return inputStreamOpener.open();
     }
 
+    /**
+     * Gets the hash of the content, for {@link FileContentCache}. The content is read the first time,
+     * and the hash is reused when the file is sent to more users.
+     *
+     * @return The hash of the content.
+     * @throws IOException If the content could not be read.
+     */
+    public String getContentHash() throws IOException {
+        if (contentHash == null) {
+            final InputStream inputStream = getInputStream();
+
+            try {
+                contentHash = FileContentCache.createContentHash(inputStream);
+            }
+
+            finally {
+                inputStream.close();
+            }
+        }
+
+        return contentHash;
+    }
+
     @Override
     public boolean equals(final Object o) {
         if (this == o) {
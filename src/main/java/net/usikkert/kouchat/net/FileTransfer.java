@@ -87,12 +87,42 @@ public interface FileTransfer {
     long getFileSize();
 
     /**
-     * Gets the number of bytes transferred per second.
+     * Gets the number of bytes transferred per second, smoothed over the last few seconds.
      *
      * @return The speed in bytes per second.
      */
     long getSpeed();
 
+    /**
+     * Gets the average number of bytes transferred per second, since the file transfer started.
+     *
+     * @return The average speed in bytes per second.
+     */
+    long getAverageSpeed();
+
+    /**
+     * Gets the estimated number of seconds until the file transfer is complete.
+     *
+     * @return Seconds left, or -1 if unknown.
+     */
+    long getSecondsLeft();
+
+    /**
+     * Gets the number of bytes transferred over the network. This is less than
+     * {@link #getTransferred()} when the file transfer is compressed.
+     *
+     * @return Bytes transferred over the network.
+     */
+    long getWireTransferred();
+
+    /**
+     * Gets the number of bytes transferred over the network per second. This is less than
+     * {@link #getSpeed()} when the file transfer is compressed.
+     *
+     * @return The speed over the network in bytes per second.
+     */
+    long getWireSpeed();
+
     /**
      * Gets the ID of this file transfer. The ID is unique during the session, and starts with 1.
      *
@@ -119,6 +149,13 @@ public interface FileTransfer {
      */
     boolean isTransferred();
 
+    /**
+     * Checks if the file transfer is waiting in the queue for other file transfers to finish.
+     *
+     * @return If the file transfer is queued.
+     */
+    boolean isQueued();
+
     /**
      * Registers a file transfer listener, which will receive updates
      * when certain events happen in the progression of the file transfer.
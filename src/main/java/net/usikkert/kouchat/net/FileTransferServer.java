@@ -0,0 +1,346 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import net.usikkert.kouchat.Constants;
+import net.usikkert.kouchat.util.HashedWheelTimer;
+import net.usikkert.kouchat.util.Logger;
+import net.usikkert.kouchat.util.NamedDaemonThreadFactory;
+import net.usikkert.kouchat.util.TimerHandle;
+import net.usikkert.kouchat.util.Validate;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A single server socket shared by all incoming file transfers.
+ *
+ * <p>The sender starts the connection with a small preamble, containing the id of the
+ * {@link FileReceiver} it wants to talk to. The connection is then handed over to that receiver.
+ * Receivers that are not connected to in time are timed out by the application timer,
+ * which is also used for timeouts of receivers with their own server socket.</p>
+ *
+ * <p>The server socket is opened the first time it's needed, and kept open until {@link #stopServer()}.</p>
+ *
+ * @author Christian Ihle
+ */
+public class FileTransferServer implements Runnable {
+
+    private static final Logger LOG = Logger.getLogger(FileTransferServer.class);
+
+    /** Option in {@link NetworkMessageType#SENDFILEACCEPT} with the id to use in the preamble. */
+    static final String TRANSFER_ID_OPTION = "id=";
+
+    /** Marks the start of a preamble, to avoid routing connections from something else than KouChat. */
+    private static final int PREAMBLE_MAGIC = 0x4B6F7546;
+
+    /**
+     * How long to wait for the sender to connect, after the receiver has decided where to save the file.
+     * The sender connects automatically when the file is accepted, so this should be quick.
+     */
+    static final int CONNECTION_TIMEOUT = 15000;
+
+    /** How long to wait for the preamble, after the sender has connected. */
+    private static final int PREAMBLE_TIMEOUT = 5000;
+
+    private static final int MAX_PORT_ATTEMPTS = 50;
+
+    private final Map<Integer, PendingReceiver> pendingReceivers;
+    private final HashedWheelTimer timer;
+    private final ExecutorService preambleReader;
+
+    private volatile boolean connected;
+    private int port;
+
+    @Nullable
+    private ServerSocket serverSocket;
+
+    /**
+     * Constructor.
+     *
+     * @param timer The timer to use for the timeouts.
+     */
+    public FileTransferServer(final HashedWheelTimer timer) {
+        Validate.notNull(timer, "Timer can not be null");
+
+        this.timer = timer;
+        pendingReceivers = new ConcurrentHashMap<Integer, PendingReceiver>();
+        preambleReader = Executors.newCachedThreadPool(new NamedDaemonThreadFactory("FileTransferPreambleReader"));
+    }
+
+    /**
+     * Writes the preamble that routes the connection to the receiver with the specified id.
+     * Must be written before anything else on the connection.
+     *
+     * @param socket The connection to the receiving user.
+     * @param transferId The id of the file transfer at the receiving user.
+     * @throws IOException If the preamble could not be written.
+     */
+    public static void writePreamble(final Socket socket, final int transferId) throws IOException {
+        final DataOutputStream outputStream = new DataOutputStream(socket.getOutputStream());
+        outputStream.writeInt(PREAMBLE_MAGIC);
+        outputStream.writeInt(transferId);
+        outputStream.flush();
+    }
+
+    @Override
+    public void run() {
+        while (connected && serverSocket != null) {
+            try {
+                final Socket socket = serverSocket.accept();
+
+                preambleReader.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        route(socket);
+                    }
+                });
+            }
+
+            // Happens when server socket is closed, or network is down
+            catch (final IOException e) {
+                if (connected) {
+                    LOG.warning(e.toString());
+                }
+
+                else {
+                    LOG.fine(e.toString());
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits for a connection for the file receiver, using the shared server socket.
+     * The receiver is given the connection, or timed out, using {@link FileReceiver#connectionAccepted(Socket)}
+     * and {@link FileReceiver#connectionTimedOut()}.
+     *
+     * @param fileReceiver The file receiver waiting for a connection.
+     * @return The port the sender should connect to.
+     * @throws ServerException If the server could not be started.
+     */
+    public int register(final FileReceiver fileReceiver) throws ServerException {
+        Validate.notNull(fileReceiver, "File receiver can not be null");
+
+        final int serverPort = startServer();
+        final PendingReceiver pendingReceiver = new PendingReceiver(fileReceiver);
+        pendingReceivers.put(fileReceiver.getId(), pendingReceiver);
+
+        pendingReceiver.timeout = schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (pendingReceivers.remove(fileReceiver.getId(), pendingReceiver)) {
+                    LOG.fine("Timed out waiting for connection to file transfer %s", fileReceiver.getId());
+                    fileReceiver.connectionTimedOut();
+                }
+            }
+        }, CONNECTION_TIMEOUT);
+
+        return serverPort;
+    }
+
+    /**
+     * Stops waiting for a connection for the file receiver.
+     *
+     * @param fileReceiver The file receiver to stop waiting for.
+     */
+    public void unregister(final FileReceiver fileReceiver) {
+        Validate.notNull(fileReceiver, "File receiver can not be null");
+
+        final PendingReceiver pendingReceiver = pendingReceivers.get(fileReceiver.getId());
+
+        if (pendingReceiver != null && pendingReceiver.fileReceiver == fileReceiver) {
+            pendingReceivers.remove(fileReceiver.getId(), pendingReceiver);
+            pendingReceiver.cancelTimeout();
+        }
+    }
+
+    /**
+     * Runs a file transfer timeout task after the specified delay, on the application timer.
+     *
+     * @param task The task to run.
+     * @param delay Milliseconds to wait before running the task.
+     * @return The scheduled task, which can be cancelled.
+     */
+    public TimerHandle schedule(final Runnable task, final long delay) {
+        Validate.notNull(task, "Task can not be null");
+
+        return timer.schedule("FileTransferTimeout", task, delay);
+    }
+
+    /**
+     * Gets the port of the shared server socket, or 0 if it's not open.
+     *
+     * @return The port of the server socket.
+     */
+    public synchronized int getPort() {
+        return port;
+    }
+
+    /**
+     * Gets the number of file receivers waiting for a connection.
+     *
+     * @return The number of waiting file receivers.
+     */
+    public int getPendingReceiverCount() {
+        return pendingReceivers.size();
+    }
+
+    /**
+     * Closes the server socket and the threads, and times out the file receivers waiting for a connection.
+     */
+    public synchronized void stopServer() {
+        connected = false;
+        port = 0;
+
+        if (serverSocket != null) {
+            try {
+                serverSocket.close();
+            }
+
+            catch (final IOException e) {
+                LOG.severe(e.toString());
+            }
+
+            serverSocket = null;
+        }
+
+        for (final PendingReceiver pendingReceiver : pendingReceivers.values()) {
+            if (pendingReceivers.remove(pendingReceiver.fileReceiver.getId(), pendingReceiver)) {
+                pendingReceiver.cancelTimeout();
+                pendingReceiver.fileReceiver.connectionTimedOut();
+            }
+        }
+
+        preambleReader.shutdownNow();
+    }
+
+    private synchronized int startServer() throws ServerException {
+        if (connected) {
+            return port;
+        }
+
+        int nextPort = Constants.NETWORK_FILE_TRANSFER_PORT;
+        int portAttempt = 0;
+
+        while (portAttempt < MAX_PORT_ATTEMPTS && !connected) {
+            try {
+                serverSocket = new ServerSocket(nextPort);
+                port = nextPort;
+                connected = true;
+
+                final Thread worker = new Thread(this, getClass().getSimpleName());
+                worker.setDaemon(true);
+                worker.start();
+
+                LOG.fine("Listening for file transfers on port: %s", port);
+            }
+
+            catch (final IOException e) {
+                LOG.warning("%s %s", e.toString(), nextPort);
+
+                portAttempt++;
+                nextPort++;
+            }
+        }
+
+        if (!connected) {
+            throw new ServerException("Could not start server");
+        }
+
+        return port;
+    }
+
+    private void route(final Socket socket) {
+        try {
+            socket.setSoTimeout(PREAMBLE_TIMEOUT);
+            final DataInputStream inputStream = new DataInputStream(socket.getInputStream());
+
+            if (inputStream.readInt() != PREAMBLE_MAGIC) {
+                LOG.warning("Closing connection from %s without file transfer preamble", socket.getInetAddress());
+                closeSocket(socket);
+                return;
+            }
+
+            final int transferId = inputStream.readInt();
+            final PendingReceiver pendingReceiver = pendingReceivers.remove(transferId);
+            socket.setSoTimeout(0);
+
+            if (pendingReceiver == null) {
+                LOG.warning("Closing connection from %s to unknown file transfer %s", socket.getInetAddress(), transferId);
+                closeSocket(socket);
+                return;
+            }
+
+            pendingReceiver.cancelTimeout();
+            pendingReceiver.fileReceiver.connectionAccepted(socket);
+        }
+
+        catch (final IOException e) {
+            LOG.warning("Failed to read file transfer preamble from %s: %s", socket.getInetAddress(), e.toString());
+            closeSocket(socket);
+        }
+    }
+
+    private void closeSocket(final Socket socket) {
+        try {
+            socket.close();
+        }
+
+        catch (final IOException e) {
+            LOG.severe(e.toString());
+        }
+    }
+
+    /**
+     * A file receiver waiting for a connection, and the task that times it out.
+     */
+    private static class PendingReceiver {
+
+        private final FileReceiver fileReceiver;
+
+        @Nullable
+        private volatile TimerHandle timeout;
+
+        PendingReceiver(final FileReceiver fileReceiver) {
+            this.fileReceiver = fileReceiver;
+        }
+
+        void cancelTimeout() {
+            final TimerHandle currentTimeout = timeout;
+
+            if (currentTimeout != null) {
+                currentTimeout.cancel();
+            }
+        }
+    }
+}
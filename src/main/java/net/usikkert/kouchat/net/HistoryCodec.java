@@ -0,0 +1,211 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import net.usikkert.kouchat.Constants;
+import net.usikkert.kouchat.util.Logger;
+import net.usikkert.kouchat.util.Validate;
+
+/**
+ * Encodes and decodes the batch of chat messages sent in a {@link NetworkMessageType#HISTORY} message.
+ *
+ * <p>Each message is encoded on a separate line, with the fields separated by tabs and escaped
+ * like in {@link RosterCodec}. The times are sent relative to the time of encoding, so the clocks of the
+ * clients don't need to be in sync. The fields, in order: time since the message arrived, user code, nick name,
+ * color and the message.</p>
+ *
+ * <p>The lines are compressed as a single block, since chat messages compress well together.
+ * The compressed bytes are sent as the characters 0 to 255, which the tcp connection can send as is.</p>
+ *
+ * @author Christian Ihle
+ */
+public final class HistoryCodec {
+
+    private static final Logger LOG = Logger.getLogger(HistoryCodec.class);
+
+    /** The number of fields for each message. */
+    private static final int FIELDS = 5;
+
+    /** The characters 0 to 255, one for each compressed byte. */
+    private static final Charset BYTE_CHARSET = Charset.forName("ISO-8859-1");
+
+    /** The maximum number of bytes to decompress, to protect against a small batch that grows huge. */
+    static final int MAX_DECOMPRESSED_BYTES = 1024 * 1024;
+
+    private static final Charset TEXT_CHARSET = Charset.forName(Constants.MESSAGE_CHARSET);
+
+    private HistoryCodec() {
+        // Only static methods
+    }
+
+    /**
+     * Encodes and compresses the messages. The oldest messages are left out if the result is too long.
+     *
+     * @param entries The messages to encode, oldest first.
+     * @param maxLength The maximum length of the result.
+     * @param now The current time, to calculate the relative times from.
+     * @return The encoded messages.
+     */
+    public static String encode(final List<ChatHistory.Entry> entries, final int maxLength, final long now) {
+        Validate.notNull(entries, "Entries can not be null");
+
+        List<ChatHistory.Entry> entriesToEncode = entries;
+
+        while (true) {
+            final String encoded = new String(deflate(encodeLines(entriesToEncode, now)), BYTE_CHARSET);
+
+            if (encoded.length() <= maxLength || entriesToEncode.isEmpty()) {
+                return encoded;
+            }
+
+            entriesToEncode = entriesToEncode.subList(entriesToEncode.size() / 2, entriesToEncode.size());
+        }
+    }
+
+    /**
+     * Decodes the messages in an encoded batch. Messages with invalid fields are skipped.
+     *
+     * @param history The encoded messages.
+     * @param now The current time, to calculate the absolute times from.
+     * @return The decoded messages, oldest first. Empty if the batch could not be decompressed.
+     */
+    public static List<ChatHistory.Entry> decode(final String history, final long now) {
+        Validate.notNull(history, "History can not be null");
+
+        final List<ChatHistory.Entry> entries = new ArrayList<>();
+        final String lines;
+
+        try {
+            lines = inflate(history.getBytes(BYTE_CHARSET));
+        }
+
+        catch (final DataFormatException e) {
+            LOG.warning("Failed to decompress history: %s", e.getMessage());
+            return entries;
+        }
+
+        for (final String line : lines.split("\n")) {
+            if (line.isEmpty()) {
+                continue;
+            }
+
+            final String[] fields = line.split("\t", -1);
+
+            if (fields.length < FIELDS) {
+                LOG.warning("Skipping message with too few fields in history: %s", line);
+                continue;
+            }
+
+            try {
+                entries.add(new ChatHistory.Entry(now - Long.parseLong(fields[0]),
+                                                  Integer.parseInt(fields[1]),
+                                                  RosterCodec.unescape(fields[2]),
+                                                  Integer.parseInt(fields[3]),
+                                                  RosterCodec.unescape(fields[4])));
+            }
+
+            catch (final NumberFormatException e) {
+                LOG.warning("Skipping message with invalid number in history: %s", line);
+            }
+        }
+
+        return entries;
+    }
+
+    private static String encodeLines(final List<ChatHistory.Entry> entries, final long now) {
+        final StringBuilder lines = new StringBuilder();
+
+        for (final ChatHistory.Entry entry : entries) {
+            if (lines.length() > 0) {
+                lines.append('\n');
+            }
+
+            lines.append(Math.max(0, now - entry.getTime())).append('\t');
+            lines.append(entry.getUserCode()).append('\t');
+            lines.append(RosterCodec.escape(entry.getNick())).append('\t');
+            lines.append(entry.getColor()).append('\t');
+            lines.append(RosterCodec.escape(entry.getMessage()));
+        }
+
+        return lines.toString();
+    }
+
+    private static byte[] deflate(final String lines) {
+        final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[1024];
+
+        try {
+            deflater.setInput(lines.getBytes(TEXT_CHARSET));
+            deflater.finish();
+
+            while (!deflater.finished()) {
+                compressed.write(buffer, 0, deflater.deflate(buffer));
+            }
+        }
+
+        finally {
+            deflater.end();
+        }
+
+        return compressed.toByteArray();
+    }
+
+    private static String inflate(final byte[] compressed) throws DataFormatException {
+        final Inflater inflater = new Inflater();
+        final ByteArrayOutputStream lines = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[1024];
+
+        try {
+            inflater.setInput(compressed);
+
+            while (!inflater.finished()) {
+                final int length = inflater.inflate(buffer);
+
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("Unexpected end of history");
+                }
+
+                lines.write(buffer, 0, length);
+
+                if (lines.size() > MAX_DECOMPRESSED_BYTES) {
+                    throw new DataFormatException("History is too big");
+                }
+            }
+        }
+
+        finally {
+            inflater.end();
+        }
+
+        return new String(lines.toByteArray(), TEXT_CHARSET);
+    }
+}
@@ -0,0 +1,225 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import net.usikkert.kouchat.misc.Controller;
+import net.usikkert.kouchat.misc.User;
+import net.usikkert.kouchat.util.HashedWheelTimer;
+import net.usikkert.kouchat.util.Logger;
+import net.usikkert.kouchat.util.TimerHandle;
+import net.usikkert.kouchat.util.Validate;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Asks a single user for the recent messages in the main chat, after logon or after the network came back.
+ *
+ * <p>Only users with support for {@link ClientCapability#HISTORY} and a tcp connection are asked, starting
+ * with the user who has been logged on the longest. The users are checked right away, and again every
+ * RETRY_DELAY milliseconds until one is ready, so the messages usually arrive well within a second.
+ * If the user does not reply in time, the next user is asked.</p>
+ *
+ * <p>The messages are asked for from a little before the last message in the {@link ChatHistory}, or all
+ * the messages if the history is empty. Messages that are already in the history are skipped when they arrive.</p>
+ *
+ * @author Christian Ihle
+ */
+public class HistoryRequester implements Runnable {
+
+    private static final Logger LOG = Logger.getLogger(HistoryRequester.class);
+
+    /** Milliseconds between each check for a user to ask. */
+    static final int RETRY_DELAY = 100;
+
+    /** Number of checks for a user to ask before giving up. */
+    static final int MAX_TRIES = 50;
+
+    /** Milliseconds to wait for the messages before asking the next user. */
+    static final int REPLY_TIMEOUT = 2000;
+
+    private final Controller controller;
+    private final ChatHistory chatHistory;
+    private final HashedWheelTimer timer;
+
+    /** The codes of the users that have been asked since the request started. */
+    private final Set<Integer> askedUserCodes;
+
+    /** If looking for the messages. */
+    private boolean requesting;
+
+    /** The user who was asked, and the messages are expected from. */
+    @Nullable
+    private User pendingUser;
+
+    /** The next check. */
+    @Nullable
+    private TimerHandle pendingCheck;
+
+    /** Number of checks without finding a user to ask. */
+    private int tries;
+
+    /**
+     * Constructor.
+     *
+     * @param controller The controller, to send the request and find the users.
+     * @param chatHistory The messages that are already shown.
+     * @param timer The timer to schedule the checks with.
+     */
+    public HistoryRequester(final Controller controller, final ChatHistory chatHistory, final HashedWheelTimer timer) {
+        Validate.notNull(controller, "Controller can not be null");
+        Validate.notNull(chatHistory, "Chat history can not be null");
+        Validate.notNull(timer, "Timer can not be null");
+
+        this.controller = controller;
+        this.chatHistory = chatHistory;
+        this.timer = timer;
+
+        askedUserCodes = new HashSet<>();
+    }
+
+    /**
+     * Starts looking for a user to ask for the messages. Any request already in progress is started over.
+     */
+    public synchronized void requestHistory() {
+        stop();
+
+        requesting = true;
+        pendingCheck = timer.schedule("HistoryRequester", this, 0);
+    }
+
+    /**
+     * Checks if the messages from the user were asked for, and stops waiting for them if they were.
+     *
+     * @param userCode The unique code of the user who sent the messages.
+     * @return If the messages were asked for, and should be shown.
+     */
+    public synchronized boolean historyArrived(final int userCode) {
+        if (pendingUser == null || pendingUser.getCode() != userCode) {
+            return false;
+        }
+
+        LOG.fine("History arrived from user %s", userCode);
+        stop();
+
+        return true;
+    }
+
+    /**
+     * Stops looking for the messages, and ignores them if they arrive later.
+     */
+    public synchronized void stop() {
+        if (pendingCheck != null) {
+            pendingCheck.cancel();
+            pendingCheck = null;
+        }
+
+        requesting = false;
+        pendingUser = null;
+        tries = 0;
+        askedUserCodes.clear();
+    }
+
+    /**
+     * Asks the next user that is ready, or checks again later if no user is ready.
+     */
+    @Override
+    public synchronized void run() {
+        pendingCheck = null;
+
+        if (!requesting) {
+            return;
+        }
+
+        if (pendingUser != null) {
+            LOG.warning("No history from user %s. Trying the next user.", pendingUser.getCode());
+            pendingUser = null;
+        }
+
+        final User user = findUserToAsk();
+
+        if (user != null) {
+            askedUserCodes.add(user.getCode());
+
+            if (controller.sendHistoryRequest(user, getAge())) {
+                pendingUser = user;
+                pendingCheck = timer.schedule("HistoryRequester", this, REPLY_TIMEOUT);
+                return;
+            }
+
+            LOG.warning("Failed to ask user %s for history", user.getCode());
+        }
+
+        if (++tries >= MAX_TRIES) {
+            LOG.fine("Found no user to ask for history");
+            stop();
+        }
+
+        else {
+            pendingCheck = timer.schedule("HistoryRequester", this, RETRY_DELAY);
+        }
+    }
+
+    /**
+     * Checks if looking for a user to ask, or waiting for the messages.
+     *
+     * @return If requesting the messages.
+     */
+    synchronized boolean isRequesting() {
+        return requesting;
+    }
+
+    /**
+     * Finds the user who has been logged on the longest, of the users that can be asked and have not been asked yet.
+     */
+    @Nullable
+    private User findUserToAsk() {
+        User userToAsk = null;
+
+        for (final User user : controller.getUserList().getSnapshot()) {
+            if (!user.isMe() && user.isTcpEnabled() && user.hasCapability(ClientCapability.HISTORY)
+                    && !askedUserCodes.contains(user.getCode())
+                    && (userToAsk == null || user.getLogonTime() < userToAsk.getLogonTime())) {
+                userToAsk = user;
+            }
+        }
+
+        return userToAsk;
+    }
+
+    /**
+     * Milliseconds back in time to ask for messages from. A little before the last message,
+     * to get the messages that arrived at the other user at a slightly different time.
+     */
+    private long getAge() {
+        final long lastTime = chatHistory.getLastTime();
+
+        if (lastTime == 0) {
+            return -1;
+        }
+
+        return System.currentTimeMillis() - lastTime + ChatHistory.DUPLICATE_TOLERANCE;
+    }
+}
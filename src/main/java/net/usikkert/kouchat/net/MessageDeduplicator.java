@@ -38,6 +38,10 @@ import org.jetbrains.annotations.Nullable;
  * Proxy that listens for messages from both multicast and tcp and forwards from only one source at
  * a time (per user) to avoid duplicates.
  *
+ * <p>Chat messages and private messages with a sequence number are forwarded from both sources,
+ * and the {@link SequenceTracker} removes the duplicates instead. That way messages lost on one source
+ * can still arrive on the other, and messages sent again after a {@link NetworkMessageType#NAK} are shown.</p>
+ *
  * @author Christian Ihle
  */
 public class MessageDeduplicator implements ReceiverListener, TCPReceiverListener {
@@ -46,6 +50,8 @@ public class MessageDeduplicator implements ReceiverListener, TCPReceiverListene
 
     private final Controller controller;
     private final Pattern privateMessagePattern;
+    private final Pattern sequencedMessagePattern;
+    private final SequenceTracker sequenceTracker;
 
     @Nullable
     private ReceiverListener mainChatListener;
@@ -54,10 +60,18 @@ public class MessageDeduplicator implements ReceiverListener, TCPReceiverListene
     private ReceiverListener privateChatListener;
 
     public MessageDeduplicator(final Controller controller) {
+        this(controller, new SequenceTracker(controller, controller.getTimer()));
+    }
+
+    MessageDeduplicator(final Controller controller, final SequenceTracker sequenceTracker) {
         Validate.notNull(controller, "Controller can not be null");
+        Validate.notNull(sequenceTracker, "Sequence tracker can not be null");
 
         this.controller = controller;
+        this.sequenceTracker = sequenceTracker;
         this.privateMessagePattern = Pattern.compile("^(\\d+)!(PRIVMSG)#.+");
+        this.sequencedMessagePattern = Pattern.compile("^(\\d+)!(MSG|PRIVMSG)#[^:]*:(?:\\(\\d+\\))?\\{(\\d{1,9})\\}\\[.*",
+                                                       Pattern.DOTALL);
     }
 
     public void registerMainChatReceiverListener(final ReceiverListener theListener) {
@@ -72,6 +86,10 @@ public class MessageDeduplicator implements ReceiverListener, TCPReceiverListene
     public void messageArrived(final String message, final String ipAddress) {
         final User user = parseUserFromMessage(message);
 
+        if (user != null && forwardSequencedMessage(message, ipAddress, user)) {
+            return;
+        }
+
         if (user == null || !user.isTcpEnabled()) {
             if (user == null || !user.isMe()) {
                 LOG.fine("Multicast message: " + message);
@@ -83,12 +101,43 @@ public class MessageDeduplicator implements ReceiverListener, TCPReceiverListene
 
     @Override
     public void messageArrived(final String message, final String ipAddress, final User user) {
+        if (forwardSequencedMessage(message, ipAddress, user)) {
+            return;
+        }
+
         if (user.isTcpEnabled()) {
             LOG.fine("TCP message: " + message);
             forwardMessageToListener(message, ipAddress);
         }
     }
 
+    /**
+     * Forwards a message with a sequence number, if it has not been seen before.
+     *
+     * @return If the message had a sequence number, and was handled here.
+     */
+    private boolean forwardSequencedMessage(final String message, final String ipAddress, final User user) {
+        if (user.isMe()) {
+            return false;
+        }
+
+        final Matcher sequencedMessageMatcher = sequencedMessagePattern.matcher(message);
+
+        if (!sequencedMessageMatcher.matches()) {
+            return false;
+        }
+
+        final boolean privateChat = sequencedMessageMatcher.group(2).equals(NetworkMessageType.PRIVMSG);
+        final int sequence = Integer.parseInt(sequencedMessageMatcher.group(3));
+
+        if (sequenceTracker.messageArrived(user, privateChat, sequence)) {
+            LOG.fine("Sequenced message: " + message);
+            forwardMessageToListener(message, ipAddress);
+        }
+
+        return true;
+    }
+
     private void forwardMessageToListener(final String message, final String ipAddress) {
         final Matcher privateMessageMatcher = privateMessagePattern.matcher(message);
 
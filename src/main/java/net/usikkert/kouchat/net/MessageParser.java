@@ -24,6 +24,9 @@ package net.usikkert.kouchat.net;
 
 import static net.usikkert.kouchat.net.NetworkMessageType.*;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -32,6 +35,8 @@ import net.usikkert.kouchat.misc.User;
 import net.usikkert.kouchat.settings.Settings;
 import net.usikkert.kouchat.util.Validate;
 
+import org.jetbrains.annotations.Nullable;
+
 /**
  * This class listens for multicast messages from the network,
  * and parses them into a format the {@link MessageResponder} can use.
@@ -56,7 +61,16 @@ import net.usikkert.kouchat.util.Validate;
  *   <li>SENDFILEACCEPT</li>
  *   <li>SENDFILEABORT</li>
  *   <li>SENDFILE</li>
+ *   <li>SENDFILES</li>
+ *   <li>SENDFILEMULTICAST</li>
  *   <li>CLIENT</li>
+ *   <li>GETROSTER</li>
+ *   <li>ROSTER</li>
+ *   <li>PRESENCE</li>
+ *   <li>GETPRESENCE</li>
+ *   <li>NAK</li>
+ *   <li>GETHISTORY</li>
+ *   <li>HISTORY</li>
  * </ul>
  *
  * @author Christian Ihle
@@ -157,7 +171,19 @@ public class MessageParser implements ReceiverListener {
                 }
 
                 else if (type.equals(EXPOSE)) {
-                    responder.exposeRequested();
+                    // Asking a single user to identify, if the user code is included
+                    if (msg.startsWith("(")) {
+                        final int rightPara = msg.indexOf(")");
+                        final int exposeCode = Integer.parseInt(msg.substring(1, rightPara));
+
+                        if (exposeCode == tempme.getCode()) {
+                            responder.exposeRequested();
+                        }
+                    }
+
+                    else {
+                        responder.exposeRequested();
+                    }
                 }
 
                 else if (type.equals(NICKCRASH)) {
@@ -203,6 +229,83 @@ public class MessageParser implements ReceiverListener {
 
                 else if (type.equals(IDLE)) {
                     responder.userIdle(msgCode, ipAddress);
+
+                    // Only included by clients supporting presence deltas
+                    if (msg.startsWith("[")) {
+                        final int rightBracket = msg.indexOf("]");
+                        final int presenceVersion = Integer.parseInt(msg.substring(1, rightBracket));
+
+                        responder.presenceDigestArrived(msgCode, presenceVersion);
+                    }
+                }
+
+                else if (type.equals(PRESENCE)) {
+                    final int leftBracket = msg.indexOf("[");
+                    final int rightBracket = msg.indexOf("]");
+
+                    final User presence = new User(msgNick, msgCode);
+                    presence.setPresenceVersion(Integer.parseInt(msg.substring(leftBracket + 1, rightBracket)));
+
+                    // The away state is left out when only the nick name changed
+                    final boolean complete = msg.startsWith("{", rightBracket + 1);
+
+                    if (complete) {
+                        final int rightCurly = msg.indexOf("}", rightBracket);
+                        presence.setAway(msg.substring(rightBracket + 2, rightCurly).equals("1"));
+                        presence.setAwayMsg(msg.substring(rightCurly + 1, msg.length()));
+                    }
+
+                    responder.presenceChanged(presence, complete);
+                }
+
+                else if (type.equals(GETPRESENCE)) {
+                    final int leftPara = msg.indexOf("(");
+                    final int rightPara = msg.indexOf(")");
+                    final int presenceCode = Integer.parseInt(msg.substring(leftPara + 1, rightPara));
+
+                    if (presenceCode == tempme.getCode()) {
+                        responder.presenceRequested(msgCode);
+                    }
+                }
+
+                else if (type.equals(NAK)) {
+                    final int leftPara = msg.indexOf("(");
+                    final int rightPara = msg.indexOf(")");
+                    final int nakCode = Integer.parseInt(msg.substring(leftPara + 1, rightPara));
+
+                    if (nakCode == tempme.getCode()) {
+                        final int leftCurly = msg.indexOf("{");
+                        final int rightCurly = msg.indexOf("}");
+                        final boolean privateChat = msg.substring(leftCurly + 1, rightCurly).equals("1");
+                        final List<Integer> sequences = new ArrayList<>();
+
+                        for (final String sequence : msg.substring(rightCurly + 1, msg.length()).split(",")) {
+                            sequences.add(Integer.parseInt(sequence));
+                        }
+
+                        responder.messagesRequested(msgCode, privateChat, sequences);
+                    }
+                }
+
+                else if (type.equals(GETHISTORY)) {
+                    final int leftPara = msg.indexOf("(");
+                    final int rightPara = msg.indexOf(")");
+                    final int historyCode = Integer.parseInt(msg.substring(leftPara + 1, rightPara));
+
+                    if (historyCode == tempme.getCode()) {
+                        responder.historyRequested(msgCode, Long.parseLong(msg.substring(rightPara + 1, msg.length())));
+                    }
+                }
+
+                else if (type.equals(HISTORY)) {
+                    final int leftPara = msg.indexOf("(");
+                    final int rightPara = msg.indexOf(")");
+                    final int historyCode = Integer.parseInt(msg.substring(leftPara + 1, rightPara));
+
+                    if (historyCode == tempme.getCode()) {
+                        final String history = msg.substring(rightPara + 1, msg.length());
+                        responder.historyArrived(msgCode, HistoryCodec.decode(history, System.currentTimeMillis()));
+                    }
                 }
 
                 else if (type.equals(SENDFILEACCEPT)) {
@@ -215,11 +318,20 @@ public class MessageParser implements ReceiverListener {
                         final int rightCurly = msg.indexOf("}");
                         final int leftBracket = msg.indexOf("[");
                         final int rightBracket = msg.indexOf("]");
-                        final int port = Integer.parseInt(msg.substring(leftBracket + 1, rightBracket));
+                        final String[] portAndOptions = msg.substring(leftBracket + 1, rightBracket).split(";");
+                        final int port = Integer.parseInt(portAndOptions[0]);
+                        final List<String> options = Arrays.asList(portAndOptions).subList(1, portAndOptions.length);
                         final int fileHash = Integer.parseInt(msg.substring(leftCurly + 1, rightCurly));
                         final String fileName = msg.substring(rightCurly + 1, msg.length());
 
-                        responder.fileSendAccepted(msgCode, fileName, fileHash, port);
+                        if (options.contains(FileContentCache.CACHED_OPTION)) {
+                            responder.fileSendCached(msgCode, fileName, fileHash);
+                        }
+
+                        else {
+                            responder.fileSendAccepted(msgCode, fileName, fileHash, port,
+                                                       options.contains(ClientCapability.DEFLATE), getTransferId(options));
+                        }
                     }
                 }
 
@@ -238,7 +350,7 @@ public class MessageParser implements ReceiverListener {
                     }
                 }
 
-                else if (type.equals(SENDFILE)) {
+                else if (type.equals(SENDFILE) || type.equals(SENDFILES)) {
                     final int leftPara = msg.indexOf("(");
                     final int rightPara = msg.indexOf(")");
                     final int fileCode = Integer.parseInt(msg.substring(leftPara + 1, rightPara));
@@ -248,11 +360,40 @@ public class MessageParser implements ReceiverListener {
                         final int rightCurly = msg.indexOf("}");
                         final int leftBracket = msg.indexOf("[");
                         final int rightBracket = msg.indexOf("]");
-                        final long byteSize = Long.parseLong(msg.substring(leftBracket + 1, rightBracket));
+                        final String[] sizeAndOptions = msg.substring(leftBracket + 1, rightBracket).split(";");
+                        final long byteSize = Long.parseLong(sizeAndOptions[0]);
+                        final List<String> options = Arrays.asList(sizeAndOptions).subList(1, sizeAndOptions.length);
                         final String fileName = msg.substring(rightCurly + 1, msg.length());
                         final int fileHash = Integer.parseInt(msg.substring(leftCurly + 1, rightCurly));
 
-                        responder.fileSend(msgCode, byteSize, fileName, msgNick, fileHash);
+                        if (type.equals(SENDFILES)) {
+                            responder.fileBatchSend(msgCode, byteSize, fileName, msgNick, fileHash);
+                        }
+
+                        else {
+                            responder.fileSend(msgCode, byteSize, fileName, msgNick, fileHash, getContentHash(options));
+                        }
+                    }
+                }
+
+                else if (type.equals(SENDFILEMULTICAST)) {
+                    final int leftPara = msg.indexOf("(");
+                    final int rightPara = msg.indexOf(")");
+                    final int fileCode = Integer.parseInt(msg.substring(leftPara + 1, rightPara));
+
+                    if (fileCode == tempme.getCode()) {
+                        final int leftCurly = msg.indexOf("{");
+                        final int rightCurly = msg.indexOf("}");
+                        final int leftBracket = msg.indexOf("[");
+                        final int rightBracket = msg.indexOf("]");
+                        final String[] sizeAndSession = msg.substring(leftBracket + 1, rightBracket).split(";");
+                        final long byteSize = Long.parseLong(sizeAndSession[0]);
+                        final int sessionId = Integer.parseInt(sizeAndSession[1]);
+                        final int port = Integer.parseInt(sizeAndSession[2]);
+                        final String fileName = msg.substring(rightCurly + 1, msg.length());
+                        final int fileHash = Integer.parseInt(msg.substring(leftCurly + 1, rightCurly));
+
+                        responder.fileMulticastSend(msgCode, byteSize, fileName, msgNick, fileHash, sessionId, port);
                     }
                 }
 
@@ -294,7 +435,35 @@ public class MessageParser implements ReceiverListener {
                         }
                     }
 
-                    responder.clientInfo(msgCode, client, timeSinceLogon, operatingSystem, privateChatPort, tcpChatPort);
+                    final List<String> capabilities = new ArrayList<>();
+
+                    if (backslash != -1 && backslash < msg.length() - 1) {
+                        capabilities.addAll(Arrays.asList(msg.substring(backslash + 1).split(",")));
+                    }
+
+                    responder.clientInfo(msgCode, client, timeSinceLogon, operatingSystem, privateChatPort, tcpChatPort,
+                                         capabilities);
+                }
+
+                else if (type.equals(GETROSTER)) {
+                    final int leftPara = msg.indexOf("(");
+                    final int rightPara = msg.indexOf(")");
+                    final int rosterCode = Integer.parseInt(msg.substring(leftPara + 1, rightPara));
+
+                    if (rosterCode == tempme.getCode()) {
+                        responder.rosterRequested(msgCode);
+                    }
+                }
+
+                else if (type.equals(ROSTER)) {
+                    final int leftPara = msg.indexOf("(");
+                    final int rightPara = msg.indexOf(")");
+                    final int rosterCode = Integer.parseInt(msg.substring(leftPara + 1, rightPara));
+
+                    if (rosterCode == tempme.getCode()) {
+                        final String roster = msg.substring(rightPara + 1, msg.length());
+                        responder.rosterArrived(msgCode, RosterCodec.decode(roster, System.currentTimeMillis()));
+                    }
                 }
             }
 
@@ -318,4 +487,35 @@ public class MessageParser implements ReceiverListener {
             LOG.log(Level.SEVERE, "Failed to parse message. message=" + message + ", ipAddress=" + ipAddress, e);
         }
     }
+
+    /**
+     * Finds the id of the file transfer in the options of an accepted file transfer.
+     *
+     * @param options The options to search.
+     * @return The id of the file transfer, or 0 if the receiver is not using a shared port.
+     */
+    private int getTransferId(final List<String> options) {
+        for (final String option : options) {
+            if (option.startsWith(FileTransferServer.TRANSFER_ID_OPTION)) {
+                return Integer.parseInt(option.substring(FileTransferServer.TRANSFER_ID_OPTION.length()));
+            }
+        }
+
+        return 0;
+    }
+
+    @Nullable
+    private String getContentHash(final List<String> options) {
+        for (final String option : options) {
+            if (option.startsWith(FileContentCache.CONTENT_HASH_OPTION)) {
+                final String contentHash = option.substring(FileContentCache.CONTENT_HASH_OPTION.length());
+
+                if (FileContentCache.isValidContentHash(contentHash)) {
+                    return contentHash;
+                }
+            }
+        }
+
+        return null;
+    }
 }
@@ -22,8 +22,12 @@
 
 package net.usikkert.kouchat.net;
 
+import java.util.List;
+
 import net.usikkert.kouchat.misc.User;
 
+import org.jetbrains.annotations.Nullable;
+
 /**
  * This is the interface for responders to multicast messages.
  *
@@ -147,8 +151,35 @@ public interface MessageResponder {
      * @param fileName The name of the file.
      * @param user The nick name of the user.
      * @param fileHash The hash code of the file.
+     * @param contentHash The hash of the content of the file, for {@link FileContentCache}, or <code>null</code>.
+     */
+    void fileSend(int userCode, long byteSize, String fileName, String user, int fileHash, @Nullable String contentHash);
+
+    /**
+     * A user is asking the application user to receive a folder with files, as a single batch.
+     *
+     * @param userCode The unique code of the user who wants to send the files.
+     * @param byteSize The size of the batch in bytes.
+     * @param folderName The name of the folder.
+     * @param user The nick name of the user.
+     * @param fileHash The hash code of the batch.
      */
-    void fileSend(int userCode, long byteSize, String fileName, String user, int fileHash);
+    void fileBatchSend(int userCode, long byteSize, String folderName, String user, int fileHash);
+
+    /**
+     * A user is asking the application user to receive a file, sent to many users at once
+     * with a {@link MulticastFileSession}.
+     *
+     * @param userCode The unique code of the user who wants to send a file.
+     * @param byteSize The size of the file in bytes.
+     * @param fileName The name of the file.
+     * @param user The nick name of the user.
+     * @param fileHash The hash code of the file.
+     * @param sessionId The id of the multicast session.
+     * @param port The port of the multicast session, to report progress to.
+     */
+    void fileMulticastSend(int userCode, long byteSize, String fileName, String user, int fileHash,
+                           int sessionId, int port);
 
     /**
      * A user has aborted a file transfer from the application user.
@@ -166,8 +197,19 @@ public interface MessageResponder {
      * @param fileName The name of the file.
      * @param fileHash The hash code of the file.
      * @param port The port to use for connecting to the other user.
+     * @param compressed If the file should be sent compressed with {@link AdaptiveDeflaterOutputStream}.
      */
-    void fileSendAccepted(int userCode, String fileName, int fileHash, int port);
+    void fileSendAccepted(int userCode, String fileName, int fileHash, int port, boolean compressed, int transferId);
+
+    /**
+     * A user has restored a file from the application user from the {@link FileContentCache},
+     * so the file does not need to be sent.
+     *
+     * @param userCode The unique code of the user who had the file in the cache.
+     * @param fileName The name of the file.
+     * @param fileHash The hash code of the file.
+     */
+    void fileSendCached(int userCode, String fileName, int fileHash);
 
     /**
      * A user has sent information about it's client.
@@ -178,6 +220,71 @@ public interface MessageResponder {
      * @param operatingSystem The user's operating system.
      * @param privateChatPort The port to use for sending private chat messages to this user.
      * @param tcpChatPort The port to use for sending chat messages to this user using tcp.
+     * @param capabilities The optional features of the network protocol the client supports.
+     */
+    void clientInfo(int userCode, String client, long timeSinceLogon, String operatingSystem, int privateChatPort, int tcpChatPort,
+                    List<String> capabilities);
+
+    /**
+     * A user has asked for a snapshot of all the users this client knows about.
+     *
+     * @param userCode The unique code of the user who asked.
+     */
+    void rosterRequested(int userCode);
+
+    /**
+     * A user has sent a snapshot of the users it knows about.
+     *
+     * @param userCode The unique code of the user who sent the snapshot.
+     * @param users The users in the snapshot.
+     */
+    void rosterArrived(int userCode, List<User> users);
+
+    /**
+     * A user has changed its nick name or away state, and sent the change as a versioned delta.
+     *
+     * @param presence A user with the code, nick name, presence version, and the away state if included.
+     * @param complete If the away state is included, so the presence contains the complete state of the user.
+     */
+    void presenceChanged(User presence, boolean complete);
+
+    /**
+     * A user has sent the current version of its presence state.
+     *
+     * @param userCode The unique code of the user.
+     * @param presenceVersion The current version of the presence state of the user.
+     */
+    void presenceDigestArrived(int userCode, int presenceVersion);
+
+    /**
+     * A user has asked for the complete presence state of the application user.
+     *
+     * @param userCode The unique code of the user who asked.
+     */
+    void presenceRequested(int userCode);
+
+    /**
+     * A user has asked for chat messages from the application user again, after missing them.
+     *
+     * @param userCode The unique code of the user who asked.
+     * @param privateChat If the messages are from the private chat with the user, instead of the main chat.
+     * @param sequences The sequence numbers of the missing messages.
+     */
+    void messagesRequested(int userCode, boolean privateChat, List<Integer> sequences);
+
+    /**
+     * A user has asked for the recent messages in the main chat.
+     *
+     * @param userCode The unique code of the user who asked.
+     * @param age Milliseconds back in time to get messages from, or -1 to get all the messages.
+     */
+    void historyRequested(int userCode, long age);
+
+    /**
+     * A user has sent recent messages in the main chat, after being asked.
+     *
+     * @param userCode The unique code of the user who sent the messages.
+     * @param entries The messages, oldest first.
      */
-    void clientInfo(int userCode, String client, long timeSinceLogon, String operatingSystem, int privateChatPort, int tcpChatPort);
+    void historyArrived(int userCode, List<ChatHistory.Entry> entries);
 }
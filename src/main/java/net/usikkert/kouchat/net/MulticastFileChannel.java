@@ -0,0 +1,324 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.MulticastSocket;
+import java.net.SocketTimeoutException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+import net.usikkert.kouchat.Constants;
+import net.usikkert.kouchat.util.Logger;
+import net.usikkert.kouchat.util.Validate;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Receives a file from a {@link MulticastFileSession}.
+ *
+ * <p>Joins the multicast group, and writes the blocks to the file as they arrive, in any order.
+ * The progress, and the blocks that are missing, are reported directly to the sender, both regularly
+ * and when the sender asks for it. The sender then sends the missing blocks again.</p>
+ *
+ * @author Christian Ihle
+ */
+public class MulticastFileChannel {
+
+    private static final Logger LOG = Logger.getLogger(MulticastFileChannel.class);
+
+    /** How often to report progress to the sender, while receiving blocks. */
+    static final int STATUS_INTERVAL = 500;
+
+    /** How long the sender can be silent before giving up. */
+    static final int SENDER_TIMEOUT = 15000;
+
+    /** How long to keep answering the sender after the file is complete, in case the last status was lost. */
+    static final int LINGER_TIME = 3000;
+
+    private static final int SOCKET_TIMEOUT = 100;
+
+    private final int receiverCode;
+    private final int senderCode;
+    private final int sessionId;
+    private final String senderIp;
+    private final int senderPort;
+    private final long size;
+    private final int blockCount;
+    private final String groupIp;
+    private final int groupPort;
+    private final BitSet receivedBlocks;
+
+    private volatile boolean cancel;
+    private int receivedBlockCount;
+    private int highestBlock;
+
+    @Nullable
+    private MulticastSocket socket;
+
+    @Nullable
+    private InetAddress senderAddress;
+
+    /**
+     * Constructor. Creates a channel using the default multicast group for files.
+     *
+     * @param receiverCode The user code of the application user.
+     * @param senderCode The user code of the user sending the file.
+     * @param sessionId The id of the session at the sender.
+     * @param senderIp The ip address of the user sending the file.
+     * @param senderPort The port to send status to.
+     * @param size The size of the file, in bytes.
+     */
+    public MulticastFileChannel(final int receiverCode, final int senderCode, final int sessionId,
+                                final String senderIp, final int senderPort, final long size) {
+        this(receiverCode, senderCode, sessionId, senderIp, senderPort, size,
+             Constants.NETWORK_FILE_MULTICAST_IP, Constants.NETWORK_FILE_MULTICAST_PORT);
+    }
+
+    MulticastFileChannel(final int receiverCode, final int senderCode, final int sessionId,
+                         final String senderIp, final int senderPort, final long size,
+                         final String groupIp, final int groupPort) {
+        Validate.notEmpty(senderIp, "Sender ip can not be empty");
+        Validate.notEmpty(groupIp, "Group ip can not be empty");
+
+        this.receiverCode = receiverCode;
+        this.senderCode = senderCode;
+        this.sessionId = sessionId;
+        this.senderIp = senderIp;
+        this.senderPort = senderPort;
+        this.size = size;
+        this.groupIp = groupIp;
+        this.groupPort = groupPort;
+
+        blockCount = MulticastFilePacket.getBlockCount(size);
+        receivedBlocks = new BitSet(blockCount);
+        highestBlock = -1;
+    }
+
+    /**
+     * Joins the multicast group, to start receiving blocks as soon as the sender is told
+     * that the file is accepted.
+     *
+     * @throws ServerException If the multicast group could not be joined.
+     */
+    public void join() throws ServerException {
+        try {
+            senderAddress = InetAddress.getByName(senderIp);
+            socket = new MulticastSocket(groupPort);
+            socket.setSoTimeout(SOCKET_TIMEOUT);
+            socket.joinGroup(InetAddress.getByName(groupIp));
+        }
+
+        catch (final IOException e) {
+            close();
+            throw new ServerException("Could not join multicast group " + groupIp, e);
+        }
+    }
+
+    /**
+     * Receives the file, until all the blocks are received, the sender is gone, or the transfer is cancelled.
+     *
+     * @param file The file to save to.
+     * @param listener Notified about the received blocks.
+     * @return If all the blocks of the file were received.
+     * @throws IOException If writing to the file failed.
+     */
+    public boolean receive(final File file, final BlockListener listener) throws IOException {
+        Validate.notNull(file, "File can not be null");
+        Validate.notNull(listener, "Block listener can not be null");
+
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+
+        try {
+            randomAccessFile.setLength(size);
+            sendStatus(MulticastFilePacket.findMissingRanges(receivedBlocks, blockCount));
+
+            if (receiveBlocks(randomAccessFile, listener)) {
+                linger();
+                return true;
+            }
+
+            if (cancel) {
+                sendStatus(Collections.<int[]>emptyList());
+            }
+
+            return false;
+        }
+
+        finally {
+            randomAccessFile.close();
+            close();
+        }
+    }
+
+    /**
+     * Stops receiving the file, and tells the sender.
+     */
+    public void cancel() {
+        cancel = true;
+    }
+
+    private boolean receiveBlocks(final RandomAccessFile randomAccessFile, final BlockListener listener)
+            throws IOException {
+        final byte[] buffer = new byte[MulticastFilePacket.MAX_PACKET_SIZE];
+        long lastHeard = System.currentTimeMillis();
+        long lastStatus = lastHeard;
+
+        while (!cancel && receivedBlockCount < blockCount) {
+            final MulticastFilePacket packet = receivePacket(buffer);
+            final long now = System.currentTimeMillis();
+
+            if (packet != null && packet.getType() == MulticastFilePacket.DATA) {
+                lastHeard = now;
+                writeBlock(packet.getBody(), randomAccessFile, listener);
+            }
+
+            else if (packet != null && packet.getType() == MulticastFilePacket.END) {
+                lastHeard = now;
+                lastStatus = now;
+                sendStatus(MulticastFilePacket.findMissingRanges(receivedBlocks, blockCount));
+            }
+
+            if (now - lastStatus >= STATUS_INTERVAL) {
+                lastStatus = now;
+                sendStatus(MulticastFilePacket.findMissingRanges(receivedBlocks, highestBlock + 1));
+            }
+
+            if (now - lastHeard > SENDER_TIMEOUT) {
+                LOG.warning("Gave up waiting for blocks from session %s of user %s", sessionId, senderCode);
+                return false;
+            }
+        }
+
+        return !cancel;
+    }
+
+    private void writeBlock(final ByteBuffer body, final RandomAccessFile randomAccessFile,
+                            final BlockListener listener) throws IOException {
+        final int blockNumber = body.getInt();
+
+        if (blockNumber < 0 || blockNumber >= blockCount || receivedBlocks.get(blockNumber)) {
+            return;
+        }
+
+        final long position = (long) blockNumber * MulticastFilePacket.BLOCK_SIZE;
+        final int length = (int) Math.min(MulticastFilePacket.BLOCK_SIZE, size - position);
+
+        if (body.remaining() != length) {
+            LOG.warning("Block %s has wrong length: %s", blockNumber, body.remaining());
+            return;
+        }
+
+        randomAccessFile.seek(position);
+        randomAccessFile.write(body.array(), body.arrayOffset() + body.position(), length);
+
+        receivedBlocks.set(blockNumber);
+        receivedBlockCount++;
+        highestBlock = Math.max(highestBlock, blockNumber);
+        listener.blockReceived(length);
+    }
+
+    /**
+     * Answers the sender for a while after the file is complete, so the sender
+     * gets to know even if some of the status packets are lost.
+     */
+    private void linger() throws IOException {
+        final byte[] buffer = new byte[MulticastFilePacket.MAX_PACKET_SIZE];
+        final long lingerStart = System.currentTimeMillis();
+
+        sendStatus(Collections.<int[]>emptyList());
+
+        while (!cancel && System.currentTimeMillis() - lingerStart < LINGER_TIME) {
+            final MulticastFilePacket packet = receivePacket(buffer);
+
+            if (packet != null && packet.getType() == MulticastFilePacket.END) {
+                sendStatus(Collections.<int[]>emptyList());
+            }
+        }
+    }
+
+    @Nullable
+    private MulticastFilePacket receivePacket(final byte[] buffer) throws IOException {
+        try {
+            final DatagramPacket datagramPacket = new DatagramPacket(buffer, buffer.length);
+            socket.receive(datagramPacket);
+            final MulticastFilePacket packet = MulticastFilePacket.read(buffer, datagramPacket.getLength());
+
+            if (packet != null && packet.getSenderCode() == senderCode && packet.getSessionId() == sessionId) {
+                return packet;
+            }
+        }
+
+        catch (final SocketTimeoutException e) {
+            // Time to check for timeouts and status
+        }
+
+        catch (final BufferUnderflowException e) {
+            LOG.warning("Invalid packet: %s", e.toString());
+        }
+
+        return null;
+    }
+
+    private void sendStatus(final List<int[]> missingRanges) throws IOException {
+        byte flags = 0;
+
+        if (receivedBlockCount == blockCount) {
+            flags |= MulticastFilePacket.FLAG_COMPLETE;
+        }
+
+        else if (cancel) {
+            flags |= MulticastFilePacket.FLAG_CANCELLED;
+        }
+
+        final byte[] status = MulticastFilePacket.createStatus(senderCode, sessionId, receiverCode, flags,
+                                                               receivedBlockCount, missingRanges);
+        socket.send(new DatagramPacket(status, status.length, senderAddress, senderPort));
+    }
+
+    private void close() {
+        if (socket != null) {
+            socket.close();
+        }
+    }
+
+    /**
+     * Notified about blocks written to the file.
+     */
+    public interface BlockListener {
+
+        /**
+         * A new block was written to the file.
+         *
+         * @param bytes The number of bytes in the block.
+         */
+        void blockReceived(int bytes);
+    }
+}
@@ -0,0 +1,189 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The packets of a file sent to many users at once over multicast.
+ *
+ * <p>Every packet starts with a magic number, the type, the user code of the sender, and the id of the session.
+ * The sender sends {@link #DATA} packets with one block of the file each, to the multicast group, and
+ * {@link #END} packets when it has nothing left to send. The receivers answer the sender directly with
+ * {@link #STATUS} packets, containing their progress and the ranges of blocks they are missing.</p>
+ *
+ * @author Christian Ihle
+ */
+final class MulticastFilePacket {
+
+    /** The number of bytes of the file in each data packet. Small enough to avoid fragmented packets. */
+    static final int BLOCK_SIZE = 1024;
+
+    /** A block of the file: the block number, and the bytes. */
+    static final byte DATA = 1;
+
+    /** No more blocks to send right now: the number of blocks in the file. */
+    static final byte END = 2;
+
+    /** Progress from a receiver: user code, flags, blocks received, and missing ranges of blocks. */
+    static final byte STATUS = 3;
+
+    /** Flag in {@link #STATUS} when the receiver has all the blocks. */
+    static final byte FLAG_COMPLETE = 1;
+
+    /** Flag in {@link #STATUS} when the receiver has cancelled. */
+    static final byte FLAG_CANCELLED = 2;
+
+    /** Max number of missing ranges in one status packet. More are requested in the next status. */
+    static final int MAX_RANGES = 100;
+
+    /** Large enough for any of the packets. */
+    static final int MAX_PACKET_SIZE = 1100;
+
+    private static final int MAGIC = 0x4B4D4346;
+
+    private final byte type;
+    private final int senderCode;
+    private final int sessionId;
+    private final ByteBuffer body;
+
+    private MulticastFilePacket(final byte type, final int senderCode, final int sessionId, final ByteBuffer body) {
+        this.type = type;
+        this.senderCode = senderCode;
+        this.sessionId = sessionId;
+        this.body = body;
+    }
+
+    /**
+     * Reads the header of a packet.
+     *
+     * @param data The bytes of the packet.
+     * @param length The length of the packet.
+     * @return The packet, or <code>null</code> if it's not a multicast file packet.
+     */
+    @Nullable
+    static MulticastFilePacket read(final byte[] data, final int length) {
+        final ByteBuffer buffer = ByteBuffer.wrap(data, 0, length);
+
+        if (length < 13 || buffer.getInt() != MAGIC) {
+            return null;
+        }
+
+        return new MulticastFilePacket(buffer.get(), buffer.getInt(), buffer.getInt(), buffer.slice());
+    }
+
+    static byte[] createData(final int senderCode, final int sessionId, final int block,
+                             final byte[] bytes, final int length) {
+        return createHeader(DATA, senderCode, sessionId, 4 + length)
+                .putInt(block)
+                .put(bytes, 0, length)
+                .array();
+    }
+
+    static byte[] createEnd(final int senderCode, final int sessionId, final int blockCount) {
+        return createHeader(END, senderCode, sessionId, 4)
+                .putInt(blockCount)
+                .array();
+    }
+
+    static byte[] createStatus(final int senderCode, final int sessionId, final int receiverCode, final byte flags,
+                               final int blocksReceived, final List<int[]> missingRanges) {
+        final ByteBuffer buffer = createHeader(STATUS, senderCode, sessionId, 4 + 1 + 4 + 2 + missingRanges.size() * 8)
+                .putInt(receiverCode)
+                .put(flags)
+                .putInt(blocksReceived)
+                .putShort((short) missingRanges.size());
+
+        for (final int[] range : missingRanges) {
+            buffer.putInt(range[0]).putInt(range[1]);
+        }
+
+        return buffer.array();
+    }
+
+    /**
+     * Finds the ranges of blocks that are not received, as pairs of the first block, and the block after the last.
+     *
+     * @param received The blocks that are received.
+     * @param blockCount The number of blocks in the file.
+     * @return Up to {@link #MAX_RANGES} missing ranges, starting from the first block.
+     */
+    static List<int[]> findMissingRanges(final BitSet received, final int blockCount) {
+        final List<int[]> ranges = new ArrayList<>();
+        int from = received.nextClearBit(0);
+
+        while (from < blockCount && ranges.size() < MAX_RANGES) {
+            final int nextReceived = received.nextSetBit(from);
+            final int to = nextReceived == -1 ? blockCount : Math.min(blockCount, nextReceived);
+            ranges.add(new int[] {from, to});
+            from = received.nextClearBit(to);
+        }
+
+        return ranges;
+    }
+
+    /**
+     * Gets the number of blocks needed for a file.
+     *
+     * @param fileSize The size of the file.
+     * @return The number of blocks.
+     */
+    static int getBlockCount(final long fileSize) {
+        return (int) ((fileSize + BLOCK_SIZE - 1) / BLOCK_SIZE);
+    }
+
+    private static ByteBuffer createHeader(final byte type, final int senderCode, final int sessionId, final int bodySize) {
+        return ByteBuffer.allocate(13 + bodySize)
+                .putInt(MAGIC)
+                .put(type)
+                .putInt(senderCode)
+                .putInt(sessionId);
+    }
+
+    byte getType() {
+        return type;
+    }
+
+    int getSenderCode() {
+        return senderCode;
+    }
+
+    int getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * Gets the rest of the packet after the header, to read the fields of the type of packet from.
+     *
+     * @return The body of the packet. Reading past the end throws {@link BufferUnderflowException}.
+     */
+    ByteBuffer getBody() {
+        return body;
+    }
+}
@@ -0,0 +1,499 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.MulticastSocket;
+import java.net.SocketTimeoutException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.usikkert.kouchat.Constants;
+import net.usikkert.kouchat.util.Logger;
+import net.usikkert.kouchat.util.Validate;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Sends a file to many users at once, using multicast.
+ *
+ * <p>The file is split in blocks of {@link MulticastFilePacket#BLOCK_SIZE} bytes, and every block is sent once
+ * to the multicast group, no matter how many users receive it. The receivers, see {@link MulticastFileChannel},
+ * report the blocks they are missing back to the session, and those blocks are sent again.
+ * When there is nothing left to send, the session asks the receivers for missing blocks until all of them
+ * have the complete file, have cancelled, or have stopped answering.</p>
+ *
+ * <p>Each user receiving the file has its own {@link FileSender}, that follows the progress of
+ * that user in the session. The session is closed when the last of them is removed.</p>
+ *
+ * @author Christian Ihle
+ */
+public class MulticastFileSession {
+
+    private static final Logger LOG = Logger.getLogger(MulticastFileSession.class);
+
+    /** The max speed to send blocks at. Multicast has no congestion control, so the blocks are paced. */
+    static final int MAX_BYTES_PER_SECOND = 4 * 1024 * 1024;
+
+    /** How often to ask for missing blocks, when there is nothing else to send. */
+    static final int END_INTERVAL = 200;
+
+    /** How long a receiver can be silent before it's considered gone. */
+    static final int RECIPIENT_TIMEOUT = 15000;
+
+    private static final int SOCKET_TIMEOUT = 500;
+
+    private static final AtomicInteger SESSION_ID_COUNTER = new AtomicInteger();
+
+    private final int senderCode;
+    private final int sessionId;
+    private final File file;
+    private final int blockCount;
+    private final String groupIp;
+    private final int groupPort;
+    private final Map<Integer, Recipient> recipients;
+
+    /** The blocks to send. Guarded by this. */
+    private final BitSet pendingBlocks;
+
+    /** Where to continue looking for blocks to send. Guarded by this. */
+    private int nextBlock;
+
+    private volatile boolean running;
+    private int port;
+
+    @Nullable
+    private MulticastSocket socket;
+
+    @Nullable
+    private RandomAccessFile randomAccessFile;
+
+    /**
+     * Constructor. Creates a session using the default multicast group for files.
+     *
+     * @param senderCode The user code of the application user.
+     * @param file The file to send.
+     */
+    public MulticastFileSession(final int senderCode, final File file) {
+        this(senderCode, file, Constants.NETWORK_FILE_MULTICAST_IP, Constants.NETWORK_FILE_MULTICAST_PORT);
+    }
+
+    MulticastFileSession(final int senderCode, final File file, final String groupIp, final int groupPort) {
+        Validate.notNull(file, "File can not be null");
+        Validate.notEmpty(groupIp, "Group ip can not be empty");
+
+        this.senderCode = senderCode;
+        this.file = file;
+        this.groupIp = groupIp;
+        this.groupPort = groupPort;
+
+        sessionId = SESSION_ID_COUNTER.incrementAndGet();
+        blockCount = MulticastFilePacket.getBlockCount(file.length());
+        recipients = new ConcurrentHashMap<Integer, Recipient>();
+        pendingBlocks = new BitSet(blockCount);
+    }
+
+    /**
+     * Opens the file and the socket, and starts sending blocks as soon as a receiver asks for them.
+     *
+     * @return The port the receivers should send their status to.
+     * @throws ServerException If the session could not be started.
+     */
+    public synchronized int start() throws ServerException {
+        try {
+            randomAccessFile = new RandomAccessFile(file, "r");
+            socket = new MulticastSocket(0);
+            socket.setSoTimeout(SOCKET_TIMEOUT);
+            running = true;
+        }
+
+        catch (final IOException e) {
+            close();
+            throw new ServerException("Could not start multicast file session", e);
+        }
+
+        startThread("MulticastFileSessionSender", new Runnable() {
+            @Override
+            public void run() {
+                sendBlocks();
+            }
+        });
+
+        startThread("MulticastFileSessionControl", new Runnable() {
+            @Override
+            public void run() {
+                receiveStatus();
+            }
+        });
+
+        port = socket.getLocalPort();
+
+        return port;
+    }
+
+    public int getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * Gets the port the receivers should send their status to.
+     *
+     * @return The port, or 0 if not started.
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * If any users are still asked to receive the file, or receiving it.
+     *
+     * @return If there are users in the session.
+     */
+    public boolean hasRecipients() {
+        return !recipients.isEmpty();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Adds a user that is asked to receive the file. The user is not sent anything
+     * before {@link #recipientAccepted(int)}.
+     *
+     * @param userCode The user code of the receiving user.
+     */
+    public void addRecipient(final int userCode) {
+        recipients.put(userCode, new Recipient());
+    }
+
+    /**
+     * The user has accepted the file, and will report which blocks it's missing.
+     *
+     * @param userCode The user code of the receiving user.
+     */
+    public synchronized void recipientAccepted(final int userCode) {
+        final Recipient recipient = recipients.get(userCode);
+
+        if (recipient != null) {
+            recipient.accepted = true;
+            recipient.lastHeard = System.currentTimeMillis();
+            notifyAll();
+        }
+    }
+
+    /**
+     * Removes a user from the session. The session is closed when there are no users left.
+     *
+     * @param userCode The user code of the receiving user.
+     */
+    public synchronized void removeRecipient(final int userCode) {
+        recipients.remove(userCode);
+        notifyAll();
+
+        if (recipients.isEmpty()) {
+            close();
+        }
+    }
+
+    /**
+     * Gets the number of bytes the user reports to have received.
+     *
+     * @param userCode The user code of the receiving user.
+     * @return The number of bytes received.
+     */
+    public long getBytesReceived(final int userCode) {
+        final Recipient recipient = recipients.get(userCode);
+
+        if (recipient == null) {
+            return 0;
+        }
+
+        return Math.min(file.length(), (long) recipient.blocksReceived * MulticastFilePacket.BLOCK_SIZE);
+    }
+
+    /**
+     * If the user has received all the blocks of the file.
+     *
+     * @param userCode The user code of the receiving user.
+     * @return If the file is received.
+     */
+    public boolean isComplete(final int userCode) {
+        final Recipient recipient = recipients.get(userCode);
+
+        return recipient != null && recipient.complete;
+    }
+
+    /**
+     * If the user is done with the file, by receiving it, cancelling it, or not answering.
+     *
+     * @param userCode The user code of the receiving user.
+     * @return If nothing more will happen with the user in this session.
+     */
+    public boolean isDone(final int userCode) {
+        final Recipient recipient = recipients.get(userCode);
+
+        return !running || recipient == null || recipient.complete || recipient.failed;
+    }
+
+    /**
+     * Waits for the user to report progress, or be done.
+     *
+     * @param userCode The user code of the receiving user.
+     * @param timeout Max number of milliseconds to wait.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public synchronized void awaitProgress(final int userCode, final long timeout) throws InterruptedException {
+        if (!isDone(userCode)) {
+            wait(timeout);
+        }
+    }
+
+    /**
+     * Stops sending, and closes the file and the socket.
+     */
+    public synchronized void close() {
+        running = false;
+        notifyAll();
+
+        if (socket != null) {
+            socket.close();
+        }
+
+        try {
+            if (randomAccessFile != null) {
+                randomAccessFile.close();
+            }
+        }
+
+        catch (final IOException e) {
+            LOG.warning(e.toString());
+        }
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    private void sendBlocks() {
+        final byte[] block = new byte[MulticastFilePacket.BLOCK_SIZE];
+        final InetAddress groupAddress;
+
+        try {
+            groupAddress = InetAddress.getByName(groupIp);
+        }
+
+        catch (final IOException e) {
+            LOG.severe(e, "Could not find multicast group %s", groupIp);
+            close();
+            return;
+        }
+
+        long pacingStart = System.nanoTime();
+        long pacingBytes = 0;
+
+        while (running) {
+            try {
+                final int blockNumber = takePendingBlock();
+
+                if (blockNumber >= 0) {
+                    final int length = readBlock(blockNumber, block);
+                    final byte[] packet = MulticastFilePacket.createData(senderCode, sessionId, blockNumber, block, length);
+                    send(packet, groupAddress, groupPort);
+
+                    pacingBytes += packet.length;
+                    final long aheadMillis = pacingBytes * 1000L / MAX_BYTES_PER_SECOND -
+                            (System.nanoTime() - pacingStart) / 1000000L;
+
+                    if (aheadMillis > 0) {
+                        Thread.sleep(aheadMillis);
+                    }
+                }
+
+                else {
+                    timeOutSilentRecipients();
+
+                    if (hasIncompleteRecipients()) {
+                        send(MulticastFilePacket.createEnd(senderCode, sessionId, blockCount), groupAddress, groupPort);
+                    }
+
+                    waitForPendingBlocks();
+                    pacingStart = System.nanoTime();
+                    pacingBytes = 0;
+                }
+            }
+
+            catch (final IOException e) {
+                if (running) {
+                    LOG.warning(e.toString());
+                }
+            }
+
+            catch (final InterruptedException e) {
+                LOG.warning(e.toString());
+                close();
+            }
+        }
+    }
+
+    private synchronized int takePendingBlock() {
+        int blockNumber = pendingBlocks.nextSetBit(nextBlock);
+
+        if (blockNumber < 0) {
+            blockNumber = pendingBlocks.nextSetBit(0);
+        }
+
+        if (blockNumber >= 0) {
+            pendingBlocks.clear(blockNumber);
+            nextBlock = blockNumber + 1;
+        }
+
+        return blockNumber;
+    }
+
+    private synchronized void waitForPendingBlocks() throws InterruptedException {
+        if (running && pendingBlocks.isEmpty()) {
+            wait(END_INTERVAL);
+        }
+    }
+
+    private synchronized int readBlock(final int blockNumber, final byte[] block) throws IOException {
+        final long position = (long) blockNumber * MulticastFilePacket.BLOCK_SIZE;
+        final int length = (int) Math.min(MulticastFilePacket.BLOCK_SIZE, file.length() - position);
+
+        randomAccessFile.seek(position);
+        randomAccessFile.readFully(block, 0, length);
+
+        return length;
+    }
+
+    private void send(final byte[] packet, final InetAddress address, final int port) throws IOException {
+        socket.send(new DatagramPacket(packet, packet.length, address, port));
+    }
+
+    private boolean hasIncompleteRecipients() {
+        for (final Recipient recipient : recipients.values()) {
+            if (recipient.accepted && !recipient.complete && !recipient.failed) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private synchronized void timeOutSilentRecipients() {
+        final long now = System.currentTimeMillis();
+
+        for (final Recipient recipient : recipients.values()) {
+            if (recipient.accepted && !recipient.complete && !recipient.failed &&
+                    now - recipient.lastHeard > RECIPIENT_TIMEOUT) {
+                recipient.failed = true;
+                notifyAll();
+            }
+        }
+    }
+
+    private void receiveStatus() {
+        final byte[] buffer = new byte[MulticastFilePacket.MAX_PACKET_SIZE];
+
+        while (running) {
+            try {
+                final DatagramPacket datagramPacket = new DatagramPacket(buffer, buffer.length);
+                socket.receive(datagramPacket);
+                final MulticastFilePacket packet = MulticastFilePacket.read(buffer, datagramPacket.getLength());
+
+                if (packet != null && packet.getType() == MulticastFilePacket.STATUS &&
+                        packet.getSenderCode() == senderCode && packet.getSessionId() == sessionId) {
+                    updateRecipient(packet.getBody());
+                }
+            }
+
+            catch (final SocketTimeoutException e) {
+                // Check if still running
+            }
+
+            catch (final BufferUnderflowException e) {
+                LOG.warning("Invalid status packet: %s", e.toString());
+            }
+
+            catch (final IOException e) {
+                if (running) {
+                    LOG.warning(e.toString());
+                }
+            }
+        }
+    }
+
+    private synchronized void updateRecipient(final ByteBuffer body) {
+        final Recipient recipient = recipients.get(body.getInt());
+
+        if (recipient == null || !recipient.accepted) {
+            return;
+        }
+
+        final byte flags = body.get();
+        recipient.lastHeard = System.currentTimeMillis();
+        recipient.blocksReceived = Math.max(recipient.blocksReceived, body.getInt());
+        recipient.complete = (flags & MulticastFilePacket.FLAG_COMPLETE) != 0;
+        recipient.failed = (flags & MulticastFilePacket.FLAG_CANCELLED) != 0;
+
+        final int rangeCount = body.getShort();
+
+        for (int i = 0; i < rangeCount; i++) {
+            final int from = Math.max(0, body.getInt());
+            final int to = Math.min(blockCount, body.getInt());
+
+            if (from < to) {
+                pendingBlocks.set(from, to);
+            }
+        }
+
+        notifyAll();
+    }
+
+    private void startThread(final String name, final Runnable runnable) {
+        final Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * The state of a user receiving the file. Guarded by the session.
+     */
+    private static class Recipient {
+
+        private volatile boolean accepted;
+        private volatile boolean complete;
+        private volatile boolean failed;
+        private volatile int blocksReceived;
+        private long lastHeard;
+    }
+}
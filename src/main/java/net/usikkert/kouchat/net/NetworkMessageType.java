@@ -46,6 +46,15 @@ public interface NetworkMessageType {
     String SENDFILEACCEPT = "SENDFILEACCEPT";
     String SENDFILEABORT = "SENDFILEABORT";
     String SENDFILE = "SENDFILE";
+    String SENDFILES = "SENDFILES";
+    String SENDFILEMULTICAST = "SENDFILEMULTICAST";
     String CLIENT = "CLIENT";
     String PRIVMSG = "PRIVMSG";
+    String GETROSTER = "GETROSTER";
+    String ROSTER = "ROSTER";
+    String PRESENCE = "PRESENCE";
+    String GETPRESENCE = "GETPRESENCE";
+    String NAK = "NAK";
+    String GETHISTORY = "GETHISTORY";
+    String HISTORY = "HISTORY";
 }
@@ -24,12 +24,19 @@ package net.usikkert.kouchat.net;
 
 import static net.usikkert.kouchat.net.NetworkMessageType.*;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
 import net.usikkert.kouchat.misc.CommandException;
 import net.usikkert.kouchat.misc.Topic;
 import net.usikkert.kouchat.misc.User;
 import net.usikkert.kouchat.settings.Settings;
+import net.usikkert.kouchat.util.Logger;
 import net.usikkert.kouchat.util.Validate;
 
+import org.jetbrains.annotations.Nullable;
+
 /**
  * This class gives access to sending the different kinds of network messages
  * that this application supports. Both multicast, and normal udp.
@@ -38,6 +45,20 @@ import net.usikkert.kouchat.util.Validate;
  */
 public class NetworkMessages {
 
+    private static final Logger LOG = Logger.getLogger(NetworkMessages.class);
+
+    /**
+     * Max number of characters of users in each roster message. Messages over tcp are limited to 65535 bytes,
+     * and a character can use up to 3 bytes.
+     */
+    static final int MAX_ROSTER_LENGTH = 16_000;
+
+    /**
+     * Max number of characters of compressed messages in a history message. The characters 128 to 255
+     * use 2 bytes each over tcp, so this keeps the message below the limit of 65535 bytes.
+     */
+    static final int MAX_HISTORY_LENGTH = 30_000;
+
     /** The network service used for sending the actual messages. */
     private final NetworkService networkService;
 
@@ -47,6 +68,9 @@ public class NetworkMessages {
     /** Settings. */
     private final Settings settings;
 
+    /** Sequence numbers and recent messages for the main chat and the private chats. */
+    private final RetransmitBuffer retransmitBuffer;
+
     /**
      * Constructor.
      *
@@ -60,15 +84,20 @@ public class NetworkMessages {
         this.networkService = networkService;
         this.settings = settings;
         me = settings.getMe();
+        retransmitBuffer = new RetransmitBuffer();
     }
 
     /**
      * Sends a message notifying other clients that this client is still alive.
      *
+     * <p>The message includes the current version of the presence state, as a digest
+     * for clients supporting {@link ClientCapability#PRESENCE}. Other clients ignore it.</p>
+     *
      * <p>Note: the network will be checked if this fails!</p>
      */
     public void sendIdleMessage() {
-        final String msg = createMessage(IDLE);
+        final String msg = createMessage(IDLE) +
+                "[" + me.getPresenceVersion() + "]";
         final boolean sent = networkService.sendMessageToAllUsers(msg);
 
         if (!sent) {
@@ -135,13 +164,22 @@ public class NetworkMessages {
     /**
      * Sends a normal chat message, that is part of the main chat.
      *
+     * <p>The message has a sequence number in front of the color, so other clients can ask for
+     * the message again if they miss it. Older clients skip the sequence number when looking for the color.</p>
+     *
+     * <p>The message is only kept for sending again if it was sent successfully. The sequence number of a
+     * message that failed is left as a gap, so the message is never sent to anyone if asked for later.
+     * Other clients give up on the gap, like for a message that is too old.</p>
+     *
      * <p>Note: the network will be checked, and the user notified if this fails!</p>
      *
      * @param chatMsg The message for the main chat.
      * @throws CommandException If the message was not sent successfully.
      */
     public void sendChatMessage(final String chatMsg) throws CommandException {
+        final int sequence = retransmitBuffer.nextSequence(RetransmitBuffer.MAIN_CHAT);
         final String msg = createMessage(MSG) +
+                "{" + sequence + "}" +
                 "[" + settings.getOwnColor() + "]" +
                 chatMsg;
 
@@ -151,6 +189,8 @@ public class NetworkMessages {
             checkNetwork();
             notifyUser("Failed to send message: " + chatMsg);
         }
+
+        retransmitBuffer.add(RetransmitBuffer.MAIN_CHAT, sequence, msg);
     }
 
     /**
@@ -177,6 +217,20 @@ public class NetworkMessages {
         networkService.sendMessageToAllUsers(msg);
     }
 
+    /**
+     * Sends a message to ask a single unknown user to identify. Clients supporting
+     * {@link ClientCapability#PRESENCE} only reply if they are the user asked for.
+     * Other clients reply like to {@link #sendExposeMessage()}.
+     *
+     * @param userCode The unique code of the user to ask.
+     */
+    public void sendExposeMessage(final int userCode) {
+        final String msg = createMessage(EXPOSE) +
+                "(" + userCode + ")";
+
+        networkService.sendMessageToAllUsers(msg);
+    }
+
     /**
      * Sends a message to identify this client.
      */
@@ -225,6 +279,130 @@ public class NetworkMessages {
         }
     }
 
+    /**
+     * Sends the new away state of the application user as a presence delta, with the current version.
+     *
+     * <p>Note: the network will be checked if this fails!</p>
+     *
+     * @param away If the application user is away.
+     * @param awayMsg The away message, or empty if not away.
+     */
+    public void sendAwayPresenceMessage(final boolean away, final String awayMsg) {
+        final String msg = createAwayPresenceMessage(away, awayMsg);
+        final boolean sent = networkService.sendMessageToAllUsers(msg);
+
+        if (!sent) {
+            checkNetwork();
+        }
+    }
+
+    /**
+     * Sends the new nick name of the application user as a presence delta, with the current version.
+     *
+     * <p>Note: the network will be checked if this fails!</p>
+     *
+     * @param newNick The new nick name.
+     */
+    public void sendNickPresenceMessage(final String newNick) {
+        final String msg = createMessage(PRESENCE, newNick) +
+                "[" + me.getPresenceVersion() + "]";
+
+        final boolean sent = networkService.sendMessageToAllUsers(msg);
+
+        if (!sent) {
+            checkNetwork();
+        }
+    }
+
+    /**
+     * Sends the complete presence state of the application user to a user that missed a change.
+     * Uses tcp if possible, and sends to all users if not.
+     *
+     * @param user The user that asked for the presence state.
+     */
+    public void sendPresenceMessage(final User user) {
+        final String msg = createAwayPresenceMessage(me.isAway(), me.getAwayMsg());
+
+        if (!networkService.sendMessageToUserUsingTcp(msg, user)) {
+            networkService.sendMessageToAllUsers(msg);
+        }
+    }
+
+    /**
+     * Asks a user for its complete presence state, after missing a change.
+     * Uses tcp if possible, and sends to all users if not.
+     *
+     * @param user The user to ask.
+     */
+    public void sendPresenceRequest(final User user) {
+        final String msg = createMessage(GETPRESENCE) +
+                "(" + user.getCode() + ")";
+
+        if (!networkService.sendMessageToUserUsingTcp(msg, user)) {
+            networkService.sendMessageToAllUsers(msg);
+        }
+    }
+
+    /**
+     * Asks a user to send chat messages again, after they were missed.
+     * Uses tcp if possible, and sends to all users if not.
+     *
+     * @param user The user who sent the messages.
+     * @param privateChat If the messages are from the private chat with the user, instead of the main chat.
+     * @param sequences The sequence numbers of the missing messages.
+     */
+    public void sendMessageRequest(final User user, final boolean privateChat, final List<Integer> sequences) {
+        final StringBuilder msg = new StringBuilder(createMessage(NAK))
+                .append("(").append(user.getCode()).append(")")
+                .append("{").append(privateChat ? 1 : 0).append("}");
+
+        for (int i = 0; i < sequences.size(); i++) {
+            if (i > 0) {
+                msg.append(",");
+            }
+
+            msg.append(sequences.get(i));
+        }
+
+        if (!networkService.sendMessageToUserUsingTcp(msg.toString(), user)) {
+            networkService.sendMessageToAllUsers(msg.toString());
+        }
+    }
+
+    /**
+     * Sends chat messages again to a user who missed them, if they are still kept.
+     *
+     * <p>Main chat messages are sent using tcp if possible. If not, they can be sent to all users
+     * if all the users recognize the sequence numbers, and ignore the messages they have already seen.
+     * Private messages are sent the usual way.</p>
+     *
+     * @param user The user who asked for the messages.
+     * @param privateChat If the messages are from the private chat with the user, instead of the main chat.
+     * @param sequences The sequence numbers of the missing messages.
+     * @param sendToAllAllowed If main chat messages can be sent to all users when tcp is not possible.
+     */
+    public void resendMessages(final User user, final boolean privateChat, final List<Integer> sequences,
+                               final boolean sendToAllAllowed) {
+        final int stream = privateChat ? user.getCode() : RetransmitBuffer.MAIN_CHAT;
+
+        for (final int sequence : sequences) {
+            final String msg = retransmitBuffer.get(stream, sequence);
+
+            if (msg == null) {
+                LOG.fine("Message %s in stream %s is too old or was never sent, can not send again to user %s",
+                         sequence, stream, user.getCode());
+            }
+
+            else if (privateChat) {
+                networkService.sendMessageToUser(msg, user);
+            }
+
+            else if (!networkService.sendMessageToUserUsingTcp(msg, user) && sendToAllAllowed) {
+                networkService.sendMessageToAllUsers(msg);
+            }
+        }
+    }
+
     /**
      * Sends a message to inform that another user has logged on with
      * the same nick name as this user.
@@ -267,13 +445,45 @@ public class NetworkMessages {
      *             to start the file transfer.
      * @param fileHash The unique hash code of the file.
      * @param fileName The name of the file.
+     * @param compressed If the file should be sent compressed. Only to be used if the
+     *                   user supports {@link ClientCapability#DEFLATE}.
+     * @param transferId The id of the file transfer, if the port is shared by {@link FileTransferServer}, or 0.
+     *                   Only to be used if the user supports {@link ClientCapability#SHARED_PORT}.
      * @throws CommandException If the message was not sent successfully.
      */
-    public void sendFileAccept(final User user, final int port,
-            final int fileHash, final String fileName) throws CommandException {
+    public void sendFileAccept(final User user, final int port, final int fileHash, final String fileName,
+                               final boolean compressed, final int transferId) throws CommandException {
         final String msg = createMessage(SENDFILEACCEPT) +
                 "(" + user.getCode() + ")" +
-                "[" + port + "]" +
+                "[" + port +
+                (compressed ? ";" + ClientCapability.DEFLATE : "") +
+                (transferId > 0 ? ";" + FileTransferServer.TRANSFER_ID_OPTION + transferId : "") + "]" +
+                "{" + fileHash + "}" +
+                fileName;
+
+        final boolean sent = networkService.sendMessageToAllUsers(msg);
+
+        if (!sent) {
+            checkNetwork();
+            notifyUser("Failed to accept file transfer from " + user.getNick() + ": " + fileName);
+        }
+    }
+
+    /**
+     * Sends a message to notify the file sender that the file transfer is not needed,
+     * because the file was restored from the {@link FileContentCache}.
+     *
+     * <p>Note: the network will be checked, and the user notified if this fails!</p>
+     *
+     * @param user The user sending a file.
+     * @param fileHash The unique hash code of the file.
+     * @param fileName The name of the file.
+     * @throws CommandException If the message was not sent successfully.
+     */
+    public void sendFileAcceptCached(final User user, final int fileHash, final String fileName) throws CommandException {
+        final String msg = createMessage(SENDFILEACCEPT) +
+                "(" + user.getCode() + ")" +
+                "[0;" + FileContentCache.CACHED_OPTION + "]" +
                 "{" + fileHash + "}" +
                 fileName;
 
@@ -287,6 +497,11 @@ public class NetworkMessages {
 
     /**
      * Sends a message to notify another user that you want to send a file.
+     * A batch of files uses a message type of its own, as it can not be saved as a single file.
+     * A single file includes the hash of the content if the user supports {@link ClientCapability#CONTENT_HASH}.
+     *
+     * <p>Creating the hash reads the whole file the first time, so this must not be called
+     * from the event dispatch thread.</p>
      *
      * <p>Note: the network will be checked, and the user notified if this fails!</p>
      *
@@ -295,9 +510,55 @@ public class NetworkMessages {
      * @throws CommandException If the message was not sent successfully.
      */
     public void sendFile(final User user, final FileToSend file) throws CommandException {
-        final String msg = createMessage(SENDFILE) +
+        final String contentHash = getContentHash(user, file);
+        final String msg = createMessage(file.isBatch() ? SENDFILES : SENDFILE) +
+                "(" + user.getCode() + ")" +
+                "[" + file.length() +
+                (contentHash != null ? ";" + FileContentCache.CONTENT_HASH_OPTION + contentHash : "") + "]" +
+                "{" + file.hashCode() + "}" +
+                file.getName();
+
+        final boolean sent = networkService.sendMessageToAllUsers(msg);
+
+        if (!sent) {
+            checkNetwork();
+            notifyUser("Failed to send file to " + user.getNick() + ": " + file.getName());
+        }
+    }
+
+    @Nullable
+    private String getContentHash(final User user, final FileToSend file) {
+        if (file.isBatch() || !user.hasCapability(ClientCapability.CONTENT_HASH)) {
+            return null;
+        }
+
+        try {
+            return file.getContentHash();
+        }
+
+        catch (final IOException e) {
+            LOG.warning("Failed to create content hash of %s: %s", file.getName(), e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * Sends a message to notify another user that you want to send a file, using a multicast session
+     * shared with other users. Only to be used if the user supports {@link ClientCapability#MULTICAST_FILE}.
+     *
+     * <p>Note: the network will be checked, and the user notified if this fails!</p>
+     *
+     * @param user The user asked to receive a file.
+     * @param file The file to send.
+     * @param sessionId The id of the multicast session sending the file.
+     * @param port The port of the multicast session, for the user to report progress to.
+     * @throws CommandException If the message was not sent successfully.
+     */
+    public void sendMulticastFile(final User user, final FileToSend file, final int sessionId, final int port)
+            throws CommandException {
+        final String msg = createMessage(SENDFILEMULTICAST) +
                 "(" + user.getCode() + ")" +
-                "[" + file.length() + "]" +
+                "[" + file.length() + ";" + sessionId + ";" + port + "]" +
                 "{" + file.hashCode() + "}" +
                 file.getName();
 
@@ -318,6 +579,7 @@ public class NetworkMessages {
      *   <li>Operating system.</li>
      *   <li>Port to connect to for private chat.</li>
      *   <li>Port to connect to for tcp chat.</li>
+     *   <li>Capabilities of the client, separated by comma. See {@link ClientCapability}.</li>
      * </ul>
      */
     public void sendClient() {
@@ -326,14 +588,48 @@ public class NetworkMessages {
                 "[" + (System.currentTimeMillis() - me.getLogonTime()) + "]" +
                 "{" + me.getOperatingSystem() + "}" +
                 "<" + me.getPrivateChatPort() + ">" +
-                "/" + me.getTcpChatPort() + "\\";
+                "/" + me.getTcpChatPort() + "\\" +
+                createCapabilities();
 
         networkService.sendMessageToAllUsers(msg);
     }
 
+    private String createCapabilities() {
+        final StringBuilder capabilities = new StringBuilder();
+
+        for (final String capability : me.getCapabilities()) {
+            if (capabilities.length() > 0) {
+                capabilities.append(",");
+            }
+
+            capabilities.append(capability);
+        }
+
+        if (me.getIdleInterval() > 0) {
+            if (capabilities.length() > 0) {
+                capabilities.append(",");
+            }
+
+            capabilities.append(ClientCapability.IDLE_INTERVAL).append("=").append(me.getIdleInterval());
+        }
+
+        if (me.getPresenceVersion() > 0) {
+            if (capabilities.length() > 0) {
+                capabilities.append(",");
+            }
+
+            capabilities.append(ClientCapability.PRESENCE).append("=").append(me.getPresenceVersion());
+        }
+
+        return capabilities.toString();
+    }
+
     /**
      * Sends a private message to a user.
      *
+     * <p>The message has a sequence number of the private chat with the user, and is only kept
+     * for sending again if it was sent successfully, like {@link #sendChatMessage(String)}.</p>
+     *
      * <p>Note: the network will be checked, and the user notified if this fails!</p>
      *
      * @param privMsg The private message to send.
@@ -341,8 +637,10 @@ public class NetworkMessages {
      * @throws CommandException If the message was not sent successfully.
      */
     public void sendPrivateMessage(final String privMsg, final User user) throws CommandException {
+        final int sequence = retransmitBuffer.nextSequence(user.getCode());
         final String msg = createMessage(PRIVMSG) +
                 "(" + user.getCode() + ")" +
+                "{" + sequence + "}" +
                 "[" + settings.getOwnColor() + "]" +
                 privMsg;
 
@@ -352,6 +650,85 @@ public class NetworkMessages {
             checkNetwork();
             notifyUser("Failed to send private message to " + user.getNick() + ": " + privMsg);
         }
+
+        retransmitBuffer.add(user.getCode(), sequence, msg);
+    }
+
+    /**
+     * Asks a user to send a snapshot of all the users it knows about, using tcp.
+     * The user must support {@link ClientCapability#ROSTER}.
+     *
+     * @param user The user to ask.
+     * @return If the request was sent.
+     */
+    public boolean sendRosterRequest(final User user) {
+        final String msg = createMessage(GETROSTER) +
+                "(" + user.getCode() + ")";
+
+        return networkService.sendMessageToUserUsingTcp(msg, user);
+    }
+
+    /**
+     * Sends a snapshot of the users to the user that asked for it, using tcp. The user that asked is not
+     * included in the snapshot. Big snapshots are split over several messages, with complete users in each.
+     *
+     * @param user The user that asked for the snapshot.
+     * @param users The users to send.
+     * @return If all the messages were sent.
+     */
+    public boolean sendRoster(final User user, final List<User> users) {
+        final List<User> otherUsers = new ArrayList<>(users.size());
+
+        for (final User otherUser : users) {
+            if (!otherUser.equals(user)) {
+                otherUsers.add(otherUser);
+            }
+        }
+
+        final List<String> chunks = RosterCodec.encode(otherUsers, MAX_ROSTER_LENGTH, System.currentTimeMillis());
+
+        for (final String chunk : chunks) {
+            final String msg = createMessage(ROSTER) +
+                    "(" + user.getCode() + ")" +
+                    chunk;
+
+            if (!networkService.sendMessageToUserUsingTcp(msg, user)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Asks a user for the recent messages in the main chat, over tcp.
+     *
+     * @param user The user to ask.
+     * @param age Milliseconds back in time to get messages from, or -1 to get all the messages the user has.
+     * @return If the request was sent.
+     */
+    public boolean sendHistoryRequest(final User user, final long age) {
+        final String msg = createMessage(GETHISTORY) +
+                "(" + user.getCode() + ")" +
+                age;
+
+        return networkService.sendMessageToUserUsingTcp(msg, user);
+    }
+
+    /**
+     * Sends recent messages in the main chat to the user who asked for them, over tcp.
+     * The messages are compressed together, and the oldest messages are left out if there are too many.
+     *
+     * @param user The user who asked for the messages.
+     * @param entries The messages to send, oldest first.
+     * @return If the messages were sent.
+     */
+    public boolean sendHistory(final User user, final List<ChatHistory.Entry> entries) {
+        final String msg = createMessage(HISTORY) +
+                "(" + user.getCode() + ")" +
+                HistoryCodec.encode(entries, MAX_HISTORY_LENGTH, System.currentTimeMillis());
+
+        return networkService.sendMessageToUserUsingTcp(msg, user);
     }
 
     /**
@@ -377,6 +754,20 @@ public class NetworkMessages {
         return me.getCode() + "!" + type + "#" + nick + ":";
     }
 
+    /**
+     * Creates a new message with the complete presence state of the application user.
+     *
+     * @param away If the application user is away.
+     * @param awayMsg The away message.
+     * @return The new message.
+     */
+    private String createAwayPresenceMessage(final boolean away, final String awayMsg) {
+        return createMessage(PRESENCE) +
+                "[" + me.getPresenceVersion() + "]" +
+                "{" + (away ? 1 : 0) + "}" +
+                awayMsg;
+    }
+
     /**
      * Creates a new message for sending the topic.
      *
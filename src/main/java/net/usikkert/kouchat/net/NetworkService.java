@@ -86,7 +86,7 @@ public class NetworkService implements NetworkConnectionListener {
 
         messageReceiver = new MessageReceiver(errorHandler);
         messageSender = new MessageSender(errorHandler);
-        connectionWorker = new ConnectionWorker(settings, errorHandler);
+        connectionWorker = new ConnectionWorker(settings, errorHandler, controller.getTimer());
         tcpNetworkService = new TCPNetworkService(controller, settings, errorHandler);
         messageDeduplicator = new MessageDeduplicator(controller);
 
@@ -206,6 +206,24 @@ public class NetworkService implements NetworkConnectionListener {
         }
     }
 
+    /**
+     * Send a message to a single user, using only the tcp connection to the user. Used for messages that are
+     * too big for udp, and must be sent to a user that is known to have a tcp connection.
+     *
+     * @param message The message to send.
+     * @param user The user to send the message to.
+     * @return If the message was sent or not.
+     */
+    public boolean sendMessageToUserUsingTcp(final String message, final User user) {
+        if (privateChatEnabled) {
+            return tcpNetworkService.sendMessageToUser(message, user);
+        }
+
+        else {
+            return false;
+        }
+    }
+
     /**
      * Checks the state of the network, and tries to keep the best possible
      * network connection up.
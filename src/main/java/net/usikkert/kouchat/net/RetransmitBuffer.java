@@ -0,0 +1,112 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.usikkert.kouchat.util.Validate;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Gives sequence numbers to the chat messages sent by the application user, and keeps the most recent
+ * messages so they can be sent again if another user asks for them with {@link NetworkMessageType#NAK}.
+ *
+ * <p>The main chat is one stream of sequence numbers, and each private chat is a stream of its own,
+ * identified by the user code of the receiver. The numbers in each stream start at 1. Only the
+ * last MAX_MESSAGES messages are kept, from all the streams together.</p>
+ *
+ * @author Christian Ihle
+ */
+public class RetransmitBuffer {
+
+    /** The stream of messages to the main chat. */
+    public static final int MAIN_CHAT = 0;
+
+    /** The number of messages to keep. */
+    static final int MAX_MESSAGES = 200;
+
+    /** The last sequence number used in each stream. */
+    private final Map<Integer, Integer> lastSequences;
+
+    /** The kept messages, oldest first, by stream and sequence number. */
+    private final Map<Long, String> messages;
+
+    /**
+     * Constructor.
+     */
+    public RetransmitBuffer() {
+        lastSequences = new HashMap<>();
+        messages = new LinkedHashMap<Long, String>() {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Long, String> eldest) {
+                return size() > MAX_MESSAGES;
+            }
+        };
+    }
+
+    /**
+     * Gets the next sequence number in the stream.
+     *
+     * @param stream {@link #MAIN_CHAT}, or the user code of the receiver of a private message.
+     * @return The next sequence number.
+     */
+    public synchronized int nextSequence(final int stream) {
+        final Integer lastSequence = lastSequences.get(stream);
+        final int nextSequence = lastSequence == null ? 1 : lastSequence + 1;
+        lastSequences.put(stream, nextSequence);
+
+        return nextSequence;
+    }
+
+    /**
+     * Keeps a message that was sent, replacing the oldest message if the buffer is full.
+     *
+     * @param stream The stream the message was sent in.
+     * @param sequence The sequence number of the message.
+     * @param message The complete message, as it was sent.
+     */
+    public synchronized void add(final int stream, final int sequence, final String message) {
+        Validate.notNull(message, "Message can not be null");
+
+        messages.put(createKey(stream, sequence), message);
+    }
+
+    /**
+     * Gets a message that was sent, if it's still kept.
+     *
+     * @param stream The stream the message was sent in.
+     * @param sequence The sequence number of the message.
+     * @return The complete message, or <code>null</code> if it's not kept anymore.
+     */
+    @Nullable
+    public synchronized String get(final int stream, final int sequence) {
+        return messages.get(createKey(stream, sequence));
+    }
+
+    private long createKey(final int stream, final int sequence) {
+        return ((long) stream << 32) | (sequence & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,253 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.usikkert.kouchat.misc.User;
+import net.usikkert.kouchat.util.Logger;
+import net.usikkert.kouchat.util.Validate;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Encodes and decodes the snapshot of users sent in a {@link NetworkMessageType#ROSTER} message.
+ *
+ * <p>Each user is encoded on a separate line, with the fields separated by tabs. Backslash, tab and
+ * line feed are escaped in the fields, so any text is safe to send. The times are sent relative to
+ * the time of encoding, so the clocks of the clients don't need to be in sync.</p>
+ *
+ * <p>The fields, in order: code, nick name, away, away message, ip address, private chat port,
+ * tcp chat port, client, operating system, time since logon, time since last idle, idle interval,
+ * the capabilities separated by comma, and the presence version. The presence version is optional
+ * when decoding.</p>
+ *
+ * @author Christian Ihle
+ */
+public final class RosterCodec {
+
+    private static final Logger LOG = Logger.getLogger(RosterCodec.class);
+
+    /** The number of fields required for each user. */
+    private static final int FIELDS = 13;
+
+    private RosterCodec() {
+        // Only static methods
+    }
+
+    /**
+     * Encodes the users into chunks, with as many users as there is room for in each chunk.
+     * A single user is never split over several chunks.
+     *
+     * @param users The users to encode.
+     * @param maxLength The maximum length of each chunk. A user that is longer is put in a chunk by itself.
+     * @param now The current time, to calculate the relative times from.
+     * @return The encoded chunks. Empty if there were no users.
+     */
+    public static List<String> encode(final List<User> users, final int maxLength, final long now) {
+        Validate.notNull(users, "Users can not be null");
+
+        final List<String> chunks = new ArrayList<>();
+        final StringBuilder chunk = new StringBuilder();
+
+        for (final User user : users) {
+            final String line = encode(user, now);
+
+            if (chunk.length() > 0 && chunk.length() + 1 + line.length() > maxLength) {
+                chunks.add(chunk.toString());
+                chunk.setLength(0);
+            }
+
+            if (chunk.length() > 0) {
+                chunk.append('\n');
+            }
+
+            chunk.append(line);
+        }
+
+        if (chunk.length() > 0) {
+            chunks.add(chunk.toString());
+        }
+
+        return chunks;
+    }
+
+    /**
+     * Decodes the users in an encoded chunk. Users with invalid fields are skipped.
+     *
+     * @param roster The encoded chunk of users.
+     * @param now The current time, to calculate the absolute times from.
+     * @return The decoded users.
+     */
+    public static List<User> decode(final String roster, final long now) {
+        Validate.notNull(roster, "Roster can not be null");
+
+        final List<User> users = new ArrayList<>();
+
+        for (final String line : roster.split("\n")) {
+            if (line.isEmpty()) {
+                continue;
+            }
+
+            final String[] fields = line.split("\t", -1);
+
+            if (fields.length < FIELDS) {
+                LOG.warning("Skipping user with too few fields in roster: %s", line);
+                continue;
+            }
+
+            try {
+                users.add(decode(fields, now));
+            }
+
+            catch (final NumberFormatException e) {
+                LOG.warning("Skipping user with invalid number in roster: %s", line);
+            }
+        }
+
+        return users;
+    }
+
+    private static String encode(final User user, final long now) {
+        final StringBuilder line = new StringBuilder();
+
+        line.append(user.getCode()).append('\t');
+        line.append(escape(user.getNick())).append('\t');
+        line.append(user.isAway() ? '1' : '0').append('\t');
+        line.append(escape(user.getAwayMsg())).append('\t');
+        line.append(escape(user.getIpAddress())).append('\t');
+        line.append(user.getPrivateChatPort()).append('\t');
+        line.append(user.getTcpChatPort()).append('\t');
+        line.append(escape(user.getClient())).append('\t');
+        line.append(escape(user.getOperatingSystem())).append('\t');
+        line.append(Math.max(0, now - user.getLogonTime())).append('\t');
+        line.append(Math.max(0, now - user.getLastIdle())).append('\t');
+        line.append(user.getIdleInterval()).append('\t');
+
+        final StringBuilder capabilities = new StringBuilder();
+
+        for (final String capability : user.getCapabilities()) {
+            if (capabilities.length() > 0) {
+                capabilities.append(',');
+            }
+
+            capabilities.append(capability);
+        }
+
+        line.append(escape(capabilities.toString())).append('\t');
+        line.append(user.getPresenceVersion());
+
+        return line.toString();
+    }
+
+    private static User decode(final String[] fields, final long now) {
+        final User user = new User(unescape(fields[1]), Integer.parseInt(fields[0]));
+
+        user.setAway(fields[2].equals("1"));
+        user.setAwayMsg(unescape(fields[3]));
+        user.setIpAddress(unescape(fields[4]));
+        user.setPrivateChatPort(Integer.parseInt(fields[5]));
+        user.setTcpChatPort(Integer.parseInt(fields[6]));
+        user.setClient(unescape(fields[7]));
+        user.setOperatingSystem(unescape(fields[8]));
+        user.setLogonTime(now - Long.parseLong(fields[9]));
+        user.setLastIdle(now - Long.parseLong(fields[10]));
+        user.setIdleInterval(Integer.parseInt(fields[11]));
+
+        final String capabilities = unescape(fields[12]);
+
+        if (!capabilities.isEmpty()) {
+            user.setCapabilities(Arrays.asList(capabilities.split(",")));
+        }
+
+        if (fields.length > FIELDS) {
+            user.setPresenceVersion(Integer.parseInt(fields[FIELDS]));
+        }
+
+        return user;
+    }
+
+    /**
+     * Escapes backslash, tab and line feed in a field, so the field can be used in a tab separated line.
+     *
+     * @param field The field to escape. Null is escaped as an empty field.
+     * @return The escaped field.
+     */
+    static String escape(@Nullable final String field) {
+        if (field == null) {
+            return "";
+        }
+
+        final StringBuilder escaped = new StringBuilder(field.length());
+
+        for (int i = 0; i < field.length(); i++) {
+            final char c = field.charAt(i);
+
+            if (c == '\\') {
+                escaped.append("\\\\");
+            } else if (c == '\t') {
+                escaped.append("\\t");
+            } else if (c == '\n') {
+                escaped.append("\\n");
+            } else {
+                escaped.append(c);
+            }
+        }
+
+        return escaped.toString();
+    }
+
+    /**
+     * Reverses {@link #escape(String)}.
+     *
+     * @param field The escaped field.
+     * @return The original field.
+     */
+    static String unescape(final String field) {
+        final StringBuilder unescaped = new StringBuilder(field.length());
+
+        for (int i = 0; i < field.length(); i++) {
+            final char c = field.charAt(i);
+
+            if (c == '\\' && i < field.length() - 1) {
+                final char next = field.charAt(++i);
+
+                if (next == 't') {
+                    unescaped.append('\t');
+                } else if (next == 'n') {
+                    unescaped.append('\n');
+                } else {
+                    unescaped.append(next);
+                }
+            }
+
+            else {
+                unescaped.append(c);
+            }
+        }
+
+        return unescaped.toString();
+    }
+}
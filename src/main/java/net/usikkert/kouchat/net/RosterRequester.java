@@ -0,0 +1,228 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+
+import net.usikkert.kouchat.misc.Controller;
+import net.usikkert.kouchat.misc.User;
+import net.usikkert.kouchat.util.HashedWheelTimer;
+import net.usikkert.kouchat.util.Logger;
+import net.usikkert.kouchat.util.TimerHandle;
+import net.usikkert.kouchat.util.Validate;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Asks a single user for a snapshot of all the users it knows about, after logon.
+ *
+ * <p>Every user with support for {@link ClientCapability#ROSTER} is added as a candidate.
+ * Only one candidate is asked at a time. The request is sent over tcp, so it waits for the tcp connection
+ * to the candidate first. If the connection is not ready in time, or the candidate does not reply,
+ * the next candidate is asked. No more requests are sent after the first snapshot has arrived,
+ * until the next logon.</p>
+ *
+ * <p>Users that are lost from the snapshot because of packet loss are still found by the
+ * usual {@link NetworkMessageType#EXPOSE} request, which is needed for older clients anyway.</p>
+ *
+ * @author Christian Ihle
+ */
+public class RosterRequester implements Runnable {
+
+    private static final Logger LOG = Logger.getLogger(RosterRequester.class);
+
+    /** Milliseconds between each check of the tcp connection to the candidate. */
+    static final int RETRY_DELAY = 250;
+
+    /** Number of checks of the tcp connection before giving up on the candidate. */
+    static final int MAX_TRIES = 20;
+
+    /** Milliseconds to wait for the snapshot before asking the next candidate. */
+    static final int REPLY_TIMEOUT = 5000;
+
+    private final Controller controller;
+    private final HashedWheelTimer timer;
+
+    /** The users that have not been asked yet. */
+    private final Deque<User> candidates;
+
+    /** The codes of the users that have been added as candidates since logon. */
+    private final Set<Integer> candidateCodes;
+
+    /** The user being asked now. */
+    @Nullable
+    private User pendingUser;
+
+    /** The next check of the pending user. */
+    @Nullable
+    private TimerHandle pendingCheck;
+
+    /** Number of checks of the tcp connection to the pending user. */
+    private int tries;
+
+    /** If the request was sent to the pending user, and waiting for the reply. */
+    private boolean requestSent;
+
+    /** If a snapshot has arrived since logon. */
+    private boolean rosterArrived;
+
+    /**
+     * Constructor.
+     *
+     * @param controller The controller, to send the request and check the users.
+     * @param timer The timer to schedule the checks with.
+     */
+    public RosterRequester(final Controller controller, final HashedWheelTimer timer) {
+        Validate.notNull(controller, "Controller can not be null");
+        Validate.notNull(timer, "Timer can not be null");
+
+        this.controller = controller;
+        this.timer = timer;
+
+        candidates = new ArrayDeque<>();
+        candidateCodes = new HashSet<>();
+    }
+
+    /**
+     * Adds a user that can be asked for the snapshot. The user is asked right away if no other
+     * user is being asked.
+     *
+     * @param user The user to add. Must support {@link ClientCapability#ROSTER}.
+     */
+    public synchronized void addCandidate(final User user) {
+        Validate.notNull(user, "User can not be null");
+
+        if (rosterArrived || !candidateCodes.add(user.getCode())) {
+            return;
+        }
+
+        candidates.add(user);
+
+        if (pendingUser == null) {
+            askNextCandidate();
+        }
+    }
+
+    /**
+     * A snapshot has arrived, so no more requests are needed until the next logon.
+     *
+     * @param userCode The unique code of the user who sent the snapshot.
+     */
+    public synchronized void rosterArrived(final int userCode) {
+        LOG.fine("Roster arrived from user %s", userCode);
+
+        rosterArrived = true;
+        stop();
+    }
+
+    /**
+     * Forgets all the candidates, and any snapshot that has arrived. Used when logging on again.
+     */
+    public synchronized void reset() {
+        rosterArrived = false;
+        candidateCodes.clear();
+        stop();
+    }
+
+    /**
+     * Checks the pending user. Sends the request when the tcp connection is ready,
+     * or moves on to the next candidate if it's taking too long.
+     */
+    @Override
+    public synchronized void run() {
+        pendingCheck = null;
+
+        if (pendingUser == null) {
+            return;
+        }
+
+        if (requestSent) {
+            LOG.warning("No roster from user %s. Trying the next user.", pendingUser.getCode());
+            askNextCandidate();
+        }
+
+        else if (pendingUser.isTcpEnabled()) {
+            if (controller.sendRosterRequest(pendingUser)) {
+                requestSent = true;
+                pendingCheck = timer.schedule("RosterRequester", this, REPLY_TIMEOUT);
+            }
+
+            else {
+                LOG.warning("Failed to ask user %s for roster. Trying the next user.", pendingUser.getCode());
+                askNextCandidate();
+            }
+        }
+
+        else if (++tries >= MAX_TRIES) {
+            LOG.warning("No tcp connection to user %s. Trying the next user.", pendingUser.getCode());
+            askNextCandidate();
+        }
+
+        else {
+            pendingCheck = timer.schedule("RosterRequester", this, RETRY_DELAY);
+        }
+    }
+
+    /**
+     * Checks if waiting for a user to be ready for the request, or to reply.
+     *
+     * @return If a user is being asked.
+     */
+    synchronized boolean isPending() {
+        return pendingUser != null;
+    }
+
+    /**
+     * Starts asking the next candidate that is still online, if any.
+     */
+    private void askNextCandidate() {
+        pendingUser = null;
+        requestSent = false;
+        tries = 0;
+
+        while (!candidates.isEmpty()) {
+            final User candidate = candidates.poll();
+
+            if (!controller.isNewUser(candidate.getCode())) {
+                pendingUser = candidate;
+                pendingCheck = timer.schedule("RosterRequester", this, 0);
+                return;
+            }
+        }
+    }
+
+    private void stop() {
+        if (pendingCheck != null) {
+            pendingCheck.cancel();
+            pendingCheck = null;
+        }
+
+        pendingUser = null;
+        requestSent = false;
+        tries = 0;
+        candidates.clear();
+    }
+}
@@ -0,0 +1,282 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import net.usikkert.kouchat.event.UserListListener;
+import net.usikkert.kouchat.misc.Controller;
+import net.usikkert.kouchat.misc.User;
+import net.usikkert.kouchat.util.HashedWheelTimer;
+import net.usikkert.kouchat.util.Logger;
+import net.usikkert.kouchat.util.Validate;
+
+/**
+ * Keeps track of the sequence numbers of the chat messages from each user, to find duplicates and gaps.
+ *
+ * <p>The main chat and the private chat with each user are tracked separately. Messages are shown when they arrive,
+ * and a gap in the sequence numbers is asked for again with {@link NetworkMessageType#NAK} after NAK_DELAY
+ * milliseconds, unless the missing messages arrive in the meantime. The request is repeated every REPAIR_TIMEOUT
+ * milliseconds, until the messages arrive or MAX_REQUESTS requests have been sent.</p>
+ *
+ * <p>Only the last WINDOW sequence numbers are remembered. Messages from before the first message seen from a user
+ * are ignored, since they were sent before this client knew about the user.</p>
+ *
+ * @author Christian Ihle
+ */
+public class SequenceTracker {
+
+    private static final Logger LOG = Logger.getLogger(SequenceTracker.class);
+
+    /** The number of sequence numbers to remember, before the highest one. */
+    static final int WINDOW = 256;
+
+    /** Milliseconds to wait for reordered messages before asking for the missing messages. */
+    static final int NAK_DELAY = 200;
+
+    /** Milliseconds to wait for the missing messages before asking again. */
+    static final int REPAIR_TIMEOUT = 1000;
+
+    /** The number of times to ask for a missing message before giving up. */
+    static final int MAX_REQUESTS = 3;
+
+    /** The highest number of missing messages to ask for at once. */
+    static final int MAX_MISSING_PER_REQUEST = 32;
+
+    private final Controller controller;
+    private final HashedWheelTimer timer;
+
+    /** The sequence numbers of the main chat and private chat of each user. */
+    private final Map<Long, Stream> streams;
+
+    /**
+     * Constructor.
+     *
+     * @param controller The controller, to ask for missing messages.
+     * @param timer The timer to schedule the requests with.
+     */
+    public SequenceTracker(final Controller controller, final HashedWheelTimer timer) {
+        Validate.notNull(controller, "Controller can not be null");
+        Validate.notNull(timer, "Timer can not be null");
+
+        this.controller = controller;
+        this.timer = timer;
+
+        streams = new HashMap<>();
+        controller.getUserList().addUserListListener(new StreamRemover());
+    }
+
+    /**
+     * Registers the sequence number of a message from a user, and checks if the message should be shown.
+     *
+     * @param user The user who sent the message.
+     * @param privateChat If the message is from the private chat with the user, instead of the main chat.
+     * @param sequence The sequence number of the message.
+     * @return If the message is new, and not a duplicate or a message that is too old.
+     */
+    public synchronized boolean messageArrived(final User user, final boolean privateChat, final int sequence) {
+        Validate.notNull(user, "User can not be null");
+
+        final long key = createKey(user.getCode(), privateChat);
+        final Stream stream = streams.get(key);
+
+        if (stream == null) {
+            streams.put(key, new Stream(user, privateChat, sequence));
+            return true;
+        }
+
+        return stream.messageArrived(sequence);
+    }
+
+    /**
+     * Checks if there are missing messages from a user.
+     *
+     * @param userCode The unique code of the user.
+     * @param privateChat If it's the private chat with the user, instead of the main chat.
+     * @return If any messages are missing.
+     */
+    synchronized boolean isMissingMessages(final int userCode, final boolean privateChat) {
+        final Stream stream = streams.get(createKey(userCode, privateChat));
+        return stream != null && !stream.missing.isEmpty();
+    }
+
+    private long createKey(final int userCode, final boolean privateChat) {
+        return ((long) userCode << 1) | (privateChat ? 1 : 0);
+    }
+
+    /**
+     * The sequence numbers of the main chat or private chat of a single user.
+     */
+    private class Stream implements Runnable {
+
+        private final User user;
+        private final boolean privateChat;
+        private final int first;
+        private int highest;
+        private boolean checkScheduled;
+
+        /** Sequence numbers of the messages that have arrived, within the window. */
+        private final Set<Integer> delivered;
+
+        /** Sequence numbers of the missing messages, and how many times they have been asked for. */
+        private final TreeMap<Integer, Integer> missing;
+
+        Stream(final User user, final boolean privateChat, final int first) {
+            this.user = user;
+            this.privateChat = privateChat;
+            this.first = first;
+
+            highest = first;
+            delivered = new HashSet<>();
+            missing = new TreeMap<>();
+            delivered.add(first);
+        }
+
+        /**
+         * Must be called while synchronized on the tracker.
+         */
+        boolean messageArrived(final int sequence) {
+            if (sequence > highest) {
+                for (int gap = Math.max(highest + 1, sequence - WINDOW); gap < sequence; gap++) {
+                    missing.put(gap, 0);
+                }
+
+                highest = sequence;
+                delivered.add(sequence);
+                forgetOldSequences();
+                scheduleCheck(NAK_DELAY);
+
+                return true;
+            }
+
+            if (sequence < first || sequence <= highest - WINDOW || delivered.contains(sequence)) {
+                return false;
+            }
+
+            delivered.add(sequence);
+            missing.remove(sequence);
+
+            return true;
+        }
+
+        private void forgetOldSequences() {
+            final int oldest = highest - WINDOW;
+            final Iterator<Integer> deliveredIterator = delivered.iterator();
+
+            while (deliveredIterator.hasNext()) {
+                if (deliveredIterator.next() <= oldest) {
+                    deliveredIterator.remove();
+                }
+            }
+
+            missing.headMap(oldest, true).clear();
+        }
+
+        private void scheduleCheck(final int delay) {
+            if (!checkScheduled && !missing.isEmpty()) {
+                checkScheduled = true;
+                timer.schedule("SequenceTracker", this, delay);
+            }
+        }
+
+        /**
+         * Asks for the messages that are still missing, and gives up on the messages that have
+         * been asked for too many times.
+         */
+        @Override
+        public void run() {
+            final List<Integer> request = new ArrayList<>();
+
+            synchronized (SequenceTracker.this) {
+                checkScheduled = false;
+
+                if (streams.get(createKey(user.getCode(), privateChat)) != this) {
+                    return;
+                }
+
+                final Iterator<Map.Entry<Integer, Integer>> missingIterator = missing.entrySet().iterator();
+
+                while (missingIterator.hasNext()) {
+                    final Map.Entry<Integer, Integer> entry = missingIterator.next();
+
+                    if (entry.getValue() >= MAX_REQUESTS) {
+                        LOG.fine("Giving up on message %s from user %s", entry.getKey(), user.getCode());
+                        missingIterator.remove();
+                    }
+
+                    else if (request.size() < MAX_MISSING_PER_REQUEST) {
+                        request.add(entry.getKey());
+                        entry.setValue(entry.getValue() + 1);
+                    }
+                }
+
+                scheduleCheck(REPAIR_TIMEOUT);
+            }
+
+            if (!request.isEmpty()) {
+                controller.sendMessageRequest(user, privateChat, request);
+            }
+        }
+    }
+
+    /**
+     * Forgets the sequence numbers of users that are removed from the user list.
+     */
+    private class StreamRemover implements UserListListener {
+
+        @Override
+        public void userAdded(final int pos, final User user) {
+
+        }
+
+        @Override
+        public void usersAdded(final List<User> users) {
+
+        }
+
+        @Override
+        public void userChanged(final int pos, final User user) {
+
+        }
+
+        @Override
+        public void userMoved(final int oldPos, final int newPos, final User user) {
+
+        }
+
+        @Override
+        public void userRemoved(final int pos, final User user) {
+            synchronized (SequenceTracker.this) {
+                streams.remove(createKey(user.getCode(), false));
+                streams.remove(createKey(user.getCode(), true));
+            }
+        }
+    }
+}
@@ -0,0 +1,331 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+package net.usikkert.kouchat.net;
+
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import net.usikkert.kouchat.event.FileTransferListener;
+import net.usikkert.kouchat.event.SettingsListener;
+import net.usikkert.kouchat.settings.Setting;
+import net.usikkert.kouchat.settings.Settings;
+import net.usikkert.kouchat.util.Logger;
+import net.usikkert.kouchat.util.Validate;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Runs the file transfers, with a limit on how many files can be sent and received at the same time.
+ *
+ * <p>A file transfer that does not get a free slot right away waits in a queue, and its listener is
+ * notified with {@link FileTransferListener#statusQueued()}. The queue is ordered by priority, and
+ * file transfers with the same priority are started in the order they were queued.</p>
+ *
+ * <p>The limits are read from {@link Settings#getMaxConcurrentSends()} and
+ * {@link Settings#getMaxConcurrentReceives()}, and are updated when the settings change.</p>
+ *
+ * @author Christian Ihle
+ */
+public class TransferExecutor implements SettingsListener {
+
+    /** The priority a file transfer gets in the queue unless something else is specified. */
+    public static final int DEFAULT_PRIORITY = 0;
+
+    private static final Logger LOG = Logger.getLogger(TransferExecutor.class);
+
+    private final ExecutorService executorService;
+    private final Settings settings;
+
+    /** The slots for sending files. */
+    private final Slots sendSlots;
+
+    /** The slots for receiving files. */
+    private final Slots receiveSlots;
+
+    /** Counter keeping file transfers with the same priority in the order they were queued. */
+    private long queueCounter;
+
+    /**
+     * Constructor.
+     *
+     * @param settings The settings to get the limits from.
+     */
+    public TransferExecutor(final Settings settings) {
+        this(settings, Executors.newCachedThreadPool());
+    }
+
+    /**
+     * Constructor, with the executor service to run the file transfers in.
+     *
+     * @param settings The settings to get the limits from.
+     * @param executorService The executor service to run the file transfers in.
+     */
+    TransferExecutor(final Settings settings, final ExecutorService executorService) {
+        Validate.notNull(settings, "Settings can not be null");
+        Validate.notNull(executorService, "Executor service can not be null");
+
+        this.settings = settings;
+        this.executorService = executorService;
+        sendSlots = new Slots(settings.getMaxConcurrentSends());
+        receiveSlots = new Slots(settings.getMaxConcurrentReceives());
+
+        settings.addSettingsListener(this);
+    }
+
+    /**
+     * Runs the task doing the file transfer in a different thread, as soon as there is a free slot
+     * for the direction of the file transfer. The file transfer is queued until then.
+     *
+     * <p>The task is run even if the file transfer is canceled while in the queue, so it can clean up.</p>
+     *
+     * @param fileTransfer The file transfer the task is doing.
+     * @param task The task to run.
+     */
+    public synchronized void execute(final FileTransfer fileTransfer, final Runnable task) {
+        Validate.notNull(fileTransfer, "File transfer can not be null");
+        Validate.notNull(task, "Task can not be null");
+
+        final Slots slots = getSlots(fileTransfer.getDirection());
+        final QueuedTransfer queuedTransfer = new QueuedTransfer(fileTransfer, task, DEFAULT_PRIORITY, queueCounter++);
+
+        if (slots.hasFreeSlot()) {
+            start(slots, queuedTransfer);
+        }
+
+        else {
+            LOG.fine("Queuing file transfer #%s, %s running and %s queued",
+                     fileTransfer.getId(), slots.running, slots.queue.size());
+
+            slots.queue.add(queuedTransfer);
+            setQueued(fileTransfer, true);
+        }
+    }
+
+    /**
+     * Runs a task preparing a file transfer in a different thread, without waiting for a free slot.
+     *
+     * <p>This is for work that must be done before a file transfer can be offered, like reading the file,
+     * but that should not run in the calling thread. A slot is only used when the file is transferred.</p>
+     *
+     * @param task The task to run.
+     */
+    public void prepare(final Runnable task) {
+        Validate.notNull(task, "Task can not be null");
+
+        executorService.execute(task);
+    }
+
+    /**
+     * Changes the priority of a queued file transfer. File transfers with higher priority
+     * are started before file transfers with lower priority.
+     *
+     * @param transferId The id of the file transfer to change.
+     * @param priority The new priority.
+     * @return If the file transfer was queued and the priority was changed.
+     */
+    public synchronized boolean setPriority(final int transferId, final int priority) {
+        return sendSlots.changePriority(transferId, priority) || receiveSlots.changePriority(transferId, priority);
+    }
+
+    /**
+     * Gets the priority of a queued file transfer.
+     *
+     * @param transferId The id of the file transfer.
+     * @return The priority, or {@link #DEFAULT_PRIORITY} if the file transfer is not queued.
+     */
+    public synchronized int getPriority(final int transferId) {
+        QueuedTransfer queuedTransfer = sendSlots.find(transferId);
+
+        if (queuedTransfer == null) {
+            queuedTransfer = receiveSlots.find(transferId);
+        }
+
+        if (queuedTransfer == null) {
+            return DEFAULT_PRIORITY;
+        }
+
+        return queuedTransfer.priority;
+    }
+
+    /**
+     * Gets the number of running file transfers in the specified direction.
+     *
+     * @param direction The direction of the file transfers.
+     * @return The number of running file transfers.
+     */
+    public synchronized int getRunning(final FileTransfer.Direction direction) {
+        return getSlots(direction).running;
+    }
+
+    /**
+     * Gets the number of queued file transfers in the specified direction.
+     *
+     * @param direction The direction of the file transfers.
+     * @return The number of queued file transfers.
+     */
+    public synchronized int getQueued(final FileTransfer.Direction direction) {
+        return getSlots(direction).queue.size();
+    }
+
+    /**
+     * Updates the limits when changed in the settings, and starts queued file transfers
+     * if there are more free slots.
+     *
+     * @param setting The setting that was changed.
+     */
+    @Override
+    public synchronized void settingChanged(final Setting setting) {
+        if (setting.equals(Setting.MAX_CONCURRENT_SENDS)) {
+            sendSlots.max = settings.getMaxConcurrentSends();
+            startQueued(sendSlots);
+        }
+
+        else if (setting.equals(Setting.MAX_CONCURRENT_RECEIVES)) {
+            receiveSlots.max = settings.getMaxConcurrentReceives();
+            startQueued(receiveSlots);
+        }
+    }
+
+    private void start(final Slots slots, final QueuedTransfer queuedTransfer) {
+        slots.running++;
+
+        executorService.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    queuedTransfer.task.run();
+                }
+
+                finally {
+                    finished(slots);
+                }
+            }
+        });
+    }
+
+    private synchronized void finished(final Slots slots) {
+        slots.running--;
+        startQueued(slots);
+    }
+
+    private void startQueued(final Slots slots) {
+        while (slots.hasFreeSlot() && !slots.queue.isEmpty()) {
+            final QueuedTransfer queuedTransfer = slots.queue.poll();
+            setQueued(queuedTransfer.fileTransfer, false);
+            start(slots, queuedTransfer);
+        }
+    }
+
+    private void setQueued(final FileTransfer fileTransfer, final boolean queued) {
+        if (fileTransfer.getDirection() == FileTransfer.Direction.SEND) {
+            ((FileSender) fileTransfer).setQueued(queued);
+        }
+
+        else {
+            ((FileReceiver) fileTransfer).setQueued(queued);
+        }
+    }
+
+    private Slots getSlots(final FileTransfer.Direction direction) {
+        if (direction == FileTransfer.Direction.SEND) {
+            return sendSlots;
+        }
+
+        return receiveSlots;
+    }
+
+    /**
+     * The running and queued file transfers in one direction.
+     */
+    private static class Slots {
+
+        private final PriorityQueue<QueuedTransfer> queue = new PriorityQueue<>();
+        private int running;
+        private int max;
+
+        Slots(final int max) {
+            this.max = max;
+        }
+
+        boolean hasFreeSlot() {
+            return running < max;
+        }
+
+        @Nullable
+        QueuedTransfer find(final int transferId) {
+            for (final QueuedTransfer queuedTransfer : queue) {
+                if (queuedTransfer.fileTransfer.getId() == transferId) {
+                    return queuedTransfer;
+                }
+            }
+
+            return null;
+        }
+
+        boolean changePriority(final int transferId, final int priority) {
+            final Iterator<QueuedTransfer> iterator = queue.iterator();
+
+            while (iterator.hasNext()) {
+                final QueuedTransfer queuedTransfer = iterator.next();
+
+                if (queuedTransfer.fileTransfer.getId() == transferId) {
+                    iterator.remove();
+                    queue.add(new QueuedTransfer(queuedTransfer.fileTransfer, queuedTransfer.task,
+                                                 priority, queuedTransfer.order));
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+
+    /**
+     * A file transfer waiting for a free slot. Ordered by highest priority first,
+     * and then by the order they were queued.
+     */
+    private static class QueuedTransfer implements Comparable<QueuedTransfer> {
+
+        private final FileTransfer fileTransfer;
+        private final Runnable task;
+        private final int priority;
+        private final long order;
+
+        QueuedTransfer(final FileTransfer fileTransfer, final Runnable task, final int priority, final long order) {
+            this.fileTransfer = fileTransfer;
+            this.task = task;
+            this.priority = priority;
+            this.order = order;
+        }
+
+        @Override
+        public int compareTo(final QueuedTransfer other) {
+            if (priority != other.priority) {
+                return Integer.compare(other.priority, priority);
+            }
+
+            return Long.compare(order, other.order);
+        }
+    }
+}
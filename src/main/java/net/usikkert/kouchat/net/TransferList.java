@@ -24,34 +24,76 @@ package net.usikkert.kouchat.net;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.usikkert.kouchat.misc.User;
+import net.usikkert.kouchat.util.HashedWheelTimer;
+import net.usikkert.kouchat.util.Validate;
 
 import org.jetbrains.annotations.Nullable;
 
 /**
  * This class keeps a list of all the ongoing file transfers.
  *
+ * <p>The list is safe to use from several threads. The file transfers are indexed by id,
+ * and the file senders also by user and file name, so the lookups done for every file
+ * transfer message don't have to search the whole list. Lists returned from
+ * this class are snapshots, and are not changed by later updates.</p>
+ *
  * @author Christian Ihle
  */
 public class TransferList {
 
-    /** The list of all the file senders. */
-    private final List<FileSender> senders;
+    /** All the file senders, by file transfer id. */
+    private final ConcurrentNavigableMap<Integer, FileSender> senders;
+
+    /** The file senders for a user and file name, in the order they were added. */
+    private final ConcurrentMap<SenderKey, List<FileSender>> sendersByFile;
+
+    /** All the file receivers, by file transfer id. */
+    private final ConcurrentNavigableMap<Integer, FileReceiver> receivers;
 
-    /** The list of all the file receivers. */
-    private final List<FileReceiver> receivers;
+    /** The scheduler sharing the bandwidth between the file transfers. */
+    private final TransferScheduler transferScheduler;
+
+    /** The timer measuring the transfer rate of the file transfers. */
+    private final HashedWheelTimer timer;
 
     /** Counter for unique file transfer id's. */
-    private int fileTransferIdCounter;
+    private final AtomicInteger fileTransferIdCounter;
 
     /**
      * Constructor.
+     *
+     * @param transferScheduler The scheduler to use for the file transfers in the list.
+     * @param timer The timer to measure the transfer rate of the file transfers with.
+     */
+    public TransferList(final TransferScheduler transferScheduler, final HashedWheelTimer timer) {
+        Validate.notNull(transferScheduler, "Transfer scheduler can not be null");
+        Validate.notNull(timer, "Timer can not be null");
+
+        this.transferScheduler = transferScheduler;
+        this.timer = timer;
+        senders = new ConcurrentSkipListMap<>();
+        sendersByFile = new ConcurrentHashMap<>();
+        receivers = new ConcurrentSkipListMap<>();
+        fileTransferIdCounter = new AtomicInteger();
+    }
+
+    /**
+     * Gets the scheduler sharing the bandwidth between the file transfers.
+     *
+     * @return The transfer scheduler.
      */
-    public TransferList() {
-        senders = new ArrayList<>();
-        receivers = new ArrayList<>();
+    public TransferScheduler getTransferScheduler() {
+        return transferScheduler;
     }
 
     /**
@@ -62,8 +104,35 @@ public class TransferList {
      * @return The file sender object that was added to the transfer list.
      */
     public FileSender addFileSender(final User user, final FileToSend file) {
-        final FileSender fileSender = new FileSender(user, file, ++fileTransferIdCounter);
-        senders.add(fileSender);
+        return addFileSender(user, file, null);
+    }
+
+    /**
+     * Adds a new file sender to the list, for a file sent to many users at once.
+     *
+     * @param user The user to send the file to.
+     * @param file The file to send.
+     * @param multicastSession The session sending the file, or <code>null</code> to connect to the user.
+     * @return The file sender object that was added to the transfer list.
+     */
+    public FileSender addFileSender(final User user, final FileToSend file,
+                                    @Nullable final MulticastFileSession multicastSession) {
+        final FileSender fileSender = new FileSender(user, file, fileTransferIdCounter.incrementAndGet(),
+                                                     transferScheduler, timer, multicastSession);
+        final SenderKey senderKey = new SenderKey(fileSender);
+
+        synchronized (sendersByFile) {
+            List<FileSender> sameFileSenders = sendersByFile.get(senderKey);
+
+            if (sameFileSenders == null) {
+                sameFileSenders = new CopyOnWriteArrayList<>();
+                sendersByFile.put(senderKey, sameFileSenders);
+            }
+
+            sameFileSenders.add(fileSender);
+        }
+
+        senders.put(fileSender.getId(), fileSender);
 
         return fileSender;
     }
@@ -74,7 +143,18 @@ public class TransferList {
      * @param fileSender The file sender to remove.
      */
     public void removeFileSender(final FileSender fileSender) {
-        senders.remove(fileSender);
+        if (senders.remove(fileSender.getId(), fileSender)) {
+            final SenderKey senderKey = new SenderKey(fileSender);
+
+            synchronized (sendersByFile) {
+                final List<FileSender> sameFileSenders = sendersByFile.get(senderKey);
+                sameFileSenders.remove(fileSender);
+
+                if (sameFileSenders.isEmpty()) {
+                    sendersByFile.remove(senderKey);
+                }
+            }
+        }
     }
 
     /**
@@ -87,16 +167,13 @@ public class TransferList {
      */
     @Nullable
     public FileSender getFileSender(final User user, final String fileName, final int fileHash) {
-        FileSender fileSender = null;
-
-        for (final FileSender fs : senders) {
-            if (fs.getUser() == user && fs.getFile().getName().equals(fileName) && fs.getFile().hashCode() == fileHash) {
-                fileSender = fs;
-                break;
+        for (final FileSender fs : getSameFileSenders(user, fileName)) {
+            if (fs.getUser() == user && fs.getFile().hashCode() == fileHash) {
+                return fs;
             }
         }
 
-        return fileSender;
+        return null;
     }
 
     /**
@@ -108,16 +185,30 @@ public class TransferList {
      */
     @Nullable
     public FileSender getFileSender(final User user, final String fileName) {
-        FileSender fileSender = null;
-
-        for (final FileSender fs : senders) {
-            if (fs.getUser() == user && fs.getFile().getName().equals(fileName)) {
-                fileSender = fs;
-                break;
+        for (final FileSender fs : getSameFileSenders(user, fileName)) {
+            if (fs.getUser() == user) {
+                return fs;
             }
         }
 
-        return fileSender;
+        return null;
+    }
+
+    /**
+     * Gets the file senders for the user and file name from the index.
+     *
+     * @param user The file sending user.
+     * @param fileName The name of the file being sent.
+     * @return The file senders, or an empty list if there are none.
+     */
+    private List<FileSender> getSameFileSenders(final User user, final String fileName) {
+        final List<FileSender> sameFileSenders = sendersByFile.get(new SenderKey(user.getCode(), fileName));
+
+        if (sameFileSenders == null) {
+            return Collections.emptyList();
+        }
+
+        return sameFileSenders;
     }
 
     /**
@@ -129,10 +220,10 @@ public class TransferList {
      */
     @Nullable
     public FileSender getFileSender(final User user, final int id) {
-        for (final FileSender fs : senders) {
-            if (fs.getUser() == user && fs.getId() == id) {
-                return fs;
-            }
+        final FileSender fileSender = senders.get(id);
+
+        if (fileSender != null && fileSender.getUser() == user) {
+            return fileSender;
         }
 
         return null;
@@ -142,33 +233,27 @@ public class TransferList {
      * Gets all the file sender objects for a given user.
      *
      * @param user The given user.
-     * @return A list of all the file senders for the user.
+     * @return A snapshot of all the file senders for the user.
      */
     public List<FileSender> getFileSenders(final User user) {
         final List<FileSender> list = new ArrayList<>();
 
-        for (final FileSender fs : senders) {
+        for (final FileSender fs : senders.values()) {
             if (fs.getUser() == user) {
                 list.add(fs);
             }
         }
 
-        return list;
+        return Collections.unmodifiableList(list);
     }
 
     /**
      * Gets all the file sender objects for all the users.
      *
-     * @return A list of all the file senders.
+     * @return A snapshot of all the file senders.
      */
     public List<FileSender> getFileSenders() {
-        final List<FileSender> list = new ArrayList<>();
-
-        for (final FileSender fs : senders) {
-            list.add(fs);
-        }
-
-        return list;
+        return Collections.unmodifiableList(new ArrayList<>(senders.values()));
     }
 
     /**
@@ -180,8 +265,22 @@ public class TransferList {
      * @return The file receiver object that was added to the transfer list.
      */
     public FileReceiver addFileReceiver(final User user, final File file, final long size) {
-        final FileReceiver fileReceiver = new FileReceiver(user, file, size, ++fileTransferIdCounter);
-        receivers.add(fileReceiver);
+        return addFileReceiver(user, file, size, false);
+    }
+
+    /**
+     * Adds a new file receiver to the list using the following parameters.
+     *
+     * @param user The user which sends the file.
+     * @param file The file the user is sending, or the folder to restore a batch of files to.
+     * @param size The size of the file, in bytes.
+     * @param batch If the user is sending a batch of files.
+     * @return The file receiver object that was added to the transfer list.
+     */
+    public FileReceiver addFileReceiver(final User user, final File file, final long size, final boolean batch) {
+        final FileReceiver fileReceiver =
+                new FileReceiver(user, file, size, fileTransferIdCounter.incrementAndGet(), transferScheduler, timer, batch);
+        receivers.put(fileReceiver.getId(), fileReceiver);
 
         return fileReceiver;
     }
@@ -192,46 +291,46 @@ public class TransferList {
      * @param fileReceiver The file receiver to remove.
      */
     public void removeFileReceiver(final FileReceiver fileReceiver) {
-        receivers.remove(fileReceiver);
+        receivers.remove(fileReceiver.getId(), fileReceiver);
     }
 
     /**
      * Gets all the file receiver objects for a given user.
      *
      * @param user The given user.
-     * @return A list of all the file receivers for the user.
+     * @return A snapshot of all the file receivers for the user.
      */
     public List<FileReceiver> getFileReceivers(final User user) {
         final List<FileReceiver> list = new ArrayList<>();
 
-        for (final FileReceiver fr : receivers) {
+        for (final FileReceiver fr : receivers.values()) {
             if (fr.getUser() == user) {
                 list.add(fr);
             }
         }
 
-        return list;
+        return Collections.unmodifiableList(list);
     }
 
     /**
      * Gets the file receiver object for the specified user and file.
      *
+     * <p>The file name is the current name of the file, which may have been changed by the user.
+     * Receivers are not indexed by file name for that reason.</p>
+     *
      * @param user The file receiver user.
      * @param fileName The name of the file being received.
      * @return The file receiver object, or <code>null</code> if none was found.
      */
     @Nullable
     public FileReceiver getFileReceiver(final User user, final String fileName) {
-        FileReceiver fileReceiver = null;
-
-        for (final FileReceiver fr : receivers) {
+        for (final FileReceiver fr : receivers.values()) {
             if (fr.getUser() == user && fr.getFile().getName().equals(fileName)) {
-                fileReceiver = fr;
-                break;
+                return fr;
             }
         }
 
-        return fileReceiver;
+        return null;
     }
 
     /**
@@ -243,10 +342,10 @@ public class TransferList {
      */
     @Nullable
     public FileReceiver getFileReceiver(final User user, final int id) {
-        for (final FileReceiver fr : receivers) {
-            if (fr.getUser() == user && fr.getId() == id) {
-                return fr;
-            }
+        final FileReceiver fileReceiver = receivers.get(id);
+
+        if (fileReceiver != null && fileReceiver.getUser() == user) {
+            return fileReceiver;
         }
 
         return null;
@@ -255,16 +354,10 @@ public class TransferList {
     /**
      * Gets all the file receiver objects for all the users.
      *
-     * @return A list of all the file receivers.
+     * @return A snapshot of all the file receivers.
      */
     public List<FileReceiver> getFileReceivers() {
-        final List<FileReceiver> list = new ArrayList<>();
-
-        for (final FileReceiver fr : receivers) {
-            list.add(fr);
-        }
-
-        return list;
+        return Collections.unmodifiableList(new ArrayList<>(receivers.values()));
     }
 
     /**
@@ -304,4 +397,45 @@ public class TransferList {
             return getFileSender(user, id);
         }
     }
+
+    /**
+     * The user and file name a file sender is looked up by, when the other user responds
+     * to a file transfer, or the application user refers to it by name. The file hash is not
+     * part of the key, since it's not always known. There are rarely more than a few senders
+     * with the same key, so those are checked one by one.
+     */
+    private static final class SenderKey {
+
+        private final int userCode;
+        private final String fileName;
+
+        SenderKey(final FileSender fileSender) {
+            this(fileSender.getUser().getCode(), fileSender.getFile().getName());
+        }
+
+        SenderKey(final int userCode, final String fileName) {
+            this.userCode = userCode;
+            this.fileName = fileName;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+
+            final SenderKey senderKey = (SenderKey) o;
+
+            return userCode == senderKey.userCode && fileName.equals(senderKey.fileName);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * userCode + fileName.hashCode();
+        }
+    }
 }
@@ -0,0 +1,268 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import net.usikkert.kouchat.event.SettingsListener;
+import net.usikkert.kouchat.settings.Setting;
+import net.usikkert.kouchat.settings.Settings;
+import net.usikkert.kouchat.util.Sleeper;
+import net.usikkert.kouchat.util.Validate;
+
+/**
+ * Schedules the bandwidth used by the file transfers.
+ *
+ * <p>All the file senders and receivers ask the scheduler for permission before writing
+ * another block of data. The scheduler enforces a global rate limit, divided between
+ * the active transfers according to their weight, and makes the transfers hold back
+ * for a short while after chat messages are sent so the chat stays responsive.</p>
+ *
+ * <p>The rate limit is read from {@link Settings#getTransferRateLimit()}, and is updated
+ * when the setting changes. A rate limit of 0 means unlimited.</p>
+ *
+ * @author Christian Ihle
+ */
+public class TransferScheduler implements SettingsListener {
+
+    /** The weight a transfer gets in the fair share unless something else is specified. */
+    public static final int DEFAULT_WEIGHT = 1;
+
+    /** Number of milliseconds the transfers hold back after chat traffic is sent. */
+    private static final int CHAT_LANE_WINDOW = 50;
+
+    /** Number of milliseconds of unused bandwidth a transfer can save up for later. */
+    private static final int MAX_BURST = 100;
+
+    private final Sleeper sleeper = new Sleeper();
+
+    private final Settings settings;
+
+    /** The bandwidth share of every active transfer, by transfer id. */
+    private final ConcurrentMap<Integer, Share> shares;
+
+    /** The global rate limit in bytes per second, or 0 for unlimited. */
+    private volatile long bytesPerSecond;
+
+    /** The time the last chat message was sent. */
+    private volatile long lastChatTraffic;
+
+    /**
+     * Constructor.
+     *
+     * @param settings The settings to get the rate limit from.
+     */
+    public TransferScheduler(final Settings settings) {
+        Validate.notNull(settings, "Settings can not be null");
+
+        this.settings = settings;
+        shares = new ConcurrentHashMap<>();
+        bytesPerSecond = toBytesPerSecond(settings.getTransferRateLimit());
+
+        settings.addSettingsListener(this);
+    }
+
+    /**
+     * Registers a transfer as active, so it gets a share of the bandwidth.
+     *
+     * @param fileTransfer The transfer that has started transferring data.
+     */
+    public void register(final FileTransfer fileTransfer) {
+        shares.putIfAbsent(fileTransfer.getId(), new Share(DEFAULT_WEIGHT));
+    }
+
+    /**
+     * Unregisters a transfer that is no longer active, so the other transfers get its bandwidth.
+     *
+     * @param fileTransfer The transfer that has stopped transferring data.
+     */
+    public void unregister(final FileTransfer fileTransfer) {
+        shares.remove(fileTransfer.getId());
+    }
+
+    /**
+     * Changes the weight of an active transfer. A transfer with weight 2 gets twice the
+     * bandwidth of a transfer with weight 1 when the rate is limited.
+     *
+     * @param transferId The id of the transfer to change.
+     * @param weight The new weight. Must be at least 1.
+     * @return If the transfer was active and the weight was changed.
+     */
+    public boolean setWeight(final int transferId, final int weight) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("Weight must be at least 1");
+        }
+
+        final Share share = shares.get(transferId);
+
+        if (share == null) {
+            return false;
+        }
+
+        share.weight = weight;
+        return true;
+    }
+
+    /**
+     * Gets the weight of an active transfer.
+     *
+     * @param transferId The id of the transfer.
+     * @return The weight, or 0 if the transfer is not active.
+     */
+    public int getWeight(final int transferId) {
+        final Share share = shares.get(transferId);
+
+        if (share == null) {
+            return 0;
+        }
+
+        return share.weight;
+    }
+
+    /**
+     * Gets the number of transfers currently sharing the bandwidth.
+     *
+     * @return The number of active transfers.
+     */
+    public int getActiveTransfers() {
+        return shares.size();
+    }
+
+    /**
+     * Gets the global rate limit.
+     *
+     * @return The rate limit in bytes per second, or 0 for unlimited.
+     */
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * Notifies that a chat message has been sent. Transfers will hold back for a
+     * few milliseconds to give the chat message a free line.
+     */
+    public void chatTrafficSent() {
+        lastChatTraffic = System.currentTimeMillis();
+    }
+
+    /**
+     * Asks for permission to transfer the specified number of bytes. Blocks until the
+     * transfer is within its share of the bandwidth.
+     *
+     * @param fileTransfer The transfer wanting to transfer data.
+     * @param bytes The number of bytes to transfer.
+     */
+    public void acquire(final FileTransfer fileTransfer, final int bytes) {
+        waitForChatLane();
+
+        final long rate = bytesPerSecond;
+        final Share share = shares.get(fileTransfer.getId());
+
+        if (rate <= 0 || share == null) {
+            return;
+        }
+
+        final long shareRate = Math.max(1, rate * share.weight / getTotalWeight());
+        final long delay = share.reserve(bytes, shareRate, System.currentTimeMillis());
+
+        if (delay > 0) {
+            sleeper.sleep(delay);
+        }
+    }
+
+    /**
+     * Updates the rate limit when changed in the settings.
+     *
+     * @param setting The setting that was changed.
+     */
+    @Override
+    public void settingChanged(final Setting setting) {
+        if (setting.equals(Setting.TRANSFER_RATE_LIMIT)) {
+            bytesPerSecond = toBytesPerSecond(settings.getTransferRateLimit());
+        }
+    }
+
+    private void waitForChatLane() {
+        final long timeLeft = lastChatTraffic + CHAT_LANE_WINDOW - System.currentTimeMillis();
+
+        if (timeLeft > 0) {
+            sleeper.sleep(timeLeft);
+        }
+    }
+
+    private int getTotalWeight() {
+        int totalWeight = 0;
+
+        for (final Share share : shares.values()) {
+            totalWeight += share.weight;
+        }
+
+        return Math.max(1, totalWeight);
+    }
+
+    private long toBytesPerSecond(final int kiloBytesPerSecond) {
+        return Math.max(0, kiloBytesPerSecond) * 1024L;
+    }
+
+    /**
+     * The bandwidth share of a single transfer. Works like a token bucket, where the transfer
+     * earns credits at the rate of its share, and spends credits when transferring data.
+     */
+    static class Share {
+
+        private volatile int weight;
+        private long credits;
+        private long lastRefill;
+
+        Share(final int weight) {
+            this.weight = weight;
+        }
+
+        /**
+         * Spends credits for the bytes to transfer, and returns how long to wait
+         * for the credits to be earned back.
+         *
+         * @param bytes The number of bytes to transfer.
+         * @param rate The current share of the bandwidth, in bytes per second.
+         * @param now The current time, in milliseconds.
+         * @return Number of milliseconds to wait before transferring the bytes.
+         */
+        synchronized long reserve(final int bytes, final long rate, final long now) {
+            if (lastRefill == 0) {
+                lastRefill = now;
+            }
+
+            final long maxCredits = Math.max(bytes, rate * MAX_BURST / 1000);
+            credits = Math.min(maxCredits, credits + (now - lastRefill) * rate / 1000);
+            lastRefill = now;
+            credits -= bytes;
+
+            if (credits >= 0) {
+                return 0;
+            }
+
+            return -credits * 1000 / rate;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import net.usikkert.kouchat.misc.Controller;
+import net.usikkert.kouchat.misc.User;
+import net.usikkert.kouchat.util.HashedWheelTimer;
+import net.usikkert.kouchat.util.Logger;
+import net.usikkert.kouchat.util.TimerHandle;
+import net.usikkert.kouchat.util.Validate;
+
+/**
+ * Clears the writing state of users that have not said they are still writing for a while.
+ *
+ * <p>Users supporting {@link ClientCapability#WRITING_TIMEOUT} send {@link NetworkMessageType#WRITING}
+ * again while writing, so they time out after TIMEOUT milliseconds without it. Older clients only send it once,
+ * and get the much longer LEGACY_TIMEOUT, just to clean up after a lost
+ * {@link NetworkMessageType#STOPPEDWRITING}.</p>
+ *
+ * @author Christian Ihle
+ */
+public class WritingTimeouts {
+
+    private static final Logger LOG = Logger.getLogger(WritingTimeouts.class);
+
+    /** Milliseconds without the writing state before it times out, for users that send it again while writing. */
+    static final int TIMEOUT = 12000;
+
+    /** Milliseconds before the writing state times out, for users that only send it once. */
+    static final int LEGACY_TIMEOUT = 120000;
+
+    private final Controller controller;
+    private final HashedWheelTimer timer;
+
+    /** The pending timeout of each user that is writing. */
+    private final Map<Integer, Timeout> timeouts;
+
+    /**
+     * Constructor.
+     *
+     * @param controller The controller, to clear the writing state.
+     * @param timer The timer to schedule the timeouts with.
+     */
+    public WritingTimeouts(final Controller controller, final HashedWheelTimer timer) {
+        Validate.notNull(controller, "Controller can not be null");
+        Validate.notNull(timer, "Timer can not be null");
+
+        this.controller = controller;
+        this.timer = timer;
+
+        timeouts = new HashMap<>();
+    }
+
+    /**
+     * Starts the timeout of the writing state of the user again, or stops it if the user is no longer writing.
+     *
+     * @param user The user who started or stopped writing.
+     * @param writing If the user is writing.
+     */
+    public synchronized void writingChanged(final User user, final boolean writing) {
+        Validate.notNull(user, "User can not be null");
+
+        final Timeout oldTimeout = timeouts.remove(user.getCode());
+
+        if (oldTimeout != null) {
+            oldTimeout.handle.cancel();
+        }
+
+        if (writing) {
+            final int delay = user.hasCapability(ClientCapability.WRITING_TIMEOUT) ? TIMEOUT : LEGACY_TIMEOUT;
+            final Timeout timeout = new Timeout(user.getCode());
+            timeout.handle = timer.schedule("WritingTimeouts", timeout, delay);
+            timeouts.put(user.getCode(), timeout);
+        }
+    }
+
+    /**
+     * Checks if the writing state of the user will time out.
+     *
+     * @param userCode The unique code of the user.
+     * @return If the user has a pending timeout.
+     */
+    synchronized boolean isPending(final int userCode) {
+        return timeouts.containsKey(userCode);
+    }
+
+    /**
+     * Clears the writing state of a user, unless the timeout was replaced in the meantime.
+     */
+    private class Timeout implements Runnable {
+
+        private final int userCode;
+        private TimerHandle handle;
+
+        Timeout(final int userCode) {
+            this.userCode = userCode;
+        }
+
+        @Override
+        public void run() {
+            synchronized (WritingTimeouts.this) {
+                if (timeouts.get(userCode) != this) {
+                    return;
+                }
+
+                timeouts.remove(userCode);
+            }
+
+            LOG.fine("Writing state of user %s timed out", userCode);
+            controller.changeWriting(userCode, false);
+        }
+    }
+}
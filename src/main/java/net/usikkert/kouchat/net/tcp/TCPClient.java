@@ -83,14 +83,15 @@ public class TCPClient implements Runnable {
         }
     }
 
-    public void send(final String message) {
+    public boolean send(final String message) {
         if (!connected || outputStream == null) {
-            return;
+            return false;
         }
 
         try {
             outputStream.writeUTF(message);
             LOG.fine("Sent message: %s", message);
+            return true;
         }
 
         catch (final IOException e) {
@@ -100,6 +101,8 @@ public class TCPClient implements Runnable {
             if (clientListener != null) {
                 clientListener.disconnected(this);
             }
+
+            return false;
         }
     }
 
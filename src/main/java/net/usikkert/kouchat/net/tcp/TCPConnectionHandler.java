@@ -27,12 +27,12 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import net.usikkert.kouchat.misc.Controller;
 import net.usikkert.kouchat.misc.User;
 import net.usikkert.kouchat.settings.Settings;
 import net.usikkert.kouchat.util.Logger;
-import net.usikkert.kouchat.util.Tools;
 import net.usikkert.kouchat.util.Validate;
 
 import org.jetbrains.annotations.Nullable;
@@ -46,11 +46,17 @@ public class TCPConnectionHandler implements TCPConnectionListener, TCPReceiverL
 
     private static final Logger LOG = Logger.getLogger(TCPConnectionHandler.class);
 
+    /** Milliseconds between each check of the connections. */
+    private static final long CHECK_INTERVAL = 15_000;
+
     private final Controller controller;
     private final Settings settings;
     private final ExecutorService executorService;
     private final Map<User, TCPUserClient> userClients;
 
+    /** If a check of the connections is running, so the next one is skipped if the check is slow. */
+    private final AtomicBoolean checking;
+
     @Nullable
     private TCPReceiverListener listener;
 
@@ -64,8 +70,10 @@ public class TCPConnectionHandler implements TCPConnectionListener, TCPReceiverL
         this.settings = settings;
         this.executorService = Executors.newCachedThreadPool();
         this.userClients = new HashMap<>();
+        this.checking = new AtomicBoolean();
 
-        new Thread(this, TCPConnectionHandler.class.getSimpleName()).start();
+        controller.getTimer().scheduleAtFixedRate(TCPConnectionHandler.class.getSimpleName(), this,
+                                                  CHECK_INTERVAL, CHECK_INTERVAL);
     }
 
     @Override
@@ -172,12 +180,10 @@ public class TCPConnectionHandler implements TCPConnectionListener, TCPReceiverL
         }
     }
 
-    public void sendMessageToUser(final String message, final User user) {
+    public boolean sendMessageToUser(final String message, final User user) {
         final TCPUserClient userClient = userClients.get(user);
 
-        if (userClient != null) {
-            userClient.send(message);
-        }
+        return userClient != null && userClient.send(message);
     }
 
     public void registerReceiverListener(final TCPReceiverListener theListener) {
@@ -197,28 +203,51 @@ public class TCPConnectionHandler implements TCPConnectionListener, TCPReceiverL
         return userClient != null && userClient.getClientCount() > 0;
     }
 
+    /**
+     * Hands the check of the connections over to the executor service, when triggered by the timer every
+     * {@link #CHECK_INTERVAL} milliseconds. Closing additional connections can take several seconds,
+     * and must not block the timer thread.
+     */
     @Override
     public void run() {
-        while (true) {
-            Tools.sleep(15_000);
+        if (!connected || !checking.compareAndSet(false, true)) {
+            return;
+        }
 
-            if (!connected) {
-                continue;
-            }
+        executorService.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    checkConnections();
+                }
 
-            for (final User user : userClients.keySet()) {
-                final TCPUserClient userClient = userClients.get(user);
-                final int clientCount = userClient.getClientCount();
-
-                if (clientCount == 0) {
-                    LOG.warning("User %s has lost all tcp connections. Trying to reconnect.", user.getNick());
-                    userAdded(user);
-                } else if (clientCount > 1) {
-                    LOG.warning("User %s has too many (%d) tcp connections. Trying to close.",
-                                user.getNick(), clientCount);
-                    userClient.disconnectAdditionalClients();
+                finally {
+                    checking.set(false);
                 }
             }
+        });
+    }
+
+    /**
+     * Checks the connections to all the users, and tries to reconnect or close connections when necessary.
+     */
+    private void checkConnections() {
+        if (!connected) {
+            return;
+        }
+
+        for (final User user : userClients.keySet()) {
+            final TCPUserClient userClient = userClients.get(user);
+            final int clientCount = userClient.getClientCount();
+
+            if (clientCount == 0) {
+                LOG.warning("User %s has lost all tcp connections. Trying to reconnect.", user.getNick());
+                userAdded(user);
+            } else if (clientCount > 1) {
+                LOG.warning("User %s has too many (%d) tcp connections. Trying to close.",
+                            user.getNick(), clientCount);
+                userClient.disconnectAdditionalClients();
+            }
         }
     }
 }
@@ -22,6 +22,8 @@
 
 package net.usikkert.kouchat.net.tcp;
 
+import java.util.List;
+
 import net.usikkert.kouchat.event.UserListListener;
 import net.usikkert.kouchat.misc.Controller;
 import net.usikkert.kouchat.misc.ErrorHandler;
@@ -67,11 +69,23 @@ public class TCPNetworkService implements UserListListener {
         tcpConnectionHandler.userAdded(user);
     }
 
+    @Override
+    public void usersAdded(final List<User> users) {
+        for (final User user : users) {
+            tcpConnectionHandler.userAdded(user);
+        }
+    }
+
     @Override
     public void userChanged(final int pos, final User user) {
 
     }
 
+    @Override
+    public void userMoved(final int oldPos, final int newPos, final User user) {
+
+    }
+
     @Override
     public void userRemoved(final int pos, final User user) {
         tcpConnectionHandler.userRemoved(user);
@@ -81,8 +95,8 @@ public class TCPNetworkService implements UserListListener {
         tcpConnectionHandler.sendMessageToAll(message);
     }
 
-    public void sendMessageToUser(final String message, final User user) {
-        tcpConnectionHandler.sendMessageToUser(message, user);
+    public boolean sendMessageToUser(final String message, final User user) {
+        return tcpConnectionHandler.sendMessageToUser(message, user);
     }
 
     public void registerReceiverListener(final TCPReceiverListener listener) {
@@ -108,13 +108,14 @@ public class TCPUserClient implements TCPClientListener {
         }
     }
 
-    public void send(final String message) {
+    public boolean send(final String message) {
         for (final TCPClient client : clients) {
             if (!client.isDisconnecting()) {
-                client.send(message);
-                return;
+                return client.send(message);
             }
         }
+
+        return false;
     }
 
     public int getClientCount() {
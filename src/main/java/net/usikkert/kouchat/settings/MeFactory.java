@@ -22,7 +22,10 @@
 
 package net.usikkert.kouchat.settings;
 
+import java.util.Arrays;
+
 import net.usikkert.kouchat.misc.User;
+import net.usikkert.kouchat.net.ClientCapability;
 import net.usikkert.kouchat.util.Tools;
 
 /**
@@ -60,6 +63,11 @@ public class MeFactory {
         me.setLastIdle(System.currentTimeMillis());
         me.setLogonTime(System.currentTimeMillis());
         me.setOperatingSystem(System.getProperty("os.name"));
+        me.setPresenceVersion(1);
+        me.setCapabilities(Arrays.asList(ClientCapability.DEFLATE, ClientCapability.SHARED_PORT,
+                                           ClientCapability.MULTICAST_FILE, ClientCapability.CONTENT_HASH,
+                                           ClientCapability.ROSTER, ClientCapability.WRITING_TIMEOUT,
+                                           ClientCapability.MESSAGE_SEQUENCE, ClientCapability.HISTORY));
 
         return me;
     }
@@ -41,7 +41,10 @@ public enum PropertyFileSettings {
     LOOK_AND_FEEL("lookAndFeel"),
     NETWORK_INTERFACE("networkInterface"),
     SOUND("sound"),
-    SMILEYS("smileys");
+    SMILEYS("smileys"),
+    TRANSFER_RATE_LIMIT("transferRateLimit"),
+    MAX_CONCURRENT_SENDS("maxConcurrentSends"),
+    MAX_CONCURRENT_RECEIVES("maxConcurrentReceives");
 
     private final String key;
 
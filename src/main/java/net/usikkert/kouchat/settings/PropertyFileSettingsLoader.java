@@ -74,6 +74,9 @@ public class PropertyFileSettingsLoader {
             setNetworkInterface(settings, fileContents);
             setSound(settings, fileContents);
             setSmileys(settings, fileContents);
+            setTransferRateLimit(settings, fileContents);
+            setMaxConcurrentSends(settings, fileContents);
+            setMaxConcurrentReceives(settings, fileContents);
         }
 
         catch (final FileNotFoundException e) {
@@ -154,4 +157,43 @@ public class PropertyFileSettingsLoader {
             settings.setSmileys(Boolean.valueOf(fileContents.getProperty(SMILEYS.getKey())));
         }
     }
+
+    private void setTransferRateLimit(final Settings settings, final Properties fileContents) {
+        // Defaults to 0 (unlimited)
+        if (fileContents.getProperty(TRANSFER_RATE_LIMIT.getKey()) != null) {
+            try {
+                settings.setTransferRateLimit(Integer.parseInt(fileContents.getProperty(TRANSFER_RATE_LIMIT.getKey())));
+            }
+
+            catch (final NumberFormatException e) {
+                LOG.log(Level.WARNING, "Could not read setting for transferRateLimit...");
+            }
+        }
+    }
+
+    private void setMaxConcurrentSends(final Settings settings, final Properties fileContents) {
+        // Defaults to 3
+        if (fileContents.getProperty(MAX_CONCURRENT_SENDS.getKey()) != null) {
+            try {
+                settings.setMaxConcurrentSends(Integer.parseInt(fileContents.getProperty(MAX_CONCURRENT_SENDS.getKey())));
+            }
+
+            catch (final NumberFormatException e) {
+                LOG.log(Level.WARNING, "Could not read setting for maxConcurrentSends...");
+            }
+        }
+    }
+
+    private void setMaxConcurrentReceives(final Settings settings, final Properties fileContents) {
+        // Defaults to 3
+        if (fileContents.getProperty(MAX_CONCURRENT_RECEIVES.getKey()) != null) {
+            try {
+                settings.setMaxConcurrentReceives(Integer.parseInt(fileContents.getProperty(MAX_CONCURRENT_RECEIVES.getKey())));
+            }
+
+            catch (final NumberFormatException e) {
+                LOG.log(Level.WARNING, "Could not read setting for maxConcurrentReceives...");
+            }
+        }
+    }
 }
@@ -84,6 +84,9 @@ public class PropertyFileSettingsSaver implements SettingsSaver {
         properties.put(BALLOONS.getKey(), String.valueOf(settings.isBalloons()));
         properties.put(SYSTEM_TRAY.getKey(), String.valueOf(settings.isSystemTray()));
         properties.put(NETWORK_INTERFACE.getKey(), Tools.emptyIfNull(settings.getNetworkInterface()));
+        properties.put(TRANSFER_RATE_LIMIT.getKey(), String.valueOf(settings.getTransferRateLimit()));
+        properties.put(MAX_CONCURRENT_SENDS.getKey(), String.valueOf(settings.getMaxConcurrentSends()));
+        properties.put(MAX_CONCURRENT_RECEIVES.getKey(), String.valueOf(settings.getMaxConcurrentReceives()));
 
         try {
             ioTools.createFolder(Constants.APP_FOLDER);
@@ -44,6 +44,15 @@ public class Setting {
     /** Maps to {@link Settings#isSystemTray()}. */
     public static final Setting SYSTEM_TRAY = new Setting("SYSTEM_TRAY");
 
+    /** Maps to {@link Settings#getTransferRateLimit()}. */
+    public static final Setting TRANSFER_RATE_LIMIT = new Setting("TRANSFER_RATE_LIMIT");
+
+    /** Maps to {@link Settings#getMaxConcurrentSends()}. */
+    public static final Setting MAX_CONCURRENT_SENDS = new Setting("MAX_CONCURRENT_SENDS");
+
+    /** Maps to {@link Settings#getMaxConcurrentReceives()}. */
+    public static final Setting MAX_CONCURRENT_RECEIVES = new Setting("MAX_CONCURRENT_RECEIVES");
+
     private final String name; // Must be unique
 
     protected Setting(@NonNls final String name) {
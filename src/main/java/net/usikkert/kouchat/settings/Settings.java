@@ -77,6 +77,15 @@ public class Settings {
     /** Name of the network interface to use, or <code>null</code> to choose automatically. */
     private String networkInterface;
 
+    /** The max speed of all the file transfers combined, in kilobytes per second. 0 means unlimited. */
+    private int transferRateLimit;
+
+    /** The max number of files to send at the same time. */
+    private int maxConcurrentSends;
+
+    /** The max number of files to receive at the same time. */
+    private int maxConcurrentReceives;
+
     // Settings from startup arguments
 
     /** If private chat is disabled. */
@@ -107,6 +116,8 @@ public class Settings {
         smileys = true;
         systemTray = true;
         lookAndFeel = "";
+        maxConcurrentSends = 3;
+        maxConcurrentReceives = 3;
     }
 
     /**
@@ -410,4 +421,80 @@ public class Settings {
     public void setNetworkInterface(final String networkInterface) {
         this.networkInterface = networkInterface;
     }
+
+    /**
+     * Gets the max speed of all the file transfers combined, in kilobytes per second.
+     * 0 means unlimited.
+     *
+     * @return The transfer rate limit.
+     */
+    public int getTransferRateLimit() {
+        return transferRateLimit;
+    }
+
+    /**
+     * Sets the max speed of all the file transfers combined, in kilobytes per second.
+     * 0 means unlimited. Negative values are treated as 0.
+     * Listeners are notified of the change.
+     *
+     * @param transferRateLimit The transfer rate limit.
+     */
+    public void setTransferRateLimit(final int transferRateLimit) {
+        final int newTransferRateLimit = Math.max(0, transferRateLimit);
+
+        if (this.transferRateLimit != newTransferRateLimit) {
+            this.transferRateLimit = newTransferRateLimit;
+            fireSettingChanged(Setting.TRANSFER_RATE_LIMIT);
+        }
+    }
+
+    /**
+     * Gets the max number of files to send at the same time. Other files are queued.
+     *
+     * @return The max number of concurrent sends.
+     */
+    public int getMaxConcurrentSends() {
+        return maxConcurrentSends;
+    }
+
+    /**
+     * Sets the max number of files to send at the same time. Other files are queued.
+     * Values below 1 are treated as 1.
+     * Listeners are notified of the change.
+     *
+     * @param maxConcurrentSends The max number of concurrent sends.
+     */
+    public void setMaxConcurrentSends(final int maxConcurrentSends) {
+        final int newMaxConcurrentSends = Math.max(1, maxConcurrentSends);
+
+        if (this.maxConcurrentSends != newMaxConcurrentSends) {
+            this.maxConcurrentSends = newMaxConcurrentSends;
+            fireSettingChanged(Setting.MAX_CONCURRENT_SENDS);
+        }
+    }
+
+    /**
+     * Gets the max number of files to receive at the same time. Other files are queued.
+     *
+     * @return The max number of concurrent receives.
+     */
+    public int getMaxConcurrentReceives() {
+        return maxConcurrentReceives;
+    }
+
+    /**
+     * Sets the max number of files to receive at the same time. Other files are queued.
+     * Values below 1 are treated as 1.
+     * Listeners are notified of the change.
+     *
+     * @param maxConcurrentReceives The max number of concurrent receives.
+     */
+    public void setMaxConcurrentReceives(final int maxConcurrentReceives) {
+        final int newMaxConcurrentReceives = Math.max(1, maxConcurrentReceives);
+
+        if (this.maxConcurrentReceives != newMaxConcurrentReceives) {
+            this.maxConcurrentReceives = newMaxConcurrentReceives;
+            fireSettingChanged(Setting.MAX_CONCURRENT_RECEIVES);
+        }
+    }
 }
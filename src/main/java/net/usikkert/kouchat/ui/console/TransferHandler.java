@@ -111,6 +111,16 @@ public class TransferHandler implements FileTransferListener {
 
     }
 
+    /**
+     * Shows a message that the file transfer has to wait for other file transfers to finish.
+     */
+    @Override
+    public void statusQueued() {
+        msgController.showSystemMessage(consoleMessages.getMessage("console.transfer.queued.systemMessage",
+                                                                   fileTransfer.getFileName(),
+                                                                   fileTransfer.getUser().getNick()));
+    }
+
     /**
      * Not implemented.
      */
@@ -38,10 +38,8 @@ import net.usikkert.kouchat.misc.MessageController;
 import net.usikkert.kouchat.misc.SoundBeeper;
 import net.usikkert.kouchat.misc.Topic;
 import net.usikkert.kouchat.misc.User;
-import net.usikkert.kouchat.misc.UserList;
 import net.usikkert.kouchat.net.FileReceiver;
 import net.usikkert.kouchat.net.FileSender;
-import net.usikkert.kouchat.net.FileToSend;
 import net.usikkert.kouchat.net.FileTransfer;
 import net.usikkert.kouchat.settings.PropertyFileSettingsSaver;
 import net.usikkert.kouchat.settings.Settings;
@@ -127,7 +125,7 @@ public class SwingMediator implements Mediator, UserInterface {
                 new PropertyFileSettingsSaver(settings, coreMessages, errorHandler);
         controller = new Controller(this, settings, settingsSaver, coreMessages, errorHandler);
         cmdParser = new CommandParser(controller, this, settings, coreMessages);
-        beeper = new SoundBeeper(settings, new ResourceLoader(), errorHandler);
+        beeper = new SoundBeeper(settings, new ResourceLoader(), errorHandler, controller.getTimer());
         jmxAgent = new JMXAgent(controller.createJMXBeanLoader());
 
         sideP.setUserList(controller.getUserList());
@@ -383,6 +381,7 @@ public class SwingMediator implements Mediator, UserInterface {
 
         else {
             final JFileChooser chooser = uiTools.createFileChooser(swingMessages.getMessage("swing.sendFile.chooseFileDialog.title"));
+            chooser.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
 
             if (selectedFile != null && selectedFile.exists()) {
                 chooser.setSelectedFile(selectedFile);
@@ -393,9 +392,9 @@ public class SwingMediator implements Mediator, UserInterface {
             if (returnVal == JFileChooser.APPROVE_OPTION) {
                 final File file = chooser.getSelectedFile().getAbsoluteFile();
 
-                if (file.exists() && file.isFile()) {
+                if (file.exists() && (file.isFile() || file.isDirectory())) {
                     try {
-                        cmdParser.sendFile(user, new FileToSend(file));
+                        cmdParser.sendFileOrFolder(user, file);
                     }
 
                     catch (final CommandException e) {
@@ -759,14 +758,21 @@ public class SwingMediator implements Mediator, UserInterface {
     /**
      * Creates a new {@link TransferDialog} for that {@link FileSender}.
      *
+     * <p>A folder is sent from a background thread, so the dialog is created on the event dispatch thread.</p>
+     *
      * @param fileSend The file sender to create a transfer dialog for.
      */
     @Override
     public void showTransfer(final FileSender fileSend) {
-        final TransferDialog transferDialog =
-                new TransferDialog(this, fileSend, imageLoader, settings, swingMessages, errorHandler);
+        uiTools.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                final TransferDialog transferDialog =
+                        new TransferDialog(SwingMediator.this, fileSend, imageLoader, settings, swingMessages, errorHandler);
 
-        transferDialog.open();
+                transferDialog.open();
+            }
+        });
     }
 
     /**
@@ -800,11 +806,7 @@ public class SwingMediator implements Mediator, UserInterface {
      * @param away If the user is away.
      */
     private void updateAwayInPrivChats(final boolean away) {
-        final UserList list = controller.getUserList();
-
-        for (int i = 0; i < list.size(); i++) {
-            final User user = list.get(i);
-
+        for (final User user : controller.getUserList().getSnapshot()) {
             if (user.getPrivchat() != null) {
                 user.getPrivchat().updateAwayState();
 
@@ -319,6 +319,20 @@ public class TransferDialog extends JDialog implements FileTransferListener, Act
         });
     }
 
+    /**
+     * This method is called from the file transfer object when
+     * it has to wait for other file transfers to finish.
+     */
+    @Override
+    public void statusQueued() {
+        uiTools.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                statusL.setText(swingMessages.getMessage("swing.transferDialog.status.queued"));
+            }
+        });
+    }
+
     /**
      * This method is called from the file transfer object when
      * it is ready to connect.
@@ -431,6 +445,11 @@ public class TransferDialog extends JDialog implements FileTransferListener, Act
                         Tools.byteToString(fileTransfer.getTransferred()),
                         Tools.byteToString(fileTransfer.getFileSize()),
                         Tools.byteToString(fileTransfer.getSpeed())));
+                transferredL.setToolTipText(swingMessages.getMessage("swing.transferDialog.transferred.details",
+                        Tools.byteToString(fileTransfer.getWireTransferred()),
+                        Tools.byteToString(fileTransfer.getWireSpeed()),
+                        Tools.byteToString(fileTransfer.getAverageSpeed()),
+                        createTimeLeftText(fileTransfer.getSecondsLeft())));
                 transferProgressPB.setValue(fileTransfer.getPercent());
                 updateTitle(fileTransfer.getPercent());
             }
@@ -454,4 +473,12 @@ public class TransferDialog extends JDialog implements FileTransferListener, Act
     private String createTransferStatusText(final String transferred, final String fileSize, final String speed) {
         return swingMessages.getMessage("swing.transferDialog.transferred.value", transferred, fileSize, speed);
     }
+
+    private String createTimeLeftText(final long secondsLeft) {
+        if (secondsLeft < 0) {
+            return swingMessages.getMessage("swing.transferDialog.transferred.timeLeftUnknown");
+        }
+
+        return Tools.secondsToString(secondsLeft);
+    }
 }
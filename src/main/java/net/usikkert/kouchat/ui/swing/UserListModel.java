@@ -22,24 +22,58 @@
 
 package net.usikkert.kouchat.ui.swing;
 
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
 import javax.swing.AbstractListModel;
-import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 
 import net.usikkert.kouchat.event.UserListListener;
 import net.usikkert.kouchat.misc.User;
 import net.usikkert.kouchat.misc.UserList;
 
+import org.jetbrains.annotations.Nullable;
+
 /**
  * This is the list model for the user list. It's just a facade above
  * the real list containing the users, so it can deliver events on changes.
  *
+ * <p>Changes to the user list are collected for FRAME_INTERVAL milliseconds before the events
+ * are sent on the event dispatch thread. The model shows a snapshot of the user list, which is only
+ * replaced when the events are sent, and the events are found by comparing the old snapshot with the new.
+ * That way the size and the users in the model always match the events sent so far, even if the user list
+ * changes again before the events are sent.</p>
+ *
+ * <p>A single user added, removed or moved gives the exact event, so the selection in the list follows
+ * the user. Many changes, like when lots of users log on at once, are merged into at most one event
+ * for the change in size and one event for the rows that changed.</p>
+ *
  * @author Christian Ihle
  */
 public class UserListModel extends AbstractListModel implements UserListListener {
 
+    /** Milliseconds to collect changes before sending the events, about one frame. */
+    static final int FRAME_INTERVAL = 40;
+
     /** The real list of users. */
     private final UserList userList;
 
+    /** Sends the collected events when the frame interval is over. */
+    private final Timer flushTimer;
+
+    /** Users changed without moving since the last events were sent. */
+    private final Set<User> changedUsers;
+
+    /** If there are changes since the last events were sent. */
+    private boolean changed;
+
+    /** The users shown in the list, as of the events sent so far. Only used on the event dispatch thread. */
+    private List<User> users;
+
     /**
      * Constructor. Adds this list model as a listener for events
      * from the real user list.
@@ -48,71 +82,260 @@ public class UserListModel extends AbstractListModel implements UserListListener
      */
     public UserListModel(final UserList userList) {
         this.userList = userList;
+
+        flushTimer = new Timer(FRAME_INTERVAL, new ActionListener() {
+            @Override
+            public void actionPerformed(final ActionEvent e) {
+                fireCollectedEvents();
+            }
+        });
+
+        flushTimer.setRepeats(false);
+        changedUsers = createUserSet();
+        users = userList.getSnapshot();
         userList.addUserListListener(this);
     }
 
     /**
-     * Returns the user at the specified index position.
+     * Returns the user at the specified index position, in the snapshot
+     * the last events were sent for.
      *
      * {@inheritDoc}
      */
     @Override
     public User getElementAt(final int index) {
-        return userList.get(index);
+        return users.get(index);
     }
 
     /**
-     * Returns the number of users in the user list.
+     * Returns the number of users in the snapshot the last events were sent for.
      *
      * {@inheritDoc}
      */
     @Override
     public int getSize() {
-        return userList.size();
+        return users.size();
     }
 
     /**
-     * Sends a fireIntervalAdded() event.
+     * Collects a fireIntervalAdded() event.
      *
      * {@inheritDoc}
      */
     @Override
     public void userAdded(final int pos, final User user) {
-        SwingUtilities.invokeLater(new Runnable() {
-            @Override
-            public void run() {
-                fireIntervalAdded(this, pos, pos);
-            }
-        });
+        collectChange(null);
+    }
+
+    /**
+     * Collects a change to the whole list, instead of one event for each of the added users.
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public void usersAdded(final List<User> users) {
+        collectChange(null);
     }
 
     /**
-     * Sends a fireContentsChanged() event.
+     * Collects a fireContentsChanged() event.
      *
      * {@inheritDoc}
      */
     @Override
     public void userChanged(final int pos, final User user) {
-        SwingUtilities.invokeLater(new Runnable() {
-            @Override
-            public void run() {
-                fireContentsChanged(this, pos, pos);
-            }
-        });
+        collectChange(user);
+    }
+
+    /**
+     * Collects a fireIntervalRemoved() event for the old position, and a fireIntervalAdded()
+     * event for the new position, so only the affected rows are updated.
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public void userMoved(final int oldPos, final int newPos, final User user) {
+        collectChange(null);
     }
 
     /**
-     * Sends a fireIntervalRemoved() event.
+     * Collects a fireIntervalRemoved() event.
      *
      * {@inheritDoc}
      */
     @Override
     public void userRemoved(final int pos, final User user) {
-        SwingUtilities.invokeLater(new Runnable() {
-            @Override
-            public void run() {
-                fireIntervalRemoved(this, pos, pos);
+        collectChange(null);
+    }
+
+    /**
+     * Notes that there are changes since the last events were sent, and makes sure the
+     * events are sent when the frame interval is over.
+     *
+     * <p>The positions from the user list are not used, since they can be out of date by the time
+     * the events are sent. The events are found from the snapshots instead.</p>
+     *
+     * @param changedUser The user that changed without moving, or <code>null</code> for other changes.
+     */
+    private synchronized void collectChange(@Nullable final User changedUser) {
+        if (!changed) {
+            changed = true;
+            flushTimer.start();
+        }
+
+        if (changedUser != null) {
+            changedUsers.add(changedUser);
+        }
+    }
+
+    /**
+     * Replaces the snapshot shown in the list with a new snapshot of the user list, and sends the events
+     * for the differences. Runs on the event dispatch thread.
+     */
+    void fireCollectedEvents() {
+        final Set<User> changedUsersCopy = createUserSet();
+
+        synchronized (this) {
+            if (!changed) {
+                return;
             }
-        });
+
+            changed = false;
+            changedUsersCopy.addAll(changedUsers);
+            changedUsers.clear();
+        }
+
+        final List<User> oldUsers = users;
+        final List<User> newUsers = userList.getSnapshot();
+        users = newUsers;
+
+        fireStructureEvents(oldUsers, newUsers);
+        fireChangedUserEvents(newUsers, changedUsersCopy);
+    }
+
+    /**
+     * Sends the events for users that were added, removed or moved between the snapshots.
+     *
+     * <p>The users that are the same at the start and the end of both snapshots are skipped, and the rest
+     * is the part that changed. If that is one user added, removed or moved, the exact event is sent.</p>
+     *
+     * @param oldUsers The snapshot the last events were sent for.
+     * @param newUsers The snapshot to send events for.
+     */
+    private void fireStructureEvents(final List<User> oldUsers, final List<User> newUsers) {
+        final int minSize = Math.min(oldUsers.size(), newUsers.size());
+        int first = 0;
+
+        while (first < minSize && oldUsers.get(first) == newUsers.get(first)) {
+            first++;
+        }
+
+        int lastOld = oldUsers.size() - 1;
+        int lastNew = newUsers.size() - 1;
+
+        while (lastOld >= first && lastNew >= first && oldUsers.get(lastOld) == newUsers.get(lastNew)) {
+            lastOld--;
+            lastNew--;
+        }
+
+        final int oldCount = lastOld - first + 1;
+        final int newCount = lastNew - first + 1;
+
+        if (oldCount == 0 && newCount == 0) {
+            return;
+        }
+
+        if (oldCount == 0) {
+            fireIntervalAdded(this, first, lastNew);
+        }
+
+        else if (newCount == 0) {
+            fireIntervalRemoved(this, first, lastOld);
+        }
+
+        else if (oldCount == newCount && oldCount > 1 && isMovedDown(oldUsers, newUsers, first, lastOld)) {
+            fireIntervalRemoved(this, first, first);
+            fireIntervalAdded(this, lastNew, lastNew);
+        }
+
+        else if (oldCount == newCount && oldCount > 1 && isMovedDown(newUsers, oldUsers, first, lastOld)) {
+            fireIntervalRemoved(this, lastOld, lastOld);
+            fireIntervalAdded(this, first, first);
+        }
+
+        else {
+            final int commonCount = Math.min(oldCount, newCount);
+            fireContentsChanged(this, first, first + commonCount - 1);
+
+            if (newCount > oldCount) {
+                fireIntervalAdded(this, first + commonCount, lastNew);
+            }
+
+            else if (oldCount > newCount) {
+                fireIntervalRemoved(this, first + commonCount, lastOld);
+            }
+        }
+    }
+
+    /**
+     * Checks if the only difference between the snapshots from <code>first</code> to <code>last</code>
+     * is that the user at <code>first</code> in <code>from</code> is at <code>last</code> in <code>to</code>.
+     *
+     * @param from The snapshot where the user is at the first position.
+     * @param to The snapshot where the user is at the last position.
+     * @param first The first position that is different.
+     * @param last The last position that is different.
+     * @return If the user moved down, and the others moved one position up.
+     */
+    private boolean isMovedDown(final List<User> from, final List<User> to, final int first, final int last) {
+        if (from.get(first) != to.get(last)) {
+            return false;
+        }
+
+        for (int i = first + 1; i <= last; i++) {
+            if (from.get(i) != to.get(i - 1)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Sends one event for the rows of the users that changed without moving.
+     *
+     * @param newUsers The snapshot to send events for.
+     * @param changedUsersCopy The users that changed.
+     */
+    private void fireChangedUserEvents(final List<User> newUsers, final Set<User> changedUsersCopy) {
+        if (changedUsersCopy.isEmpty()) {
+            return;
+        }
+
+        int firstChanged = -1;
+        int lastChanged = -1;
+
+        for (int i = 0; i < newUsers.size(); i++) {
+            if (changedUsersCopy.contains(newUsers.get(i))) {
+                if (firstChanged == -1) {
+                    firstChanged = i;
+                }
+
+                lastChanged = i;
+            }
+        }
+
+        if (firstChanged != -1) {
+            fireContentsChanged(this, firstChanged, lastChanged);
+        }
+    }
+
+    /**
+     * Creates a set comparing the users by identity, since the users are changed while in the set.
+     *
+     * @return A new empty set.
+     */
+    private static Set<User> createUserSet() {
+        return Collections.newSetFromMap(new IdentityHashMap<User, Boolean>());
     }
 }
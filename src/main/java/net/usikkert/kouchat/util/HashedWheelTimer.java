@@ -0,0 +1,399 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+package net.usikkert.kouchat.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A timer that runs all the scheduled tasks of the application on a single thread.
+ *
+ * <p>The tasks are kept in a hashed wheel: a ring of buckets, where each bucket holds the tasks
+ * that expire during one tick of the timer. Scheduling and cancelling a task is cheap no matter how many
+ * tasks are pending, at the cost of the tasks running with an accuracy of one tick.
+ * The thread is started when the first task is scheduled, and sleeps while no tasks are pending.</p>
+ *
+ * <p>The tasks are run on the timer thread, one at a time, and should be quick.
+ * A task that may block for a long time must hand the work over to another thread,
+ * to avoid delaying the other tasks.</p>
+ *
+ * @author Christian Ihle
+ */
+public class HashedWheelTimer {
+
+    /** Default accuracy of the timer, in milliseconds. */
+    public static final long DEFAULT_TICK_DURATION = 100;
+
+    /** Default number of buckets in the wheel. One round of the wheel is then about 51 seconds. */
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
+    private static final Logger LOG = Logger.getLogger(HashedWheelTimer.class);
+
+    /** Runs the tasks in the order they should have run, if several expire during the same tick. */
+    private static final Comparator<TimerHandle> DEADLINE_ORDER = new Comparator<TimerHandle>() {
+        @Override
+        public int compare(final TimerHandle handle1, final TimerHandle handle2) {
+            return Long.compare(handle1.getDeadline(), handle2.getDeadline());
+        }
+    };
+
+    private final String name;
+    private final long tickDuration;
+    private final List<Set<TimerHandle>> wheel;
+    private final int mask;
+    private final long startTime;
+
+    /** The last tick where the expired tasks have been collected. */
+    private long processedTick;
+
+    private int pendingCount;
+    private boolean stopped;
+
+    @Nullable
+    private Thread worker;
+
+    /**
+     * Creates a new timer with the default tick duration and wheel size.
+     *
+     * @param name The name of the timer thread.
+     */
+    public HashedWheelTimer(final String name) {
+        this(name, DEFAULT_TICK_DURATION, DEFAULT_WHEEL_SIZE);
+    }
+
+    /**
+     * Creates a new timer.
+     *
+     * @param name The name of the timer thread.
+     * @param tickDuration The accuracy of the timer, in milliseconds.
+     * @param wheelSize The number of buckets in the wheel. Must be a power of 2.
+     */
+    public HashedWheelTimer(final String name, final long tickDuration, final int wheelSize) {
+        Validate.notEmpty(name, "Name can not be empty");
+
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException("Tick duration must be positive");
+        }
+
+        if (wheelSize <= 0 || (wheelSize & (wheelSize - 1)) != 0) {
+            throw new IllegalArgumentException("Wheel size must be a power of 2");
+        }
+
+        this.name = name;
+        this.tickDuration = tickDuration;
+        this.mask = wheelSize - 1;
+        this.startTime = System.nanoTime();
+
+        wheel = new ArrayList<>(wheelSize);
+
+        for (int i = 0; i < wheelSize; i++) {
+            wheel.add(new LinkedHashSet<TimerHandle>());
+        }
+    }
+
+    /**
+     * Schedules a task to run once, after the specified delay.
+     *
+     * @param taskName The name of the task, as shown in the list of pending timers.
+     * @param task The task to run.
+     * @param delay Milliseconds to wait before running the task.
+     * @return A handle to the scheduled task.
+     */
+    public TimerHandle schedule(final String taskName, final Runnable task, final long delay) {
+        Validate.notEmpty(taskName, "Task name can not be empty");
+        Validate.notNull(task, "Task can not be null");
+
+        return add(new TimerHandle(this, taskName, task, 0), delay);
+    }
+
+    /**
+     * Schedules a task to run repeatedly, with a fixed rate, until it's cancelled.
+     *
+     * <p>If the timer falls behind, the missed runs are skipped instead of run all at once.</p>
+     *
+     * @param taskName The name of the task, as shown in the list of pending timers.
+     * @param task The task to run.
+     * @param initialDelay Milliseconds to wait before running the task the first time.
+     * @param period Milliseconds between each run of the task.
+     * @return A handle to the scheduled task.
+     */
+    public TimerHandle scheduleAtFixedRate(final String taskName, final Runnable task,
+                                           final long initialDelay, final long period) {
+        Validate.notEmpty(taskName, "Task name can not be empty");
+        Validate.notNull(task, "Task can not be null");
+
+        if (period <= 0) {
+            throw new IllegalArgumentException("Period must be positive");
+        }
+
+        return add(new TimerHandle(this, taskName, task, period), initialDelay);
+    }
+
+    /**
+     * Gets a snapshot of all the tasks waiting to run, ordered by when they will run.
+     *
+     * @return The pending tasks.
+     */
+    public synchronized List<TimerHandle> getPendingTimers() {
+        final List<TimerHandle> pendingTimers = new ArrayList<>(pendingCount);
+
+        for (final Set<TimerHandle> bucket : wheel) {
+            pendingTimers.addAll(bucket);
+        }
+
+        Collections.sort(pendingTimers, DEADLINE_ORDER);
+
+        return pendingTimers;
+    }
+
+    public synchronized int getPendingTimerCount() {
+        return pendingCount;
+    }
+
+    public long getTickDuration() {
+        return tickDuration;
+    }
+
+    public int getWheelSize() {
+        return wheel.size();
+    }
+
+    /**
+     * Stops the timer. The pending tasks are dropped, and new tasks are cancelled as soon as they are scheduled.
+     */
+    public synchronized void stop() {
+        stopped = true;
+
+        for (final Set<TimerHandle> bucket : wheel) {
+            bucket.clear();
+        }
+
+        pendingCount = 0;
+        notifyAll();
+    }
+
+    public synchronized boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Removes a cancelled task from the wheel. Called by {@link TimerHandle#cancel()}.
+     *
+     * @param handle The cancelled task.
+     */
+    synchronized void cancel(final TimerHandle handle) {
+        if (getBucket(handle.getTick()).remove(handle)) {
+            pendingCount--;
+        }
+    }
+
+    /**
+     * Gets the number of milliseconds until a task will run next. Called by {@link TimerHandle#getDelay()}.
+     *
+     * @param handle The task.
+     * @return Milliseconds until the next run, or 0 if it's due now.
+     */
+    synchronized long getDelay(final TimerHandle handle) {
+        return Math.max(0, handle.getDeadline() - now());
+    }
+
+    private synchronized TimerHandle add(final TimerHandle handle, final long delay) {
+        if (stopped) {
+            LOG.fine("Timer %s is stopped. Cancelling %s", name, handle.getName());
+            handle.cancel();
+            return handle;
+        }
+
+        insert(handle, now() + Math.max(0, delay));
+
+        if (worker == null) {
+            worker = new Thread(new Worker(), name);
+            worker.setDaemon(true);
+            worker.start();
+        }
+
+        notifyAll();
+
+        return handle;
+    }
+
+    /**
+     * Puts the task in the bucket for the tick where the deadline is.
+     * Tasks are never put in a tick that is already processed, so they won't be missed.
+     */
+    private void insert(final TimerHandle handle, final long deadline) {
+        final long deadlineTick = (deadline + tickDuration - 1) / tickDuration;
+        final long tick = Math.max(deadlineTick, processedTick + 1);
+
+        handle.setDeadline(deadline);
+        handle.setTick(tick);
+
+        getBucket(tick).add(handle);
+        pendingCount++;
+    }
+
+    /**
+     * Puts a periodic task back in the wheel after it has run. Runs that were missed
+     * because the timer fell behind are skipped.
+     */
+    private synchronized void reschedule(final TimerHandle handle) {
+        if (stopped || handle.isCancelled()) {
+            return;
+        }
+
+        final long period = handle.getPeriod();
+        final long now = now();
+        long deadline = handle.getDeadline() + period;
+
+        if (deadline < now) {
+            deadline += ((now - deadline) / period + 1) * period;
+        }
+
+        insert(handle, deadline);
+    }
+
+    /**
+     * Waits until the next tick, and collects the tasks that expired.
+     *
+     * @return The expired tasks, or <code>null</code> if the timer was stopped.
+     */
+    @Nullable
+    private synchronized List<TimerHandle> waitForExpiredTimers() {
+        while (!stopped) {
+            if (pendingCount == 0) {
+                // Nothing can be missed when nothing is pending, so skip ahead instead of going through empty ticks
+                processedTick = currentTick();
+                waitFor(0);
+            }
+
+            else {
+                final long sleepTime = (processedTick + 1) * tickDuration - now();
+
+                if (sleepTime > 0) {
+                    waitFor(sleepTime);
+                }
+
+                else {
+                    return collectExpiredTimers();
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Goes through the buckets for all the ticks since the last time, and removes the expired tasks.
+     * If the timer has fallen more than a round behind, each bucket is only checked once.
+     */
+    private List<TimerHandle> collectExpiredTimers() {
+        final long currentTick = currentTick();
+        final long lastTick = Math.min(currentTick, processedTick + wheel.size());
+        final List<TimerHandle> expired = new ArrayList<>();
+
+        for (long tick = processedTick + 1; tick <= lastTick; tick++) {
+            final Iterator<TimerHandle> bucket = getBucket(tick).iterator();
+
+            while (bucket.hasNext()) {
+                final TimerHandle handle = bucket.next();
+
+                if (handle.getTick() <= currentTick) {
+                    bucket.remove();
+                    pendingCount--;
+                    expired.add(handle);
+                }
+            }
+        }
+
+        processedTick = currentTick;
+        Collections.sort(expired, DEADLINE_ORDER);
+
+        return expired;
+    }
+
+    private void waitFor(final long millis) {
+        try {
+            wait(millis);
+        }
+
+        catch (final InterruptedException e) {
+            LOG.fine(e.toString());
+        }
+    }
+
+    private Set<TimerHandle> getBucket(final long tick) {
+        return wheel.get((int) (tick & mask));
+    }
+
+    private long currentTick() {
+        return now() / tickDuration;
+    }
+
+    /**
+     * Milliseconds since the timer was created. Uses {@link System#nanoTime()}, so changes to the
+     * system clock don't affect the timer.
+     */
+    private long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+    }
+
+    /**
+     * Runs the expired tasks, outside of the lock, so the tasks are free to schedule and cancel other tasks.
+     */
+    private class Worker implements Runnable {
+
+        @Override
+        public void run() {
+            List<TimerHandle> expired = waitForExpiredTimers();
+
+            while (expired != null) {
+                for (final TimerHandle handle : expired) {
+                    runTask(handle);
+                }
+
+                expired = waitForExpiredTimers();
+            }
+        }
+
+        private void runTask(final TimerHandle handle) {
+            try {
+                handle.run();
+            }
+
+            catch (final RuntimeException e) {
+                LOG.severe(e, "Timer task %s failed", handle.getName());
+            }
+
+            if (handle.isPeriodic()) {
+                reschedule(handle);
+            }
+        }
+    }
+}
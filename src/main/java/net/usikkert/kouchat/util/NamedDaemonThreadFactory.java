@@ -22,27 +22,33 @@
 
 package net.usikkert.kouchat.util;
 
-import java.util.Timer;
-import java.util.TimerTask;
-
-import org.jetbrains.annotations.NonNls;
+import java.util.concurrent.ThreadFactory;
 
 /**
- * Utility methods for working with timers.
+ * Creates daemon threads with a name, so they don't keep the application running.
  *
  * @author Christian Ihle
  */
-public class TimerTools {
+public class NamedDaemonThreadFactory implements ThreadFactory {
+
+    private final String name;
 
     /**
-     * Schedules a specified one time timer task with the specified delay and name.
+     * Constructor.
      *
-     * @param name Name of the timer task thread.
-     * @param timerTask The timer task to execute.
-     * @param delay Number of milliseconds to wait before executing the timer task.
+     * @param name The name to give the threads.
      */
-    public void scheduleTimerTask(@NonNls final String name, final TimerTask timerTask, final long delay) {
-        final Timer delayedLogonTimer = new Timer(name);
-        delayedLogonTimer.schedule(timerTask, delay);
+    public NamedDaemonThreadFactory(final String name) {
+        Validate.notEmpty(name, "Name can not be empty");
+
+        this.name = name;
+    }
+
+    @Override
+    public Thread newThread(final Runnable runnable) {
+        final Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+
+        return thread;
     }
 }
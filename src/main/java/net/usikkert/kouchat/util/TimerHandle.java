@@ -0,0 +1,151 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+package net.usikkert.kouchat.util;
+
+/**
+ * A handle to a task scheduled with the {@link HashedWheelTimer}.
+ *
+ * <p>Use the handle to cancel the task, or to find out when it will run next.</p>
+ *
+ * @author Christian Ihle
+ */
+public class TimerHandle {
+
+    private final HashedWheelTimer timer;
+    private final String name;
+    private final Runnable task;
+    private final long period;
+
+    /** When the task should run next, in milliseconds since the timer started. */
+    private long deadline;
+
+    /** Which tick of the timer the task belongs to. */
+    private long tick;
+
+    private volatile boolean cancelled;
+    private volatile boolean expired;
+
+    /**
+     * Creates a new handle for a task.
+     *
+     * @param timer The timer the task is scheduled with.
+     * @param name The name of the task, as shown in the list of pending timers.
+     * @param task The task to run.
+     * @param period Milliseconds between each run of a periodic task, or 0 if the task only runs once.
+     */
+    TimerHandle(final HashedWheelTimer timer, final String name, final Runnable task, final long period) {
+        this.timer = timer;
+        this.name = name;
+        this.task = task;
+        this.period = period;
+    }
+
+    /**
+     * Cancels the task. The task will not run after this, but a run already in progress is not stopped.
+     *
+     * @return If the task was cancelled. False if it was already cancelled, or a one time task has already run.
+     */
+    public boolean cancel() {
+        if (cancelled || expired) {
+            return false;
+        }
+
+        cancelled = true;
+        timer.cancel(this);
+
+        return true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Checks if this one time task has been run by the timer. Periodic tasks never expire.
+     *
+     * @return If the task has been run.
+     */
+    public boolean isExpired() {
+        return expired;
+    }
+
+    /**
+     * Checks if the task is waiting to be run by the timer.
+     *
+     * @return If the task is pending.
+     */
+    public boolean isPending() {
+        return !cancelled && !expired;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isPeriodic() {
+        return period > 0;
+    }
+
+    public long getPeriod() {
+        return period;
+    }
+
+    /**
+     * Gets the number of milliseconds until the task will run next.
+     *
+     * @return Milliseconds until the next run, or 0 if it's due now.
+     */
+    public long getDelay() {
+        return timer.getDelay(this);
+    }
+
+    long getDeadline() {
+        return deadline;
+    }
+
+    void setDeadline(final long deadline) {
+        this.deadline = deadline;
+    }
+
+    long getTick() {
+        return tick;
+    }
+
+    void setTick(final long tick) {
+        this.tick = tick;
+    }
+
+    /**
+     * Runs the task, unless it was cancelled in the meantime. Called by the timer thread.
+     */
+    void run() {
+        if (cancelled) {
+            return;
+        }
+
+        if (!isPeriodic()) {
+            expired = true;
+        }
+
+        task.run();
+    }
+}
@@ -61,9 +61,22 @@ public final class Tools {
      * @return The current time.
      */
     public static String getTime() {
-        final int h = Calendar.getInstance().get(Calendar.HOUR_OF_DAY);
-        final int m = Calendar.getInstance().get(Calendar.MINUTE);
-        final int s = Calendar.getInstance().get(Calendar.SECOND);
+        return getTime(System.currentTimeMillis());
+    }
+
+    /**
+     * Creates a timestamp in the format [HH:MM:SS].
+     *
+     * @param time The time in milliseconds.
+     * @return The specified time.
+     */
+    public static String getTime(final long time) {
+        final Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+
+        final int h = calendar.get(Calendar.HOUR_OF_DAY);
+        final int m = calendar.get(Calendar.MINUTE);
+        final int s = calendar.get(Calendar.SECOND);
 
         return "[" + getDoubleDigit(h) + ":" + getDoubleDigit(m) + ":" + getDoubleDigit(s) + "]";
     }
@@ -85,6 +98,19 @@ public final class Tools {
         }
     }
 
+    /**
+     * Converts a number of seconds to a duration like 01:02:03.
+     *
+     * @param seconds The number of seconds to convert.
+     * @return A string with hours, minutes and seconds.
+     */
+    public static String secondsToString(final long seconds) {
+        final long hours = seconds / 3600;
+        final int minutes = (int) (seconds % 3600) / 60;
+
+        return (hours < 10 ? "0" + hours : "" + hours) + ":" + getDoubleDigit(minutes) + ":" + getDoubleDigit((int) (seconds % 60));
+    }
+
     /**
      * Converts a date to a string, in the format specified.
      *
@@ -0,0 +1,255 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Measures the transfer rate of a file transfer.
+ *
+ * <p>Usage:</p>
+ * <ul>
+ *   <li>Run {@link #start(long, Runnable)} just before starting the transfer, with the number of bytes to
+ *       transfer, and the progress callback to run on every tick.</li>
+ *   <li>Then run {@link #addBytes(long)} every time bytes are transferred. This only adds to a counter,
+ *       and is cheap enough to run for every chunk.</li>
+ *   <li>Run {@link #stop()} when the transfer is done.</li>
+ * </ul>
+ *
+ * <p>The rates are calculated on a clock tick every {@link #TICK_INTERVAL} milliseconds, scheduled with
+ * the shared {@link HashedWheelTimer}. The progress callback runs after each tick, so the user interface is updated
+ * at a fixed rate no matter how fast the transfer is. The rates can be read from any thread.</p>
+ *
+ * @author Christian Ihle
+ */
+public class TransferRateMeter {
+
+    /** Milliseconds between each calculation of the rates, and each progress callback. */
+    public static final int TICK_INTERVAL = 200;
+
+    /** How many milliseconds back in time the smoothed rate mostly depends on. */
+    private static final double SMOOTHING_TIME = 3000.0;
+
+    private static final long NANOS_IN_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    /** The timer running the clock tick. */
+    private final HashedWheelTimer timer;
+
+    /** Bytes transferred, updated by the transferring thread. */
+    private final AtomicLong bytes = new AtomicLong();
+
+    private volatile long expectedBytes;
+    private volatile long bytesPerSec;
+    private volatile long smoothedBytesPerSec;
+    private volatile long averageBytesPerSec;
+
+    /** Only used by {@link #tick(long)}. */
+    private long startTime;
+    private long previousTickTime;
+    private long previousTickBytes;
+    private boolean firstTick;
+
+    @Nullable
+    private Runnable progressCallback;
+
+    @Nullable
+    private TimerHandle ticks;
+
+    /**
+     * Constructor.
+     *
+     * @param timer The timer to run the clock tick with.
+     */
+    public TransferRateMeter(final HashedWheelTimer timer) {
+        Validate.notNull(timer, "Timer can not be null");
+
+        this.timer = timer;
+    }
+
+    /**
+     * Resets the meter, and starts the clock tick.
+     *
+     * @param expectedBytesToTransfer The number of bytes to transfer, used for the estimated time left.
+     * @param callback Runs after every tick, on the timer thread. Must be quick. Can be <code>null</code>.
+     */
+    public synchronized void start(final long expectedBytesToTransfer, @Nullable final Runnable callback) {
+        stopTicks();
+        prepare(expectedBytesToTransfer, System.nanoTime());
+        progressCallback = callback;
+
+        ticks = timer.scheduleAtFixedRate("TransferRateMeter", new Runnable() {
+            @Override
+            public void run() {
+                tick(System.nanoTime());
+            }
+        }, TICK_INTERVAL, TICK_INTERVAL);
+    }
+
+    /**
+     * Stops the clock tick, after a final tick to include the last bytes transferred.
+     * Nothing happens if the meter is not started.
+     */
+    public synchronized void stop() {
+        if (ticks != null) {
+            stopTicks();
+            tick(System.nanoTime());
+        }
+    }
+
+    /**
+     * Adds the number of bytes transferred since the last time.
+     *
+     * @param bytesTransferred Number of bytes transferred.
+     */
+    public void addBytes(final long bytesTransferred) {
+        bytes.addAndGet(bytesTransferred);
+    }
+
+    /**
+     * Gets the number of bytes transferred since the meter was started.
+     *
+     * @return Bytes transferred.
+     */
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * Gets the number of bytes per second transferred during the last tick.
+     *
+     * @return The current number of bytes per second.
+     */
+    public long getBytesPerSec() {
+        return bytesPerSec;
+    }
+
+    /**
+     * Gets the number of bytes per second, smoothed with an exponentially weighted moving average
+     * over the last few seconds. This is steadier than {@link #getBytesPerSec()},
+     * while still following changes in speed.
+     *
+     * @return The smoothed number of bytes per second.
+     */
+    public long getSmoothedBytesPerSec() {
+        return smoothedBytesPerSec;
+    }
+
+    /**
+     * Gets the average number of bytes per second since the meter was started.
+     *
+     * @return The average number of bytes per second.
+     */
+    public long getAverageBytesPerSec() {
+        return averageBytesPerSec;
+    }
+
+    /**
+     * Gets the estimated number of seconds until all the expected bytes are transferred,
+     * using the smoothed rate.
+     *
+     * @return Seconds left, or -1 if the rate is 0.
+     */
+    public long getSecondsLeft() {
+        final long rate = smoothedBytesPerSec;
+
+        if (rate <= 0) {
+            return -1;
+        }
+
+        final long bytesLeft = Math.max(0, expectedBytes - bytes.get());
+
+        return (bytesLeft + rate - 1) / rate;
+    }
+
+    /**
+     * Resets the meter to start measuring from the specified time.
+     *
+     * @param expectedBytesToTransfer The number of bytes to transfer.
+     * @param now The current time in nanoseconds.
+     */
+    synchronized void prepare(final long expectedBytesToTransfer, final long now) {
+        expectedBytes = expectedBytesToTransfer;
+        bytes.set(0);
+        bytesPerSec = 0;
+        smoothedBytesPerSec = 0;
+        averageBytesPerSec = 0;
+        startTime = now;
+        previousTickTime = now;
+        previousTickBytes = 0;
+        firstTick = true;
+    }
+
+    /**
+     * Calculates the rates from the bytes added since the previous tick, and runs the progress callback.
+     *
+     * @param now The current time in nanoseconds.
+     */
+    void tick(final long now) {
+        final Runnable callback;
+
+        synchronized (this) {
+            final long timeSpent = now - previousTickTime;
+
+            if (timeSpent <= 0) {
+                return;
+            }
+
+            final long currentBytes = bytes.get();
+            final long currentBytesPerSec = perSecond(currentBytes - previousTickBytes, timeSpent);
+
+            if (firstTick) {
+                smoothedBytesPerSec = currentBytesPerSec;
+                firstTick = false;
+            }
+
+            else {
+                final double weight = 1.0 - Math.exp(-(timeSpent / 1000000.0) / SMOOTHING_TIME);
+                smoothedBytesPerSec = Math.round(smoothedBytesPerSec + weight * (currentBytesPerSec - smoothedBytesPerSec));
+            }
+
+            bytesPerSec = currentBytesPerSec;
+            averageBytesPerSec = perSecond(currentBytes, now - startTime);
+            previousTickTime = now;
+            previousTickBytes = currentBytes;
+            callback = progressCallback;
+        }
+
+        if (callback != null) {
+            callback.run();
+        }
+    }
+
+    private long perSecond(final long bytesTransferred, final long nanos) {
+        return (long) (bytesTransferred * (double) NANOS_IN_SECOND / nanos);
+    }
+
+    private void stopTicks() {
+        if (ticks != null) {
+            ticks.cancel();
+            ticks = null;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.autocomplete;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import net.usikkert.kouchat.junit.ExpectedException;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Test of {@link PrefixIndex}.
+ *
+ * @author Christian Ihle
+ */
+@SuppressWarnings("HardCodedStringLiteral")
+public class PrefixIndexTest {
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    @Test
+    public void addShouldThrowExceptionIfWordIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Word can not be null");
+
+        new PrefixIndex().add(null);
+    }
+
+    @Test
+    public void findShouldThrowExceptionIfPrefixIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Prefix can not be null");
+
+        new PrefixIndex().find(null);
+    }
+
+    @Test
+    public void findShouldReturnNothingFromEmptyIndex() {
+        assertTrue(new PrefixIndex().find("a").isEmpty());
+    }
+
+    @Test
+    public void findShouldReturnWordsStartingWithPrefixInSortedOrderIgnoringCase() {
+        final PrefixIndex index = new PrefixIndex("Niles", "john", "NilsO", "Anna", "nick", "Nora");
+
+        assertEquals(Arrays.asList("nick", "Niles", "NilsO"), index.find("ni"));
+        assertEquals(Arrays.asList("Niles", "NilsO"), index.find("NIL"));
+        assertEquals(Arrays.asList("john"), index.find("J"));
+        assertEquals(Arrays.asList("Anna", "john", "nick", "Niles", "NilsO", "Nora"), index.find(""));
+        assertTrue(index.find("x").isEmpty());
+        assertTrue(index.find("Nilesx").isEmpty());
+    }
+
+    @Test
+    public void findShouldIncludeTheWholeWord() {
+        final PrefixIndex index = new PrefixIndex("/send", "/sendall");
+
+        assertEquals(Arrays.asList("/send", "/sendall"), index.find("/send"));
+        assertEquals(Arrays.asList("/sendall"), index.find("/senda"));
+    }
+
+    @Test
+    public void addShouldKeepWordsThatOnlyDifferInCase() {
+        final PrefixIndex index = new PrefixIndex("test", "Test");
+
+        assertEquals(Arrays.asList("Test", "test"), index.find("t"));
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    public void removeShouldRemoveOnlyTheExactWord() {
+        final PrefixIndex index = new PrefixIndex("test", "Test", "tester");
+
+        assertTrue(index.remove("Test"));
+
+        assertEquals(Arrays.asList("test", "tester"), index.find("t"));
+    }
+
+    @Test
+    public void removeShouldReturnFalseIfWordIsMissing() {
+        final PrefixIndex index = new PrefixIndex("test");
+
+        assertFalse(index.remove("tes"));
+        assertFalse(index.remove("TEST"));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void removeShouldOnlyRemoveOneOfTheSameWord() {
+        final PrefixIndex index = new PrefixIndex("test", "test");
+
+        assertTrue(index.remove("test"));
+
+        assertEquals(Arrays.asList("test"), index.find("test"));
+    }
+}
@@ -0,0 +1,100 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.autocomplete;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import net.usikkert.kouchat.misc.SortedUserList;
+import net.usikkert.kouchat.misc.User;
+import net.usikkert.kouchat.misc.UserList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test of {@link UserAutoCompleteList}.
+ *
+ * @author Christian Ihle
+ */
+@SuppressWarnings("HardCodedStringLiteral")
+public class UserAutoCompleteListTest {
+
+    private UserAutoCompleteList autoCompleteList;
+
+    private UserList userList;
+    private User niles;
+
+    @Before
+    public void setUp() {
+        userList = new SortedUserList();
+        niles = new User("Niles", 1);
+        userList.add(niles);
+
+        autoCompleteList = new UserAutoCompleteList(userList);
+    }
+
+    @Test
+    public void constructorShouldAddUsersAlreadyInTheList() {
+        assertEquals(Arrays.asList("Niles"), autoCompleteList.getSuggestions("n"));
+    }
+
+    @Test
+    public void userAddedShouldAddTheNickName() {
+        userList.add(new User("Nina", 2));
+
+        assertEquals(Arrays.asList("Niles", "Nina"), autoCompleteList.getSuggestions("ni"));
+    }
+
+    @Test
+    public void usersAddedShouldAddAllTheNickNames() {
+        userList.addAll(Arrays.asList(new User("Nina", 2), new User("John", 3)));
+
+        assertEquals(Arrays.asList("Niles", "Nina"), autoCompleteList.getSuggestions("Ni"));
+        assertEquals(Arrays.asList("John"), autoCompleteList.getSuggestions("j"));
+    }
+
+    @Test
+    public void userChangedShouldReplaceTheOldNickName() {
+        niles.setNick("Frasier");
+        userList.update(niles);
+
+        assertTrue(autoCompleteList.getSuggestions("n").isEmpty());
+        assertEquals(Arrays.asList("Frasier"), autoCompleteList.getSuggestions("f"));
+    }
+
+    @Test
+    public void userRemovedShouldRemoveTheNickName() {
+        userList.add(new User("Nina", 2));
+        userList.remove(niles);
+
+        assertEquals(Arrays.asList("Nina"), autoCompleteList.getSuggestions("n"));
+    }
+
+    @Test
+    public void acceptsWordShouldOnlyAcceptValidNickNames() {
+        assertTrue(autoCompleteList.acceptsWord("Niles"));
+        assertFalse(autoCompleteList.acceptsWord("/nick"));
+    }
+}
@@ -32,6 +32,7 @@ import net.usikkert.kouchat.misc.Controller;
 import net.usikkert.kouchat.misc.ErrorHandler;
 import net.usikkert.kouchat.net.ConnectionWorker;
 import net.usikkert.kouchat.settings.Settings;
+import net.usikkert.kouchat.util.HashedWheelTimer;
 
 import org.junit.Before;
 import org.junit.Rule;
@@ -54,6 +55,7 @@ public class JMXBeanLoaderTest {
     @Before
     public void setUp() {
         controller = mock(Controller.class);
+        when(controller.getTimer()).thenReturn(mock(HashedWheelTimer.class));
         connectionWorker = mock(ConnectionWorker.class);
         settings = mock(Settings.class);
         errorHandler = mock(ErrorHandler.class);
@@ -92,16 +94,18 @@ public class JMXBeanLoaderTest {
     }
 
     @Test
-    public void getJMXBeansShouldIncludeThreeBeans() {
+    public void getJMXBeansShouldIncludeFiveBeans() {
         final JMXBeanLoader beanLoader = new JMXBeanLoader(controller, connectionWorker, settings, errorHandler);
 
         final List<JMXBean> jmxBeans = beanLoader.getJMXBeans();
         assertNotNull(jmxBeans);
 
-        assertEquals(3, jmxBeans.size());
+        assertEquals(5, jmxBeans.size());
         assertTrue(containsBeanOfType(jmxBeans, NetworkInformation.class));
         assertTrue(containsBeanOfType(jmxBeans, ControllerInformation.class));
         assertTrue(containsBeanOfType(jmxBeans, GeneralInformation.class));
+        assertTrue(containsBeanOfType(jmxBeans, TransferInformation.class));
+        assertTrue(containsBeanOfType(jmxBeans, TimerInformation.class));
     }
 
     private boolean containsBeanOfType(final List<JMXBean> jmxBeans, final Class<?> theClass) {
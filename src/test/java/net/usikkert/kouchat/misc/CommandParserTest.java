@@ -29,17 +29,26 @@ import java.io.File;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import net.usikkert.kouchat.Constants;
 import net.usikkert.kouchat.junit.ExpectedException;
 import net.usikkert.kouchat.message.CoreMessages;
+import net.usikkert.kouchat.net.ClientCapability;
 import net.usikkert.kouchat.net.FileReceiver;
 import net.usikkert.kouchat.net.FileSender;
 import net.usikkert.kouchat.net.FileToSend;
+import net.usikkert.kouchat.net.FileTransfer;
+import net.usikkert.kouchat.net.MulticastFileSession;
+import net.usikkert.kouchat.net.ServerException;
+import net.usikkert.kouchat.net.TransferExecutor;
 import net.usikkert.kouchat.net.TransferList;
+import net.usikkert.kouchat.net.TransferScheduler;
 import net.usikkert.kouchat.settings.Settings;
 import net.usikkert.kouchat.ui.UserInterface;
 import net.usikkert.kouchat.util.DateTools;
+import net.usikkert.kouchat.util.HashedWheelTimer;
 import net.usikkert.kouchat.util.TestUtils;
 
 import org.joda.time.DateTime;
@@ -66,6 +75,7 @@ public class CommandParserTest {
     private MessageController messageController;
     private Controller controller;
     private TransferList transferList;
+    private TransferExecutor transferExecutor;
     private UserList userList;
     private UserInterface userInterface;
     private Settings settings;
@@ -84,6 +94,9 @@ public class CommandParserTest {
         transferList = mock(TransferList.class);
         when(controller.getTransferList()).thenReturn(transferList);
 
+        transferExecutor = mock(TransferExecutor.class);
+        when(controller.getTransferExecutor()).thenReturn(transferExecutor);
+
         userList = new SortedUserList();
         when(controller.getUserList()).thenReturn(userList);
 
@@ -697,7 +710,8 @@ public class CommandParserTest {
                         "/quit - quit from the chat\n" +
                         "/receive <nick> <id> - accept a file transfer request from a user\n" +
                         "/reject <nick> <id> - reject a file transfer request from a user\n" +
-                        "/send <nick> <file> - send a file to a user\n" +
+                        "/send <nick> <file> - send a file or folder to a user\n" +
+                        "/sendall <file> - send a file to all users at once\n" +
                         "/topic <optional new topic> - prints the current topic, or changes the topic\n" +
                         "/transfers - shows a list of all file transfers and their status\n" +
                         "/users - show the user list\n" +
@@ -865,17 +879,47 @@ public class CommandParserTest {
     }
 
     @Test
-    public void sendShouldReturnIfFileIsDirectory() throws CommandException {
-        setupSomeOne();
+    public void sendShouldSendDirectoryAsBatch() throws CommandException {
+        final User someOne = setupSomeOne();
+        doNothing().when(parser).sendFile(any(User.class), any(FileToSend.class));
 
-        final File directory = new File("target");
+        final File directory = new File("src/test/resources");
         assertTrue(directory.exists());
         assertFalse(directory.isFile());
 
-        parser.parse("/send SomeOne target");
+        parser.parse("/send SomeOne src/test/resources");
 
-        verify(messageController).showSystemMessage("/send - no such file 'target'");
+        // The folder is read in a background thread
+        final ArgumentCaptor<Runnable> taskCaptor = ArgumentCaptor.forClass(Runnable.class);
+        verify(transferExecutor).prepare(taskCaptor.capture());
         verify(parser, never()).sendFile(any(User.class), any(FileToSend.class));
+
+        taskCaptor.getValue().run();
+
+        final ArgumentCaptor<FileToSend> fileCaptor = ArgumentCaptor.forClass(FileToSend.class);
+
+        verify(messageController, never()).showSystemMessage(anyString());
+        verify(parser).sendFile(eq(someOne), fileCaptor.capture());
+
+        assertTrue(fileCaptor.getValue().isBatch());
+        assertEquals("resources", fileCaptor.getValue().getName());
+    }
+
+    @Test
+    public void sendShouldShowSystemMessageIfSendFolderFails() throws CommandException {
+        final User someOne = setupSomeOne();
+        doThrow(new CommandException("Stop that folder")).when(parser).sendFile(any(User.class), any(FileToSend.class));
+
+        parser.parse("/send SomeOne src/test/resources");
+
+        final ArgumentCaptor<Runnable> taskCaptor = ArgumentCaptor.forClass(Runnable.class);
+        verify(transferExecutor).prepare(taskCaptor.capture());
+        verify(messageController, never()).showSystemMessage(anyString());
+
+        taskCaptor.getValue().run();
+
+        verify(messageController).showSystemMessage("Stop that folder");
+        verify(parser).sendFile(eq(someOne), any(FileToSend.class));
     }
 
     @Test
@@ -923,8 +967,132 @@ public class CommandParserTest {
         verify(parser).sendFile(someOne, new FileToSend(file));
     }
 
+    /*
+     * /sendall
+     */
+
+    @Test
+    public void sendAllShouldReturnIfNoArguments() throws CommandException {
+        parser.parse("/sendall");
+
+        verify(messageController).showSystemMessage("/sendall - missing argument <file>");
+        verify(parser, never()).sendFile(any(User.class), any(FileToSend.class));
+    }
+
+    @Test
+    public void sendAllShouldReturnIfFileIsNotFound() throws CommandException {
+        userList.add(new User("SomeOne", 12345678));
+
+        parser.parse("/sendall image.png");
+
+        verify(messageController).showSystemMessage("/sendall - no such file 'image.png'");
+        verify(parser, never()).sendFile(any(User.class), any(FileToSend.class));
+    }
+
+    @Test
+    public void sendAllShouldReturnIfFileIsFolder() throws CommandException {
+        userList.add(new User("SomeOne", 12345678));
+
+        parser.parse("/sendall src/test/resources");
+
+        verify(messageController).showSystemMessage(
+                "/sendall - only files can be sent to all users, not folders 'src/test/resources'");
+        verify(parser, never()).sendFile(any(User.class), any(FileToSend.class));
+    }
+
+    @Test
+    public void sendAllShouldShowSystemMessageIfNoOtherUsers() throws CommandException {
+        parser.parse("/sendall src/test/resources/test-messages.properties");
+
+        verify(messageController).showSystemMessage("/sendall - no other users to send to");
+        verify(parser, never()).sendFile(any(User.class), any(FileToSend.class));
+    }
+
     @Test
-    public void sendFileShouldSendUsingControllerAndAddToTransferListAndShowFileTransfer() throws CommandException {
+    public void sendAllShouldSendNormallyToUsersWithoutMulticastSupport() throws CommandException {
+        final User someOne = new User("SomeOne", 12345678);
+        userList.add(someOne);
+        doNothing().when(parser).sendFile(any(User.class), any(FileToSend.class));
+
+        final File file = new File("src/test/resources/test-messages.properties");
+        parser.parse("/sendall src/test/resources/test-messages.properties");
+
+        verify(messageController, never()).showSystemMessage(anyString());
+        verify(parser).sendFile(someOne, new FileToSend(file));
+        verify(parser, never()).sendMulticastFile(any(User.class), any(FileToSend.class),
+                                                  any(MulticastFileSession.class));
+    }
+
+    @Test
+    public void sendAllShouldShareSessionBetweenUsersWithMulticastSupport() throws CommandException {
+        final User someOne = new User("SomeOne", 12345678);
+        someOne.setCapabilities(Arrays.asList(ClientCapability.MULTICAST_FILE));
+        final User someOther = new User("SomeOther", 12345679);
+        someOther.setCapabilities(Arrays.asList(ClientCapability.MULTICAST_FILE));
+        userList.add(someOne);
+        userList.add(someOther);
+        doNothing().when(parser).sendMulticastFile(any(User.class), any(FileToSend.class),
+                                                   any(MulticastFileSession.class));
+
+        final File file = new File("src/test/resources/test-messages.properties");
+        parser.parse("/sendall src/test/resources/test-messages.properties");
+
+        final ArgumentCaptor<MulticastFileSession> sessionCaptor = ArgumentCaptor.forClass(MulticastFileSession.class);
+
+        verify(messageController, never()).showSystemMessage(anyString());
+        verify(parser).sendMulticastFile(eq(someOne), eq(new FileToSend(file)), sessionCaptor.capture());
+        verify(parser).sendMulticastFile(eq(someOther), eq(new FileToSend(file)), sessionCaptor.capture());
+        verify(parser, never()).sendFile(any(User.class), any(FileToSend.class));
+
+        assertSame(sessionCaptor.getAllValues().get(0), sessionCaptor.getAllValues().get(1));
+        assertEquals(file, sessionCaptor.getValue().getFile());
+        assertFalse(sessionCaptor.getValue().hasRecipients());
+    }
+
+    @Test
+    public void sendAllShouldCloseSessionAndNotSendToAnyUsersIfSessionFailsToStart() throws Exception {
+        final User someOne = new User("SomeOne", 12345678);
+        final User someOther = new User("SomeOther", 12345679);
+        someOther.setCapabilities(Arrays.asList(ClientCapability.MULTICAST_FILE));
+        userList.add(someOne);
+        userList.add(someOther);
+
+        final File file = new File("src/test/resources/test-messages.properties");
+        final MulticastFileSession session = mock(MulticastFileSession.class);
+        when(session.start()).thenThrow(new ServerException("Failed"));
+        doReturn(session).when(parser).createMulticastFileSession(file);
+
+        parser.parse("/sendall src/test/resources/test-messages.properties");
+
+        verify(session).close();
+        verify(messageController).showSystemMessage(
+                "/sendall - failed to start sending 'src/test/resources/test-messages.properties'");
+        verify(parser, never()).sendFile(any(User.class), any(FileToSend.class));
+        verify(parser, never()).sendMulticastFile(any(User.class), any(FileToSend.class),
+                                                  any(MulticastFileSession.class));
+        verifyZeroInteractions(transferList);
+    }
+
+    @Test
+    public void sendMulticastFileShouldSendUsingControllerAndAddToTransferListAndShowFileTransfer()
+            throws CommandException {
+        final User user = new User("User", 123456);
+        final FileToSend file = new FileToSend(new File(""));
+        final FileSender fileSender = mock(FileSender.class);
+        final MulticastFileSession session = mock(MulticastFileSession.class);
+
+        when(transferList.addFileSender(any(User.class), any(FileToSend.class), any(MulticastFileSession.class)))
+                .thenReturn(fileSender);
+
+        parser.sendMulticastFile(user, file, session);
+
+        verify(controller).sendMulticastFile(user, file, session);
+        verify(transferList).addFileSender(user, file, session);
+        verify(userInterface).showTransfer(fileSender);
+    }
+
+    @Test
+    public void sendFileShouldValidateAndAddToTransferListAndShowFileTransfer() throws CommandException {
         final User user = new User("User", 123456);
         final FileToSend file = new FileToSend(new File(""));
         final FileSender fileSender = mock(FileSender.class);
@@ -933,11 +1101,152 @@ public class CommandParserTest {
 
         parser.sendFile(user, file);
 
-        verify(controller).sendFile(user, file);
+        verify(controller).validateSendFile(user, file);
+        verify(controller, never()).sendFile(any(User.class), any(FileToSend.class));
         verify(transferList).addFileSender(user, file);
         verify(userInterface).showTransfer(fileSender);
     }
 
+    @Test
+    public void sendFileShouldNotAddToTransferListIfValidationFails() throws CommandException {
+        final User user = new User("User", 123456);
+        final FileToSend file = new FileToSend(new File(""));
+        doThrow(new CommandException("Not connected")).when(controller).validateSendFile(user, file);
+
+        try {
+            parser.sendFile(user, file);
+            fail("Should have thrown exception");
+        }
+
+        catch (final CommandException e) {
+            assertEquals("Not connected", e.getMessage());
+        }
+
+        verify(transferList, never()).addFileSender(any(User.class), any(FileToSend.class));
+        verifyZeroInteractions(transferExecutor);
+    }
+
+    @Test
+    public void sendFileShouldOfferTheFileFromABackgroundThreadWithoutUsingASendSlot() throws CommandException {
+        final User user = new User("User", 123456);
+        final FileToSend file = new FileToSend(new File(""));
+        final FileSender fileSender = mock(FileSender.class);
+
+        when(transferList.addFileSender(any(User.class), any(FileToSend.class))).thenReturn(fileSender);
+        when(fileSender.getUser()).thenReturn(user);
+        when(fileSender.getFile()).thenReturn(file);
+
+        parser.sendFile(user, file);
+
+        final ArgumentCaptor<Runnable> taskCaptor = ArgumentCaptor.forClass(Runnable.class);
+        verify(transferExecutor).prepare(taskCaptor.capture());
+        verify(controller, never()).sendFile(any(User.class), any(FileToSend.class));
+
+        taskCaptor.getValue().run();
+
+        verify(controller).sendFile(user, file);
+        verify(transferExecutor, never()).execute(any(FileTransfer.class), any(Runnable.class));
+    }
+
+    @Test
+    public void sendFileShouldStillStartTransfersWhenThereAreMoreUnansweredOffersThanSendSlots() throws Exception {
+        final TransferExecutor realTransferExecutor = new TransferExecutor(settings);
+        when(controller.getTransferExecutor()).thenReturn(realTransferExecutor);
+
+        final User user = new User("User", 123456);
+        final int offers = settings.getMaxConcurrentSends() + 2;
+
+        for (int i = 1; i <= offers; i++) {
+            final FileToSend file = new FileToSend(new File("file" + i + ".txt"));
+            final FileSender fileSender = mock(FileSender.class);
+
+            when(fileSender.getUser()).thenReturn(user);
+            when(fileSender.getFile()).thenReturn(file);
+            when(transferList.addFileSender(user, file)).thenReturn(fileSender);
+
+            parser.sendFile(user, file);
+        }
+
+        // Nobody answers the offers
+        verify(controller, timeout(5000).times(offers)).sendFile(eq(user), any(FileToSend.class));
+        assertEquals(0, realTransferExecutor.getRunning(FileTransfer.Direction.SEND));
+        assertEquals(0, realTransferExecutor.getQueued(FileTransfer.Direction.SEND));
+
+        // Then one of the users accepts a file
+        final FileSender acceptedFileSender = mock(FileSender.class);
+        when(acceptedFileSender.getDirection()).thenReturn(FileTransfer.Direction.SEND);
+        final CountDownLatch started = new CountDownLatch(1);
+
+        realTransferExecutor.execute(acceptedFileSender, new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+            }
+        });
+
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void sendFileShouldNotReadTheContentOfTheFileInTheCallingThread() throws Exception {
+        final User user = new User("User", 123456);
+        final FileToSend file = mock(FileToSend.class);
+        final FileSender fileSender = mock(FileSender.class);
+
+        when(file.getName()).thenReturn("big.iso");
+        when(transferList.addFileSender(any(User.class), any(FileToSend.class))).thenReturn(fileSender);
+
+        parser.sendFile(user, file);
+
+        verify(file, never()).getContentHash();
+        verify(file, never()).getInputStream();
+        verify(controller, never()).sendFile(any(User.class), any(FileToSend.class));
+    }
+
+    @Test
+    public void offerFileShouldSendTheOfferWithoutWaitingForAnAnswer() throws CommandException {
+        final User user = new User("User", 123456);
+        final FileToSend file = new FileToSend(new File(""));
+        final FileSender fileSender = mock(FileSender.class);
+
+        when(fileSender.getUser()).thenReturn(user);
+        when(fileSender.getFile()).thenReturn(file);
+
+        parser.offerFile(fileSender);
+
+        verify(controller).sendFile(user, file);
+        verify(fileSender, never()).cancel();
+        verify(transferList, never()).removeFileSender(fileSender);
+        verifyZeroInteractions(transferExecutor);
+    }
+
+    @Test
+    public void offerFileShouldNotSendOfferIfCanceledWhileQueued() throws CommandException {
+        final FileSender fileSender = mock(FileSender.class);
+        when(fileSender.isCanceled()).thenReturn(true);
+
+        parser.offerFile(fileSender);
+
+        verify(controller, never()).sendFile(any(User.class), any(FileToSend.class));
+    }
+
+    @Test
+    public void offerFileShouldCancelAndRemoveFileTransferIfOfferFails() throws CommandException {
+        final User user = new User("User", 123456);
+        final FileToSend file = new FileToSend(new File(""));
+        final FileSender fileSender = mock(FileSender.class);
+
+        when(fileSender.getUser()).thenReturn(user);
+        when(fileSender.getFile()).thenReturn(file);
+        doThrow(new CommandException("User is away")).when(controller).sendFile(user, file);
+
+        parser.offerFile(fileSender);
+
+        verify(messageController).showSystemMessage("User is away");
+        verify(fileSender).cancel();
+        verify(transferList).removeFileSender(fileSender);
+    }
+
     @Test
     public void sendFileShouldShowSystemMessage() throws CommandException {
         final User user = new User("Kelly", 123456);
@@ -1144,6 +1453,20 @@ public class CommandParserTest {
                                                             "  #5 image.png [500.00KB] (12%, 80.00KB/s) to Amy");
     }
 
+    @Test
+    public void transfersShouldShowSystemMessageWithQueuedSender() {
+        final FileSender fileSender = createFileSender(5, "image.png", 500L, 0, 80L, "Amy");
+        when(fileSender.isQueued()).thenReturn(true);
+
+        when(transferList.getFileSenders()).thenReturn(Arrays.asList(fileSender));
+
+        parser.parse("/transfers");
+
+        verify(messageController).showSystemMessage("File transfers:\n" +
+                                                            "- Sending:\n" +
+                                                            "  #5 image.png [500.00KB] (0%, 80.00KB/s) to Amy - queued");
+    }
+
     @Test
     public void transfersShouldShowSystemMessageWithMultipleActiveSenders() {
         final FileSender fileSender1 = createFileSender(1, "video.mp4", 15000L, 44, 56L, "Amy");
@@ -1342,7 +1665,8 @@ public class CommandParserTest {
 
     private FileSender createFileSender(final int id, final String fileName, final long fileSize, final int percent,
                                         final long speed, final String nick) {
-        final FileSender fileSender = spy(new FileSender(new User(nick, 1), createFileToSend(fileName, 1024 * fileSize), id));
+        final FileSender fileSender = spy(new FileSender(new User(nick, 1), createFileToSend(fileName, 1024 * fileSize), id,
+                                                         new TransferScheduler(settings), mock(HashedWheelTimer.class)));
 
         when(fileSender.getPercent()).thenReturn(percent);
         when(fileSender.getSpeed()).thenReturn(1024 * speed);
@@ -1353,7 +1677,8 @@ public class CommandParserTest {
     private FileReceiver createFileReceiver(final int id, final String fileName, final long fileSize, final int percent,
                                             final long speed, final String nick) {
         final FileReceiver fileReceiver =
-                spy(new FileReceiver(new User(nick, 1), createFile(fileName, 0), 1024 * fileSize, id));
+                spy(new FileReceiver(new User(nick, 1), createFile(fileName, 0), 1024 * fileSize, id,
+                                     new TransferScheduler(settings), mock(HashedWheelTimer.class)));
 
         when(fileReceiver.getPercent()).thenReturn(percent);
         when(fileReceiver.getSpeed()).thenReturn(1024 * speed);
@@ -27,24 +27,29 @@ import static org.mockito.Mockito.*;
 
 import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
 
 import net.usikkert.kouchat.event.NetworkConnectionListener;
 import net.usikkert.kouchat.junit.ExpectedException;
 import net.usikkert.kouchat.message.CoreMessages;
+import net.usikkert.kouchat.net.ChatHistory;
+import net.usikkert.kouchat.net.ClientCapability;
 import net.usikkert.kouchat.net.FileReceiver;
 import net.usikkert.kouchat.net.FileSender;
 import net.usikkert.kouchat.net.FileToSend;
+import net.usikkert.kouchat.net.HistoryRequester;
 import net.usikkert.kouchat.net.NetworkMessages;
 import net.usikkert.kouchat.net.NetworkService;
 import net.usikkert.kouchat.net.TransferList;
+import net.usikkert.kouchat.net.TransferScheduler;
 import net.usikkert.kouchat.settings.Settings;
 import net.usikkert.kouchat.settings.SettingsSaver;
 import net.usikkert.kouchat.ui.PrivateChatWindow;
 import net.usikkert.kouchat.ui.UserInterface;
 import net.usikkert.kouchat.util.DateTestUtils;
 import net.usikkert.kouchat.util.DateTools;
+import net.usikkert.kouchat.util.HashedWheelTimer;
 import net.usikkert.kouchat.util.TestUtils;
-import net.usikkert.kouchat.util.TimerTools;
 
 import org.junit.Before;
 import org.junit.Rule;
@@ -67,9 +72,10 @@ public class ControllerTest {
 
     private NetworkMessages networkMessages;
     private NetworkService networkService;
-    private IdleThread idleThread;
+    private IdleTimer idleTimer;
     private DayTimer dayTimer;
     private TransferList transferList;
+    private TransferScheduler transferScheduler;
     private MessageController messageController;
     private UserInterface ui;
     private Settings settings;
@@ -77,7 +83,7 @@ public class ControllerTest {
     private CoreMessages coreMessages;
     private ErrorHandler errorHandler;
     private DateTools dateTools;
-    private TimerTools timerTools;
+    private HashedWheelTimer timer;
 
     private User me;
     private User otherUser;
@@ -102,11 +108,11 @@ public class ControllerTest {
         networkMessages = TestUtils.setFieldValueWithMock(controller, "networkMessages", NetworkMessages.class);
         networkService = TestUtils.setFieldValueWithMock(controller, "networkService", NetworkService.class);
 
-        // The idle thread makes tests fail randomly, because it sometimes runs in parallel and removes idle users...
-        final IdleThread realIdleThread = TestUtils.getFieldValue(controller, IdleThread.class, "idleThread");
-        realIdleThread.stopThread();
+        // The idle timer makes tests fail randomly, because it sometimes runs in parallel and removes idle users...
+        final IdleTimer realIdleTimer = TestUtils.getFieldValue(controller, IdleTimer.class, "idleTimer");
+        realIdleTimer.stop();
 
-        idleThread = TestUtils.setFieldValueWithMock(controller, "idleThread", IdleThread.class);
+        idleTimer = TestUtils.setFieldValueWithMock(controller, "idleTimer", IdleTimer.class);
         dayTimer = TestUtils.setFieldValueWithMock(controller, "dayTimer", DayTimer.class);
 
         final UserListController userListController =
@@ -114,8 +120,10 @@ public class ControllerTest {
         userList = userListController.getUserList();
 
         transferList = TestUtils.setFieldValueWithMock(controller, "tList", TransferList.class);
+        transferScheduler = mock(TransferScheduler.class);
+        when(transferList.getTransferScheduler()).thenReturn(transferScheduler);
         dateTools = TestUtils.setFieldValueWithMock(controller, "dateTools", DateTools.class);
-        timerTools = TestUtils.setFieldValueWithMock(controller, "timerTools", TimerTools.class);
+        timer = TestUtils.setFieldValueWithMock(controller, "timer", HashedWheelTimer.class);
 
         // The shutdown hook makes tests fail randomly, because it sometimes runs in parallel...
         final Thread shutdownHook = TestUtils.getFieldValue(controller, Thread.class, "shutdownHook");
@@ -166,29 +174,32 @@ public class ControllerTest {
     public void updateMeWritingShouldUpdateMeAndNotifyOthersOnlyWhenStateChanges() {
         assertFalse(me.isWriting());
 
+        final WritingNotifier writingNotifier =
+                TestUtils.setFieldValueWithMock(controller, "writingNotifier", WritingNotifier.class);
+
         // Not writing - nothing happens
         controller.updateMeWriting(false);
-        verifyZeroInteractions(networkMessages);
+        verifyZeroInteractions(writingNotifier);
         assertFalse(me.isWriting());
 
         // Wrote something - notify others and update me
         controller.updateMeWriting(true);
-        verify(networkMessages).sendWritingMessage();
+        verify(writingNotifier).writingChanged(true);
         assertTrue(me.isWriting());
 
-        // Continues to write - nothing happens
+        // Continues to write - only a refresh, if it's time
         controller.updateMeWriting(true);
-        verifyNoMoreInteractions(networkMessages);
+        verify(writingNotifier).stillWriting();
         assertTrue(me.isWriting());
 
         // Stopped writing - notify others and update me
         controller.updateMeWriting(false);
-        verify(networkMessages).sendStoppedWritingMessage();
+        verify(writingNotifier).writingChanged(false);
         assertFalse(me.isWriting());
 
         // Still not writing - nothing happens
         controller.updateMeWriting(false);
-        verifyNoMoreInteractions(networkMessages);
+        verifyNoMoreInteractions(writingNotifier);
         assertFalse(me.isWriting());
     }
 
@@ -302,7 +313,7 @@ public class ControllerTest {
     public void shutdownShouldStopThreadsAndShutdownTheMessageController() {
         controller.shutdown();
 
-        verify(idleThread).stopThread();
+        verify(idleTimer).stop();
         verify(dayTimer).stopTimer();
         verify(messageController).shutdown();
     }
@@ -374,6 +385,16 @@ public class ControllerTest {
         verify(chatLogger).close();
     }
 
+    @Test
+    public void logOffShouldStopRequestingChatHistory() {
+        final HistoryRequester historyRequester =
+                TestUtils.setFieldValueWithMock(controller, "historyRequester", HistoryRequester.class);
+
+        controller.logOff(false);
+
+        verify(historyRequester).stop();
+    }
+
     @Test
     public void logOffShouldClosePrivateChatLoggersWhenRemoveUsersIsTrue() {
         final User user1 = new User("User1", 124);
@@ -493,7 +514,7 @@ public class ControllerTest {
         controller.start();
 
         verify(dayTimer).startTimer();
-        verify(idleThread).start();
+        verify(idleTimer).start();
 
         verify(messageController).showSystemMessage("Welcome to KouChat!");
         verify(messageController).showSystemMessage("Today is X-mass");
@@ -527,9 +548,73 @@ public class ControllerTest {
         controller.changeAwayStatus(me.getCode(), true, "this is the message");
 
         verify(networkMessages).sendAwayMessage("this is the message");
+        verify(networkMessages).sendAwayPresenceMessage(true, "this is the message");
         verify(userListController).changeAwayStatus(me.getCode(), true, "this is the message");
     }
 
+    @Test
+    public void changeAwayStatusToAwayWithMeShouldOnlySendPresenceMessageIfAllUsersSupportPresence()
+            throws CommandException {
+        when(controller.isLoggedOn()).thenReturn(true);
+        final UserListController userListController =
+                TestUtils.setFieldValueWithMock(controller, "userListController", UserListController.class);
+        when(userListController.isCapabilitySupportedByAll(ClientCapability.PRESENCE)).thenReturn(true);
+        final int initialVersion = me.getPresenceVersion();
+
+        controller.changeAwayStatus(me.getCode(), true, "this is the message");
+
+        verify(networkMessages, never()).sendAwayMessage(anyString());
+        verify(networkMessages).sendAwayPresenceMessage(true, "this is the message");
+        verify(userListController).changeAwayStatus(me.getCode(), true, "this is the message");
+        assertEquals(initialVersion + 1, me.getPresenceVersion());
+    }
+
+    @Test
+    public void sendChatHistoryShouldSendAllMessagesWhenAgeIsNegative() {
+        final ChatHistory.Entry oldEntry = new ChatHistory.Entry(1000, 100, "Niles", 200, "Old");
+        controller.getChatHistory().add(oldEntry);
+        final User user = new User("Niles", 100);
+
+        controller.sendChatHistory(user, -1);
+
+        verify(networkMessages).sendHistory(user, Arrays.asList(oldEntry));
+    }
+
+    @Test
+    public void sendChatHistoryShouldOnlySendMessagesWithinTheAge() {
+        final ChatHistory.Entry oldEntry = new ChatHistory.Entry(1000, 100, "Niles", 200, "Old");
+        final ChatHistory.Entry newEntry = new ChatHistory.Entry(System.currentTimeMillis() - 1000, 100, "Niles", 200, "New");
+        controller.getChatHistory().add(oldEntry);
+        controller.getChatHistory().add(newEntry);
+        final User user = new User("Niles", 100);
+
+        controller.sendChatHistory(user, 60000);
+
+        verify(networkMessages).sendHistory(user, Arrays.asList(newEntry));
+    }
+
+    @Test
+    public void resendMessagesShouldAllowSendingToAllUsersIfAllUsersSupportMessageSequence() {
+        final UserListController userListController =
+                TestUtils.setFieldValueWithMock(controller, "userListController", UserListController.class);
+        when(userListController.isCapabilitySupportedByAll(ClientCapability.MESSAGE_SEQUENCE)).thenReturn(true);
+        final User user = new User("Niles", 100);
+
+        controller.resendMessages(user, false, Arrays.asList(1, 2));
+
+        verify(networkMessages).resendMessages(user, false, Arrays.asList(1, 2), true);
+    }
+
+    @Test
+    public void resendMessagesShouldNotAllowSendingToAllUsersIfSomeUsersDoNotSupportMessageSequence() {
+        TestUtils.setFieldValueWithMock(controller, "userListController", UserListController.class);
+        final User user = new User("Niles", 100);
+
+        controller.resendMessages(user, true, Arrays.asList(3));
+
+        verify(networkMessages).resendMessages(user, true, Arrays.asList(3), false);
+    }
+
     @Test
     public void changeAwayStatusToAwayShouldTrimAwayMessage() throws CommandException {
         when(controller.isLoggedOn()).thenReturn(true);
@@ -551,6 +636,7 @@ public class ControllerTest {
         controller.changeAwayStatus(me.getCode(), false, "");
 
         verify(networkMessages).sendBackMessage();
+        verify(networkMessages).sendAwayPresenceMessage(false, "");
         verify(userListController).changeAwayStatus(me.getCode(), false, "");
     }
 
@@ -626,11 +712,29 @@ public class ControllerTest {
 
     @Test
     public void changeMyNickShouldSendMessageAndChangeNickAndSave() throws CommandException {
+        userList.add(new User("Niles", 100));
+        final int initialVersion = me.getPresenceVersion();
+
         controller.changeMyNick("kelly");
 
         verify(networkMessages).sendNickMessage("kelly");
+        verify(networkMessages).sendNickPresenceMessage("kelly");
         verify(controller).changeNick(me.getCode(), "kelly");
         verify(controller).saveSettings();
+        assertEquals(initialVersion + 1, me.getPresenceVersion());
+    }
+
+    @Test
+    public void changeMyNickShouldOnlySendPresenceMessageIfAllUsersSupportPresence() throws CommandException {
+        final User niles = new User("Niles", 100);
+        niles.setCapabilities(Arrays.asList(ClientCapability.PRESENCE));
+        userList.add(niles);
+
+        controller.changeMyNick("kelly");
+
+        verify(networkMessages, never()).sendNickMessage(anyString());
+        verify(networkMessages).sendNickPresenceMessage("kelly");
+        verify(controller).changeNick(me.getCode(), "kelly");
     }
 
     @Test
@@ -690,6 +794,79 @@ public class ControllerTest {
         verify(networkMessages).sendChatMessage("the message");
     }
 
+    @Test
+    public void sendChatMessageShouldTellTransferSchedulerAboutChatTraffic() throws CommandException {
+        doReturn(true).when(controller).isConnected();
+
+        controller.sendChatMessage("the message");
+
+        verify(transferScheduler).chatTrafficSent();
+    }
+
+    @Test
+    public void sendChatMessageShouldTellWritingNotifierThatTheMessageWasSent() throws CommandException {
+        doReturn(true).when(controller).isConnected();
+        final WritingNotifier writingNotifier =
+                TestUtils.setFieldValueWithMock(controller, "writingNotifier", WritingNotifier.class);
+
+        controller.sendChatMessage("the message");
+
+        final InOrder inOrder = inOrder(networkMessages, writingNotifier);
+        inOrder.verify(networkMessages).sendChatMessage("the message");
+        inOrder.verify(writingNotifier).chatMessageSent();
+    }
+
+    @Test
+    public void sendChatMessageShouldNotTellWritingNotifierIfTheMessageWasNotSent() {
+        doReturn(false).when(controller).isConnected();
+        final WritingNotifier writingNotifier =
+                TestUtils.setFieldValueWithMock(controller, "writingNotifier", WritingNotifier.class);
+
+        try {
+            controller.sendChatMessage("the message");
+            fail("Should have thrown exception");
+        }
+
+        catch (final CommandException e) {
+            assertEquals("You can not send a chat message without being connected", e.getMessage());
+        }
+
+        verifyZeroInteractions(writingNotifier);
+    }
+
+    @Test
+    public void sendChatMessageShouldAddTheMessageToTheChatHistory() throws CommandException {
+        doReturn(true).when(controller).isConnected();
+        final long before = System.currentTimeMillis();
+
+        controller.sendChatMessage("the message");
+
+        final List<ChatHistory.Entry> entries = controller.getChatHistory().getEntriesSince(0);
+        assertEquals(1, entries.size());
+        assertTrue(entries.get(0).getTime() >= before);
+        assertTrue(entries.get(0).getTime() <= System.currentTimeMillis());
+        assertEquals(me.getCode(), entries.get(0).getUserCode());
+        assertEquals(me.getNick(), entries.get(0).getNick());
+        assertEquals(settings.getOwnColor(), entries.get(0).getColor());
+        assertEquals("the message", entries.get(0).getMessage());
+    }
+
+    @Test
+    public void sendChatMessageShouldNotAddTheMessageToTheChatHistoryIfTheMessageWasNotSent() {
+        doReturn(true).when(controller).isConnected();
+
+        try {
+            controller.sendChatMessage(" ");
+            fail("Should have thrown exception");
+        }
+
+        catch (final CommandException e) {
+            assertEquals("You can not send an empty chat message", e.getMessage());
+        }
+
+        assertTrue(controller.getChatHistory().getEntriesSince(0).isEmpty());
+    }
+
     @Test
     public void changeTopicShouldThrowExceptionIfNotLoggedOn() throws CommandException {
         expectedException.expect(CommandException.class);
@@ -841,13 +1018,23 @@ public class ControllerTest {
         verify(networkMessages).sendPrivateMessage("the private message", otherUser);
     }
 
+    @Test
+    public void sendPrivateMessageShouldTellTransferSchedulerAboutChatTraffic() throws CommandException {
+        doReturn(true).when(controller).isConnected();
+        otherUser.setPrivateChatPort(10);
+
+        controller.sendPrivateMessage("the private message", otherUser);
+
+        verify(transferScheduler).chatTrafficSent();
+    }
+
     @Test
     public void networkCameUpShouldStartDelayedLogOnTimerIfNotLoggedOn() {
         assertFalse(controller.isLoggedOn());
 
         controller.networkCameUp(true);
 
-        verify(timerTools).scheduleTimerTask(eq("DelayedLogonTimer"), any(DelayedLogonTask.class), eq(1500L));
+        verify(timer).schedule(eq("DelayedLogonTimer"), any(DelayedLogonTask.class), eq(1500L));
     }
 
     @Test
@@ -891,6 +1078,27 @@ public class ControllerTest {
         verify(messageController, never()).showSystemMessage(anyString());
     }
 
+    @Test
+    public void networkCameUpShouldRequestChatHistoryIfLoggedOn() {
+        doReturn(true).when(controller).isLoggedOn();
+        final HistoryRequester historyRequester =
+                TestUtils.setFieldValueWithMock(controller, "historyRequester", HistoryRequester.class);
+
+        controller.networkCameUp(true);
+
+        verify(historyRequester).requestHistory();
+    }
+
+    @Test
+    public void networkCameUpShouldNotRequestChatHistoryIfNotLoggedOn() {
+        final HistoryRequester historyRequester =
+                TestUtils.setFieldValueWithMock(controller, "historyRequester", HistoryRequester.class);
+
+        controller.networkCameUp(true);
+
+        verifyZeroInteractions(historyRequester);
+    }
+
     @Test
     public void networkCameUpShouldSendMessagesToDiscoverChatStateIfLoggedOn() {
         doReturn(true).when(controller).isLoggedOn();
@@ -24,14 +24,13 @@ package net.usikkert.kouchat.misc;
 
 import static org.mockito.Mockito.*;
 
-import java.util.Date;
-import java.util.Timer;
-
 import net.usikkert.kouchat.ui.UserInterface;
-import net.usikkert.kouchat.util.TestUtils;
+import net.usikkert.kouchat.util.HashedWheelTimer;
+import net.usikkert.kouchat.util.TimerHandle;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentMatcher;
 
 /**
  * Test of {@link DayTimer}.
@@ -42,27 +41,42 @@ public class DayTimerTest {
 
     private DayTimer dayTimer;
 
-    private Timer timer;
+    private HashedWheelTimer timer;
+    private TimerHandle timerHandle;
 
     @Before
     public void setUp() {
-        dayTimer = new DayTimer(mock(UserInterface.class));
+        timer = mock(HashedWheelTimer.class);
+        timerHandle = mock(TimerHandle.class);
+        when(timer.scheduleAtFixedRate(anyString(), any(Runnable.class), anyLong(), anyLong())).thenReturn(timerHandle);
 
-        timer = mock(Timer.class);
-        TestUtils.setFieldValue(dayTimer, "timer", timer);
+        dayTimer = new DayTimer(mock(UserInterface.class), timer);
     }
 
     @Test
     public void startTimerShouldScheduleAtFixedRate() {
         dayTimer.startTimer();
 
-        verify(timer).scheduleAtFixedRate(eq(dayTimer), any(Date.class), eq(1000L * 60L * 60L));
+        verify(timer).scheduleAtFixedRate(eq("DayTimer"), eq(dayTimer), longThat(new ArgumentMatcher<Long>() {
+            @Override
+            public boolean matches(final Long delay) {
+                return delay > 0 && delay <= 1000L * 60L * 60L;
+            }
+        }), eq(1000L * 60L * 60L));
     }
 
     @Test
     public void stopTimerShouldCancel() {
+        dayTimer.startTimer();
+        dayTimer.stopTimer();
+
+        verify(timerHandle).cancel();
+    }
+
+    @Test
+    public void stopTimerShouldDoNothingIfNotStarted() {
         dayTimer.stopTimer();
 
-        verify(timer).cancel();
+        verifyZeroInteractions(timer);
     }
 }
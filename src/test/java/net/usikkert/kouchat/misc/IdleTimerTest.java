@@ -0,0 +1,329 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.misc;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import net.usikkert.kouchat.junit.ExpectedException;
+import net.usikkert.kouchat.settings.Settings;
+import net.usikkert.kouchat.ui.UserInterface;
+import net.usikkert.kouchat.util.HashedWheelTimer;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentMatcher;
+
+/**
+ * Test of {@link IdleTimer}.
+ *
+ * @author Christian Ihle
+ */
+public class IdleTimerTest {
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    private IdleTimer idleTimer;
+
+    private HashedWheelTimer timer;
+    private Controller controller;
+    private MessageController msgController;
+    private SortedUserList userList;
+    private User me;
+
+    @Before
+    public void setUp() {
+        controller = mock(Controller.class);
+        msgController = mock(MessageController.class);
+        userList = new SortedUserList();
+        me = new User("Me", 100);
+        me.setMe(true);
+        me.setLastIdle(0);
+        userList.add(me);
+
+        final UserInterface ui = mock(UserInterface.class);
+        when(ui.getMessageController()).thenReturn(msgController);
+
+        final Settings settings = mock(Settings.class);
+        when(settings.getMe()).thenReturn(me);
+
+        when(controller.getUserList()).thenReturn(userList);
+
+        timer = mock(HashedWheelTimer.class);
+        idleTimer = new IdleTimer(controller, ui, settings, timer);
+    }
+
+    @Test
+    public void constructorShouldThrowExceptionIfTimerIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Timer can not be null");
+
+        new IdleTimer(controller, mock(UserInterface.class), mock(Settings.class), null);
+    }
+
+    @Test
+    public void runShouldSendIdleMessage() {
+        idleTimer.run();
+
+        verify(controller).sendIdleMessage();
+    }
+
+    @Test
+    public void runShouldRemoveUsersThatTimedOut() {
+        final User john = createUser("John", 1, 0);
+        userList.add(john);
+
+        idleTimer.run();
+
+        verify(controller).removeUser(john, "John timed out");
+        verify(msgController).showSystemMessage("John timed out");
+        verify(controller).updateAfterTimeout();
+    }
+
+    @Test
+    public void runShouldNotRemoveUsersThatHaveNotTimedOut() {
+        final User john = createUser("John", 1, System.currentTimeMillis());
+        userList.add(john);
+
+        idleTimer.run();
+
+        verify(controller, never()).removeUser(any(User.class), anyString());
+        verify(controller, never()).updateAfterTimeout();
+    }
+
+    @Test
+    public void runShouldNeverRemoveMe() {
+        idleTimer.run();
+
+        verify(controller, never()).removeUser(any(User.class), anyString());
+    }
+
+    @Test
+    public void runShouldNotRemoveUsersThatWereRescheduled() {
+        final User john = createUser("John", 1, 0);
+        userList.add(john);
+
+        john.setLastIdle(System.currentTimeMillis());
+        idleTimer.rescheduleTimeout(john);
+
+        idleTimer.run();
+
+        verify(controller, never()).removeUser(any(User.class), anyString());
+    }
+
+    @Test
+    public void runShouldNotRemoveUsersWithUpdatedIdleTimeEvenIfNotRescheduled() {
+        final User john = createUser("John", 1, 0);
+        userList.add(john);
+
+        john.setLastIdle(System.currentTimeMillis());
+
+        idleTimer.run();
+        idleTimer.run();
+
+        verify(controller, never()).removeUser(any(User.class), anyString());
+    }
+
+    @Test
+    public void runShouldNotRemoveUsersThatWereRemovedFromTheUserList() {
+        final User john = createUser("John", 1, 0);
+        userList.add(john);
+        userList.remove(john);
+
+        idleTimer.run();
+
+        verify(controller, never()).removeUser(any(User.class), anyString());
+    }
+
+    @Test
+    public void rescheduleTimeoutShouldThrowExceptionIfUserIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("User can not be null");
+
+        idleTimer.rescheduleTimeout(null);
+    }
+
+    @Test
+    public void startShouldScheduleFirstRunImmediatelyAndAnnounceTheShortestInterval() {
+        idleTimer.start();
+
+        verify(timer).schedule("IdleTimer", idleTimer, 0);
+        assertEquals(IdleTimer.IDLE_TIME, me.getIdleInterval());
+    }
+
+    @Test
+    public void startShouldOnlyScheduleOnce() {
+        idleTimer.start();
+        idleTimer.start();
+
+        verify(timer).schedule("IdleTimer", idleTimer, 0);
+    }
+
+    @Test
+    public void runShouldScheduleNextRunWithJitter() {
+        idleTimer.start();
+        idleTimer.run();
+
+        verify(timer).schedule(eq("IdleTimer"), eq(idleTimer), longThat(new ArgumentMatcher<Long>() {
+            @Override
+            public boolean matches(final Long delay) {
+                return delay >= 13500 && delay <= 16500;
+            }
+        }));
+    }
+
+    @Test
+    public void runShouldNotScheduleNextRunAfterStop() {
+        idleTimer.start();
+        idleTimer.stop();
+        idleTimer.run();
+
+        verify(timer).schedule(anyString(), any(Runnable.class), anyLong());
+    }
+
+    @Test
+    public void runShouldAnnounceNewIntervalWhenNumberOfUsersGrows() {
+        when(controller.isConnected()).thenReturn(true);
+        idleTimer.start();
+        addUsers(25, 30000);
+
+        idleTimer.run();
+
+        assertEquals(30000, me.getIdleInterval());
+        verify(controller).sendClientInfo();
+    }
+
+    @Test
+    public void runShouldNotAnnounceIntervalThatDidNotChange() {
+        when(controller.isConnected()).thenReturn(true);
+        idleTimer.start();
+
+        idleTimer.run();
+
+        verify(controller, never()).sendClientInfo();
+    }
+
+    @Test
+    public void runShouldNotAnnounceNewIntervalWhenNotConnected() {
+        idleTimer.start();
+        addUsers(25, 30000);
+
+        idleTimer.run();
+
+        assertEquals(30000, me.getIdleInterval());
+        verify(controller, never()).sendClientInfo();
+    }
+
+    @Test
+    public void runShouldUseTimeoutScaledToTheIntervalOfTheUser() {
+        final User john = createUser("John", 1, System.currentTimeMillis() - 200000);
+        john.setIdleInterval(60000);
+        userList.add(john);
+
+        idleTimer.run();
+
+        verify(controller, never()).removeUser(any(User.class), anyString());
+    }
+
+    @Test
+    public void calculateIdleTimeShouldUseShortestIntervalInSmallChat() {
+        addUsers(18, 15000);
+
+        assertEquals(15000, idleTimer.calculateIdleTime());
+    }
+
+    @Test
+    public void calculateIdleTimeShouldGrowWithTheNumberOfUsers() {
+        addUsers(19, 15000);
+        assertEquals(30000, idleTimer.calculateIdleTime());
+
+        addUsers(10, 15000);
+        assertEquals(45000, idleTimer.calculateIdleTime());
+
+        addUsers(10, 15000);
+        assertEquals(60000, idleTimer.calculateIdleTime());
+    }
+
+    @Test
+    public void calculateIdleTimeShouldNotGrowBeyondMaxIdleTime() {
+        addUsers(200, 15000);
+
+        assertEquals(IdleTimer.MAX_IDLE_TIME, idleTimer.calculateIdleTime());
+    }
+
+    @Test
+    public void calculateIdleTimeShouldUseLegacyMaxIdleTimeWhenUsersHaveNotAnnouncedAnInterval() {
+        addUsers(199, 15000);
+        userList.add(createUser("Legacy", 9999, System.currentTimeMillis()));
+
+        assertEquals(IdleTimer.LEGACY_MAX_IDLE_TIME, idleTimer.calculateIdleTime());
+    }
+
+    @Test
+    public void addJitterShouldStayWithinJitterPercentOfTheInterval() {
+        for (int i = 0; i < 1000; i++) {
+            final long idleTime = idleTimer.addJitter(60000);
+
+            assertTrue(idleTime >= 54000);
+            assertTrue(idleTime <= 66000);
+        }
+    }
+
+    @Test
+    public void getTimeoutShouldUseDefaultTimeoutForUsersWithoutInterval() {
+        assertEquals(IdleTimer.TIMEOUT, idleTimer.getTimeout(new User("Legacy", 1)));
+    }
+
+    @Test
+    public void getTimeoutShouldScaleWithTheIntervalOfTheUser() {
+        final User user = new User("John", 1);
+
+        user.setIdleInterval(15000);
+        assertEquals(120000, idleTimer.getTimeout(user));
+
+        user.setIdleInterval(30000);
+        assertEquals(240000, idleTimer.getTimeout(user));
+
+        user.setIdleInterval(60000);
+        assertEquals(480000, idleTimer.getTimeout(user));
+    }
+
+    private void addUsers(final int count, final int idleInterval) {
+        final int start = userList.size();
+
+        for (int i = start; i < start + count; i++) {
+            final User user = createUser("User" + i, 1000 + i, System.currentTimeMillis());
+            user.setIdleInterval(idleInterval);
+            userList.add(user);
+        }
+    }
+
+    private User createUser(final String nick, final int code, final long lastIdle) {
+        final User user = new User(nick, code);
+        user.setLastIdle(lastIdle);
+
+        return user;
+    }
+}
@@ -30,6 +30,7 @@ import net.usikkert.kouchat.ui.ChatWindow;
 import net.usikkert.kouchat.ui.UserInterface;
 import net.usikkert.kouchat.util.TestUtils;
 
+import org.joda.time.DateTime;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -97,6 +98,16 @@ public class MessageControllerTest {
         new MessageController(chatWindow, userInterface, settings, null);
     }
 
+    @Test
+    public void showHistoryMessageShouldUseTheTimeOfTheMessage() {
+        final long time = new DateTime().withDate(2014, 5, 13).withTime(9, 5, 28, 0).getMillis();
+
+        messageController.showHistoryMessage(time, "Niles", "Hello", 200);
+
+        verify(chatWindow).appendToChat("[09:05:28] <Niles>: Hello", 200);
+        verify(chatLogger).append("[09:05:28] <Niles>: Hello");
+    }
+
     @Test
     public void shutdownShouldCloseTheChatLogger() {
         messageController.shutdown();
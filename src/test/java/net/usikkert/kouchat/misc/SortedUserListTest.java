@@ -25,7 +25,17 @@ package net.usikkert.kouchat.misc;
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.usikkert.kouchat.event.UserListListener;
 import net.usikkert.kouchat.junit.ExpectedException;
@@ -33,6 +43,9 @@ import net.usikkert.kouchat.junit.ExpectedException;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 /**
  * Test of {@link SortedUserList}.
@@ -219,6 +232,66 @@ public class SortedUserListTest {
         verifyZeroInteractions(listener);
     }
 
+    @Test
+    public void listenersShouldBeNotifiedWithoutTheLockForChangesHeld() throws InterruptedException {
+        final ExecutorService executorService = Executors.newSingleThreadExecutor();
+        final AtomicBoolean otherChangeDone = new AtomicBoolean();
+
+        final UserListListener changingListener = mock(UserListListener.class);
+        userList.addUserListListener(changingListener);
+
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(final InvocationOnMock invocation) throws InterruptedException {
+                final CountDownLatch added = new CountDownLatch(1);
+
+                executorService.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        userList.add(john);
+                        added.countDown();
+                    }
+                });
+
+                otherChangeDone.set(added.await(5, TimeUnit.SECONDS));
+                return null;
+            }
+        }).when(changingListener).userAdded(0, niles);
+
+        userList.add(niles);
+        executorService.shutdown();
+
+        assertTrue(otherChangeDone.get());
+        assertTrue(executorService.awaitTermination(5, TimeUnit.SECONDS));
+
+        // The change from the other thread is delivered after the first, with the position from its time
+        final InOrder inOrder = inOrder(listener);
+        inOrder.verify(listener).userAdded(0, niles);
+        inOrder.verify(listener).userAdded(0, john);
+    }
+
+    @Test
+    public void changesMadeByListenersShouldBeDeliveredAfterTheCurrentEvent() {
+        final UserListListener changingListener = mock(UserListListener.class);
+        userList.addUserListListener(changingListener);
+
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(final InvocationOnMock invocation) {
+                userList.add(annie);
+                verify(listener, never()).userAdded(0, annie);
+                return null;
+            }
+        }).when(changingListener).userAdded(0, niles);
+
+        userList.add(niles);
+
+        final InOrder inOrder = inOrder(listener);
+        inOrder.verify(listener).userAdded(0, niles);
+        inOrder.verify(listener).userAdded(0, annie);
+        assertEquals(Arrays.asList(annie, niles), userList.getSnapshot());
+    }
+
     @Test
     public void setShouldThrowExceptionIfUserIsNull() {
         expectedException.expect(IllegalArgumentException.class);
@@ -258,14 +331,107 @@ public class SortedUserListTest {
     }
 
     @Test
-    public void setShouldNotifyListenersAboutTheNewPosition() {
+    public void setShouldNotifyListenersAboutTheOldAndNewPositionWhenUserIsMoved() {
         addAllUsers();
 
         final User test1 = new User("Test1", 10);
 
         userList.set(0, test1);
 
-        verify(listener).userChanged(3, test1);
+        verify(listener).userMoved(0, 3, test1);
+        verify(listener, never()).userChanged(anyInt(), any(User.class));
+    }
+
+    @Test
+    public void setShouldNotifyListenersAboutChangeWhenUserStaysAtSamePosition() {
+        addAllUsers();
+
+        final User johnny = new User("Johnny", 10);
+
+        assertSame(john, userList.set(1, johnny));
+
+        verify(listener).userChanged(1, johnny);
+        verify(listener, never()).userMoved(anyInt(), anyInt(), any(User.class));
+        assertSame(johnny, userList.get(1));
+    }
+
+    @Test
+    public void setShouldMoveUserBackwardsWhenNickNameIsSortedEarlier() {
+        addAllUsers();
+
+        niles.setNick("Bob");
+        userList.set(3, niles);
+
+        assertSame(annie, userList.get(0));
+        assertSame(niles, userList.get(1));
+        assertSame(john, userList.get(2));
+        assertSame(lenny, userList.get(3));
+
+        verify(listener).userMoved(3, 1, niles);
+    }
+
+    @Test
+    public void indexOfShouldFindUserWhoseNickNameChangedAfterBeingAdded() {
+        addAllUsers();
+
+        annie.setNick("Zelda");
+
+        assertEquals(0, userList.indexOf(annie));
+    }
+
+    @Test
+    public void indexOfShouldFindTheCorrectUserAmongUsersWithTheSameNickName() {
+        final User john2 = new User("John", 5);
+        final User john3 = new User("john", 6);
+
+        addAllUsers();
+        userList.add(john2);
+        userList.add(john3);
+
+        assertEquals(1, userList.indexOf(john));
+        assertEquals(2, userList.indexOf(john2));
+        assertEquals(3, userList.indexOf(john3));
+    }
+
+    @Test
+    public void addShouldPutUsersWithTheSameNickNameAfterExistingUsers() {
+        final User john2 = new User("John", 5);
+
+        addAllUsers();
+        userList.add(john2);
+
+        assertSame(john, userList.get(1));
+        assertSame(john2, userList.get(2));
+        verify(listener).userAdded(2, john2);
+    }
+
+    @Test
+    public void removeShouldRemoveTheCorrectUserAmongUsersWithTheSameNickName() {
+        final User john2 = new User("John", 5);
+
+        addAllUsers();
+        userList.add(john2);
+
+        assertTrue(userList.remove(john2));
+
+        assertSame(john, userList.get(1));
+        assertSame(lenny, userList.get(2));
+        verify(listener).userRemoved(2, john2);
+    }
+
+    @Test
+    public void addAndRemoveShouldKeepManyUsersSorted() {
+        for (int i = 0; i < 200; i++) {
+            userList.add(new User("User" + ((i * 37) % 200), i));
+        }
+
+        for (int i = 0; i < 200; i += 3) {
+            assertTrue(userList.remove(new User("Removed", i)));
+        }
+
+        for (int i = 1; i < userList.size(); i++) {
+            assertTrue(userList.get(i - 1).compareTo(userList.get(i)) <= 0);
+        }
     }
 
     @Test
@@ -312,6 +478,355 @@ public class SortedUserListTest {
         assertTrue(listeners3.contains(listener2));
     }
 
+    @Test
+    public void updateShouldThrowExceptionIfUserIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("User can not be null");
+
+        userList.update(null);
+    }
+
+    @Test
+    public void updateShouldReplaceTheEqualUserAndMoveIt() {
+        addAllUsers();
+
+        final User renamedAnnie = new User("Zelda", annie.getCode());
+
+        assertTrue(userList.update(renamedAnnie));
+
+        assertEquals(4, userList.size());
+        assertSame(renamedAnnie, userList.get(3));
+        verify(listener).userMoved(0, 3, renamedAnnie);
+    }
+
+    @Test
+    public void updateShouldNotifyListenersAboutChangeWhenUserStaysAtSamePosition() {
+        addAllUsers();
+
+        john.setAway(true);
+
+        assertTrue(userList.update(john));
+
+        verify(listener).userChanged(1, john);
+    }
+
+    @Test
+    public void updateShouldReturnFalseIfUserDoesNotExist() {
+        addAllUsers();
+
+        assertFalse(userList.update(new User("Test", 10)));
+
+        verify(listener, never()).userChanged(anyInt(), any(User.class));
+        verify(listener, never()).userMoved(anyInt(), anyInt(), any(User.class));
+    }
+
+    @Test
+    public void updateWithChangeShouldThrowExceptionIfUserIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("User can not be null");
+
+        userList.update(null, mock(UserList.Change.class));
+    }
+
+    @Test
+    public void updateWithChangeShouldThrowExceptionIfChangeIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Change can not be null");
+
+        userList.update(john, null);
+    }
+
+    @Test
+    public void updateWithChangeShouldChangeTheUserInTheListAndMoveIt() {
+        addAllUsers();
+
+        assertTrue(userList.update(new User("Other", annie.getCode()), rename("Zelda")));
+
+        assertEquals("Zelda", annie.getNick());
+        assertEquals(4, userList.size());
+        assertSame(annie, userList.get(3));
+        assertEquals(Arrays.asList(john, lenny, niles, annie), userList.getSnapshot());
+        verify(listener).userMoved(0, 3, annie);
+    }
+
+    @Test
+    public void updateWithChangeShouldNotifyListenersAboutChangeWhenUserStaysAtSamePosition() {
+        addAllUsers();
+
+        assertTrue(userList.update(john, new UserList.Change() {
+            @Override
+            public void apply(final User user) {
+                user.setAway(true);
+            }
+        }));
+
+        assertTrue(john.isAway());
+        verify(listener).userChanged(1, john);
+    }
+
+    @Test
+    public void updateWithChangeShouldMoveTheUserToAnEarlierPosition() {
+        addAllUsers();
+
+        assertTrue(userList.update(niles, rename("Aaron")));
+
+        assertEquals(Arrays.asList(niles, annie, john, lenny), userList.getSnapshot());
+        verify(listener).userMoved(3, 0, niles);
+    }
+
+    @Test
+    public void updateWithChangeShouldNotChangeSnapshotsThatAreAlreadyPublished() {
+        addAllUsers();
+        final List<User> snapshot = userList.getSnapshot();
+
+        userList.update(annie, rename("Zelda"));
+
+        assertEquals(Arrays.asList(annie, john, lenny, niles), snapshot);
+        assertEquals(Arrays.asList(john, lenny, niles, annie), userList.getSnapshot());
+    }
+
+    @Test
+    public void updateWithChangeShouldReturnFalseAndNotApplyChangeIfUserDoesNotExist() {
+        addAllUsers();
+        final UserList.Change change = mock(UserList.Change.class);
+
+        assertFalse(userList.update(new User("Test", 10), change));
+
+        verifyZeroInteractions(change);
+        verify(listener, never()).userChanged(anyInt(), any(User.class));
+        verify(listener, never()).userMoved(anyInt(), anyInt(), any(User.class));
+    }
+
+    @Test
+    public void getSnapshotShouldReturnTheUsersInSortedOrder() {
+        addAllUsers();
+
+        final List<User> snapshot = userList.getSnapshot();
+
+        assertEquals(4, snapshot.size());
+        assertSame(annie, snapshot.get(0));
+        assertSame(john, snapshot.get(1));
+        assertSame(lenny, snapshot.get(2));
+        assertSame(niles, snapshot.get(3));
+    }
+
+    @Test
+    public void getSnapshotShouldNotBeAffectedByLaterChanges() {
+        addAllUsers();
+
+        final List<User> snapshot = userList.getSnapshot();
+
+        userList.remove(john);
+        userList.add(new User("Bob", 10));
+        userList.set(0, new User("Zelda", 11));
+
+        assertEquals(4, snapshot.size());
+        assertSame(annie, snapshot.get(0));
+        assertSame(john, snapshot.get(1));
+        assertSame(lenny, snapshot.get(2));
+        assertSame(niles, snapshot.get(3));
+    }
+
+    @Test
+    public void getSnapshotShouldReturnImmutableList() {
+        expectedException.expect(UnsupportedOperationException.class); // No message
+
+        userList.getSnapshot().add(annie);
+    }
+
+    @Test
+    public void getVersionShouldIncreaseOnEveryChange() {
+        assertEquals(0, userList.getVersion());
+
+        addAllUsers();
+        assertEquals(4, userList.getVersion());
+
+        userList.set(0, new User("Zelda", 10));
+        assertEquals(5, userList.getVersion());
+
+        userList.remove(john);
+        assertEquals(6, userList.getVersion());
+    }
+
+    @Test
+    public void getVersionShouldNotIncreaseWhenRemovingUserThatDoesNotExist() {
+        userList.remove(annie);
+
+        assertEquals(0, userList.getVersion());
+    }
+
+    @Test
+    public void addAllShouldThrowExceptionIfUsersIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Users can not be null");
+
+        userList.addAll(null);
+    }
+
+    @Test
+    public void addAllShouldThrowExceptionIfAnyUserIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("User can not be null");
+
+        userList.addAll(Arrays.asList(annie, null));
+    }
+
+    @Test
+    public void addAllShouldReturnFalseAndNotNotifyListenersIfNoUsers() {
+        assertFalse(userList.addAll(Collections.<User>emptyList()));
+
+        assertEquals(0, userList.size());
+        assertEquals(0, userList.getVersion());
+        verifyZeroInteractions(listener);
+    }
+
+    @Test
+    public void addAllShouldMergeUsersIntoSortedPositions() {
+        userList.add(john);
+        userList.add(niles);
+
+        assertTrue(userList.addAll(Arrays.asList(lenny, annie)));
+
+        assertEquals(Arrays.asList(annie, john, lenny, niles), userList.getSnapshot());
+        assertEquals(3, userList.getVersion());
+    }
+
+    @Test
+    public void addAllShouldNotifyListenersOnceWithTheSortedUsers() {
+        userList.add(john);
+
+        userList.addAll(Arrays.asList(niles, lenny, annie));
+
+        verify(listener).userAdded(0, john);
+        verify(listener).usersAdded(Arrays.asList(annie, lenny, niles));
+        verifyNoMoreInteractions(listener);
+    }
+
+    @Test
+    public void addAllShouldPutUsersWithTheSameNickNameAfterExistingUsersLikeAdd() {
+        final User john2 = new User("John", 5);
+        final User john3 = new User("John", 6);
+
+        addAllUsers();
+        userList.addAll(Arrays.asList(john2, john3));
+
+        assertSame(john, userList.get(1));
+        assertSame(john2, userList.get(2));
+        assertSame(john3, userList.get(3));
+    }
+
+    @Test
+    public void concurrentChangesShouldNeverExposeInconsistentSnapshotsToReaders() throws InterruptedException {
+        userList.removeUserListListener(listener);
+
+        final int writers = 4;
+        final int readers = 4;
+        final int usersPerWriter = 300;
+        final ExecutorService executorService = Executors.newFixedThreadPool(writers + readers);
+        final CountDownLatch writersDone = new CountDownLatch(writers);
+        final CountDownLatch readersDone = new CountDownLatch(readers);
+        final AtomicBoolean failed = new AtomicBoolean();
+        final AtomicInteger snapshotsRead = new AtomicInteger();
+
+        for (int i = 0; i < writers; i++) {
+            final int writer = i;
+
+            executorService.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < usersPerWriter; j++) {
+                            final int code = writer * usersPerWriter + j;
+                            final User user = new User("User" + (code * 7919 % 1000), code);
+                            userList.add(user);
+
+                            // Renames the user in the list, like the user list controller, to a nick name
+                            // that may move the user in the list
+                            if (!userList.update(user, rename("Renamed" + (code * 31 % 1000)))) {
+                                failed.set(true);
+                            }
+
+                            if (j % 2 == 0) {
+                                userList.remove(new User("Removed", code));
+                            }
+                        }
+                    }
+
+                    catch (final RuntimeException e) {
+                        failed.set(true);
+                    }
+
+                    finally {
+                        writersDone.countDown();
+                    }
+                }
+            });
+        }
+
+        for (int i = 0; i < readers; i++) {
+            executorService.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        do {
+                            final List<User> snapshot = userList.getSnapshot();
+                            final User[] firstRead = snapshot.toArray(new User[snapshot.size()]);
+                            final Set<Integer> codes = new HashSet<>();
+
+                            // Users are renamed in place, so the nick names in an old snapshot may be out
+                            // of order. The snapshot itself must never change, or contain a user twice.
+                            for (int j = 0; j < snapshot.size(); j++) {
+                                if (snapshot.get(j) != firstRead[j] || !codes.add(snapshot.get(j).getCode())) {
+                                    failed.set(true);
+                                }
+                            }
+
+                            final int size = userList.size();
+                            for (int j = 0; j < size; j++) {
+                                userList.get(j); // Must not throw, but may be null if the list shrinks
+                            }
+
+                            snapshotsRead.incrementAndGet();
+                        } while (writersDone.getCount() > 0);
+                    }
+
+                    catch (final RuntimeException e) {
+                        failed.set(true);
+                    }
+
+                    finally {
+                        readersDone.countDown();
+                    }
+                }
+            });
+        }
+
+        assertTrue(writersDone.await(30, TimeUnit.SECONDS));
+        assertTrue(readersDone.await(30, TimeUnit.SECONDS));
+        executorService.shutdown();
+
+        assertFalse(failed.get());
+        assertTrue(snapshotsRead.get() > 0);
+
+        final List<User> result = userList.getSnapshot();
+        assertEquals(writers * usersPerWriter / 2, result.size());
+        assertEquals(writers * usersPerWriter * 5 / 2, userList.getVersion());
+
+        for (int i = 1; i < result.size(); i++) {
+            assertTrue(result.get(i - 1).compareTo(result.get(i)) <= 0);
+            assertTrue(result.get(i).getNick().startsWith("Renamed"));
+        }
+    }
+
+    private UserList.Change rename(final String nick) {
+        return new UserList.Change() {
+            @Override
+            public void apply(final User user) {
+                user.setNick(nick);
+            }
+        };
+    }
+
     private void addAllUsers() {
         userList.add(niles);
         userList.add(john);
@@ -26,6 +26,7 @@ import static org.mockito.Mockito.*;
 
 import net.usikkert.kouchat.junit.ExpectedException;
 import net.usikkert.kouchat.settings.Settings;
+import net.usikkert.kouchat.util.HashedWheelTimer;
 import net.usikkert.kouchat.util.ResourceLoader;
 
 import org.junit.Before;
@@ -47,14 +48,16 @@ public class SoundBeeperTest {
     private ErrorHandler errorHandler;
     private ResourceLoader resourceLoader;
     private Settings settings;
+    private HashedWheelTimer timer;
 
     @Before
     public void setUp() {
         settings = mock(Settings.class);
         resourceLoader = mock(ResourceLoader.class);
         errorHandler = mock(ErrorHandler.class);
+        timer = mock(HashedWheelTimer.class);
 
-        soundBeeper = new SoundBeeper(settings, resourceLoader, errorHandler);
+        soundBeeper = new SoundBeeper(settings, resourceLoader, errorHandler, timer);
     }
 
     @Test
@@ -62,7 +65,7 @@ public class SoundBeeperTest {
         expectedException.expect(IllegalArgumentException.class);
         expectedException.expectMessage("Settings can not be null");
 
-        new SoundBeeper(null, resourceLoader, errorHandler);
+        new SoundBeeper(null, resourceLoader, errorHandler, timer);
     }
 
     @Test
@@ -70,7 +73,7 @@ public class SoundBeeperTest {
         expectedException.expect(IllegalArgumentException.class);
         expectedException.expectMessage("Resource loader can not be null");
 
-        new SoundBeeper(settings, null, errorHandler);
+        new SoundBeeper(settings, null, errorHandler, timer);
     }
 
     @Test
@@ -78,6 +81,14 @@ public class SoundBeeperTest {
         expectedException.expect(IllegalArgumentException.class);
         expectedException.expectMessage("Error handler can not be null");
 
-        new SoundBeeper(settings, resourceLoader, null);
+        new SoundBeeper(settings, resourceLoader, null, timer);
+    }
+
+    @Test
+    public void constructorShouldThrowExceptionIfTimerIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Timer can not be null");
+
+        new SoundBeeper(settings, resourceLoader, errorHandler, null);
     }
 }
@@ -0,0 +1,324 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+package net.usikkert.kouchat.misc;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import net.usikkert.kouchat.event.UserListListener;
+import net.usikkert.kouchat.junit.ExpectedException;
+import net.usikkert.kouchat.net.ClientCapability;
+import net.usikkert.kouchat.settings.Settings;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Test of {@link UserListController}.
+ *
+ * @author Christian Ihle
+ */
+public class UserListControllerTest {
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    private UserListController userListController;
+    private UserList userList;
+
+    private User me;
+    private User niles;
+    private User john;
+
+    @Before
+    public void setUp() {
+        me = new User("Me", 10);
+        me.setMe(true);
+
+        final Settings settings = mock(Settings.class);
+        when(settings.getMe()).thenReturn(me);
+
+        userListController = new UserListController(settings);
+        userList = userListController.getUserList();
+
+        niles = new User("Niles", 1);
+        john = new User("John", 2);
+    }
+
+    @Test
+    public void constructorShouldThrowExceptionIfSettingsIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Settings can not be null");
+
+        new UserListController(null);
+    }
+
+    @Test
+    public void constructorShouldAddMeToTheList() {
+        assertEquals(1, userList.size());
+        assertSame(me, userListController.getUser(10));
+        assertSame(me, userListController.getUser("Me"));
+        assertFalse(userListController.isNewUser(10));
+    }
+
+    @Test
+    public void getUserShouldFindUsersAddedToTheList() {
+        assertNull(userListController.getUser(1));
+        assertTrue(userListController.isNewUser(1));
+
+        userList.add(niles);
+
+        assertSame(niles, userListController.getUser(1));
+        assertSame(niles, userListController.getUser("Niles"));
+        assertFalse(userListController.isNewUser(1));
+    }
+
+    @Test
+    public void getUserByNickNameShouldIgnoreCase() {
+        userList.add(niles);
+
+        assertSame(niles, userListController.getUser("niles"));
+        assertSame(niles, userListController.getUser("NILES"));
+        assertNull(userListController.getUser("Nile"));
+    }
+
+    @Test
+    public void getUserShouldNotFindUsersRemovedFromTheList() {
+        userList.add(niles);
+        userList.remove(niles);
+
+        assertNull(userListController.getUser(1));
+        assertNull(userListController.getUser("Niles"));
+        assertTrue(userListController.isNewUser(1));
+        assertFalse(userListController.isNickNameInUse("Niles"));
+    }
+
+    @Test
+    public void removingAnotherInstanceOfTheSameUserShouldRemoveTheUserFromTheIndex() {
+        userList.add(niles);
+        userList.remove(new User("Someone", 1));
+
+        assertNull(userListController.getUser(1));
+        assertNull(userListController.getUser("Niles"));
+    }
+
+    @Test
+    public void changeNickNameShouldUpdateTheNickNameIndex() {
+        userList.add(niles);
+
+        userListController.changeNickName(1, "Daphne");
+
+        assertEquals("Daphne", niles.getNick());
+        assertNull(userListController.getUser("Niles"));
+        assertSame(niles, userListController.getUser("daphne"));
+        assertSame(niles, userListController.getUser(1));
+        assertFalse(userListController.isNickNameInUse("Niles"));
+        assertTrue(userListController.isNickNameInUse("Daphne"));
+    }
+
+    @Test
+    public void changeNickNameShouldHandleOnlyChangingCase() {
+        userList.add(niles);
+
+        userListController.changeNickName(1, "NILES");
+
+        assertSame(niles, userListController.getUser("niles"));
+        assertTrue(userListController.isNickNameInUse("Niles"));
+    }
+
+    @Test
+    public void changeNickNameShouldDoNothingIfUserIsUnknown() {
+        final UserListListener listener = mock(UserListListener.class);
+        userList.addUserListListener(listener);
+
+        userListController.changeNickName(1, "Daphne");
+
+        assertNull(userListController.getUser("Daphne"));
+        verifyZeroInteractions(listener);
+    }
+
+    @Test
+    public void isNickNameInUseShouldIgnoreMe() {
+        userList.add(niles);
+
+        assertFalse(userListController.isNickNameInUse("Me"));
+        assertTrue(userListController.isNickNameInUse("niles"));
+        assertFalse(userListController.isNickNameInUse("John"));
+    }
+
+    @Test
+    public void isNickNameInUseShouldFindOtherUserWithSameNickNameAsMe() {
+        userList.add(new User("me", 3));
+
+        assertTrue(userListController.isNickNameInUse("Me"));
+    }
+
+    @Test
+    public void usersWithTheSameNickNameShouldBothBeIndexed() {
+        final User otherNiles = new User("niles", 3);
+        userList.add(niles);
+        userList.add(otherNiles);
+
+        userList.remove(niles);
+
+        assertSame(otherNiles, userListController.getUser("Niles"));
+        assertTrue(userListController.isNickNameInUse("Niles"));
+    }
+
+    @Test
+    public void changeAwayStatusShouldUpdateUserAndNotifyListeners() {
+        userList.add(john);
+        final UserListListener listener = mock(UserListListener.class);
+        userList.addUserListListener(listener);
+
+        userListController.changeAwayStatus(2, true, "Gone");
+
+        assertTrue(john.isAway());
+        assertEquals("Gone", john.getAwayMsg());
+        verify(listener).userChanged(userList.indexOf(john), john);
+    }
+
+    @Test
+    public void changeWritingShouldUpdateUserAndNotifyListeners() {
+        userList.add(john);
+        final UserListListener listener = mock(UserListListener.class);
+        userList.addUserListListener(listener);
+
+        userListController.changeWriting(2, true);
+
+        assertTrue(john.isWriting());
+        verify(listener).userChanged(userList.indexOf(john), john);
+    }
+
+    @Test
+    public void changeNewMessageShouldUpdateUserAndNotifyListeners() {
+        userList.add(john);
+        final UserListListener listener = mock(UserListListener.class);
+        userList.addUserListListener(listener);
+
+        userListController.changeNewMessage(2, true);
+
+        assertTrue(john.isNewPrivMsg());
+        verify(listener).userChanged(userList.indexOf(john), john);
+    }
+
+    @Test
+    public void isTimeoutUsersShouldFindUsersWithCodeAsNickName() {
+        userList.add(niles);
+        assertFalse(userListController.isTimeoutUsers());
+
+        userList.add(new User("3", 3));
+        assertTrue(userListController.isTimeoutUsers());
+    }
+
+    @Test
+    public void addUsersShouldThrowExceptionIfUsersIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Users can not be null");
+
+        userListController.addUsers(null);
+    }
+
+    @Test
+    public void addUsersShouldAddAndIndexNewUsersInOneBatch() {
+        final UserListListener listener = mock(UserListListener.class);
+        userList.addUserListListener(listener);
+
+        final List<User> addedUsers = userListController.addUsers(Arrays.asList(niles, john));
+
+        assertEquals(Arrays.asList(niles, john), addedUsers);
+        assertEquals(3, userList.size());
+        assertSame(niles, userListController.getUser(1));
+        assertSame(john, userListController.getUser("john"));
+
+        verify(listener).usersAdded(Arrays.asList(john, niles));
+        verifyNoMoreInteractions(listener);
+    }
+
+    @Test
+    public void addUsersShouldSkipUsersAlreadyInTheList() {
+        userList.add(niles);
+
+        final List<User> addedUsers = userListController.addUsers(Arrays.asList(new User("Niles", 1), john,
+                                                                                new User("Me", 10), new User("John", 2)));
+
+        assertEquals(Arrays.asList(john), addedUsers);
+        assertEquals(3, userList.size());
+        assertSame(niles, userListController.getUser(1));
+        assertSame(me, userListController.getUser(10));
+    }
+
+    @Test
+    public void addUsersShouldUseCodeAsNickNameIfNickNameIsInUse() {
+        userList.add(niles);
+
+        final User otherNiles = new User("niles", 3);
+        final User otherMe = new User("Me", 4);
+        final User otherJohn = new User("JOHN", 5);
+
+        userListController.addUsers(Arrays.asList(otherNiles, otherMe, john, otherJohn));
+
+        assertEquals("3", otherNiles.getNick());
+        assertEquals("4", otherMe.getNick());
+        assertEquals("John", john.getNick());
+        assertEquals("5", otherJohn.getNick());
+        assertEquals(6, userList.size());
+    }
+
+    @Test
+    public void addUsersShouldUseCodeAsNickNameIfNickNameIsInvalid() {
+        final User invalid = new User("Invalid nick", 3);
+
+        userListController.addUsers(Arrays.asList(invalid));
+
+        assertEquals("3", invalid.getNick());
+        assertSame(invalid, userListController.getUser("3"));
+    }
+
+    @Test
+    public void isCapabilitySupportedByAllShouldBeTrueWhenOnlyMeIsInTheList() {
+        assertTrue(userListController.isCapabilitySupportedByAll(ClientCapability.PRESENCE));
+    }
+
+    @Test
+    public void isCapabilitySupportedByAllShouldBeTrueWhenAllOtherUsersHaveTheCapability() {
+        niles.setCapabilities(Arrays.asList(ClientCapability.PRESENCE));
+        john.setCapabilities(Arrays.asList(ClientCapability.DEFLATE, ClientCapability.PRESENCE));
+        userList.add(niles);
+        userList.add(john);
+
+        assertTrue(userListController.isCapabilitySupportedByAll(ClientCapability.PRESENCE));
+    }
+
+    @Test
+    public void isCapabilitySupportedByAllShouldBeFalseWhenAnyOtherUserIsWithoutTheCapability() {
+        niles.setCapabilities(Arrays.asList(ClientCapability.PRESENCE));
+        userList.add(niles);
+        userList.add(john);
+
+        assertFalse(userListController.isCapabilitySupportedByAll(ClientCapability.PRESENCE));
+    }
+}
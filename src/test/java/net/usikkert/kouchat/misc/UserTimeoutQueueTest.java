@@ -0,0 +1,148 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.misc;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import net.usikkert.kouchat.junit.ExpectedException;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Test of {@link UserTimeoutQueue}.
+ *
+ * @author Christian Ihle
+ */
+public class UserTimeoutQueueTest {
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    private UserTimeoutQueue timeoutQueue;
+
+    private User niles;
+    private User john;
+    private User lenny;
+
+    @Before
+    public void setUp() {
+        timeoutQueue = new UserTimeoutQueue();
+
+        niles = new User("Niles", 1);
+        john = new User("John", 2);
+        lenny = new User("Lenny", 3);
+    }
+
+    @Test
+    public void scheduleShouldThrowExceptionIfUserIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("User can not be null");
+
+        timeoutQueue.schedule(null, 100);
+    }
+
+    @Test
+    public void removeShouldThrowExceptionIfUserIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("User can not be null");
+
+        timeoutQueue.remove(null);
+    }
+
+    @Test
+    public void pollExpiredShouldReturnNothingWhenEmpty() {
+        assertTrue(timeoutQueue.pollExpired(1000).isEmpty());
+    }
+
+    @Test
+    public void pollExpiredShouldOnlyReturnUsersWithDeadlineBeforeOrAtTheTime() {
+        timeoutQueue.schedule(niles, 300);
+        timeoutQueue.schedule(john, 100);
+        timeoutQueue.schedule(lenny, 200);
+
+        assertEquals(Arrays.asList(john, lenny), timeoutQueue.pollExpired(200));
+
+        assertEquals(1, timeoutQueue.size());
+        assertNull(timeoutQueue.getDeadline(john));
+        assertNull(timeoutQueue.getDeadline(lenny));
+        assertEquals(Long.valueOf(300), timeoutQueue.getDeadline(niles));
+    }
+
+    @Test
+    public void pollExpiredShouldNotReturnTheSameUserTwice() {
+        timeoutQueue.schedule(john, 100);
+
+        assertEquals(Arrays.asList(john), timeoutQueue.pollExpired(100));
+        assertTrue(timeoutQueue.pollExpired(100).isEmpty());
+    }
+
+    @Test
+    public void scheduleShouldReplaceTheDeadlineOfTheSameUser() {
+        timeoutQueue.schedule(john, 100);
+        timeoutQueue.schedule(john, 500);
+
+        assertEquals(1, timeoutQueue.size());
+        assertEquals(Long.valueOf(500), timeoutQueue.getDeadline(john));
+        assertTrue(timeoutQueue.pollExpired(400).isEmpty());
+        assertEquals(Arrays.asList(john), timeoutQueue.pollExpired(500));
+    }
+
+    @Test
+    public void scheduleShouldUseTheUserCodeToFindTheSameUser() {
+        timeoutQueue.schedule(john, 100);
+        timeoutQueue.schedule(new User("Johnny", 2), 500);
+
+        assertEquals(1, timeoutQueue.size());
+        assertEquals(Long.valueOf(500), timeoutQueue.getDeadline(john));
+    }
+
+    @Test
+    public void scheduleShouldKeepUsersWithTheSameDeadlineApart() {
+        timeoutQueue.schedule(niles, 100);
+        timeoutQueue.schedule(john, 100);
+        timeoutQueue.schedule(lenny, 100);
+
+        assertEquals(3, timeoutQueue.size());
+        assertEquals(Arrays.asList(niles, john, lenny), timeoutQueue.pollExpired(100));
+    }
+
+    @Test
+    public void removeShouldRemoveTheDeadline() {
+        timeoutQueue.schedule(john, 100);
+
+        assertTrue(timeoutQueue.remove(john));
+
+        assertEquals(0, timeoutQueue.size());
+        assertNull(timeoutQueue.getDeadline(john));
+        assertTrue(timeoutQueue.pollExpired(100).isEmpty());
+    }
+
+    @Test
+    public void removeShouldReturnFalseIfUserHasNoDeadline() {
+        assertFalse(timeoutQueue.remove(john));
+    }
+}
@@ -22,10 +22,18 @@
 
 package net.usikkert.kouchat.misc;
 
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import net.usikkert.kouchat.junit.ExpectedException;
+import net.usikkert.kouchat.util.HashedWheelTimer;
+import net.usikkert.kouchat.util.TimerHandle;
+
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
-
-import static org.junit.Assert.*;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 
 /**
  * Test of {@link WaitingList}.
@@ -34,11 +42,29 @@ import static org.junit.Assert.*;
  */
 public class WaitingListTest {
 
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
     private WaitingList waitingList;
 
+    private HashedWheelTimer timer;
+    private TimerHandle timerHandle;
+
     @Before
     public void setUp() {
-        waitingList = new WaitingList();
+        timer = mock(HashedWheelTimer.class);
+        timerHandle = mock(TimerHandle.class);
+        when(timer.schedule(anyString(), any(Runnable.class), anyLong())).thenReturn(timerHandle);
+
+        waitingList = new WaitingList(timer);
+    }
+
+    @Test
+    public void constructorShouldThrowExceptionIfTimerIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Timer can not be null");
+
+        new WaitingList(null);
     }
 
     @Test
@@ -71,4 +97,99 @@ public class WaitingListTest {
         assertFalse(waitingList.isWaitingUser(userCode));
         waitingList.removeWaitingUser(userCode);
     }
+
+    @Test
+    public void addWaitingUserShouldReturnFalseIfUserIsAlreadyWaiting() {
+        assertTrue(waitingList.addWaitingUser(123));
+        assertFalse(waitingList.addWaitingUser(123));
+    }
+
+    @Test
+    public void addWaitingUserShouldScheduleTimeoutOnlyOnce() {
+        waitingList.addWaitingUser(123);
+        waitingList.addWaitingUser(123);
+
+        verify(timer, times(1)).schedule(eq("WaitingListTimeout"), any(Runnable.class), eq(2000L));
+    }
+
+    @Test
+    public void runWhenIdentifiedShouldRunRightAwayIfUserIsNotWaiting() {
+        final Runnable operation = mock(Runnable.class);
+
+        waitingList.runWhenIdentified(123, operation);
+
+        verify(operation).run();
+    }
+
+    @Test
+    public void runWhenIdentifiedShouldHoldBackOperationsUntilUserIsRemovedAndThenRunThemInOrder() {
+        final Runnable operation1 = mock(Runnable.class);
+        final Runnable operation2 = mock(Runnable.class);
+        final Runnable otherUserOperation = mock(Runnable.class);
+
+        waitingList.addWaitingUser(123);
+        waitingList.addWaitingUser(124);
+        waitingList.runWhenIdentified(123, operation1);
+        waitingList.runWhenIdentified(124, otherUserOperation);
+        waitingList.runWhenIdentified(123, operation2);
+
+        verifyZeroInteractions(operation1, operation2, otherUserOperation);
+
+        waitingList.removeWaitingUser(123);
+
+        final InOrder inOrder = inOrder(operation1, operation2);
+        inOrder.verify(operation1).run();
+        inOrder.verify(operation2).run();
+        verify(timerHandle).cancel();
+        verifyZeroInteractions(otherUserOperation);
+    }
+
+    @Test
+    public void removeWaitingUserShouldOnlyRunOperationsOnce() {
+        final Runnable operation = mock(Runnable.class);
+
+        waitingList.addWaitingUser(123);
+        waitingList.runWhenIdentified(123, operation);
+
+        waitingList.removeWaitingUser(123);
+        waitingList.removeWaitingUser(123);
+
+        verify(operation, times(1)).run();
+    }
+
+    @Test
+    public void timeoutShouldRemoveUserAndDiscardOperations() {
+        final Runnable operation = mock(Runnable.class);
+
+        waitingList.addWaitingUser(123);
+        waitingList.runWhenIdentified(123, operation);
+
+        final ArgumentCaptor<Runnable> timeoutCaptor = ArgumentCaptor.forClass(Runnable.class);
+        verify(timer).schedule(anyString(), timeoutCaptor.capture(), anyLong());
+        timeoutCaptor.getValue().run();
+
+        assertFalse(waitingList.isWaitingUser(123));
+
+        waitingList.removeWaitingUser(123);
+        verifyZeroInteractions(operation);
+    }
+
+    @Test
+    public void timeoutShouldNotRemoveUserThatWasAddedAgainAfterIdentifying() {
+        final Runnable operation = mock(Runnable.class);
+
+        waitingList.addWaitingUser(123);
+        waitingList.removeWaitingUser(123);
+        waitingList.addWaitingUser(123);
+        waitingList.runWhenIdentified(123, operation);
+
+        final ArgumentCaptor<Runnable> timeoutCaptor = ArgumentCaptor.forClass(Runnable.class);
+        verify(timer, times(2)).schedule(anyString(), timeoutCaptor.capture(), anyLong());
+        timeoutCaptor.getAllValues().get(0).run();
+
+        assertTrue(waitingList.isWaitingUser(123));
+
+        waitingList.removeWaitingUser(123);
+        verify(operation).run();
+    }
 }
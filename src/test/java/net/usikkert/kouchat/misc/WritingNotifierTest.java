@@ -0,0 +1,225 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.misc;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import net.usikkert.kouchat.junit.ExpectedException;
+import net.usikkert.kouchat.net.ClientCapability;
+import net.usikkert.kouchat.net.NetworkMessages;
+import net.usikkert.kouchat.util.HashedWheelTimer;
+import net.usikkert.kouchat.util.TimerHandle;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Test of {@link WritingNotifier}.
+ *
+ * @author Christian Ihle
+ */
+public class WritingNotifierTest {
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    private WritingNotifier writingNotifier;
+
+    private NetworkMessages networkMessages;
+    private UserListController userListController;
+    private HashedWheelTimer timer;
+    private TimerHandle timerHandle;
+
+    private long now;
+
+    @Before
+    public void setUp() {
+        networkMessages = mock(NetworkMessages.class);
+        userListController = mock(UserListController.class);
+        timer = mock(HashedWheelTimer.class);
+        timerHandle = mock(TimerHandle.class);
+
+        when(timer.schedule(anyString(), any(Runnable.class), anyLong())).thenReturn(timerHandle);
+
+        writingNotifier = new WritingNotifier(networkMessages, userListController, timer);
+
+        now = System.currentTimeMillis();
+    }
+
+    @Test
+    public void constructorShouldThrowExceptionIfNetworkMessagesIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Network messages can not be null");
+
+        new WritingNotifier(null, userListController, timer);
+    }
+
+    @Test
+    public void constructorShouldThrowExceptionIfUserListControllerIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("User list controller can not be null");
+
+        new WritingNotifier(networkMessages, null, timer);
+    }
+
+    @Test
+    public void constructorShouldThrowExceptionIfTimerIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Timer can not be null");
+
+        new WritingNotifier(networkMessages, userListController, null);
+    }
+
+    @Test
+    public void writingChangedShouldSendWritingRightAwayTheFirstTime() {
+        writingNotifier.writingChanged(true, now);
+
+        verify(networkMessages).sendWritingMessage();
+        verifyZeroInteractions(timer);
+    }
+
+    @Test
+    public void writingChangedShouldDelayStoppedWriting() {
+        writingNotifier.writingChanged(true, now);
+        writingNotifier.writingChanged(false, now + 5000);
+
+        verify(networkMessages, never()).sendStoppedWritingMessage();
+        verify(timer).schedule("WritingNotifier", writingNotifier, WritingNotifier.STOP_DELAY);
+        assertTrue(writingNotifier.isPending());
+    }
+
+    @Test
+    public void runShouldSendDelayedStoppedWriting() {
+        writingNotifier.writingChanged(true, now - 5000);
+        writingNotifier.writingChanged(false, now);
+
+        writingNotifier.run();
+
+        verify(networkMessages).sendStoppedWritingMessage();
+        assertFalse(writingNotifier.isPending());
+    }
+
+    @Test
+    public void writingChangedShouldCancelStoppedWritingIfWritingAgainBeforeTheDelay() {
+        writingNotifier.writingChanged(true, now);
+        writingNotifier.writingChanged(false, now + 2000);
+        writingNotifier.writingChanged(true, now + 3000);
+
+        verify(timerHandle).cancel();
+        verify(networkMessages, times(1)).sendWritingMessage();
+        verify(networkMessages, never()).sendStoppedWritingMessage();
+        assertFalse(writingNotifier.isPending());
+    }
+
+    @Test
+    public void writingChangedShouldWaitForMinIntervalBeforeSendingWritingAgain() {
+        when(userListController.isCapabilitySupportedByAll(ClientCapability.WRITING_TIMEOUT)).thenReturn(true);
+
+        writingNotifier.writingChanged(true, now);
+        writingNotifier.chatMessageSent();
+        writingNotifier.writingChanged(true, now + 600);
+
+        verify(networkMessages, times(1)).sendWritingMessage();
+        verify(timer).schedule("WritingNotifier", writingNotifier, 400L);
+    }
+
+    @Test
+    public void writingChangedShouldOnlyScheduleOneMessageAtATime() {
+        writingNotifier.writingChanged(true, now);
+        writingNotifier.writingChanged(false, now + 100);
+        writingNotifier.writingChanged(true, now + 200);
+        writingNotifier.writingChanged(false, now + 300);
+
+        verify(timer, times(2)).schedule(anyString(), any(Runnable.class), anyLong());
+        verify(timerHandle, times(1)).cancel();
+    }
+
+    @Test
+    public void stillWritingShouldSendWritingAgainAfterRefreshInterval() {
+        writingNotifier.writingChanged(true, now);
+        writingNotifier.stillWriting(now + WritingNotifier.REFRESH_INTERVAL - 1);
+
+        verify(networkMessages, times(1)).sendWritingMessage();
+
+        writingNotifier.stillWriting(now + WritingNotifier.REFRESH_INTERVAL);
+
+        verify(networkMessages, times(2)).sendWritingMessage();
+    }
+
+    @Test
+    public void stillWritingShouldDoNothingWhenNotWriting() {
+        writingNotifier.stillWriting(now);
+
+        verifyZeroInteractions(networkMessages, timer);
+    }
+
+    @Test
+    public void chatMessageSentShouldReplaceStoppedWritingIfSupportedByAll() {
+        when(userListController.isCapabilitySupportedByAll(ClientCapability.WRITING_TIMEOUT)).thenReturn(true);
+
+        writingNotifier.writingChanged(true, now);
+        writingNotifier.chatMessageSent();
+        writingNotifier.writingChanged(false, now + 100);
+
+        verify(networkMessages, never()).sendStoppedWritingMessage();
+        verifyZeroInteractions(timer);
+    }
+
+    @Test
+    public void chatMessageSentShouldCancelPendingStoppedWritingIfSupportedByAll() {
+        when(userListController.isCapabilitySupportedByAll(ClientCapability.WRITING_TIMEOUT)).thenReturn(true);
+
+        writingNotifier.writingChanged(true, now);
+        writingNotifier.writingChanged(false, now + 100);
+        writingNotifier.chatMessageSent();
+
+        verify(timerHandle).cancel();
+        assertFalse(writingNotifier.isPending());
+    }
+
+    @Test
+    public void chatMessageSentShouldKeepStoppedWritingIfNotSupportedByAll() {
+        writingNotifier.writingChanged(true, now);
+        writingNotifier.chatMessageSent();
+        writingNotifier.writingChanged(false, now + 100);
+
+        verify(timer).schedule("WritingNotifier", writingNotifier, WritingNotifier.STOP_DELAY);
+    }
+
+    @Test
+    public void resetShouldCancelPendingMessageAndForgetTheState() {
+        writingNotifier.writingChanged(true, now);
+        writingNotifier.writingChanged(false, now + 100);
+
+        writingNotifier.reset();
+
+        verify(timerHandle).cancel();
+        assertFalse(writingNotifier.isPending());
+
+        writingNotifier.writingChanged(true, now + 200);
+
+        verify(networkMessages, times(2)).sendWritingMessage();
+    }
+}
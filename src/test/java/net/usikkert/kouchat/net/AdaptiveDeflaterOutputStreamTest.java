@@ -0,0 +1,185 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import net.usikkert.kouchat.junit.ExpectedException;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Test of {@link AdaptiveDeflaterOutputStream} and {@link AdaptiveInflaterInputStream}.
+ *
+ * @author Christian Ihle
+ */
+public class AdaptiveDeflaterOutputStreamTest {
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    @Test
+    public void textShouldBeCompressed() throws IOException {
+        final byte[] data = createText(500 * 1024);
+        final ByteArrayOutputStream wire = new ByteArrayOutputStream();
+
+        final AdaptiveDeflaterOutputStream deflaterStream = send(data, wire);
+
+        assertEquals(data.length, deflaterStream.getBytesWritten());
+        assertEquals(wire.size(), deflaterStream.getWireBytesWritten());
+        assertTrue("Wire size was " + wire.size(), wire.size() < data.length / 5);
+        assertArrayEquals(data, receive(wire.toByteArray()));
+    }
+
+    @Test
+    public void randomDataShouldBeSentRawWithLittleOverhead() throws IOException {
+        final byte[] data = createRandom(1024 * 1024);
+        final ByteArrayOutputStream wire = new ByteArrayOutputStream();
+
+        send(data, wire);
+
+        // 16 blocks of 5 bytes header, and the end marker
+        assertEquals(data.length + 16 * 5 + 1, wire.size());
+        assertArrayEquals(data, receive(wire.toByteArray()));
+    }
+
+    @Test
+    public void mixedDataShouldCompressTheCompressibleParts() throws IOException {
+        final byte[] random = createRandom(512 * 1024);
+        final byte[] text = createText(20 * 1024 * 1024);
+        final byte[] data = Arrays.copyOf(random, random.length + text.length);
+        System.arraycopy(text, 0, data, random.length, text.length);
+
+        final ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        send(data, wire);
+
+        assertTrue("Wire size was " + wire.size(), wire.size() < random.length + text.length / 2);
+        assertArrayEquals(data, receive(wire.toByteArray()));
+    }
+
+    @Test
+    public void emptyStreamShouldOnlyHaveEndMarker() throws IOException {
+        final ByteArrayOutputStream wire = new ByteArrayOutputStream();
+
+        send(new byte[0], wire);
+
+        assertEquals(1, wire.size());
+        assertEquals(0, receive(wire.toByteArray()).length);
+    }
+
+    @Test
+    public void flushShouldNotSendPartialBlock() throws IOException {
+        final ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        final AdaptiveDeflaterOutputStream deflaterStream = new AdaptiveDeflaterOutputStream(wire);
+
+        deflaterStream.write(createText(100));
+        deflaterStream.flush();
+
+        assertEquals(0, wire.size());
+    }
+
+    @Test
+    public void readShouldFailOnUnknownBlockType() throws IOException {
+        expectedException.expect(IOException.class);
+        expectedException.expectMessage("Unknown block type: 7");
+
+        receive(new byte[] {7, 0, 0, 0, 1, 1});
+    }
+
+    @Test
+    public void readShouldFailOnTooLargeBlock() throws IOException {
+        expectedException.expect(IOException.class);
+        expectedException.expectMessage("Invalid block length: 16777216");
+
+        receive(new byte[] {0, 1, 0, 0, 0});
+    }
+
+    @Test
+    public void inflaterShouldCountWireBytes() throws IOException {
+        final byte[] data = createText(200 * 1024);
+        final ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        send(data, wire);
+
+        final AdaptiveInflaterInputStream inflaterStream =
+                new AdaptiveInflaterInputStream(new ByteArrayInputStream(wire.toByteArray()));
+        readAll(inflaterStream);
+
+        assertEquals(wire.size(), inflaterStream.getWireBytesRead());
+    }
+
+    private AdaptiveDeflaterOutputStream send(final byte[] data, final ByteArrayOutputStream wire) throws IOException {
+        final AdaptiveDeflaterOutputStream deflaterStream = new AdaptiveDeflaterOutputStream(wire);
+
+        // Same size of writes as the file sender
+        for (int i = 0; i < data.length; i += 1024) {
+            deflaterStream.write(data, i, Math.min(1024, data.length - i));
+        }
+
+        deflaterStream.finish();
+        deflaterStream.close();
+
+        return deflaterStream;
+    }
+
+    private byte[] receive(final byte[] wire) throws IOException {
+        return readAll(new AdaptiveInflaterInputStream(new ByteArrayInputStream(wire)));
+    }
+
+    private byte[] readAll(final InputStream inputStream) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[1000];
+        int read;
+
+        while ((read = inputStream.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    private byte[] createText(final int length) {
+        final byte[] text = new byte[length];
+        final byte[] line = "2019-03-01 12:00:00 INFO Something happened in the chat\n".getBytes();
+
+        for (int i = 0; i < length; i++) {
+            text[i] = line[i % line.length];
+        }
+
+        return text;
+    }
+
+    private byte[] createRandom(final int length) {
+        final byte[] random = new byte[length];
+        new Random(42).nextBytes(random);
+
+        return random;
+    }
+}
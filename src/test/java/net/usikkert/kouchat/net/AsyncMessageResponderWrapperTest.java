@@ -24,14 +24,14 @@ package net.usikkert.kouchat.net;
 
 import static org.mockito.Mockito.*;
 
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 
 import net.usikkert.kouchat.junit.ExpectedException;
 import net.usikkert.kouchat.misc.Controller;
 import net.usikkert.kouchat.misc.User;
 import net.usikkert.kouchat.misc.WaitingList;
-import net.usikkert.kouchat.util.Sleeper;
-import net.usikkert.kouchat.util.TestUtils;
 
 import org.junit.Before;
 import org.junit.Rule;
@@ -54,7 +54,6 @@ public class AsyncMessageResponderWrapperTest {
     private MessageResponder messageResponder;
     private Controller controller;
     private ExecutorService executorService;
-    private Sleeper sleeper;
     private WaitingList waitingList;
 
     @Before
@@ -63,11 +62,9 @@ public class AsyncMessageResponderWrapperTest {
         controller = mock(Controller.class);
         waitingList = mock(WaitingList.class);
         when(controller.getWaitingList()).thenReturn(waitingList);
+        executorService = mock(ExecutorService.class);
 
-        wrapper = spy(new AsyncMessageResponderWrapper(messageResponder, controller));
-
-        executorService = TestUtils.setFieldValueWithMock(wrapper, "executorService", ExecutorService.class);
-        sleeper = TestUtils.setFieldValueWithMock(wrapper, "sleeper", Sleeper.class);
+        wrapper = spy(new AsyncMessageResponderWrapper(messageResponder, controller, executorService));
     }
 
     @Test
@@ -86,6 +83,14 @@ public class AsyncMessageResponderWrapperTest {
         new AsyncMessageResponderWrapper(messageResponder, null);
     }
 
+    @Test
+    public void constructorShouldThrowExceptionIfExecutorServiceIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Executor service can not be null");
+
+        new AsyncMessageResponderWrapper(messageResponder, controller, null);
+    }
+
     @Test
     public void messageArrivedShouldPassThroughAndNeverAskOrWaitIfExistingUser() {
         when(controller.isNewUser(100)).thenReturn(false);
@@ -95,7 +100,7 @@ public class AsyncMessageResponderWrapperTest {
         verify(messageResponder).messageArrived(100, "msg", 200);
         verifyZeroInteractions(executorService);
         verify(wrapper, never()).askUserToIdentify(anyInt());
-        verify(wrapper, never()).waitForUserToIdentify(anyInt());
+        verify(waitingList, never()).runWhenIdentified(anyInt(), any(Runnable.class));
     }
 
     @Test
@@ -108,21 +113,20 @@ public class AsyncMessageResponderWrapperTest {
     }
 
     @Test
-    public void messageArrivedShouldWaitForUserToIdentifyAndPassThroughUsingExecutorIfNewUser() {
+    public void messageArrivedShouldHoldBackMessageUntilUserIdentifiesIfNewUser() {
         when(controller.isNewUser(100)).thenReturn(true);
 
         wrapper.messageArrived(100, "msg", 200);
 
         final ArgumentCaptor<Runnable> runnableCaptor = ArgumentCaptor.forClass(Runnable.class);
 
+        verify(waitingList).runWhenIdentified(eq(100), runnableCaptor.capture());
         verifyZeroInteractions(messageResponder);
-        verify(wrapper, never()).waitForUserToIdentify(anyInt());
 
-        verify(executorService).execute(runnableCaptor.capture());
         runnableCaptor.getValue().run();
 
-        verify(wrapper).waitForUserToIdentify(100);
         verify(messageResponder).messageArrived(100, "msg", 200);
+        verifyZeroInteractions(executorService);
     }
 
     @Test
@@ -276,7 +280,7 @@ public class AsyncMessageResponderWrapperTest {
     public void fileSendShouldAskUserToIdentifyIfNewUser() {
         when(controller.isNewUser(100)).thenReturn(true);
 
-        wrapper.fileSend(100, 3000, "fileName", "user", 98765);
+        wrapper.fileSend(100, 3000, "fileName", "user", 98765, "contentHash");
 
         verify(wrapper).askUserToIdentify(100);
     }
@@ -285,93 +289,270 @@ public class AsyncMessageResponderWrapperTest {
     public void fileSendShouldNotAskUserToIdentifyIfExistingUser() {
         when(controller.isNewUser(100)).thenReturn(false);
 
-        wrapper.fileSend(100, 3000, "fileName", "user", 98765);
+        wrapper.fileSend(100, 3000, "fileName", "user", 98765, "contentHash");
 
         verify(wrapper, never()).askUserToIdentify(anyInt());
     }
 
     @Test
-    public void fileSendShouldWaitForUserToIdentifyAndPassThroughUsingExecutor() {
-        wrapper.fileSend(100, 3000, "fileName", "user", 98765);
+    public void fileSendShouldPassThroughUsingExecutorIfExistingUser() {
+        when(controller.isNewUser(100)).thenReturn(false);
+
+        wrapper.fileSend(100, 3000, "fileName", "user", 98765, "contentHash");
 
         final ArgumentCaptor<Runnable> runnableCaptor = ArgumentCaptor.forClass(Runnable.class);
 
         verifyZeroInteractions(messageResponder);
-        verify(wrapper, never()).waitForUserToIdentify(anyInt());
+        verify(waitingList, never()).runWhenIdentified(anyInt(), any(Runnable.class));
 
         verify(executorService).execute(runnableCaptor.capture());
         runnableCaptor.getValue().run();
 
-        verify(wrapper).waitForUserToIdentify(100);
-        verify(messageResponder).fileSend(100, 3000, "fileName", "user", 98765);
+        verify(messageResponder).fileSend(100, 3000, "fileName", "user", 98765, "contentHash");
     }
 
     @Test
-    public void fileSendAbortedShouldPassThrough() {
-        wrapper.fileSendAborted(100, "fileName", 98765);
+    public void fileSendShouldHoldBackUntilUserIdentifiesAndPassThroughUsingExecutorIfNewUser() {
+        when(controller.isNewUser(100)).thenReturn(true);
 
-        verify(messageResponder).fileSendAborted(100, "fileName", 98765);
+        wrapper.fileSend(100, 3000, "fileName", "user", 98765, "contentHash");
+
+        final ArgumentCaptor<Runnable> waitingCaptor = ArgumentCaptor.forClass(Runnable.class);
+        final ArgumentCaptor<Runnable> executorCaptor = ArgumentCaptor.forClass(Runnable.class);
+
+        verify(waitingList).runWhenIdentified(eq(100), waitingCaptor.capture());
+        verifyZeroInteractions(executorService);
+
+        waitingCaptor.getValue().run();
+
+        verifyZeroInteractions(messageResponder);
+        verify(executorService).execute(executorCaptor.capture());
+
+        executorCaptor.getValue().run();
+
+        verify(messageResponder).fileSend(100, 3000, "fileName", "user", 98765, "contentHash");
     }
 
     @Test
-    public void fileSendAcceptedShouldPassThroughUsingExecutor() {
-        wrapper.fileSendAccepted(100, "fileName", 98765, 1050);
+    public void fileBatchSendShouldAskUserToIdentifyIfNewUser() {
+        when(controller.isNewUser(100)).thenReturn(true);
+
+        wrapper.fileBatchSend(100, 3000, "folderName", "user", 98765);
+
+        verify(wrapper).askUserToIdentify(100);
+    }
+
+    @Test
+    public void fileBatchSendShouldPassThroughUsingExecutorIfExistingUser() {
+        when(controller.isNewUser(100)).thenReturn(false);
+
+        wrapper.fileBatchSend(100, 3000, "folderName", "user", 98765);
 
         final ArgumentCaptor<Runnable> runnableCaptor = ArgumentCaptor.forClass(Runnable.class);
 
         verifyZeroInteractions(messageResponder);
+        verify(waitingList, never()).runWhenIdentified(anyInt(), any(Runnable.class));
 
         verify(executorService).execute(runnableCaptor.capture());
         runnableCaptor.getValue().run();
 
-        verify(messageResponder).fileSendAccepted(100, "fileName", 98765, 1050);
+        verify(messageResponder).fileBatchSend(100, 3000, "folderName", "user", 98765);
+    }
+
+    @Test
+    public void fileBatchSendShouldHoldBackUntilUserIdentifiesAndPassThroughUsingExecutorIfNewUser() {
+        when(controller.isNewUser(100)).thenReturn(true);
+
+        wrapper.fileBatchSend(100, 3000, "folderName", "user", 98765);
+
+        final ArgumentCaptor<Runnable> waitingCaptor = ArgumentCaptor.forClass(Runnable.class);
+        final ArgumentCaptor<Runnable> executorCaptor = ArgumentCaptor.forClass(Runnable.class);
+
+        verify(waitingList).runWhenIdentified(eq(100), waitingCaptor.capture());
+        verifyZeroInteractions(executorService);
+
+        waitingCaptor.getValue().run();
+
+        verifyZeroInteractions(messageResponder);
+        verify(executorService).execute(executorCaptor.capture());
+
+        executorCaptor.getValue().run();
+
+        verify(messageResponder).fileBatchSend(100, 3000, "folderName", "user", 98765);
+    }
+
+    @Test
+    public void fileMulticastSendShouldAskUserToIdentifyIfNewUser() {
+        when(controller.isNewUser(100)).thenReturn(true);
+
+        wrapper.fileMulticastSend(100, 3000, "fileName", "user", 98765, 5, 50123);
+
+        verify(wrapper).askUserToIdentify(100);
+    }
+
+    @Test
+    public void fileMulticastSendShouldPassThroughUsingExecutorIfExistingUser() {
+        when(controller.isNewUser(100)).thenReturn(false);
+
+        wrapper.fileMulticastSend(100, 3000, "fileName", "user", 98765, 5, 50123);
+
+        final ArgumentCaptor<Runnable> runnableCaptor = ArgumentCaptor.forClass(Runnable.class);
+
+        verifyZeroInteractions(messageResponder);
+        verify(waitingList, never()).runWhenIdentified(anyInt(), any(Runnable.class));
+
+        verify(executorService).execute(runnableCaptor.capture());
+        runnableCaptor.getValue().run();
+
+        verify(messageResponder).fileMulticastSend(100, 3000, "fileName", "user", 98765, 5, 50123);
+    }
+
+    @Test
+    public void fileMulticastSendShouldHoldBackUntilUserIdentifiesAndPassThroughUsingExecutorIfNewUser() {
+        when(controller.isNewUser(100)).thenReturn(true);
+
+        wrapper.fileMulticastSend(100, 3000, "fileName", "user", 98765, 5, 50123);
+
+        final ArgumentCaptor<Runnable> waitingCaptor = ArgumentCaptor.forClass(Runnable.class);
+        final ArgumentCaptor<Runnable> executorCaptor = ArgumentCaptor.forClass(Runnable.class);
+
+        verify(waitingList).runWhenIdentified(eq(100), waitingCaptor.capture());
+        verifyZeroInteractions(executorService);
+
+        waitingCaptor.getValue().run();
+
+        verifyZeroInteractions(messageResponder);
+        verify(executorService).execute(executorCaptor.capture());
+
+        executorCaptor.getValue().run();
+
+        verify(messageResponder).fileMulticastSend(100, 3000, "fileName", "user", 98765, 5, 50123);
+    }
+
+    @Test
+    public void fileSendAbortedShouldPassThrough() {
+        wrapper.fileSendAborted(100, "fileName", 98765);
+
+        verify(messageResponder).fileSendAborted(100, "fileName", 98765);
+    }
+
+    @Test
+    public void fileSendAcceptedShouldPassThrough() {
+        wrapper.fileSendAccepted(100, "fileName", 98765, 1050, true, 5);
+
+        verify(messageResponder).fileSendAccepted(100, "fileName", 98765, 1050, true, 5);
+        verifyZeroInteractions(executorService);
+    }
+
+    @Test
+    public void fileSendCachedShouldPassThrough() {
+        wrapper.fileSendCached(100, "fileName", 98765);
+
+        verify(messageResponder).fileSendCached(100, "fileName", 98765);
     }
 
     @Test
     public void clientInfoShouldPassThrough() {
         wrapper.clientInfo(100, "client", 70000, "os",
-                           4500, 6000);
+                           4500, 6000, Arrays.asList("deflate"));
 
         verify(messageResponder).clientInfo(100, "client", 70000, "os",
-                                            4500, 6000);
+                                            4500, 6000, Arrays.asList("deflate"));
     }
 
     @Test
-    public void askUserToIdentifyShouldAddWaitingUserAndExposeAndGetTopic() {
-        wrapper.askUserToIdentify(100);
+    public void rosterRequestedShouldPassThrough() {
+        wrapper.rosterRequested(100);
 
-        verify(waitingList).addWaitingUser(100);
-        verify(controller).sendExposeMessage();
-        verify(controller).sendGetTopicMessage();
+        verify(messageResponder).rosterRequested(100);
     }
 
     @Test
-    public void waitForUserToIdentifyShouldAbortAfter40SleepsIfUserNeverIdentifies() {
-        when(waitingList.isWaitingUser(100)).thenReturn(true);
+    public void rosterArrivedShouldPassThrough() {
+        final List<User> users = Arrays.asList(new User("Niles", 1));
 
-        wrapper.waitForUserToIdentify(100);
+        wrapper.rosterArrived(100, users);
 
-        verify(sleeper, times(40)).sleep(50);
-        verify(waitingList, times(41)).isWaitingUser(100);
+        verify(messageResponder).rosterArrived(100, users);
     }
 
     @Test
-    public void waitForUserToIdentifyShouldAbortWhenUserHasIdentified() {
-        when(waitingList.isWaitingUser(100)).thenReturn(true, true, true, false);
+    public void presenceChangedShouldPassThroughIfExistingUser() {
+        final User presence = new User("Niles", 100);
+        when(controller.isNewUser(100)).thenReturn(false);
 
-        wrapper.waitForUserToIdentify(100);
+        wrapper.presenceChanged(presence, true);
 
-        verify(sleeper, times(3)).sleep(50);
-        verify(waitingList, times(4)).isWaitingUser(100);
+        verify(wrapper, never()).askUserToIdentify(anyInt());
+        verify(messageResponder).presenceChanged(presence, true);
     }
 
     @Test
-    public void waitForUserToIdentifyShouldNeverSleepIfUserIsIdentified() {
-        when(waitingList.isWaitingUser(100)).thenReturn(false);
+    public void presenceChangedShouldAskUserToIdentifyIfNewUser() {
+        when(controller.isNewUser(100)).thenReturn(true);
 
-        wrapper.waitForUserToIdentify(100);
+        wrapper.presenceChanged(new User("Niles", 100), false);
 
-        verifyZeroInteractions(sleeper);
-        verify(waitingList).isWaitingUser(100);
+        verify(wrapper).askUserToIdentify(100);
+        verify(messageResponder, never()).presenceChanged(any(User.class), anyBoolean());
+    }
+
+    @Test
+    public void presenceDigestArrivedShouldPassThrough() {
+        wrapper.presenceDigestArrived(100, 5);
+
+        verify(messageResponder).presenceDigestArrived(100, 5);
+    }
+
+    @Test
+    public void presenceRequestedShouldPassThrough() {
+        wrapper.presenceRequested(100);
+
+        verify(messageResponder).presenceRequested(100);
+    }
+
+    @Test
+    public void messagesRequestedShouldPassThrough() {
+        wrapper.messagesRequested(100, false, Arrays.asList(1, 2));
+
+        verify(messageResponder).messagesRequested(100, false, Arrays.asList(1, 2));
+    }
+
+    @Test
+    public void historyRequestedShouldPassThrough() {
+        wrapper.historyRequested(100, 5000);
+
+        verify(messageResponder).historyRequested(100, 5000);
+    }
+
+    @Test
+    public void historyArrivedShouldPassThrough() {
+        final List<ChatHistory.Entry> entries = Arrays.asList(new ChatHistory.Entry(1000, 100, "Niles", 300, "Hello"));
+
+        wrapper.historyArrived(100, entries);
+
+        verify(messageResponder).historyArrived(100, entries);
+    }
+
+    @Test
+    public void askUserToIdentifyShouldAddWaitingUserAndExposeAndGetTopic() {
+        when(waitingList.addWaitingUser(100)).thenReturn(true);
+
+        wrapper.askUserToIdentify(100);
+
+        verify(waitingList).addWaitingUser(100);
+        verify(controller).sendExposeMessage(100);
+        verify(controller).sendGetTopicMessage();
+    }
+
+    @Test
+    public void askUserToIdentifyShouldNotExposeAndGetTopicAgainIfUserIsAlreadyWaiting() {
+        when(waitingList.addWaitingUser(100)).thenReturn(false);
+
+        wrapper.askUserToIdentify(100);
+
+        verify(waitingList).addWaitingUser(100);
+        verify(controller, never()).sendExposeMessage(anyInt());
+        verify(controller, never()).sendGetTopicMessage();
     }
 }
@@ -0,0 +1,146 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import net.usikkert.kouchat.junit.ExpectedException;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Test of {@link ChatHistory}.
+ *
+ * @author Christian Ihle
+ */
+public class ChatHistoryTest {
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    private ChatHistory chatHistory;
+
+    @Before
+    public void setUp() {
+        chatHistory = new ChatHistory();
+    }
+
+    @Test
+    public void addShouldThrowExceptionIfEntryIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Entry can not be null");
+
+        chatHistory.add(null);
+    }
+
+    @Test
+    public void entryShouldThrowExceptionIfNickIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Nick can not be null");
+
+        new ChatHistory.Entry(1000, 100, null, 200, "Hello");
+    }
+
+    @Test
+    public void entryShouldThrowExceptionIfMessageIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Message can not be null");
+
+        new ChatHistory.Entry(1000, 100, "Niles", 200, null);
+    }
+
+    @Test
+    public void getEntriesSinceShouldReturnEntriesFromTheTimeInTheOrderTheyWereAdded() {
+        chatHistory.add(new ChatHistory.Entry(1000, 100, "Niles", 200, "One"));
+        chatHistory.add(new ChatHistory.Entry(3000, 100, "Niles", 200, "Three"));
+        chatHistory.add(new ChatHistory.Entry(2000, 101, "John", 200, "Two"));
+
+        final List<ChatHistory.Entry> entries = chatHistory.getEntriesSince(2000);
+
+        assertEquals(2, entries.size());
+        assertEquals("Three", entries.get(0).getMessage());
+        assertEquals("Two", entries.get(1).getMessage());
+        assertEquals(3, chatHistory.getEntriesSince(0).size());
+    }
+
+    @Test
+    public void addShouldRemoveTheOldestEntryWhenFull() {
+        for (int i = 1; i <= ChatHistory.MAX_MESSAGES + 1; i++) {
+            chatHistory.add(new ChatHistory.Entry(i, 100, "Niles", 200, "Message " + i));
+        }
+
+        final List<ChatHistory.Entry> entries = chatHistory.getEntriesSince(0);
+
+        assertEquals(ChatHistory.MAX_MESSAGES, entries.size());
+        assertEquals("Message 2", entries.get(0).getMessage());
+        assertEquals("Message 101", entries.get(ChatHistory.MAX_MESSAGES - 1).getMessage());
+    }
+
+    @Test
+    public void getLastTimeShouldReturnZeroWhenEmpty() {
+        assertEquals(0, chatHistory.getLastTime());
+    }
+
+    @Test
+    public void getLastTimeShouldReturnTheMostRecentTime() {
+        chatHistory.add(new ChatHistory.Entry(3000, 100, "Niles", 200, "Three"));
+        chatHistory.add(new ChatHistory.Entry(1000, 100, "Niles", 200, "One"));
+
+        assertEquals(3000, chatHistory.getLastTime());
+    }
+
+    @Test
+    public void containsShouldFindTheSameMessageFromTheSameUserAtAboutTheSameTime() {
+        chatHistory.add(new ChatHistory.Entry(10000, 100, "Niles", 200, "Hello"));
+
+        assertTrue(chatHistory.contains(new ChatHistory.Entry(10000, 100, "Niles", 200, "Hello")));
+        assertTrue(chatHistory.contains(new ChatHistory.Entry(10000 - ChatHistory.DUPLICATE_TOLERANCE, 100, "Niles",
+                                                              300, "Hello")));
+        assertTrue(chatHistory.contains(new ChatHistory.Entry(10000 + ChatHistory.DUPLICATE_TOLERANCE, 100, "Nilez",
+                                                              200, "Hello")));
+    }
+
+    @Test
+    public void containsShouldNotFindOtherMessages() {
+        chatHistory.add(new ChatHistory.Entry(10000, 100, "Niles", 200, "Hello"));
+
+        assertFalse(chatHistory.contains(new ChatHistory.Entry(10000, 101, "Niles", 200, "Hello")));
+        assertFalse(chatHistory.contains(new ChatHistory.Entry(10000, 100, "Niles", 200, "Hello!")));
+        assertFalse(chatHistory.contains(new ChatHistory.Entry(10001 + ChatHistory.DUPLICATE_TOLERANCE, 100, "Niles",
+                                                               200, "Hello")));
+    }
+
+    @Test
+    public void clearShouldRemoveAllEntries() {
+        chatHistory.add(new ChatHistory.Entry(1000, 100, "Niles", 200, "One"));
+
+        chatHistory.clear();
+
+        assertTrue(chatHistory.getEntriesSince(0).isEmpty());
+        assertEquals(0, chatHistory.getLastTime());
+    }
+}
@@ -22,14 +22,21 @@
 
 package net.usikkert.kouchat.net;
 
+import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
+import java.util.concurrent.ExecutorService;
+
 import net.usikkert.kouchat.junit.ExpectedException;
 import net.usikkert.kouchat.misc.ErrorHandler;
 import net.usikkert.kouchat.settings.Settings;
+import net.usikkert.kouchat.util.HashedWheelTimer;
+import net.usikkert.kouchat.util.TimerHandle;
 
+import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 
 /**
  * Test of {@link ConnectionWorker}.
@@ -41,12 +48,29 @@ public class ConnectionWorkerTest {
     @Rule
     public ExpectedException expectedException = ExpectedException.none();
 
+    private ConnectionWorker connectionWorker;
+
+    private HashedWheelTimer timer;
+    private TimerHandle timerHandle;
+    private ExecutorService executorService;
+
+    @Before
+    public void setUp() {
+        timer = mock(HashedWheelTimer.class);
+        timerHandle = mock(TimerHandle.class);
+        when(timer.schedule(anyString(), any(Runnable.class), anyLong())).thenReturn(timerHandle);
+
+        executorService = mock(ExecutorService.class);
+
+        connectionWorker = new ConnectionWorker(mock(Settings.class), mock(ErrorHandler.class), timer, executorService);
+    }
+
     @Test
     public void constructorShouldThrowExceptionIfSettingsIsNull() {
         expectedException.expect(IllegalArgumentException.class);
         expectedException.expectMessage("Settings can not be null");
 
-        new ConnectionWorker(null, mock(ErrorHandler.class));
+        new ConnectionWorker(null, mock(ErrorHandler.class), timer);
     }
 
     @Test
@@ -54,6 +78,92 @@ public class ConnectionWorkerTest {
         expectedException.expect(IllegalArgumentException.class);
         expectedException.expectMessage("Error handler can not be null");
 
-        new ConnectionWorker(mock(Settings.class), null);
+        new ConnectionWorker(mock(Settings.class), null, timer);
+    }
+
+    @Test
+    public void constructorShouldThrowExceptionIfTimerIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Timer can not be null");
+
+        new ConnectionWorker(mock(Settings.class), mock(ErrorHandler.class), null);
+    }
+
+    @Test
+    public void constructorShouldThrowExceptionIfExecutorServiceIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Executor service can not be null");
+
+        new ConnectionWorker(mock(Settings.class), mock(ErrorHandler.class), timer, null);
+    }
+
+    @Test
+    public void runShouldOnlyHandTheCheckOverToTheExecutorService() {
+        connectionWorker.start();
+
+        connectionWorker.run();
+
+        verify(executorService).execute(any(Runnable.class));
+        verify(timer, times(1)).schedule(anyString(), any(Runnable.class), anyLong());
+    }
+
+    @Test
+    public void startShouldScheduleCheckNow() {
+        assertFalse(connectionWorker.isAlive());
+
+        connectionWorker.start();
+
+        assertTrue(connectionWorker.isAlive());
+        verify(timer).schedule("ConnectionWorker", connectionWorker, 0);
+    }
+
+    @Test
+    public void startShouldDoNothingIfAlreadyStarted() {
+        connectionWorker.start();
+        connectionWorker.start();
+
+        verify(timer, times(1)).schedule(anyString(), any(Runnable.class), anyLong());
+    }
+
+    @Test
+    public void checkNetworkShouldRescheduleCheckNow() {
+        connectionWorker.start();
+        when(timerHandle.cancel()).thenReturn(true);
+
+        connectionWorker.checkNetwork();
+
+        verify(timerHandle).cancel();
+        verify(timer, times(2)).schedule("ConnectionWorker", connectionWorker, 0);
+    }
+
+    @Test
+    public void checkNetworkShouldDoNothingIfNotStarted() {
+        connectionWorker.checkNetwork();
+
+        verifyZeroInteractions(timer);
+    }
+
+    @Test
+    public void stopShouldCancelCheckAndScheduleStop() {
+        connectionWorker.start();
+
+        connectionWorker.stop();
+
+        verify(timerHandle).cancel();
+        verify(timer, times(1)).schedule(anyString(), any(Runnable.class), anyLong());
+        assertTrue(connectionWorker.isAlive()); // Until the stop task has run
+
+        final ArgumentCaptor<Runnable> stopCaptor = ArgumentCaptor.forClass(Runnable.class);
+        verify(executorService).execute(stopCaptor.capture());
+        stopCaptor.getValue().run();
+
+        assertFalse(connectionWorker.isAlive());
+    }
+
+    @Test
+    public void stopShouldDoNothingIfNotStarted() {
+        connectionWorker.stop();
+
+        verifyZeroInteractions(timer, executorService);
     }
 }
@@ -25,9 +25,14 @@ package net.usikkert.kouchat.net;
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 import net.usikkert.kouchat.junit.ExpectedException;
 import net.usikkert.kouchat.message.CoreMessages;
 import net.usikkert.kouchat.misc.ChatState;
+import net.usikkert.kouchat.misc.CommandException;
 import net.usikkert.kouchat.misc.Controller;
 import net.usikkert.kouchat.misc.MessageController;
 import net.usikkert.kouchat.misc.SortedUserList;
@@ -37,11 +42,17 @@ import net.usikkert.kouchat.misc.UserList;
 import net.usikkert.kouchat.misc.WaitingList;
 import net.usikkert.kouchat.settings.Settings;
 import net.usikkert.kouchat.ui.UserInterface;
+import net.usikkert.kouchat.util.HashedWheelTimer;
+import net.usikkert.kouchat.util.TimerHandle;
 
 import org.joda.time.DateTime;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 /**
  * Test of {@link DefaultMessageResponder}.
@@ -64,6 +75,8 @@ public class DefaultMessageResponderTest {
     private ChatState chatState;
     private CoreMessages coreMessages;
     private WaitingList waitingList;
+    private HashedWheelTimer timer;
+    private ChatHistory chatHistory;
 
     private User user;
     private User me;
@@ -71,6 +84,7 @@ public class DefaultMessageResponderTest {
     @Before
     public void setUp() {
         controller = mock(Controller.class);
+        timer = mock(HashedWheelTimer.class);
         userInterface = mock(UserInterface.class);
         settings = new Settings();
         messageController = mock(MessageController.class);
@@ -78,11 +92,15 @@ public class DefaultMessageResponderTest {
         chatState = mock(ChatState.class);
         coreMessages = new CoreMessages();
         waitingList = mock(WaitingList.class);
+        chatHistory = new ChatHistory();
 
         when(userInterface.getMessageController()).thenReturn(messageController);
         when(controller.getUserList()).thenReturn(userList);
         when(controller.getChatState()).thenReturn(chatState);
         when(controller.getWaitingList()).thenReturn(waitingList);
+        when(controller.getTimer()).thenReturn(timer);
+        when(controller.getTopic()).thenReturn(new Topic());
+        when(controller.getChatHistory()).thenReturn(chatHistory);
 
         responder = new DefaultMessageResponder(controller, userInterface, settings, coreMessages);
 
@@ -96,6 +114,8 @@ public class DefaultMessageResponderTest {
         verify(controller).getTransferList();
         verify(controller).getWaitingList();
         verify(controller).getChatState();
+        verify(controller, times(4)).getTimer();
+        verify(controller, times(2)).getUserList();
         verify(userInterface).getMessageController();
     }
 
@@ -173,6 +193,20 @@ public class DefaultMessageResponderTest {
         assertFalse(me.isNewMsg());
     }
 
+    @Test
+    public void messageArrivedShouldAddMessageToChatHistory() {
+        setUpExistingUser();
+
+        responder.messageArrived(100, "msg", 200);
+
+        final List<ChatHistory.Entry> entries = chatHistory.getEntriesSince(0);
+        assertEquals(1, entries.size());
+        assertEquals(100, entries.get(0).getUserCode());
+        assertEquals("Tester", entries.get(0).getNick());
+        assertEquals(200, entries.get(0).getColor());
+        assertEquals("msg", entries.get(0).getMessage());
+    }
+
     @Test
     public void messageArrivedShouldDoNothingIfUserIsAway() {
         setUpExistingUser();
@@ -181,6 +215,7 @@ public class DefaultMessageResponderTest {
         responder.messageArrived(100, "msg", 200);
 
         verifyZeroInteractions(messageController, userInterface);
+        assertTrue(chatHistory.getEntriesSince(0).isEmpty());
     }
 
     @Test
@@ -221,6 +256,21 @@ public class DefaultMessageResponderTest {
         verify(waitingList).removeWaitingUser(user.getCode());
     }
 
+    @Test
+    public void userLogOnShouldRemoveWaitingUserAfterAddingUserToList() {
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(final InvocationOnMock invocation) {
+                assertEquals(0, userList.indexOf(user));
+                return null;
+            }
+        }).when(waitingList).removeWaitingUser(user.getCode());
+
+        responder.userLogOn(user);
+
+        verify(waitingList).removeWaitingUser(user.getCode());
+    }
+
     @Test
     public void userLogOnShouldResetNickAndSendNickCrashMessageFirstIfUserHasMyNick() {
         user.setNick("me");
@@ -356,12 +406,98 @@ public class DefaultMessageResponderTest {
         verifyTopic(topic, "Current topic", "Harry", 2000);
     }
 
+    @Test
+    public void exposeRequestedShouldSendExposingAndClientInfoAfterADelay() {
+        final ArgumentCaptor<Runnable> replyCaptor = ArgumentCaptor.forClass(Runnable.class);
+        when(timer.schedule(eq("ExposingReply"), replyCaptor.capture(), anyLong())).thenReturn(mock(TimerHandle.class));
+
+        responder.exposeRequested();
+
+        verify(controller, never()).sendExposingMessage();
+
+        replyCaptor.getValue().run();
+
+        verify(controller).sendExposingMessage();
+        verify(controller).sendClientInfo();
+    }
+
+    @Test
+    public void exposeRequestedShouldOnlyReplyOnceToRequestsWhileAReplyIsPending() {
+        when(timer.schedule(eq("ExposingReply"), any(Runnable.class), anyLong())).thenReturn(mock(TimerHandle.class));
+
+        responder.exposeRequested();
+        responder.exposeRequested();
+        responder.exposeRequested();
+
+        verify(timer).schedule(eq("ExposingReply"), any(Runnable.class), anyLong());
+    }
+
+    @Test
+    public void topicRequestedShouldSendTopicAfterADelay() {
+        final ArgumentCaptor<Runnable> replyCaptor = ArgumentCaptor.forClass(Runnable.class);
+        when(timer.schedule(eq("TopicReply"), replyCaptor.capture(), anyLong())).thenReturn(mock(TimerHandle.class));
+
+        responder.topicRequested();
+
+        verify(controller, never()).sendTopicRequestedMessage();
+
+        replyCaptor.getValue().run();
+
+        verify(controller).sendTopicRequestedMessage();
+    }
+
+    @Test
+    public void topicChangedShouldSuppressPendingTopicReplyWhenTheSameTopicArrives() {
+        final ArgumentCaptor<Runnable> replyCaptor = ArgumentCaptor.forClass(Runnable.class);
+        final TimerHandle timerHandle = mock(TimerHandle.class);
+        when(timer.schedule(eq("TopicReply"), replyCaptor.capture(), anyLong())).thenReturn(timerHandle);
+        when(controller.getTopic()).thenReturn(new Topic("Current topic", "Niles", 1000));
+
+        responder.topicRequested();
+        responder.topicChanged(300, "Current topic", "Niles", 1000);
+
+        verify(timerHandle).cancel();
+
+        replyCaptor.getValue().run();
+
+        verify(controller, never()).sendTopicRequestedMessage();
+    }
+
+    @Test
+    public void topicChangedShouldSuppressPendingTopicReplyWhenANewerTopicArrives() {
+        final TimerHandle timerHandle = mock(TimerHandle.class);
+        when(timer.schedule(eq("TopicReply"), any(Runnable.class), anyLong())).thenReturn(timerHandle);
+        when(controller.getTopic()).thenReturn(new Topic("Old topic", "Niles", 1000));
+
+        responder.topicRequested();
+        responder.topicChanged(300, "New topic", "Niles", 2000);
+
+        verify(timerHandle).cancel();
+    }
+
+    @Test
+    public void topicChangedShouldNotSuppressPendingTopicReplyWhenAnOlderTopicArrives() {
+        final ArgumentCaptor<Runnable> replyCaptor = ArgumentCaptor.forClass(Runnable.class);
+        final TimerHandle timerHandle = mock(TimerHandle.class);
+        when(timer.schedule(eq("TopicReply"), replyCaptor.capture(), anyLong())).thenReturn(timerHandle);
+        when(controller.getTopic()).thenReturn(new Topic("New topic", "Niles", 2000));
+
+        responder.topicRequested();
+        responder.topicChanged(300, "Old topic", "Niles", 1000);
+
+        verify(timerHandle, never()).cancel();
+
+        replyCaptor.getValue().run();
+
+        verify(controller).sendTopicRequestedMessage();
+    }
+
     @Test
     public void clientInfoShouldFillDetailsOnKnownUser() {
         setUpExistingUser();
 
         responder.clientInfo(100, "swing", 150, "linux",
-                             4000, 5000);
+                             4000, 5000, Arrays.asList("deflate"));
 
         final long logonTime = System.currentTimeMillis() - 150;
         // Allow some slack to avoid flaky test
@@ -371,6 +507,32 @@ public class DefaultMessageResponderTest {
         assertEquals("linux", user.getOperatingSystem());
         assertEquals(4000, user.getPrivateChatPort());
         assertEquals(5000, user.getTcpChatPort());
+        assertTrue(user.hasCapability(ClientCapability.DEFLATE));
+    }
+
+    @Test
+    public void clientInfoShouldSetTheIdleIntervalOfTheUser() {
+        setUpExistingUser();
+
+        responder.clientInfo(100, "swing", 150, "linux",
+                             4000, 5000, Arrays.asList("deflate", "idleinterval=30000"));
+
+        assertEquals(30000, user.getIdleInterval());
+        assertTrue(user.hasCapability(ClientCapability.DEFLATE));
+        assertTrue(user.hasCapability(ClientCapability.IDLE_INTERVAL));
+        assertEquals(2, user.getCapabilities().size());
+    }
+
+    @Test
+    public void clientInfoShouldIgnoreInvalidIdleInterval() {
+        setUpExistingUser();
+
+        responder.clientInfo(100, "swing", 150, "linux",
+                             4000, 5000, Arrays.asList("deflate", "idleinterval=soon"));
+
+        assertEquals(0, user.getIdleInterval());
+        assertFalse(user.hasCapability(ClientCapability.IDLE_INTERVAL));
+        assertTrue(user.hasCapability(ClientCapability.DEFLATE));
     }
 
     @Test
@@ -378,7 +540,7 @@ public class DefaultMessageResponderTest {
         setUpUnknownUser();
 
         responder.clientInfo(100, "swing", 150, "linux",
-                             4000, 5000);
+                             4000, 5000, Arrays.asList("deflate"));
 
         assertEquals(0, user.getLogonTime());
         assertEquals("<unknown>", user.getClient());
@@ -387,6 +549,383 @@ public class DefaultMessageResponderTest {
         assertEquals(0, user.getTcpChatPort());
     }
 
+    @Test
+    public void clientInfoShouldAskUserWithRosterCapabilityForRoster() {
+        setUpExistingUser();
+
+        responder.clientInfo(100, "swing", 150, "linux",
+                             4000, 5000, Arrays.asList("roster"));
+
+        verify(timer).schedule(eq("RosterRequester"), any(RosterRequester.class), eq(0L));
+    }
+
+    @Test
+    public void clientInfoShouldNotAskUserWithoutRosterCapabilityForRoster() {
+        setUpExistingUser();
+
+        responder.clientInfo(100, "swing", 150, "linux",
+                             4000, 5000, Arrays.asList("deflate"));
+
+        verify(timer, never()).schedule(eq("RosterRequester"), any(Runnable.class), anyLong());
+    }
+
+    @Test
+    public void rosterRequestedShouldSendRosterToKnownUserWithTcp() {
+        setUpExistingUser();
+        user.setTcpEnabled(true);
+        when(controller.sendRoster(user)).thenReturn(true);
+
+        responder.rosterRequested(100);
+
+        verify(controller).sendRoster(user);
+    }
+
+    @Test
+    public void rosterRequestedShouldNotSendRosterToUserWithoutTcp() {
+        setUpExistingUser();
+
+        responder.rosterRequested(100);
+
+        verify(controller, never()).sendRoster(any(User.class));
+    }
+
+    @Test
+    public void rosterRequestedShouldNotSendRosterToUnknownUser() {
+        setUpUnknownUser();
+
+        responder.rosterRequested(100);
+
+        verify(controller, never()).sendRoster(any(User.class));
+    }
+
+    @Test
+    public void rosterArrivedShouldAddUsersAndContinueWaitingOperations() {
+        final User niles = new User("Niles", 1);
+        final User john = new User("John", 2);
+        final List<User> users = Arrays.asList(niles, john);
+        when(controller.addUsers(users)).thenReturn(Arrays.asList(john));
+
+        responder.rosterArrived(100, users);
+
+        verify(controller).addUsers(users);
+        verify(waitingList).removeWaitingUser(2);
+        verify(waitingList, never()).removeWaitingUser(1);
+    }
+
+    @Test
+    public void rosterArrivedShouldStopAskingForRoster() {
+        setUpExistingUser();
+
+        responder.rosterArrived(100, Collections.<User>emptyList());
+        responder.clientInfo(100, "swing", 150, "linux",
+                             4000, 5000, Arrays.asList("roster"));
+
+        verify(timer, never()).schedule(eq("RosterRequester"), any(Runnable.class), anyLong());
+    }
+
+    @Test
+    public void clientInfoShouldSetThePresenceVersionOfTheUser() {
+        setUpExistingUser();
+
+        responder.clientInfo(100, "swing", 150, "linux",
+                             4000, 5000, Arrays.asList("deflate", "presence=5"));
+
+        assertEquals(5, user.getPresenceVersion());
+        assertTrue(user.hasCapability(ClientCapability.PRESENCE));
+    }
+
+    @Test
+    public void clientInfoShouldNotOverwriteAKnownPresenceVersion() {
+        setUpExistingUser();
+        user.setPresenceVersion(8);
+
+        responder.clientInfo(100, "swing", 150, "linux",
+                             4000, 5000, Arrays.asList("presence=5"));
+
+        assertEquals(8, user.getPresenceVersion());
+    }
+
+    @Test
+    public void clientInfoShouldIgnoreInvalidPresenceVersion() {
+        setUpExistingUser();
+
+        responder.clientInfo(100, "swing", 150, "linux",
+                             4000, 5000, Arrays.asList("presence=new"));
+
+        assertEquals(0, user.getPresenceVersion());
+        assertFalse(user.hasCapability(ClientCapability.PRESENCE));
+    }
+
+    @Test
+    public void awayChangedShouldDoNothingIfTheAwayStateIsAlreadyKnown() throws CommandException {
+        setUpExistingUser();
+        user.setAway(true);
+        user.setAwayMsg("Gone");
+
+        responder.awayChanged(100, true, "Gone");
+
+        verify(controller, never()).changeAwayStatus(anyInt(), anyBoolean(), anyString());
+        verifyZeroInteractions(messageController);
+    }
+
+    @Test
+    public void nickChangedShouldDoNothingIfTheNickIsAlreadyKnown() {
+        setUpExistingUser();
+
+        responder.nickChanged(100, "Tester");
+
+        verify(controller, never()).changeNick(anyInt(), anyString());
+        verifyZeroInteractions(messageController);
+    }
+
+    @Test
+    public void presenceChangedShouldApplyCompleteStateAndSetVersion() throws CommandException {
+        setUpExistingUser();
+        user.setPresenceVersion(2);
+
+        responder.presenceChanged(createPresence("Tester", 6, true, "Lunch"), true);
+
+        verify(controller).changeAwayStatus(100, true, "Lunch");
+        verify(controller, never()).changeNick(anyInt(), anyString());
+        verify(controller, never()).sendPresenceRequest(any(User.class));
+        assertEquals(6, user.getPresenceVersion());
+    }
+
+    @Test
+    public void presenceChangedShouldApplyNextNickDeltaAndSetVersion() throws CommandException {
+        setUpExistingUser();
+        user.setPresenceVersion(2);
+
+        responder.presenceChanged(createPresence("Tester2", 3, false, ""), false);
+
+        verify(controller).changeNick(100, "Tester2");
+        verify(controller, never()).changeAwayStatus(anyInt(), anyBoolean(), anyString());
+        verify(controller, never()).sendPresenceRequest(any(User.class));
+        assertEquals(3, user.getPresenceVersion());
+    }
+
+    @Test
+    public void presenceChangedShouldRequestCompleteStateIfVersionsAreMissing() {
+        setUpExistingUser();
+        user.setPresenceVersion(2);
+
+        responder.presenceChanged(createPresence("Tester2", 5, false, ""), false);
+
+        verify(controller).changeNick(100, "Tester2");
+        verify(controller).sendPresenceRequest(user);
+        assertEquals(2, user.getPresenceVersion());
+    }
+
+    @Test
+    public void presenceChangedShouldIgnoreOldVersion() throws CommandException {
+        setUpExistingUser();
+        user.setPresenceVersion(4);
+
+        responder.presenceChanged(createPresence("Tester2", 4, true, "Lunch"), true);
+
+        verify(controller, never()).changeNick(anyInt(), anyString());
+        verify(controller, never()).changeAwayStatus(anyInt(), anyBoolean(), anyString());
+        assertEquals(4, user.getPresenceVersion());
+    }
+
+    @Test
+    public void presenceChangedShouldDoNothingOnUnknownUser() {
+        setUpUnknownUser();
+
+        responder.presenceChanged(createPresence("Tester2", 1, false, ""), false);
+
+        verify(controller, never()).changeNick(anyInt(), anyString());
+        verify(controller, never()).sendPresenceRequest(any(User.class));
+    }
+
+    @Test
+    public void presenceDigestArrivedShouldRequestCompleteStateIfVersionIsNewer() {
+        setUpExistingUser();
+        user.setCapabilities(Arrays.asList(ClientCapability.PRESENCE));
+        user.setPresenceVersion(2);
+
+        responder.presenceDigestArrived(100, 3);
+
+        verify(controller).sendPresenceRequest(user);
+    }
+
+    @Test
+    public void presenceDigestArrivedShouldDoNothingIfVersionIsKnown() {
+        setUpExistingUser();
+        user.setCapabilities(Arrays.asList(ClientCapability.PRESENCE));
+        user.setPresenceVersion(3);
+
+        responder.presenceDigestArrived(100, 3);
+
+        verify(controller, never()).sendPresenceRequest(any(User.class));
+    }
+
+    @Test
+    public void presenceDigestArrivedShouldDoNothingIfUserIsWithoutPresenceCapability() {
+        setUpExistingUser();
+
+        responder.presenceDigestArrived(100, 3);
+
+        verify(controller, never()).sendPresenceRequest(any(User.class));
+    }
+
+    @Test
+    public void presenceRequestedShouldSendPresenceToKnownUser() {
+        setUpExistingUser();
+
+        responder.presenceRequested(100);
+
+        verify(controller).sendPresenceMessage(user);
+    }
+
+    @Test
+    public void presenceRequestedShouldDoNothingOnUnknownUser() {
+        setUpUnknownUser();
+
+        responder.presenceRequested(100);
+
+        verify(controller, never()).sendPresenceMessage(any(User.class));
+    }
+
+    @Test
+    public void messagesRequestedShouldResendMessagesToKnownUser() {
+        setUpExistingUser();
+
+        responder.messagesRequested(100, true, Arrays.asList(3, 4));
+
+        verify(controller).resendMessages(user, true, Arrays.asList(3, 4));
+    }
+
+    @Test
+    public void messagesRequestedShouldDoNothingOnUnknownUser() {
+        setUpUnknownUser();
+
+        responder.messagesRequested(100, false, Arrays.asList(3));
+
+        verify(controller, never()).resendMessages(any(User.class), anyBoolean(), anyListOf(Integer.class));
+    }
+
+    @Test
+    public void meLogOnShouldRequestChatHistory() {
+        responder.meLogOn("192.168.1.2");
+
+        verify(controller).requestChatHistory();
+    }
+
+    @Test
+    public void historyRequestedShouldSendHistoryToKnownUserWithTcp() {
+        setUpExistingUser();
+        user.setTcpEnabled(true);
+        when(controller.sendChatHistory(user, 5000)).thenReturn(true);
+
+        responder.historyRequested(100, 5000);
+
+        verify(controller).sendChatHistory(user, 5000);
+    }
+
+    @Test
+    public void historyRequestedShouldDoNothingIfUserHasNoTcpConnection() {
+        setUpExistingUser();
+
+        responder.historyRequested(100, -1);
+
+        verify(controller, never()).sendChatHistory(any(User.class), anyLong());
+    }
+
+    @Test
+    public void historyRequestedShouldDoNothingOnUnknownUser() {
+        setUpUnknownUser();
+
+        responder.historyRequested(100, -1);
+
+        verify(controller, never()).sendChatHistory(any(User.class), anyLong());
+    }
+
+    @Test
+    public void historyArrivedShouldIgnoreHistoryThatWasNotAskedFor() {
+        responder.historyArrived(100, Arrays.asList(new ChatHistory.Entry(1000, 200, "Niles", 300, "Hello")));
+
+        verifyZeroInteractions(messageController);
+        assertTrue(chatHistory.getEntriesSince(0).isEmpty());
+    }
+
+    @Test
+    public void historyArrivedShouldShowAndKeepMissedMessages() {
+        when(controller.acceptChatHistory(100)).thenReturn(true);
+
+        responder.historyArrived(100, Arrays.asList(new ChatHistory.Entry(1000, 200, "Niles", 300, "Hello"),
+                                                    new ChatHistory.Entry(2000, 100, "Tester", 400, "Hi")));
+
+        final InOrder inOrder = inOrder(messageController);
+        inOrder.verify(messageController).showSystemMessage("Messages you missed (2):");
+        inOrder.verify(messageController).showHistoryMessage(1000, "Niles", "Hello", 300);
+        inOrder.verify(messageController).showHistoryMessage(2000, "Tester", "Hi", 400);
+        assertEquals(2, chatHistory.getEntriesSince(0).size());
+    }
+
+    @Test
+    public void historyArrivedShouldSkipMessagesAlreadyShown() {
+        when(controller.acceptChatHistory(100)).thenReturn(true);
+        chatHistory.add(new ChatHistory.Entry(1100, 200, "Niles", 300, "Hello"));
+
+        responder.historyArrived(100, Arrays.asList(new ChatHistory.Entry(1000, 200, "Niles", 300, "Hello"),
+                                                    new ChatHistory.Entry(2000, 100, "Tester", 400, "Hi")));
+
+        verify(messageController).showSystemMessage("Messages you missed (1):");
+        verify(messageController, never()).showHistoryMessage(anyLong(), eq("Niles"), anyString(), anyInt());
+        verify(messageController).showHistoryMessage(2000, "Tester", "Hi", 400);
+    }
+
+    @Test
+    public void historyArrivedShouldShowNothingIfNoMessagesWereMissed() {
+        when(controller.acceptChatHistory(100)).thenReturn(true);
+        chatHistory.add(new ChatHistory.Entry(1000, 200, "Niles", 300, "Hello"));
+
+        responder.historyArrived(100, Arrays.asList(new ChatHistory.Entry(1000, 200, "Niles", 300, "Hello")));
+
+        verifyZeroInteractions(messageController);
+    }
+
+    @Test
+    public void writingChangedShouldChangeWritingAndScheduleTimeout() {
+        setUpExistingUser();
+
+        responder.writingChanged(100, true);
+
+        verify(controller).changeWriting(100, true);
+        verify(timer).schedule(eq("WritingTimeouts"), any(Runnable.class), eq((long) WritingTimeouts.LEGACY_TIMEOUT));
+    }
+
+    @Test
+    public void writingChangedShouldNotScheduleTimeoutForUnknownUser() {
+        setUpUnknownUser();
+
+        responder.writingChanged(100, true);
+
+        verify(controller).changeWriting(100, true);
+        verify(timer, never()).schedule(eq("WritingTimeouts"), any(Runnable.class), anyLong());
+    }
+
+    @Test
+    public void messageArrivedShouldStopWritingForTheUser() {
+        setUpExistingUser();
+        user.setWriting(true);
+
+        responder.messageArrived(100, "msg", 200);
+
+        verify(controller).changeWriting(100, false);
+        verify(messageController).showUserMessage("Tester", "msg", 200);
+    }
+
+    private User createPresence(final String nick, final int presenceVersion, final boolean away, final String awayMsg) {
+        final User presence = new User(nick, 100);
+        presence.setPresenceVersion(presenceVersion);
+        presence.setAway(away);
+        presence.setAwayMsg(awayMsg);
+
+        return presence;
+    }
+
     private void verifyTopic(final Topic topic, final String expectedTopic, final String expectedNick,
                              final long expectedTime) {
         assertEquals(expectedTopic, topic.getTopic());
@@ -0,0 +1,193 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.Random;
+
+import net.usikkert.kouchat.junit.ExpectedException;
+import net.usikkert.kouchat.misc.SortedUserList;
+import net.usikkert.kouchat.misc.User;
+import net.usikkert.kouchat.misc.UserList;
+import net.usikkert.kouchat.util.HashedWheelTimer;
+import net.usikkert.kouchat.util.TimerHandle;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Test of {@link DelayedReply}.
+ *
+ * @author Christian Ihle
+ */
+public class DelayedReplyTest {
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    private DelayedReply delayedReply;
+
+    private HashedWheelTimer timer;
+    private TimerHandle timerHandle;
+    private UserList userList;
+    private Runnable reply;
+    private Random random;
+
+    @Before
+    public void setUp() {
+        timer = mock(HashedWheelTimer.class);
+        timerHandle = mock(TimerHandle.class);
+        userList = new SortedUserList();
+        reply = mock(Runnable.class);
+        random = mock(Random.class);
+
+        when(timer.schedule(anyString(), any(Runnable.class), anyLong())).thenReturn(timerHandle);
+        when(random.nextInt(anyInt())).thenReturn(42);
+
+        delayedReply = new DelayedReply("TestReply", timer, userList, reply, random);
+    }
+
+    @Test
+    public void constructorShouldThrowExceptionIfNameIsEmpty() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Name can not be empty");
+
+        new DelayedReply(" ", timer, userList, reply);
+    }
+
+    @Test
+    public void constructorShouldThrowExceptionIfTimerIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Timer can not be null");
+
+        new DelayedReply("TestReply", null, userList, reply);
+    }
+
+    @Test
+    public void constructorShouldThrowExceptionIfUserListIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("User list can not be null");
+
+        new DelayedReply("TestReply", timer, null, reply);
+    }
+
+    @Test
+    public void constructorShouldThrowExceptionIfReplyIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Reply can not be null");
+
+        new DelayedReply("TestReply", timer, userList, null);
+    }
+
+    @Test
+    public void requestShouldScheduleReplyWithRandomDelay() {
+        addUsers(10);
+
+        assertTrue(delayedReply.request());
+
+        verify(random).nextInt(51);
+        verify(timer).schedule("TestReply", delayedReply, 42);
+        assertTrue(delayedReply.isPending());
+        verifyZeroInteractions(reply);
+    }
+
+    @Test
+    public void requestShouldNotScheduleAgainWhileReplyIsPending() {
+        assertTrue(delayedReply.request());
+        assertFalse(delayedReply.request());
+
+        verify(timer).schedule(anyString(), any(Runnable.class), anyLong());
+    }
+
+    @Test
+    public void requestShouldScheduleAgainAfterReplyWasSent() {
+        delayedReply.request();
+        delayedReply.run();
+
+        assertFalse(delayedReply.isPending());
+        assertTrue(delayedReply.request());
+
+        verify(timer, times(2)).schedule(anyString(), any(Runnable.class), anyLong());
+    }
+
+    @Test
+    public void runShouldSendTheReply() {
+        delayedReply.request();
+        delayedReply.run();
+
+        verify(reply).run();
+    }
+
+    @Test
+    public void suppressShouldCancelThePendingReply() {
+        delayedReply.request();
+
+        assertTrue(delayedReply.suppress());
+
+        verify(timerHandle).cancel();
+        assertFalse(delayedReply.isPending());
+    }
+
+    @Test
+    public void suppressShouldReturnFalseIfNoReplyIsPending() {
+        assertFalse(delayedReply.suppress());
+    }
+
+    @Test
+    public void runShouldNotSendReplyThatWasSuppressed() {
+        delayedReply.request();
+        delayedReply.suppress();
+        delayedReply.run();
+
+        verifyZeroInteractions(reply);
+    }
+
+    @Test
+    public void getMaxDelayShouldGrowWithTheNumberOfUsers() {
+        assertEquals(0, delayedReply.getMaxDelay());
+
+        addUsers(1);
+        assertEquals(DelayedReply.DELAY_PER_USER, delayedReply.getMaxDelay());
+
+        addUsers(99);
+        assertEquals(100 * DelayedReply.DELAY_PER_USER, delayedReply.getMaxDelay());
+    }
+
+    @Test
+    public void getMaxDelayShouldNotGrowBeyondMaxDelay() {
+        addUsers(300);
+
+        assertEquals(DelayedReply.MAX_DELAY, delayedReply.getMaxDelay());
+    }
+
+    private void addUsers(final int count) {
+        final int start = userList.size();
+
+        for (int i = start; i < start + count; i++) {
+            userList.add(new User("User" + i, i));
+        }
+    }
+}
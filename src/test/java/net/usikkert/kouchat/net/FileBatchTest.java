@@ -0,0 +1,194 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import net.usikkert.kouchat.junit.ExpectedException;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test of {@link FileBatch} and {@link FileBatchExtractor}.
+ *
+ * @author Christian Ihle
+ */
+public class FileBatchTest {
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File sourceFolder;
+    private File targetFolder;
+
+    @Before
+    public void setUp() throws IOException {
+        sourceFolder = temporaryFolder.newFolder("photos");
+        targetFolder = new File(temporaryFolder.getRoot(), "received");
+
+        writeFile(new File(sourceFolder, "a.txt"), "first file");
+        writeFile(new File(sourceFolder, "empty.txt"), "");
+        new File(sourceFolder, "sub/deeper").mkdirs();
+        new File(sourceFolder, "nothing").mkdirs();
+        writeFile(new File(sourceFolder, "sub/deeper/b.txt"), "second file");
+    }
+
+    @Test
+    public void constructorShouldThrowExceptionIfFolderIsNull() throws IOException {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Folder can not be null");
+
+        new FileBatch(null);
+    }
+
+    @Test
+    public void createFileToSendShouldUseNameOfFolderAndLengthOfStream() throws IOException {
+        final FileBatch fileBatch = new FileBatch(sourceFolder);
+        final FileToSend fileToSend = fileBatch.createFileToSend();
+
+        assertEquals("photos", fileToSend.getName());
+        assertEquals(fileBatch.length(), fileToSend.length());
+        assertTrue(fileToSend.isBatch());
+        assertEquals(3, fileBatch.getFileCount());
+    }
+
+    @Test
+    public void createFileToSendShouldReturnSingleFileIfNotFolder() throws IOException {
+        final FileToSend fileToSend = FileBatch.createFileToSend(new File(sourceFolder, "a.txt"));
+
+        assertEquals("a.txt", fileToSend.getName());
+        assertFalse(fileToSend.isBatch());
+    }
+
+    @Test
+    public void streamShouldHaveSameLengthAsCalculated() throws IOException {
+        final FileBatch fileBatch = new FileBatch(sourceFolder);
+
+        assertEquals(fileBatch.length(), readAll(fileBatch.open()).length);
+    }
+
+    @Test
+    public void extractorShouldRestoreAllFilesAndFolders() throws IOException {
+        final byte[] stream = readAll(new FileBatch(sourceFolder).open());
+        final FileBatchExtractor extractor = new FileBatchExtractor(targetFolder);
+
+        // Write a few bytes at a time, to make sure headers split between writes are handled
+        for (int i = 0; i < stream.length; i += 3) {
+            extractor.write(stream, i, Math.min(3, stream.length - i));
+        }
+
+        extractor.close();
+
+        assertTrue(extractor.isComplete());
+        assertEquals("first file", readFile(new File(targetFolder, "a.txt")));
+        assertEquals("", readFile(new File(targetFolder, "empty.txt")));
+        assertEquals("second file", readFile(new File(targetFolder, "sub/deeper/b.txt")));
+        assertTrue(new File(targetFolder, "nothing").isDirectory());
+    }
+
+    @Test
+    public void extractorShouldNotBeCompleteBeforeEndOfBatch() throws IOException {
+        final byte[] stream = readAll(new FileBatch(sourceFolder).open());
+        final FileBatchExtractor extractor = new FileBatchExtractor(targetFolder);
+
+        extractor.write(stream, 0, stream.length - 1);
+        extractor.close();
+
+        assertFalse(extractor.isComplete());
+    }
+
+    @Test
+    public void extractorShouldRejectPathOutsideOfFolder() throws IOException {
+        expectedException.expect(IOException.class);
+        expectedException.expectMessage("Invalid path in file batch: ../evil.txt");
+
+        writeEntry(new FileBatchExtractor(targetFolder), "../evil.txt");
+    }
+
+    @Test
+    public void extractorShouldRejectAbsolutePath() throws IOException {
+        expectedException.expect(IOException.class);
+        expectedException.expectMessage("Invalid path in file batch: /tmp/evil.txt");
+
+        writeEntry(new FileBatchExtractor(targetFolder), "/tmp/evil.txt");
+    }
+
+    @Test
+    public void extractorShouldRejectDataAfterEndOfBatch() throws IOException {
+        final byte[] stream = readAll(new FileBatch(sourceFolder).open());
+        final FileBatchExtractor extractor = new FileBatchExtractor(targetFolder);
+        extractor.write(stream);
+
+        expectedException.expect(IOException.class);
+        expectedException.expectMessage("Unexpected data after the end of the batch");
+
+        extractor.write(1);
+    }
+
+    private void writeEntry(final OutputStream outputStream, final String path) throws IOException {
+        final DataOutputStream out = new DataOutputStream(outputStream);
+        out.writeUTF(path);
+        out.writeLong(4);
+        out.write("evil".getBytes(StandardCharsets.UTF_8));
+    }
+
+    private byte[] readAll(final InputStream inputStream) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[7];
+        int read;
+
+        while ((read = inputStream.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+
+        inputStream.close();
+
+        return bytes.toByteArray();
+    }
+
+    private void writeFile(final File file, final String contents) throws IOException {
+        try (final FileOutputStream out = new FileOutputStream(file)) {
+            out.write(contents.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private String readFile(final File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+}
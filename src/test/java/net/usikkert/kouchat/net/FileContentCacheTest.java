@@ -0,0 +1,209 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import net.usikkert.kouchat.junit.ExpectedException;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test of {@link FileContentCache}.
+ *
+ * @author Christian Ihle
+ */
+public class FileContentCacheTest {
+
+    private static final String ABC_HASH = "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad";
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File cacheDirectory;
+    private FileContentCache cache;
+
+    @Before
+    public void setUp() {
+        cacheDirectory = new File(temporaryFolder.getRoot(), "cache");
+        cache = new FileContentCache(cacheDirectory);
+    }
+
+    @Test
+    public void constructorShouldThrowExceptionIfDirectoryIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Directory can not be null");
+
+        new FileContentCache(null);
+    }
+
+    @Test
+    public void createContentHashShouldCreateSha256AsHex() throws IOException {
+        assertEquals(ABC_HASH, FileContentCache.createContentHash(new ByteArrayInputStream(bytes("abc"))));
+    }
+
+    @Test
+    public void isValidContentHashShouldOnlyAcceptLowerCaseSha256Hex() {
+        assertTrue(FileContentCache.isValidContentHash(ABC_HASH));
+
+        assertFalse(FileContentCache.isValidContentHash(null));
+        assertFalse(FileContentCache.isValidContentHash(""));
+        assertFalse(FileContentCache.isValidContentHash(ABC_HASH.toUpperCase()));
+        assertFalse(FileContentCache.isValidContentHash(ABC_HASH.substring(1)));
+        assertFalse(FileContentCache.isValidContentHash("../" + ABC_HASH.substring(3)));
+    }
+
+    @Test
+    public void restoreShouldReturnFalseIfNotInCache() {
+        assertFalse(cache.restore(ABC_HASH, 3, new File(temporaryFolder.getRoot(), "target")));
+    }
+
+    @Test
+    public void restoreShouldReturnFalseIfContentHashIsInvalid() {
+        assertFalse(cache.restore("../../secret", 3, new File(temporaryFolder.getRoot(), "target")));
+    }
+
+    @Test
+    public void storeAndRestoreShouldGiveFileWithSameContent() throws IOException {
+        final File received = createFile("received", "abc");
+        cache.store(ABC_HASH, received);
+
+        final File target = new File(temporaryFolder.getRoot(), "target");
+        assertTrue(cache.restore(ABC_HASH, 3, target));
+
+        assertEquals("abc", read(target));
+    }
+
+    @Test
+    public void restoreShouldReplaceExistingTarget() throws IOException {
+        cache.store(ABC_HASH, createFile("received", "abc"));
+        final File target = createFile("target", "something else");
+
+        assertTrue(cache.restore(ABC_HASH, 3, target));
+
+        assertEquals("abc", read(target));
+    }
+
+    @Test
+    public void restoreShouldCopySoChangesToTheRestoredFileDoNotChangeTheReceivedFile() throws IOException {
+        final File received = createFile("received", "abc");
+        cache.store(ABC_HASH, received);
+
+        final File target = new File(temporaryFolder.getRoot(), "target");
+        assertTrue(cache.restore(ABC_HASH, 3, target));
+        Files.write(target.toPath(), bytes("changed"));
+
+        assertEquals("abc", read(received));
+        assertEquals("abc", read(new File(cacheDirectory, ABC_HASH)));
+
+        final File secondTarget = new File(temporaryFolder.getRoot(), "secondTarget");
+        assertTrue(cache.restore(ABC_HASH, 3, secondTarget));
+        assertEquals("abc", read(secondTarget));
+    }
+
+    @Test
+    public void restoreShouldReturnFalseIfSizeIsDifferent() throws IOException {
+        cache.store(ABC_HASH, createFile("received", "abc"));
+
+        assertFalse(cache.restore(ABC_HASH, 4, new File(temporaryFolder.getRoot(), "target")));
+    }
+
+    @Test
+    public void restoreShouldRemoveCachedFileIfContentHasChanged() throws IOException {
+        final File received = createFile("received", "abc");
+        cache.store(ABC_HASH, received);
+
+        // Changes the cached file as well if it's a hard link
+        final File cachedFile = new File(cacheDirectory, ABC_HASH);
+        Files.write(cachedFile.toPath(), bytes("abd"));
+
+        assertFalse(cache.restore(ABC_HASH, 3, new File(temporaryFolder.getRoot(), "target")));
+        assertFalse(cachedFile.exists());
+    }
+
+    @Test
+    public void storeShouldIgnoreFileNotMatchingContentHash() throws IOException {
+        cache.store(ABC_HASH, createFile("received", "abd"));
+
+        assertFalse(new File(cacheDirectory, ABC_HASH).exists());
+    }
+
+    @Test
+    public void storeShouldIgnoreInvalidContentHash() throws IOException {
+        cache.store("../abc", createFile("received", "abc"));
+
+        assertFalse(cacheDirectory.exists());
+    }
+
+    @Test
+    public void storeShouldRemoveOldestFilesWhenCacheIsFull() throws IOException {
+        cache = new FileContentCache(cacheDirectory, 10);
+
+        final File first = createFile("first", "12345");
+        final File second = createFile("second", "67890");
+        final File third = createFile("third", "abc");
+        final String firstHash = hash("12345");
+        final String secondHash = hash("67890");
+
+        cache.store(firstHash, first);
+        new File(cacheDirectory, firstHash).setLastModified(System.currentTimeMillis() - 20000);
+        cache.store(secondHash, second);
+        new File(cacheDirectory, secondHash).setLastModified(System.currentTimeMillis() - 10000);
+        cache.store(ABC_HASH, third);
+
+        assertFalse(new File(cacheDirectory, firstHash).exists());
+        assertTrue(new File(cacheDirectory, secondHash).exists());
+        assertTrue(new File(cacheDirectory, ABC_HASH).exists());
+    }
+
+    private File createFile(final String name, final String content) throws IOException {
+        final File file = new File(temporaryFolder.getRoot(), name);
+        Files.write(file.toPath(), bytes(content));
+
+        return file;
+    }
+
+    private String read(final File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    private String hash(final String content) throws IOException {
+        return FileContentCache.createContentHash(new ByteArrayInputStream(bytes(content)));
+    }
+
+    private byte[] bytes(final String content) {
+        return content.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -23,10 +23,14 @@
 package net.usikkert.kouchat.net;
 
 import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
 
 import java.io.File;
 
+import net.usikkert.kouchat.event.FileTransferListener;
 import net.usikkert.kouchat.misc.User;
+import net.usikkert.kouchat.settings.Settings;
+import net.usikkert.kouchat.util.HashedWheelTimer;
 
 import org.junit.Test;
 
@@ -39,7 +43,8 @@ public class FileReceiverTest {
 
     @Test
     public void getOriginalFileNameShouldReturnTheNameOfTheFileFromTheConstructorEvenAfterChange() {
-        final FileReceiver fileReceiver = new FileReceiver(new User("Test", 123), new File("cows.gif"), 100, 1);
+        final FileReceiver fileReceiver = new FileReceiver(new User("Test", 123), new File("cows.gif"), 100, 1,
+                                                            new TransferScheduler(new Settings()), mock(HashedWheelTimer.class));
 
         assertEquals("cows.gif", fileReceiver.getOriginalFileName());
         assertEquals("cows.gif", fileReceiver.getFileName());
@@ -51,4 +56,49 @@ public class FileReceiverTest {
         assertEquals("chickens.jpg", fileReceiver.getFileName());
         assertEquals("chickens.jpg", fileReceiver.getFile().getName());
     }
+
+    @Test
+    public void transferFromCacheShouldCompleteIfRestored() {
+        final File file = new File("cows.gif");
+        final FileReceiver fileReceiver = new FileReceiver(new User("Test", 123), file, 100, 1,
+                                                            new TransferScheduler(new Settings()), mock(HashedWheelTimer.class));
+        final FileTransferListener listener = mock(FileTransferListener.class);
+        fileReceiver.registerListener(listener);
+        final FileContentCache cache = mock(FileContentCache.class);
+        when(cache.restore("hash", 100, file)).thenReturn(true);
+
+        assertTrue(fileReceiver.transferFromCache(cache, "hash"));
+
+        assertTrue(fileReceiver.isTransferred());
+        assertEquals(100, fileReceiver.getTransferred());
+        assertEquals(100, fileReceiver.getPercent());
+        verify(listener).statusCompleted();
+    }
+
+    @Test
+    public void transferFromCacheShouldDoNothingIfNotRestored() {
+        final FileReceiver fileReceiver = new FileReceiver(new User("Test", 123), new File("cows.gif"), 100, 1,
+                                                            new TransferScheduler(new Settings()), mock(HashedWheelTimer.class));
+        final FileTransferListener listener = mock(FileTransferListener.class);
+        fileReceiver.registerListener(listener);
+
+        assertFalse(fileReceiver.transferFromCache(mock(FileContentCache.class), "hash"));
+
+        assertFalse(fileReceiver.isTransferred());
+        assertEquals(0, fileReceiver.getTransferred());
+        verify(listener, never()).statusCompleted();
+    }
+
+    @Test
+    public void transferFromCacheShouldNotBeUsedForBatch() {
+        final File folder = new File("cows");
+        final FileReceiver fileReceiver = new FileReceiver(new User("Test", 123), folder, 100, 1,
+                                                            new TransferScheduler(new Settings()), mock(HashedWheelTimer.class),
+                                                            true);
+        final FileContentCache cache = mock(FileContentCache.class);
+        when(cache.restore("hash", 100, folder)).thenReturn(true);
+
+        assertFalse(fileReceiver.transferFromCache(cache, "hash"));
+        verifyZeroInteractions(cache);
+    }
 }
@@ -0,0 +1,296 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+package net.usikkert.kouchat.net;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.usikkert.kouchat.misc.User;
+import net.usikkert.kouchat.settings.Settings;
+import net.usikkert.kouchat.testclient.TestClientFileTransferListener;
+import net.usikkert.kouchat.util.HashedWheelTimer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.management.ThreadMXBean;
+
+/**
+ * Benchmark of {@link FileSender} and {@link FileReceiver} pairs transferring files over loopback.
+ *
+ * <p>Runs every file size with every level of concurrency, and reports the throughput, the cpu time
+ * spent per gigabyte, and the allocation rate of the transfer threads. The files to send are sparse,
+ * so only the received files use disk space. Sizes that don't fit on the disk are skipped.</p>
+ *
+ * <p>Compare the results before and after changes to the file transfers.</p>
+ *
+ * @author Christian Ihle
+ */
+@Ignore("Run manually")
+@SuppressWarnings("HardCodedStringLiteral")
+public class FileTransferBenchmarkTest {
+
+    private static final long KB = 1024;
+    private static final long MB = 1024 * KB;
+    private static final long GB = 1024 * MB;
+
+    private static final long[] FILE_SIZES = {KB, MB, 16 * MB, 256 * MB, GB, 8 * GB};
+    private static final int[] CONCURRENCY_LEVELS = {1, 2, 4, 8};
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final ThreadMXBean threadMXBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private TransferScheduler transferScheduler;
+    private HashedWheelTimer timer;
+    private FileTransferServer fileTransferServer;
+    private ExecutorService executorService;
+    private int transferIdCounter;
+
+    @Before
+    public void setUp() {
+        transferScheduler = new TransferScheduler(new Settings());
+        timer = new HashedWheelTimer("TestTimer");
+        fileTransferServer = new FileTransferServer(timer);
+        executorService = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        executorService.shutdownNow();
+        fileTransferServer.stopServer();
+        timer.stop();
+    }
+
+    @Test
+    public void benchmarkTransfersOnSharedPort() throws Exception {
+        benchmarkTransfers(true);
+    }
+
+    @Test
+    public void benchmarkTransfersOnDedicatedPorts() throws Exception {
+        benchmarkTransfers(false);
+    }
+
+    private void benchmarkTransfers(final boolean sharedPort) throws Exception {
+        // Warm up the jit before measuring anything
+        for (int i = 0; i < 5; i++) {
+            transferFiles(16 * MB, 2, sharedPort);
+        }
+
+        System.out.println(sharedPort ? "Shared port:" : "Dedicated ports:");
+        System.out.println(String.format("%10s %5s %10s %12s %12s", "Size", "Pairs", "MB/s", "CPU s/GB", "Alloc MB/s"));
+
+        for (final long fileSize : FILE_SIZES) {
+            for (final int concurrency : CONCURRENCY_LEVELS) {
+                if (fileSize * concurrency > temporaryFolder.getRoot().getUsableSpace() / 2) {
+                    System.out.println(String.format("%10s %5d %s", formatSize(fileSize), concurrency,
+                                                     "skipped, not enough disk space"));
+                }
+
+                else {
+                    printResult(fileSize, concurrency, transferFiles(fileSize, concurrency, sharedPort));
+                }
+            }
+        }
+    }
+
+    /**
+     * Transfers files of the specified size between the specified number of sender and receiver pairs
+     * at the same time, and measures the transfer threads. The receivers use the shared server,
+     * like between clients supporting it, or a server socket each.
+     */
+    private Result transferFiles(final long fileSize, final int concurrency, final boolean sharedPort) throws Exception {
+        final CountDownLatch startSignal = new CountDownLatch(1);
+        final List<Future<Measurement>> futures = new ArrayList<>();
+        final List<File> files = new ArrayList<>();
+
+        for (int i = 0; i < concurrency; i++) {
+            final int id = ++transferIdCounter;
+            final File sourceFile = createSparseFile("source" + id + ".bin", fileSize);
+            final File targetFile = new File(temporaryFolder.getRoot(), "target" + id + ".bin");
+            files.add(sourceFile);
+            files.add(targetFile);
+
+            final User sendingUser = new User("Sender" + id, 1000 + id);
+            sendingUser.setIpAddress("127.0.0.1");
+            final User receivingUser = new User("Receiver" + id, 2000 + id);
+            receivingUser.setIpAddress("127.0.0.1");
+
+            final FileReceiver fileReceiver = new FileReceiver(sendingUser, targetFile, fileSize, id, transferScheduler, timer);
+            new TestClientFileTransferListener(fileReceiver);
+            final FileSender fileSender = new FileSender(receivingUser, new FileToSend(sourceFile), id, transferScheduler,
+                                                         timer);
+            new TestClientFileTransferListener(fileSender);
+
+            final int port = sharedPort ? fileReceiver.startSharedServer(fileTransferServer)
+                                        : fileReceiver.startServer(fileTransferServer);
+            final int transferId = sharedPort ? id : 0;
+
+            futures.add(executorService.submit(new MeasuredTransfer(startSignal) {
+                @Override
+                boolean transfer() {
+                    return fileReceiver.transfer(false);
+                }
+            }));
+
+            futures.add(executorService.submit(new MeasuredTransfer(startSignal) {
+                @Override
+                boolean transfer() {
+                    return fileSender.transfer(port, false, transferId);
+                }
+            }));
+        }
+
+        final long start = System.nanoTime();
+        startSignal.countDown();
+
+        long cpuTime = 0;
+        long allocatedBytes = 0;
+
+        for (final Future<Measurement> future : futures) {
+            final Measurement measurement = future.get();
+            assertTrue("Transfer failed", measurement.success);
+
+            cpuTime += measurement.cpuTime;
+            allocatedBytes += measurement.allocatedBytes;
+        }
+
+        final long time = System.nanoTime() - start;
+
+        for (final File file : files) {
+            assertEquals(fileSize, file.length());
+            assertTrue(file.delete());
+        }
+
+        return new Result(fileSize * concurrency, time, cpuTime, allocatedBytes);
+    }
+
+    private File createSparseFile(final String fileName, final long fileSize) throws IOException {
+        final File file = new File(temporaryFolder.getRoot(), fileName);
+
+        try (final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.setLength(fileSize);
+        }
+
+        return file;
+    }
+
+    private void printResult(final long fileSize, final int concurrency, final Result result) {
+        final double seconds = result.time / 1000000000.0;
+        final double gigabytes = (double) result.bytes / GB;
+
+        final double throughput = result.bytes / seconds / MB;
+        final double cpuPerGigabyte = result.cpuTime / 1000000000.0 / gigabytes;
+        final double allocationRate = result.allocatedBytes / seconds / MB;
+
+        System.out.println(String.format("%10s %5d %10.2f %12.3f %12.2f",
+                                         formatSize(fileSize), concurrency, throughput, cpuPerGigabyte, allocationRate));
+    }
+
+    private String formatSize(final long fileSize) {
+        if (fileSize >= GB) {
+            return fileSize / GB + "GB";
+        }
+
+        if (fileSize >= MB) {
+            return fileSize / MB + "MB";
+        }
+
+        return fileSize / KB + "KB";
+    }
+
+    /**
+     * Runs a transfer when the start signal is given, and measures the cpu time and allocations
+     * of the thread doing the transfer.
+     */
+    private abstract class MeasuredTransfer implements Callable<Measurement> {
+
+        private final CountDownLatch startSignal;
+
+        MeasuredTransfer(final CountDownLatch startSignal) {
+            this.startSignal = startSignal;
+        }
+
+        abstract boolean transfer();
+
+        @Override
+        public Measurement call() throws Exception {
+            final long threadId = Thread.currentThread().getId();
+            startSignal.await();
+
+            final long cpuTimeBefore = threadMXBean.getCurrentThreadCpuTime();
+            final long allocatedBytesBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+
+            final boolean success = transfer();
+
+            final long cpuTime = threadMXBean.getCurrentThreadCpuTime() - cpuTimeBefore;
+            final long allocatedBytes = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBytesBefore;
+
+            return new Measurement(success, cpuTime, allocatedBytes);
+        }
+    }
+
+    private static class Measurement {
+
+        private final boolean success;
+        private final long cpuTime;
+        private final long allocatedBytes;
+
+        Measurement(final boolean success, final long cpuTime, final long allocatedBytes) {
+            this.success = success;
+            this.cpuTime = cpuTime;
+            this.allocatedBytes = allocatedBytes;
+        }
+    }
+
+    private static class Result {
+
+        private final long bytes;
+        private final long time;
+        private final long cpuTime;
+        private final long allocatedBytes;
+
+        Result(final long bytes, final long time, final long cpuTime, final long allocatedBytes) {
+            this.bytes = bytes;
+            this.time = time;
+            this.cpuTime = cpuTime;
+            this.allocatedBytes = allocatedBytes;
+        }
+    }
+}
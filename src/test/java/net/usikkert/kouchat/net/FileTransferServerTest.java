@@ -0,0 +1,251 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import net.usikkert.kouchat.event.FileTransferListener;
+import net.usikkert.kouchat.junit.ExpectedException;
+import net.usikkert.kouchat.misc.User;
+import net.usikkert.kouchat.settings.Settings;
+import net.usikkert.kouchat.util.HashedWheelTimer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test of {@link FileTransferServer}.
+ *
+ * @author Christian Ihle
+ */
+public class FileTransferServerTest {
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private HashedWheelTimer timer;
+    private FileTransferServer server;
+    private TransferScheduler transferScheduler;
+    private User user;
+    private ExecutorService executorService;
+
+    @Before
+    public void setUp() {
+        timer = new HashedWheelTimer("TestTimer");
+        server = new FileTransferServer(timer);
+        transferScheduler = new TransferScheduler(new Settings());
+        executorService = Executors.newCachedThreadPool();
+
+        user = new User("Test", 123);
+        user.setIpAddress("127.0.0.1");
+    }
+
+    @After
+    public void tearDown() {
+        server.stopServer();
+        timer.stop();
+        executorService.shutdownNow();
+    }
+
+    @Test
+    public void registerShouldThrowExceptionIfFileReceiverIsNull() throws ServerException {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("File receiver can not be null");
+
+        server.register(null);
+    }
+
+    @Test
+    public void registerShouldUseTheSamePortForAllFileReceivers() throws ServerException {
+        final int port1 = server.register(createFileReceiver(1));
+        final int port2 = server.register(createFileReceiver(2));
+
+        assertTrue(port1 > 0);
+        assertEquals(port1, port2);
+        assertEquals(port1, server.getPort());
+        assertEquals(2, server.getPendingReceiverCount());
+    }
+
+    @Test
+    public void unregisterShouldStopWaitingForConnection() throws ServerException {
+        final FileReceiver fileReceiver = createFileReceiver(1);
+        server.register(fileReceiver);
+
+        server.unregister(fileReceiver);
+
+        assertEquals(0, server.getPendingReceiverCount());
+    }
+
+    @Test
+    public void unregisterShouldNotRemoveOtherFileReceiverWithSameId() throws ServerException {
+        server.register(createFileReceiver(1));
+
+        server.unregister(createFileReceiver(1));
+
+        assertEquals(1, server.getPendingReceiverCount());
+    }
+
+    @Test
+    public void stopServerShouldTimeOutWaitingFileReceivers() throws ServerException {
+        final FileReceiver fileReceiver = mock(FileReceiver.class);
+        when(fileReceiver.getId()).thenReturn(5);
+        server.register(fileReceiver);
+
+        server.stopServer();
+
+        verify(fileReceiver).connectionTimedOut();
+        assertEquals(0, server.getPendingReceiverCount());
+        assertEquals(0, server.getPort());
+    }
+
+    @Test
+    public void connectionShouldBeRoutedToFileReceiverWithTransferId() throws Exception {
+        final byte[] data1 = createData(20000, 1);
+        final byte[] data2 = createData(30000, 2);
+
+        final FileReceiver fileReceiver1 = createFileReceiver(1, data1.length);
+        final FileReceiver fileReceiver2 = createFileReceiver(2, data2.length);
+        final int port = fileReceiver1.startSharedServer(server);
+        assertEquals(port, fileReceiver2.startSharedServer(server));
+
+        final Future<Boolean> received1 = receive(fileReceiver1, false);
+        final Future<Boolean> received2 = receive(fileReceiver2, true);
+
+        // Opposite order of registration, to show that routing is by id
+        assertTrue(createFileSender(data2).transfer(port, true, 2));
+        assertTrue(createFileSender(data1).transfer(port, false, 1));
+
+        assertTrue(received1.get(5, TimeUnit.SECONDS));
+        assertTrue(received2.get(5, TimeUnit.SECONDS));
+        assertArrayEquals(data1, Files.readAllBytes(fileReceiver1.getFile().toPath()));
+        assertArrayEquals(data2, Files.readAllBytes(fileReceiver2.getFile().toPath()));
+        assertEquals(0, server.getPendingReceiverCount());
+    }
+
+    @Test
+    public void connectionToUnknownTransferIdShouldBeClosed() throws Exception {
+        final int port = server.register(createFileReceiver(1));
+
+        final Socket socket = new Socket("127.0.0.1", port);
+        FileTransferServer.writePreamble(socket, 2);
+
+        assertEquals(-1, socket.getInputStream().read());
+        assertEquals(1, server.getPendingReceiverCount());
+        socket.close();
+    }
+
+    @Test
+    public void connectionWithoutPreambleShouldBeClosed() throws Exception {
+        final int port = server.register(createFileReceiver(1));
+
+        final Socket socket = new Socket("127.0.0.1", port);
+        socket.getOutputStream().write(new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+
+        assertClosedByServer(socket);
+        assertEquals(1, server.getPendingReceiverCount());
+        socket.close();
+    }
+
+    @Test
+    public void cancelShouldStopFileReceiverWaitingForConnection() throws Exception {
+        final FileReceiver fileReceiver = createFileReceiver(1, 100);
+        fileReceiver.startSharedServer(server);
+        final Future<Boolean> received = receive(fileReceiver, false);
+
+        fileReceiver.cancel();
+
+        assertFalse(received.get(5, TimeUnit.SECONDS));
+        assertEquals(0, server.getPendingReceiverCount());
+    }
+
+    /**
+     * The server closes the connection without reading everything that was sent, so the operating system
+     * may reset the connection instead of ending it normally.
+     */
+    private void assertClosedByServer(final Socket socket) throws IOException {
+        try {
+            assertEquals(-1, socket.getInputStream().read());
+        }
+
+        catch (final SocketException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Connection reset"));
+        }
+    }
+
+    private Future<Boolean> receive(final FileReceiver fileReceiver, final boolean compressed) {
+        return executorService.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return fileReceiver.transfer(compressed);
+            }
+        });
+    }
+
+    private FileReceiver createFileReceiver(final int id) {
+        return createFileReceiver(id, 100);
+    }
+
+    private FileReceiver createFileReceiver(final int id, final long size) {
+        final File file = new File(temporaryFolder.getRoot(), "received" + id);
+        final FileReceiver fileReceiver = new FileReceiver(user, file, size, id, transferScheduler, timer);
+        fileReceiver.registerListener(mock(FileTransferListener.class));
+
+        return fileReceiver;
+    }
+
+    private FileSender createFileSender(final byte[] data) throws IOException {
+        final File file = temporaryFolder.newFile();
+        Files.write(file.toPath(), data);
+
+        final FileSender fileSender = new FileSender(user, new FileToSend(file), 1, transferScheduler, timer);
+        fileSender.registerListener(mock(FileTransferListener.class));
+
+        return fileSender;
+    }
+
+    private byte[] createData(final int length, final int value) {
+        final byte[] data = new byte[length];
+        Arrays.fill(data, (byte) value);
+
+        return data;
+    }
+}
@@ -0,0 +1,150 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import net.usikkert.kouchat.junit.ExpectedException;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Test of {@link HistoryCodec}.
+ *
+ * @author Christian Ihle
+ */
+public class HistoryCodecTest {
+
+    private static final long NOW = 1_000_000L;
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    @Test
+    public void encodeShouldThrowExceptionIfEntriesIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Entries can not be null");
+
+        HistoryCodec.encode(null, 1000, NOW);
+    }
+
+    @Test
+    public void decodeShouldThrowExceptionIfHistoryIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("History can not be null");
+
+        HistoryCodec.decode(null, NOW);
+    }
+
+    @Test
+    public void encodeAndDecodeShouldKeepAllFields() {
+        final List<ChatHistory.Entry> entries = Arrays.asList(
+                new ChatHistory.Entry(NOW - 5000, 100, "Niles", -15987646, "Hello\tthere\nback\\slash"),
+                new ChatHistory.Entry(NOW - 1000, 101, "Jøhn", 200, "Blåbær ☺"));
+
+        final List<ChatHistory.Entry> decoded = HistoryCodec.decode(HistoryCodec.encode(entries, 1000, NOW), NOW + 300);
+
+        assertEquals(2, decoded.size());
+
+        assertEquals(NOW - 4700, decoded.get(0).getTime());
+        assertEquals(100, decoded.get(0).getUserCode());
+        assertEquals("Niles", decoded.get(0).getNick());
+        assertEquals(-15987646, decoded.get(0).getColor());
+        assertEquals("Hello\tthere\nback\\slash", decoded.get(0).getMessage());
+
+        assertEquals(NOW - 700, decoded.get(1).getTime());
+        assertEquals(101, decoded.get(1).getUserCode());
+        assertEquals("Jøhn", decoded.get(1).getNick());
+        assertEquals(200, decoded.get(1).getColor());
+        assertEquals("Blåbær ☺", decoded.get(1).getMessage());
+    }
+
+    @Test
+    public void encodeShouldOnlyUseCharactersFromZeroTo255() {
+        final String encoded = HistoryCodec.encode(createEntries(50), 100_000, NOW);
+
+        for (int i = 0; i < encoded.length(); i++) {
+            assertTrue(encoded.charAt(i) <= 255);
+        }
+    }
+
+    @Test
+    public void encodeShouldCompressSimilarMessages() {
+        final List<ChatHistory.Entry> entries = createEntries(100);
+        final String encoded = HistoryCodec.encode(entries, 100_000, NOW);
+
+        assertTrue(encoded.length() < 100 * 20);
+        assertEquals(100, HistoryCodec.decode(encoded, NOW).size());
+    }
+
+    @Test
+    public void encodeShouldLeaveOutTheOldestEntriesWhenTooLong() {
+        final List<ChatHistory.Entry> entries = createEntries(100);
+        final int fullLength = HistoryCodec.encode(entries, 100_000, NOW).length();
+
+        final String encoded = HistoryCodec.encode(entries, fullLength - 1, NOW);
+        final List<ChatHistory.Entry> decoded = HistoryCodec.decode(encoded, NOW);
+
+        assertTrue(encoded.length() < fullLength);
+        assertEquals(50, decoded.size());
+        assertEquals("Message number 50", decoded.get(0).getMessage());
+        assertEquals("Message number 99", decoded.get(49).getMessage());
+    }
+
+    @Test
+    public void encodeAndDecodeShouldHandleNoEntries() {
+        final String encoded = HistoryCodec.encode(Collections.<ChatHistory.Entry>emptyList(), 1000, NOW);
+
+        assertTrue(HistoryCodec.decode(encoded, NOW).isEmpty());
+    }
+
+    @Test
+    public void decodeShouldReturnEmptyListIfNotCompressed() {
+        assertTrue(HistoryCodec.decode("not compressed", NOW).isEmpty());
+        assertTrue(HistoryCodec.decode("", NOW).isEmpty());
+    }
+
+    @Test
+    public void decodeShouldReturnEmptyListIfTruncated() {
+        final String encoded = HistoryCodec.encode(createEntries(50), 100_000, NOW);
+
+        assertTrue(HistoryCodec.decode(encoded.substring(0, encoded.length() / 2), NOW).isEmpty());
+    }
+
+    private List<ChatHistory.Entry> createEntries(final int count) {
+        final List<ChatHistory.Entry> entries = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            entries.add(new ChatHistory.Entry(NOW - (count - i) * 1000, 100 + i % 3, "User" + i % 3, 200,
+                                              "Message number " + i));
+        }
+
+        return entries;
+    }
+}
@@ -0,0 +1,254 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.Arrays;
+
+import net.usikkert.kouchat.junit.ExpectedException;
+import net.usikkert.kouchat.misc.Controller;
+import net.usikkert.kouchat.misc.SortedUserList;
+import net.usikkert.kouchat.misc.User;
+import net.usikkert.kouchat.misc.UserList;
+import net.usikkert.kouchat.util.HashedWheelTimer;
+import net.usikkert.kouchat.util.TimerHandle;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+/**
+ * Test of {@link HistoryRequester}.
+ *
+ * @author Christian Ihle
+ */
+public class HistoryRequesterTest {
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    private HistoryRequester historyRequester;
+
+    private Controller controller;
+    private ChatHistory chatHistory;
+    private HashedWheelTimer timer;
+    private TimerHandle timerHandle;
+    private UserList userList;
+
+    private User niles;
+    private User john;
+
+    @Before
+    public void setUp() {
+        controller = mock(Controller.class);
+        chatHistory = new ChatHistory();
+        timer = mock(HashedWheelTimer.class);
+        timerHandle = mock(TimerHandle.class);
+        userList = new SortedUserList();
+
+        when(timer.schedule(anyString(), any(Runnable.class), anyLong())).thenReturn(timerHandle);
+        when(controller.getUserList()).thenReturn(userList);
+        when(controller.sendHistoryRequest(any(User.class), anyLong())).thenReturn(true);
+
+        historyRequester = new HistoryRequester(controller, chatHistory, timer);
+
+        niles = createUser("Niles", 1, 2000);
+        john = createUser("John", 2, 1000);
+    }
+
+    @Test
+    public void constructorShouldThrowExceptionIfControllerIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Controller can not be null");
+
+        new HistoryRequester(null, chatHistory, timer);
+    }
+
+    @Test
+    public void constructorShouldThrowExceptionIfChatHistoryIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Chat history can not be null");
+
+        new HistoryRequester(controller, null, timer);
+    }
+
+    @Test
+    public void constructorShouldThrowExceptionIfTimerIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Timer can not be null");
+
+        new HistoryRequester(controller, chatHistory, null);
+    }
+
+    @Test
+    public void requestHistoryShouldScheduleCheckRightAway() {
+        historyRequester.requestHistory();
+
+        assertTrue(historyRequester.isRequesting());
+        verify(timer).schedule("HistoryRequester", historyRequester, 0);
+    }
+
+    @Test
+    public void runShouldAskForAllMessagesWhenHistoryIsEmpty() {
+        userList.add(niles);
+
+        historyRequester.requestHistory();
+        historyRequester.run();
+
+        verify(controller).sendHistoryRequest(niles, -1);
+        verify(timer).schedule("HistoryRequester", historyRequester, HistoryRequester.REPLY_TIMEOUT);
+    }
+
+    @Test
+    public void runShouldAskForMessagesFromALittleBeforeTheLastMessage() {
+        userList.add(niles);
+        chatHistory.add(new ChatHistory.Entry(System.currentTimeMillis() - 10000, 1, "Niles", 200, "Hello"));
+
+        historyRequester.requestHistory();
+        historyRequester.run();
+
+        final ArgumentCaptor<Long> ageCaptor = ArgumentCaptor.forClass(Long.class);
+        verify(controller).sendHistoryRequest(eq(niles), ageCaptor.capture());
+
+        final long expectedAge = 10000 + ChatHistory.DUPLICATE_TOLERANCE;
+        assertTrue(ageCaptor.getValue() >= expectedAge);
+        assertTrue(ageCaptor.getValue() < expectedAge + 1000);
+    }
+
+    @Test
+    public void runShouldAskTheUserWhoHasBeenLoggedOnTheLongest() {
+        userList.add(niles);
+        userList.add(john);
+
+        historyRequester.requestHistory();
+        historyRequester.run();
+
+        verify(controller).sendHistoryRequest(john, -1);
+        verify(controller, never()).sendHistoryRequest(eq(niles), anyLong());
+    }
+
+    @Test
+    public void runShouldNotAskUsersWithoutTcpOrSupportOrMe() {
+        niles.setTcpEnabled(false);
+        john.setCapabilities(Arrays.asList(ClientCapability.ROSTER));
+        final User me = createUser("Me", 3, 500);
+        me.setMe(true);
+
+        userList.add(niles);
+        userList.add(john);
+        userList.add(me);
+
+        historyRequester.requestHistory();
+        historyRequester.run();
+
+        verify(controller, never()).sendHistoryRequest(any(User.class), anyLong());
+        verify(timer).schedule("HistoryRequester", historyRequester, HistoryRequester.RETRY_DELAY);
+    }
+
+    @Test
+    public void runShouldGiveUpAfterMaxTries() {
+        historyRequester.requestHistory();
+
+        for (int i = 0; i < HistoryRequester.MAX_TRIES; i++) {
+            historyRequester.run();
+        }
+
+        assertFalse(historyRequester.isRequesting());
+        verify(timer, times(HistoryRequester.MAX_TRIES - 1)).schedule("HistoryRequester", historyRequester,
+                                                                      HistoryRequester.RETRY_DELAY);
+    }
+
+    @Test
+    public void runShouldAskTheNextUserWhenNoReply() {
+        userList.add(niles);
+        userList.add(john);
+
+        historyRequester.requestHistory();
+        historyRequester.run();
+        historyRequester.run();
+
+        verify(controller).sendHistoryRequest(john, -1);
+        verify(controller).sendHistoryRequest(niles, -1);
+        assertFalse(historyRequester.historyArrived(2));
+        assertTrue(historyRequester.historyArrived(1));
+    }
+
+    @Test
+    public void runShouldTryAgainLaterWhenRequestFails() {
+        userList.add(john);
+        when(controller.sendHistoryRequest(john, -1)).thenReturn(false);
+
+        historyRequester.requestHistory();
+        historyRequester.run();
+
+        verify(timer).schedule("HistoryRequester", historyRequester, HistoryRequester.RETRY_DELAY);
+        assertFalse(historyRequester.historyArrived(2));
+    }
+
+    @Test
+    public void historyArrivedShouldOnlyAcceptHistoryFromTheUserAskedOnce() {
+        userList.add(niles);
+
+        historyRequester.requestHistory();
+        historyRequester.run();
+
+        assertFalse(historyRequester.historyArrived(2));
+        assertTrue(historyRequester.historyArrived(1));
+        assertFalse(historyRequester.historyArrived(1));
+
+        assertFalse(historyRequester.isRequesting());
+        verify(timerHandle, atLeastOnce()).cancel();
+    }
+
+    @Test
+    public void historyArrivedShouldNotAcceptHistoryBeforeAsking() {
+        assertFalse(historyRequester.historyArrived(1));
+    }
+
+    @Test
+    public void stopShouldCancelTheRequest() {
+        userList.add(niles);
+
+        historyRequester.requestHistory();
+        historyRequester.run();
+        historyRequester.stop();
+
+        assertFalse(historyRequester.isRequesting());
+        assertFalse(historyRequester.historyArrived(1));
+
+        historyRequester.run();
+        verify(controller, times(1)).sendHistoryRequest(any(User.class), anyLong());
+    }
+
+    private User createUser(final String nick, final int code, final long logonTime) {
+        final User user = new User(nick, code);
+        user.setTcpEnabled(true);
+        user.setLogonTime(logonTime);
+        user.setCapabilities(Arrays.asList(ClientCapability.HISTORY));
+
+        return user;
+    }
+}
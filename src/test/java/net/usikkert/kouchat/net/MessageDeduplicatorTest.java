@@ -0,0 +1,151 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import static org.mockito.Mockito.*;
+
+import net.usikkert.kouchat.event.ReceiverListener;
+import net.usikkert.kouchat.junit.ExpectedException;
+import net.usikkert.kouchat.misc.Controller;
+import net.usikkert.kouchat.misc.User;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Test of {@link MessageDeduplicator}.
+ *
+ * @author Christian Ihle
+ */
+public class MessageDeduplicatorTest {
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    private MessageDeduplicator messageDeduplicator;
+
+    private Controller controller;
+    private SequenceTracker sequenceTracker;
+    private ReceiverListener mainChatListener;
+    private ReceiverListener privateChatListener;
+
+    private User niles;
+
+    @Before
+    public void setUp() {
+        controller = mock(Controller.class);
+        sequenceTracker = mock(SequenceTracker.class);
+        mainChatListener = mock(ReceiverListener.class);
+        privateChatListener = mock(ReceiverListener.class);
+
+        messageDeduplicator = new MessageDeduplicator(controller, sequenceTracker);
+        messageDeduplicator.registerMainChatReceiverListener(mainChatListener);
+        messageDeduplicator.registerPrivateChatReceiverListener(privateChatListener);
+
+        niles = new User("Niles", 100);
+        niles.setTcpEnabled(true);
+        when(controller.getUser(100)).thenReturn(niles);
+    }
+
+    @Test
+    public void constructorShouldThrowExceptionIfControllerIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Controller can not be null");
+
+        new MessageDeduplicator(null, sequenceTracker);
+    }
+
+    @Test
+    public void constructorShouldThrowExceptionIfSequenceTrackerIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Sequence tracker can not be null");
+
+        new MessageDeduplicator(controller, null);
+    }
+
+    @Test
+    public void messageArrivedFromMulticastShouldBeIgnoredWhenTcpIsEnabled() {
+        messageDeduplicator.messageArrived("100!AWAY#Niles:Gone", "192.168.1.1");
+
+        verifyZeroInteractions(mainChatListener);
+    }
+
+    @Test
+    public void messageArrivedFromTcpShouldBeForwardedWhenTcpIsEnabled() {
+        messageDeduplicator.messageArrived("100!AWAY#Niles:Gone", "192.168.1.1", niles);
+
+        verify(mainChatListener).messageArrived("100!AWAY#Niles:Gone", "192.168.1.1");
+    }
+
+    @Test
+    public void sequencedMessageShouldBeForwardedFromBothSourcesWhenNew() {
+        when(sequenceTracker.messageArrived(niles, false, 5)).thenReturn(true, true);
+
+        messageDeduplicator.messageArrived("100!MSG#Niles:{5}[-15987646]Hello", "192.168.1.1");
+        messageDeduplicator.messageArrived("100!MSG#Niles:{5}[-15987646]Hello", "192.168.1.1", niles);
+
+        verify(mainChatListener, times(2)).messageArrived("100!MSG#Niles:{5}[-15987646]Hello", "192.168.1.1");
+    }
+
+    @Test
+    public void sequencedMessageShouldNotBeForwardedWhenDuplicate() {
+        when(sequenceTracker.messageArrived(niles, false, 5)).thenReturn(false);
+
+        messageDeduplicator.messageArrived("100!MSG#Niles:{5}[-15987646]Hello", "192.168.1.1", niles);
+
+        verifyZeroInteractions(mainChatListener);
+    }
+
+    @Test
+    public void sequencedPrivateMessageShouldBeTrackedAsPrivateChat() {
+        when(sequenceTracker.messageArrived(niles, true, 12)).thenReturn(true);
+
+        messageDeduplicator.messageArrived("100!PRIVMSG#Niles:(200){12}[-15987646]Hello", "192.168.1.1");
+
+        verify(privateChatListener).messageArrived("100!PRIVMSG#Niles:(200){12}[-15987646]Hello", "192.168.1.1");
+        verifyZeroInteractions(mainChatListener);
+    }
+
+    @Test
+    public void messageWithoutSequenceShouldNotBeTracked() {
+        niles.setTcpEnabled(false);
+
+        messageDeduplicator.messageArrived("100!MSG#Niles:[-15987646]Hello {5}", "192.168.1.1");
+
+        verify(mainChatListener).messageArrived("100!MSG#Niles:[-15987646]Hello {5}", "192.168.1.1");
+        verifyZeroInteractions(sequenceTracker);
+    }
+
+    @Test
+    public void sequencedMessageFromMeShouldNotBeTracked() {
+        final User me = new User("Me", 300);
+        me.setMe(true);
+        when(controller.getUser(300)).thenReturn(me);
+
+        messageDeduplicator.messageArrived("300!MSG#Me:{1}[-15987646]Hello", "192.168.1.2");
+
+        verify(mainChatListener).messageArrived("300!MSG#Me:{1}[-15987646]Hello", "192.168.1.2");
+        verifyZeroInteractions(sequenceTracker);
+    }
+}
@@ -25,6 +25,9 @@ package net.usikkert.kouchat.net;
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -111,7 +114,7 @@ public class MessageParserTest {
                                      "192.168.1.1");
 
         verify(responder).clientInfo(19879835, "KouChat v1.3.0 Swing", 1854,
-                                     "Linux", 40656, 0);
+                                     "Linux", 40656, 0, Collections.<String>emptyList());
     }
 
     @Test
@@ -120,7 +123,81 @@ public class MessageParserTest {
                                      "192.168.1.1");
 
         verify(responder).clientInfo(10066122, "KouChat v1.4.0 Swing", 1753,
-                                     "Linux", 40656, 40657);
+                                     "Linux", 40656, 40657, Collections.<String>emptyList());
+    }
+
+    @Test
+    public void messageArrivedShouldParseClientWithCapabilities() {
+        messageParser.messageArrived("10066122!CLIENT#Christian:(KouChat v1.4.0 Swing)[1753]{Linux}<40656>/40657\\deflate,other",
+                                     "192.168.1.1");
+
+        verify(responder).clientInfo(10066122, "KouChat v1.4.0 Swing", 1753,
+                                     "Linux", 40656, 40657, Arrays.asList("deflate", "other"));
+    }
+
+    @Test
+    public void messageArrivedShouldParseFileSendAccepted() {
+        messageParser.messageArrived("10066122!SENDFILEACCEPT#Christian:(1234)[20103]{8578765}some_file.txt", "192.168.1.1");
+
+        verify(responder).fileSendAccepted(10066122, "some_file.txt", 8578765, 20103, false, 0);
+    }
+
+    @Test
+    public void messageArrivedShouldParseFileSendAcceptedWithOptions() {
+        messageParser.messageArrived("10066122!SENDFILEACCEPT#Christian:(1234)[20103;deflate;id=7]{8578765}some_file.txt",
+                                     "192.168.1.1");
+
+        verify(responder).fileSendAccepted(10066122, "some_file.txt", 8578765, 20103, true, 7);
+    }
+
+    @Test
+    public void messageArrivedShouldParseFileSendAcceptedFromCache() {
+        messageParser.messageArrived("10066122!SENDFILEACCEPT#Christian:(1234)[0;cached]{8578765}some_file.txt",
+                                     "192.168.1.1");
+
+        verify(responder).fileSendCached(10066122, "some_file.txt", 8578765);
+        verify(responder, never()).fileSendAccepted(anyInt(), anyString(), anyInt(), anyInt(), anyBoolean(), anyInt());
+    }
+
+    @Test
+    public void messageArrivedShouldParseFileSend() {
+        messageParser.messageArrived("10066122!SENDFILE#Christian:(1234)[80800]{8578765}some_file.txt", "192.168.1.1");
+
+        verify(responder).fileSend(10066122, 80800, "some_file.txt", "Christian", 8578765, null);
+    }
+
+    @Test
+    public void messageArrivedShouldParseFileSendWithContentHash() {
+        final String contentHash = "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad";
+
+        messageParser.messageArrived("10066122!SENDFILE#Christian:(1234)[80800;sha256=" + contentHash + "]{8578765}some_file.txt",
+                                     "192.168.1.1");
+
+        verify(responder).fileSend(10066122, 80800, "some_file.txt", "Christian", 8578765, contentHash);
+    }
+
+    @Test
+    public void messageArrivedShouldIgnoreInvalidContentHash() {
+        messageParser.messageArrived("10066122!SENDFILE#Christian:(1234)[80800;sha256=../../etc/passwd]{8578765}some_file.txt",
+                                     "192.168.1.1");
+
+        verify(responder).fileSend(10066122, 80800, "some_file.txt", "Christian", 8578765, null);
+    }
+
+    @Test
+    public void messageArrivedShouldParseFileMulticastSend() {
+        messageParser.messageArrived("10066122!SENDFILEMULTICAST#Christian:(1234)[80800;5;50123]{8578765}some_file.txt",
+                                     "192.168.1.1");
+
+        verify(responder).fileMulticastSend(10066122, 80800, "some_file.txt", "Christian", 8578765, 5, 50123);
+    }
+
+    @Test
+    public void messageArrivedShouldNotParseFileMulticastSendForOtherUsers() {
+        messageParser.messageArrived("10066122!SENDFILEMULTICAST#Christian:(4321)[80800;5;50123]{8578765}some_file.txt",
+                                     "192.168.1.1");
+
+        verifyZeroInteractions(responder);
     }
 
     @Test
@@ -155,6 +232,199 @@ public class MessageParserTest {
         checkException(exceptionCaptor, NumberFormatException.class, "For input string: \"a2688\"");
     }
 
+    @Test
+    public void messageArrivedShouldParseRosterRequest() {
+        messageParser.messageArrived("10066122!GETROSTER#Christian:(1234)", "192.168.1.1");
+
+        verify(responder).rosterRequested(10066122);
+    }
+
+    @Test
+    public void messageArrivedShouldNotParseRosterRequestForOtherUsers() {
+        messageParser.messageArrived("10066122!GETROSTER#Christian:(4321)", "192.168.1.1");
+
+        verifyZeroInteractions(responder);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void messageArrivedShouldParseRoster() {
+        final User niles = new User("Niles", 1);
+        niles.setAwayMsg("(away)");
+        final User john = new User("John", 2);
+        final String roster = RosterCodec.encode(Arrays.asList(niles, john), 1000, System.currentTimeMillis()).get(0);
+
+        messageParser.messageArrived("10066122!ROSTER#Christian:(1234)" + roster, "192.168.1.1");
+
+        final ArgumentCaptor<List> usersCaptor = ArgumentCaptor.forClass(List.class);
+        verify(responder).rosterArrived(eq(10066122), usersCaptor.capture());
+
+        final List<User> users = usersCaptor.getValue();
+        assertEquals(2, users.size());
+        assertEquals("Niles", users.get(0).getNick());
+        assertEquals("(away)", users.get(0).getAwayMsg());
+        assertEquals("John", users.get(1).getNick());
+    }
+
+    @Test
+    public void messageArrivedShouldNotParseRosterForOtherUsers() {
+        messageParser.messageArrived("10066122!ROSTER#Christian:(4321)", "192.168.1.1");
+
+        verifyZeroInteractions(responder);
+    }
+
+    @Test
+    public void messageArrivedShouldParseExposeRequestForMe() {
+        messageParser.messageArrived("10066122!EXPOSE#Christian:(1234)", "192.168.1.1");
+
+        verify(responder).exposeRequested();
+    }
+
+    @Test
+    public void messageArrivedShouldNotParseExposeRequestForOtherUsers() {
+        messageParser.messageArrived("10066122!EXPOSE#Christian:(4321)", "192.168.1.1");
+
+        verifyZeroInteractions(responder);
+    }
+
+    @Test
+    public void messageArrivedShouldParseExposeRequestForEveryone() {
+        messageParser.messageArrived("10066122!EXPOSE#Christian:", "192.168.1.1");
+
+        verify(responder).exposeRequested();
+    }
+
+    @Test
+    public void messageArrivedShouldParseIdleWithPresenceDigest() {
+        messageParser.messageArrived("10066122!IDLE#Christian:[5]", "192.168.1.1");
+
+        verify(responder).userIdle(10066122, "192.168.1.1");
+        verify(responder).presenceDigestArrived(10066122, 5);
+    }
+
+    @Test
+    public void messageArrivedShouldParseIdleWithoutPresenceDigest() {
+        messageParser.messageArrived("10066122!IDLE#Christian:", "192.168.1.1");
+
+        verify(responder).userIdle(10066122, "192.168.1.1");
+        verify(responder, never()).presenceDigestArrived(anyInt(), anyInt());
+    }
+
+    @Test
+    public void messageArrivedShouldParseCompletePresence() {
+        messageParser.messageArrived("10066122!PRESENCE#Christian:[7]{1}Out to lunch", "192.168.1.1");
+
+        final ArgumentCaptor<User> presenceCaptor = ArgumentCaptor.forClass(User.class);
+        verify(responder).presenceChanged(presenceCaptor.capture(), eq(true));
+
+        final User presence = presenceCaptor.getValue();
+        assertEquals(10066122, presence.getCode());
+        assertEquals("Christian", presence.getNick());
+        assertEquals(7, presence.getPresenceVersion());
+        assertTrue(presence.isAway());
+        assertEquals("Out to lunch", presence.getAwayMsg());
+    }
+
+    @Test
+    public void messageArrivedShouldParseNickPresence() {
+        messageParser.messageArrived("10066122!PRESENCE#Chris:[8]", "192.168.1.1");
+
+        final ArgumentCaptor<User> presenceCaptor = ArgumentCaptor.forClass(User.class);
+        verify(responder).presenceChanged(presenceCaptor.capture(), eq(false));
+
+        final User presence = presenceCaptor.getValue();
+        assertEquals("Chris", presence.getNick());
+        assertEquals(8, presence.getPresenceVersion());
+        assertFalse(presence.isAway());
+    }
+
+    @Test
+    public void messageArrivedShouldParsePresenceRequest() {
+        messageParser.messageArrived("10066122!GETPRESENCE#Christian:(1234)", "192.168.1.1");
+
+        verify(responder).presenceRequested(10066122);
+    }
+
+    @Test
+    public void messageArrivedShouldNotParsePresenceRequestForOtherUsers() {
+        messageParser.messageArrived("10066122!GETPRESENCE#Christian:(4321)", "192.168.1.1");
+
+        verifyZeroInteractions(responder);
+    }
+
+    @Test
+    public void messageArrivedShouldParseMessageRequestForMainChat() {
+        messageParser.messageArrived("10066122!NAK#Christian:(1234){0}3,4,7", "192.168.1.1");
+
+        verify(responder).messagesRequested(10066122, false, Arrays.asList(3, 4, 7));
+    }
+
+    @Test
+    public void messageArrivedShouldParseMessageRequestForPrivateChat() {
+        messageParser.messageArrived("10066122!NAK#Christian:(1234){1}12", "192.168.1.1");
+
+        verify(responder).messagesRequested(10066122, true, Arrays.asList(12));
+    }
+
+    @Test
+    public void messageArrivedShouldNotParseMessageRequestForOtherUsers() {
+        messageParser.messageArrived("10066122!NAK#Christian:(4321){0}3", "192.168.1.1");
+
+        verifyZeroInteractions(responder);
+    }
+
+    @Test
+    public void messageArrivedShouldParseHistoryRequest() {
+        messageParser.messageArrived("10066122!GETHISTORY#Christian:(1234)15000", "192.168.1.1");
+
+        verify(responder).historyRequested(10066122, 15000);
+    }
+
+    @Test
+    public void messageArrivedShouldParseHistoryRequestForAllMessages() {
+        messageParser.messageArrived("10066122!GETHISTORY#Christian:(1234)-1", "192.168.1.1");
+
+        verify(responder).historyRequested(10066122, -1);
+    }
+
+    @Test
+    public void messageArrivedShouldNotParseHistoryRequestForOtherUsers() {
+        messageParser.messageArrived("10066122!GETHISTORY#Christian:(4321)-1", "192.168.1.1");
+
+        verifyZeroInteractions(responder);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void messageArrivedShouldParseHistory() {
+        final ChatHistory.Entry entry = new ChatHistory.Entry(System.currentTimeMillis(), 1, "Niles", 200, "Hi (there) :)");
+        final String history = HistoryCodec.encode(Arrays.asList(entry), 1000, System.currentTimeMillis());
+
+        messageParser.messageArrived("10066122!HISTORY#Christian:(1234)" + history, "192.168.1.1");
+
+        final ArgumentCaptor<List> entriesCaptor = ArgumentCaptor.forClass(List.class);
+        verify(responder).historyArrived(eq(10066122), entriesCaptor.capture());
+
+        final List<ChatHistory.Entry> entries = entriesCaptor.getValue();
+        assertEquals(1, entries.size());
+        assertEquals("Niles", entries.get(0).getNick());
+        assertEquals("Hi (there) :)", entries.get(0).getMessage());
+    }
+
+    @Test
+    public void messageArrivedShouldNotParseHistoryForOtherUsers() {
+        messageParser.messageArrived("10066122!HISTORY#Christian:(4321)", "192.168.1.1");
+
+        verifyZeroInteractions(responder);
+    }
+
+    @Test
+    public void messageArrivedShouldSkipTheSequenceNumberOfChatMessages() {
+        messageParser.messageArrived("10066122!MSG#Christian:{15}[-15987646]Hello {there}", "192.168.1.1");
+
+        verify(responder).messageArrived(10066122, "Hello {there}", -15987646);
+    }
+
     @SuppressWarnings("ThrowableResultOfMethodCallIgnored")
     private void checkException(final ArgumentCaptor<Exception> exceptionCaptor,
                                 final Class<? extends Exception> expectedException,
@@ -123,6 +123,42 @@ public class MockFileTransfer implements FileTransfer {
         return 100000;
     }
 
+    /**
+     * Returns ~100K/s.
+     *
+     * @return 100000;
+     */
+    @Override
+    public long getAverageSpeed() {
+        return 100000;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getSecondsLeft() {
+        return (getFileSize() - transferred) / 100000;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getWireTransferred() {
+        return transferred;
+    }
+
+    /**
+     * Returns ~100K/s.
+     *
+     * @return 100000;
+     */
+    @Override
+    public long getWireSpeed() {
+        return 100000;
+    }
+
     /**
      * Returns 1.
      *
@@ -159,6 +195,16 @@ public class MockFileTransfer implements FileTransfer {
         return false;
     }
 
+    /**
+     * Returns false.
+     *
+     * @return false.
+     */
+    @Override
+    public boolean isQueued() {
+        return false;
+    }
+
     /**
      * Registers the listener, and starts the thread which simulates the file transfer.
      *
@@ -0,0 +1,176 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Test of {@link MulticastFilePacket}.
+ *
+ * @author Christian Ihle
+ */
+public class MulticastFilePacketTest {
+
+    @Test
+    public void readShouldReturnNullIfNotMulticastFilePacket() {
+        final byte[] data = "12345!MSG#Test:[-1]hello".getBytes();
+
+        assertNull(MulticastFilePacket.read(data, data.length));
+    }
+
+    @Test
+    public void readShouldReturnNullIfTooShort() {
+        final byte[] data = MulticastFilePacket.createEnd(100, 5, 10);
+
+        assertNull(MulticastFilePacket.read(data, 12));
+    }
+
+    @Test
+    public void createDataShouldBeReadable() {
+        final byte[] block = {1, 2, 3, 4, 5};
+        final byte[] data = MulticastFilePacket.createData(100, 5, 42, block, 4);
+
+        final MulticastFilePacket packet = MulticastFilePacket.read(data, data.length);
+
+        assertEquals(MulticastFilePacket.DATA, packet.getType());
+        assertEquals(100, packet.getSenderCode());
+        assertEquals(5, packet.getSessionId());
+
+        final ByteBuffer body = packet.getBody();
+        assertEquals(42, body.getInt());
+        assertEquals(4, body.remaining());
+
+        final byte[] readBlock = new byte[4];
+        body.get(readBlock);
+        assertArrayEquals(new byte[] {1, 2, 3, 4}, readBlock);
+    }
+
+    @Test
+    public void createEndShouldBeReadable() {
+        final byte[] data = MulticastFilePacket.createEnd(100, 5, 1234);
+
+        final MulticastFilePacket packet = MulticastFilePacket.read(data, data.length);
+
+        assertEquals(MulticastFilePacket.END, packet.getType());
+        assertEquals(1234, packet.getBody().getInt());
+    }
+
+    @Test
+    public void createStatusShouldBeReadable() {
+        final List<int[]> ranges = Arrays.asList(new int[] {0, 10}, new int[] {20, 25});
+        final byte[] data = MulticastFilePacket.createStatus(100, 5, 200, MulticastFilePacket.FLAG_CANCELLED, 15, ranges);
+
+        final MulticastFilePacket packet = MulticastFilePacket.read(data, data.length);
+        assertEquals(MulticastFilePacket.STATUS, packet.getType());
+
+        final ByteBuffer body = packet.getBody();
+        assertEquals(200, body.getInt());
+        assertEquals(MulticastFilePacket.FLAG_CANCELLED, body.get());
+        assertEquals(15, body.getInt());
+        assertEquals(2, body.getShort());
+        assertEquals(0, body.getInt());
+        assertEquals(10, body.getInt());
+        assertEquals(20, body.getInt());
+        assertEquals(25, body.getInt());
+        assertEquals(0, body.remaining());
+    }
+
+    @Test
+    public void createStatusShouldFitInMaxPacketSizeWithMaxRanges() {
+        final List<int[]> ranges = Collections.nCopies(MulticastFilePacket.MAX_RANGES, new int[] {0, 1});
+
+        final byte[] data = MulticastFilePacket.createStatus(100, 5, 200, (byte) 0, 0, ranges);
+
+        assertTrue(data.length <= MulticastFilePacket.MAX_PACKET_SIZE);
+    }
+
+    @Test
+    public void createDataShouldFitInMaxPacketSizeWithFullBlock() {
+        final byte[] block = new byte[MulticastFilePacket.BLOCK_SIZE];
+
+        final byte[] data = MulticastFilePacket.createData(100, 5, 0, block, block.length);
+
+        assertTrue(data.length <= MulticastFilePacket.MAX_PACKET_SIZE);
+    }
+
+    @Test
+    public void findMissingRangesShouldReturnAllBlocksIfNothingReceived() {
+        final List<int[]> ranges = MulticastFilePacket.findMissingRanges(new BitSet(), 10);
+
+        assertEquals(1, ranges.size());
+        assertArrayEquals(new int[] {0, 10}, ranges.get(0));
+    }
+
+    @Test
+    public void findMissingRangesShouldReturnNothingIfEverythingReceived() {
+        final BitSet received = new BitSet();
+        received.set(0, 10);
+
+        assertTrue(MulticastFilePacket.findMissingRanges(received, 10).isEmpty());
+    }
+
+    @Test
+    public void findMissingRangesShouldReturnGapsAndTail() {
+        final BitSet received = new BitSet();
+        received.set(0, 3);
+        received.set(5);
+        received.set(7, 8);
+
+        final List<int[]> ranges = MulticastFilePacket.findMissingRanges(received, 10);
+
+        assertEquals(3, ranges.size());
+        assertArrayEquals(new int[] {3, 5}, ranges.get(0));
+        assertArrayEquals(new int[] {6, 7}, ranges.get(1));
+        assertArrayEquals(new int[] {8, 10}, ranges.get(2));
+    }
+
+    @Test
+    public void findMissingRangesShouldStopAtMaxRanges() {
+        final BitSet received = new BitSet();
+
+        for (int i = 0; i < 1000; i += 2) {
+            received.set(i);
+        }
+
+        final List<int[]> ranges = MulticastFilePacket.findMissingRanges(received, 1000);
+
+        assertEquals(MulticastFilePacket.MAX_RANGES, ranges.size());
+        assertArrayEquals(new int[] {1, 2}, ranges.get(0));
+    }
+
+    @Test
+    public void getBlockCountShouldRoundUp() {
+        assertEquals(0, MulticastFilePacket.getBlockCount(0));
+        assertEquals(1, MulticastFilePacket.getBlockCount(1));
+        assertEquals(1, MulticastFilePacket.getBlockCount(MulticastFilePacket.BLOCK_SIZE));
+        assertEquals(2, MulticastFilePacket.getBlockCount(MulticastFilePacket.BLOCK_SIZE + 1));
+    }
+}
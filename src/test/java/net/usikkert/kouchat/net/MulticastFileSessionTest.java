@@ -0,0 +1,251 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import net.usikkert.kouchat.event.FileTransferListener;
+import net.usikkert.kouchat.misc.User;
+import net.usikkert.kouchat.settings.Settings;
+import net.usikkert.kouchat.util.HashedWheelTimer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test of {@link MulticastFileSession} and {@link MulticastFileChannel}, sending files over the loopback.
+ *
+ * <p>Uses a different multicast group and port than the application, to not disturb a running client.</p>
+ *
+ * @author Christian Ihle
+ */
+public class MulticastFileSessionTest {
+
+    private static final String GROUP_IP = "224.168.5.203";
+    private static final int GROUP_PORT = 40957;
+    private static final int SENDER_CODE = 100;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private ExecutorService executorService;
+    private HashedWheelTimer timer;
+    private MulticastFileSession session;
+    private byte[] data;
+    private int port;
+
+    @Before
+    public void setUp() throws IOException, ServerException {
+        executorService = Executors.newCachedThreadPool();
+        timer = new HashedWheelTimer("TestTimer");
+
+        data = new byte[1024 * 1024 + 123];
+        new Random(1234).nextBytes(data);
+
+        final File file = temporaryFolder.newFile("sent");
+        Files.write(file.toPath(), data);
+
+        session = new MulticastFileSession(SENDER_CODE, file, GROUP_IP, GROUP_PORT);
+        port = session.start();
+    }
+
+    @After
+    public void tearDown() {
+        session.close();
+        executorService.shutdownNow();
+        timer.stop();
+    }
+
+    @Test
+    public void startShouldReturnPort() {
+        assertTrue(port > 0);
+        assertEquals(port, session.getPort());
+        assertTrue(session.isRunning());
+    }
+
+    @Test
+    public void removingLastRecipientShouldCloseSession() {
+        session.addRecipient(1);
+        session.addRecipient(2);
+        assertTrue(session.hasRecipients());
+
+        session.removeRecipient(1);
+        assertTrue(session.isRunning());
+
+        session.removeRecipient(2);
+        assertFalse(session.isRunning());
+        assertFalse(session.hasRecipients());
+    }
+
+    @Test
+    public void isDoneShouldBeTrueForUnknownRecipient() {
+        assertTrue(session.isDone(1));
+        assertFalse(session.isComplete(1));
+        assertEquals(0, session.getBytesReceived(1));
+    }
+
+    @Test
+    public void channelsShouldReceiveTheSameFile() throws Exception {
+        final MulticastFileChannel channel1 = createChannel(1);
+        final MulticastFileChannel channel2 = createChannel(2);
+
+        final Future<Boolean> received1 = receive(channel1, 1, null);
+        final Future<Boolean> received2 = receive(channel2, 2, null);
+
+        assertTrue(received1.get(10, TimeUnit.SECONDS));
+        assertTrue(received2.get(10, TimeUnit.SECONDS));
+        assertArrayEquals(data, readReceived(1));
+        assertArrayEquals(data, readReceived(2));
+
+        awaitDone(1);
+        awaitDone(2);
+        assertTrue(session.isComplete(1));
+        assertTrue(session.isComplete(2));
+        assertEquals(data.length, session.getBytesReceived(1));
+    }
+
+    @Test
+    public void lateChannelShouldGetMissedBlocksRepaired() throws Exception {
+        final CountDownLatch halfReceived = new CountDownLatch(1);
+
+        final Future<Boolean> received1 = receive(createChannel(1), 1, halfReceived);
+        assertTrue(halfReceived.await(10, TimeUnit.SECONDS));
+
+        final Future<Boolean> received2 = receive(createChannel(2), 2, null);
+
+        assertTrue(received1.get(10, TimeUnit.SECONDS));
+        assertTrue(received2.get(10, TimeUnit.SECONDS));
+        assertArrayEquals(data, readReceived(1));
+        assertArrayEquals(data, readReceived(2));
+    }
+
+    @Test
+    public void cancelledChannelShouldBeDoneWithoutCompleting() throws Exception {
+        final MulticastFileChannel channel = createChannel(1);
+        final CountDownLatch halfReceived = new CountDownLatch(1);
+
+        final Future<Boolean> received = receive(channel, 1, halfReceived);
+        assertTrue(halfReceived.await(10, TimeUnit.SECONDS));
+        channel.cancel();
+
+        assertFalse(received.get(10, TimeUnit.SECONDS));
+        awaitDone(1);
+        assertFalse(session.isComplete(1));
+    }
+
+    @Test
+    public void fileSenderAndFileReceiverShouldTransferUsingSession() throws Exception {
+        final TransferScheduler transferScheduler = new TransferScheduler(new Settings());
+        final User receivingUser = new User("Receiver", 1);
+        final User sendingUser = new User("Sender", SENDER_CODE);
+        final File file = new File(temporaryFolder.getRoot(), "received");
+
+        final FileSender fileSender = new FileSender(receivingUser, new FileToSend(session.getFile()), 1,
+                                                     transferScheduler, timer, session);
+        fileSender.registerListener(mock(FileTransferListener.class));
+
+        final FileReceiver fileReceiver = new FileReceiver(sendingUser, file, data.length, 1, transferScheduler, timer);
+        fileReceiver.registerListener(mock(FileTransferListener.class));
+
+        final MulticastFileChannel channel = createChannel(1);
+        channel.join();
+
+        final Future<Boolean> received = executorService.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return fileReceiver.transfer(channel);
+            }
+        });
+
+        assertTrue(fileSender.transfer(0));
+        assertTrue(received.get(10, TimeUnit.SECONDS));
+
+        assertArrayEquals(data, Files.readAllBytes(file.toPath()));
+        assertEquals(data.length, fileSender.getTransferred());
+        assertEquals(data.length, fileReceiver.getTransferred());
+        assertFalse(session.isRunning());
+    }
+
+    private MulticastFileChannel createChannel(final int receiverCode) {
+        return new MulticastFileChannel(receiverCode, SENDER_CODE, session.getSessionId(), "127.0.0.1", port,
+                                        data.length, GROUP_IP, GROUP_PORT);
+    }
+
+    private Future<Boolean> receive(final MulticastFileChannel channel, final int receiverCode,
+                                    final CountDownLatch halfReceived) throws ServerException {
+        session.addRecipient(receiverCode);
+        channel.join();
+        session.recipientAccepted(receiverCode);
+
+        return executorService.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws IOException {
+                return channel.receive(getReceivedFile(receiverCode), new MulticastFileChannel.BlockListener() {
+                    private long bytesReceived;
+
+                    @Override
+                    public void blockReceived(final int bytes) {
+                        bytesReceived += bytes;
+
+                        if (halfReceived != null && bytesReceived >= data.length / 2) {
+                            halfReceived.countDown();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private void awaitDone(final int receiverCode) throws InterruptedException {
+        final long start = System.currentTimeMillis();
+
+        while (!session.isDone(receiverCode) && System.currentTimeMillis() - start < 5000) {
+            session.awaitProgress(receiverCode, 100);
+        }
+
+        assertTrue(session.isDone(receiverCode));
+    }
+
+    private File getReceivedFile(final int receiverCode) {
+        return new File(temporaryFolder.getRoot(), "received" + receiverCode);
+    }
+
+    private byte[] readReceived(final int receiverCode) throws IOException {
+        return Files.readAllBytes(getReceivedFile(receiverCode).toPath());
+    }
+}
@@ -22,6 +22,12 @@
 
 package net.usikkert.kouchat.net;
 
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
 import net.usikkert.kouchat.misc.CommandException;
@@ -30,6 +36,7 @@ import net.usikkert.kouchat.misc.User;
 import net.usikkert.kouchat.settings.Settings;
 
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 
 /**
  * Test of {@link NetworkMessages}.
@@ -58,6 +65,7 @@ public class NetworkMessagesTest {
         me = new User("TestUser", 123);
         me.setPrivateChatPort(2222);
         me.setTcpChatPort(4444);
+        me.setCapabilities(Arrays.asList(ClientCapability.DEFLATE));
 
         when(settings.getMe()).thenReturn(me);
 
@@ -93,7 +101,7 @@ public class NetworkMessagesTest {
     /**
      * Tests sendChatMessage().
      *
-     * Expects: 16899115!MSG#Christian:[-15987646]Some chat message
+     * Expects: 16899115!MSG#Christian:{1}[-15987646]Some chat message
      *
      * @throws CommandException In case the message could not be sent.
      */
@@ -101,19 +109,157 @@ public class NetworkMessagesTest {
     public void testSendChatMessage() throws CommandException {
         final String msg = "Some chat message";
         messages.sendChatMessage(msg);
-        verify(service).sendMessageToAllUsers(createMessage("MSG") + "[" + settings.getOwnColor() + "]" + msg);
+        verify(service).sendMessageToAllUsers(createMessage("MSG") + "{1}[" + settings.getOwnColor() + "]" + msg);
+    }
+
+    @Test
+    public void sendChatMessageShouldIncreaseTheSequenceNumber() throws CommandException {
+        messages.sendChatMessage("One");
+        messages.sendChatMessage("Two");
+
+        verify(service).sendMessageToAllUsers(createMessage("MSG") + "{1}[" + settings.getOwnColor() + "]One");
+        verify(service).sendMessageToAllUsers(createMessage("MSG") + "{2}[" + settings.getOwnColor() + "]Two");
+    }
+
+    /**
+     * Tests sendMessageRequest().
+     *
+     * Expects: 10223997!NAK#Christian:(435435){0}3,4, using tcp.
+     */
+    @Test
+    public void testSendMessageRequest() {
+        final User user = new User("Niles", 435435);
+        when(service.sendMessageToUserUsingTcp(anyString(), any(User.class))).thenReturn(true);
+
+        messages.sendMessageRequest(user, false, Arrays.asList(3, 4));
+
+        verify(service).sendMessageToUserUsingTcp(createMessage("NAK") + "(435435){0}3,4", user);
+        verify(service, never()).sendMessageToAllUsers(anyString());
+    }
+
+    @Test
+    public void sendMessageRequestShouldSendToAllUsersWhenTcpFails() {
+        final User user = new User("Niles", 435435);
+
+        messages.sendMessageRequest(user, true, Arrays.asList(7));
+
+        verify(service).sendMessageToUserUsingTcp(createMessage("NAK") + "(435435){1}7", user);
+        verify(service).sendMessageToAllUsers(createMessage("NAK") + "(435435){1}7");
+    }
+
+    @Test
+    public void resendMessagesShouldSendMainChatMessagesUsingTcp() throws CommandException {
+        final User user = new User("Niles", 435435);
+        when(service.sendMessageToAllUsers(anyString())).thenReturn(true);
+        when(service.sendMessageToUserUsingTcp(anyString(), any(User.class))).thenReturn(true);
+
+        messages.sendChatMessage("One");
+        messages.sendChatMessage("Two");
+        messages.resendMessages(user, false, Arrays.asList(2), true);
+
+        verify(service).sendMessageToUserUsingTcp(createMessage("MSG") + "{2}[" + settings.getOwnColor() + "]Two", user);
+        verify(service, never()).sendMessageToUserUsingTcp(contains("One"), any(User.class));
+        verify(service, times(2)).sendMessageToAllUsers(anyString());
+    }
+
+    @Test
+    public void resendMessagesShouldSendMainChatMessagesToAllUsersWhenTcpFailsAndAllowed() throws CommandException {
+        final User user = new User("Niles", 435435);
+        when(service.sendMessageToAllUsers(anyString())).thenReturn(true);
+
+        messages.sendChatMessage("One");
+        messages.resendMessages(user, false, Arrays.asList(1), true);
+
+        verify(service, times(2)).sendMessageToAllUsers(createMessage("MSG") + "{1}[" + settings.getOwnColor() + "]One");
+    }
+
+    @Test
+    public void resendMessagesShouldNotSendMainChatMessagesToAllUsersWhenNotAllowed() throws CommandException {
+        final User user = new User("Niles", 435435);
+        when(service.sendMessageToAllUsers(anyString())).thenReturn(true);
+
+        messages.sendChatMessage("One");
+        messages.resendMessages(user, false, Arrays.asList(1), false);
+
+        verify(service).sendMessageToUserUsingTcp(createMessage("MSG") + "{1}[" + settings.getOwnColor() + "]One", user);
+        verify(service, times(1)).sendMessageToAllUsers(anyString());
+    }
+
+    @Test
+    public void resendMessagesShouldSendPrivateMessagesToTheUser() throws CommandException {
+        final User user = new User("Niles", 435435);
+        when(service.sendMessageToUser(anyString(), any(User.class))).thenReturn(true);
+
+        messages.sendPrivateMessage("Secret", user);
+        messages.resendMessages(user, true, Arrays.asList(1), true);
+
+        verify(service, times(2)).sendMessageToUser(createMessage("PRIVMSG") + "(435435){1}[" + settings.getOwnColor() + "]Secret",
+                                                    user);
+        verify(service, never()).sendMessageToUserUsingTcp(anyString(), any(User.class));
+    }
+
+    @Test
+    public void resendMessagesShouldNotSendMainChatMessageThatFailedToBeSent() throws CommandException {
+        final User user = new User("Niles", 435435);
+        when(service.sendMessageToAllUsers(anyString())).thenReturn(false, true);
+        when(service.sendMessageToUserUsingTcp(anyString(), any(User.class))).thenReturn(true);
+
+        try {
+            messages.sendChatMessage("Failed");
+            fail("Should have thrown exception");
+        }
+
+        catch (final CommandException e) {
+            assertEquals("Failed to send message: Failed", e.getMessage());
+        }
+
+        messages.sendChatMessage("Sent");
+        messages.resendMessages(user, false, Arrays.asList(1, 2), true);
+
+        verify(service, never()).sendMessageToUserUsingTcp(contains("Failed"), any(User.class));
+        verify(service).sendMessageToUserUsingTcp(createMessage("MSG") + "{2}[" + settings.getOwnColor() + "]Sent", user);
+        verify(service, times(1)).sendMessageToAllUsers(contains("Failed"));
+    }
+
+    @Test
+    public void resendMessagesShouldNotSendPrivateMessageThatFailedToBeSent() {
+        final User user = new User("Niles", 435435);
+        when(service.sendMessageToUser(anyString(), any(User.class))).thenReturn(false);
+
+        try {
+            messages.sendPrivateMessage("Secret", user);
+            fail("Should have thrown exception");
+        }
+
+        catch (final CommandException e) {
+            assertEquals("Failed to send private message to Niles: Secret", e.getMessage());
+        }
+
+        messages.resendMessages(user, true, Arrays.asList(1), true);
+
+        verify(service, times(1)).sendMessageToUser(anyString(), any(User.class));
+    }
+
+    @Test
+    public void resendMessagesShouldSkipMessagesThatAreNotKept() {
+        final User user = new User("Niles", 435435);
+
+        messages.resendMessages(user, false, Arrays.asList(1, 2), true);
+        messages.resendMessages(user, true, Arrays.asList(1), true);
+
+        verifyZeroInteractions(service);
     }
 
     /**
      * Tests sendClient().
      *
-     * Expects: 13132531!CLIENT#Christian:(KouChat v0.9.9-dev null)[134]{Linux}<2222>/4444\
+     * Expects: 13132531!CLIENT#Christian:(KouChat v0.9.9-dev null)[134]{Linux}<2222>/4444\deflate
      */
     @Test
     public void testSendClientMessage() {
         final String startsWith = "(" + me.getClient() + ")[";
         final String middle = ".+\\)\\[\\d+\\]\\{.+"; // like:)[134[{
-        final String endsWidth = "]{" + me.getOperatingSystem() + "}<2222>/4444\\";
+        final String endsWidth = "]{" + me.getOperatingSystem() + "}<2222>/4444\\deflate";
 
         messages.sendClient();
 
@@ -122,6 +268,24 @@ public class NetworkMessagesTest {
         verify(service).sendMessageToAllUsers(endsWith(endsWidth));
     }
 
+    @Test
+    public void sendClientShouldIncludeTheIdleIntervalOfMe() {
+        me.setIdleInterval(30000);
+
+        messages.sendClient();
+
+        verify(service).sendMessageToAllUsers(endsWith("<2222>/4444\\deflate,idleinterval=30000"));
+    }
+
+    @Test
+    public void sendClientShouldIncludeThePresenceVersionOfMe() {
+        me.setPresenceVersion(12);
+
+        messages.sendClient();
+
+        verify(service).sendMessageToAllUsers(endsWith("<2222>/4444\\deflate,presence=12"));
+    }
+
     /**
      * Tests sendExposeMessage().
      *
@@ -133,6 +297,17 @@ public class NetworkMessagesTest {
         verify(service).sendMessageToAllUsers(createMessage("EXPOSE"));
     }
 
+    /**
+     * Tests sendExposeMessage(int).
+     *
+     * Expects: 16424378!EXPOSE#Christian:(435435)
+     */
+    @Test
+    public void testSendExposeMessageToSingleUser() {
+        messages.sendExposeMessage(435435);
+        verify(service).sendMessageToAllUsers(createMessage("EXPOSE") + "(435435)");
+    }
+
     /**
      * Tests sendExposingMessage().
      *
@@ -173,6 +348,143 @@ public class NetworkMessagesTest {
         verify(service).sendMessageToAllUsers(createMessage("SENDFILE") + info);
     }
 
+    /**
+     * Tests sendFile() to a user supporting content hash.
+     *
+     * Expects: 14394329!SENDFILE#Christian:(1234)[80800;sha256=ba78...15ad]{37563645}a_file.txt
+     *
+     * @throws Exception In case the message could not be sent.
+     */
+    @Test
+    public void testSendFileMessageWithContentHash() throws Exception {
+        final int userCode = 1234;
+        final long fileLength = 80800L;
+        final String fileName = "a_file.txt";
+        final String contentHash = "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad";
+
+        final FileToSend file = mock(FileToSend.class);
+        when(file.getName()).thenReturn(fileName);
+        when(file.length()).thenReturn(fileLength);
+        when(file.getContentHash()).thenReturn(contentHash);
+        final int fileHash = file.hashCode();
+
+        final String info = "(" + userCode + ")" +
+                "[" + fileLength + ";sha256=" + contentHash + "]" +
+                "{" + fileHash + "}" +
+                fileName;
+
+        final User user = new User("TestUser", userCode);
+        user.setCapabilities(Arrays.asList(ClientCapability.CONTENT_HASH));
+
+        messages.sendFile(user, file);
+        verify(service).sendMessageToAllUsers(createMessage("SENDFILE") + info);
+    }
+
+    /**
+     * Tests sendFile() to a user supporting content hash, when the hash could not be created.
+     *
+     * Expects: 14394329!SENDFILE#Christian:(1234)[80800]{37563645}a_file.txt
+     *
+     * @throws Exception In case the message could not be sent.
+     */
+    @Test
+    public void testSendFileMessageWithContentHashFailing() throws Exception {
+        final int userCode = 1234;
+        final long fileLength = 80800L;
+        final String fileName = "a_file.txt";
+
+        final FileToSend file = mock(FileToSend.class);
+        when(file.getName()).thenReturn(fileName);
+        when(file.length()).thenReturn(fileLength);
+        when(file.getContentHash()).thenThrow(new IOException("Don't read me"));
+        final int fileHash = file.hashCode();
+
+        final String info = "(" + userCode + ")" +
+                "[" + fileLength + "]" +
+                "{" + fileHash + "}" +
+                fileName;
+
+        final User user = new User("TestUser", userCode);
+        user.setCapabilities(Arrays.asList(ClientCapability.CONTENT_HASH));
+
+        messages.sendFile(user, file);
+        verify(service).sendMessageToAllUsers(createMessage("SENDFILE") + info);
+    }
+
+    /**
+     * Tests sendFile() with a batch of files.
+     *
+     * Expects: 14394329!SENDFILES#Christian:(1234)[80800]{37563645}a_folder
+     *
+     * @throws CommandException In case the message could not be sent.
+     */
+    @Test
+    public void testSendFileMessageWithBatch() throws CommandException {
+        final int userCode = 1234;
+        final long fileLength = 80800L;
+        final String fileName = "a_folder";
+
+        final FileToSend file = mock(FileToSend.class);
+        when(file.getName()).thenReturn(fileName);
+        when(file.length()).thenReturn(fileLength);
+        when(file.isBatch()).thenReturn(true);
+        final int fileHash = file.hashCode();
+
+        final String info = "(" + userCode + ")" +
+                "[" + fileLength + "]" +
+                "{" + fileHash + "}" +
+                fileName;
+
+        final User user = new User("TestUser", userCode);
+
+        messages.sendFile(user, file);
+        verify(service).sendMessageToAllUsers(createMessage("SENDFILES") + info);
+    }
+
+    /**
+     * Tests sendFileAcceptCached().
+     *
+     * Expects: 14394329!SENDFILEACCEPT#Christian:(1234)[0;cached]{37563645}a_file.txt
+     *
+     * @throws CommandException In case the message could not be sent.
+     */
+    @Test
+    public void testSendFileAcceptCachedMessage() throws CommandException {
+        final User user = new User("TestUser", 1234);
+
+        messages.sendFileAcceptCached(user, 37563645, "a_file.txt");
+        verify(service).sendMessageToAllUsers(createMessage("SENDFILEACCEPT") + "(1234)[0;cached]{37563645}a_file.txt");
+    }
+
+    /**
+     * Tests sendMulticastFile().
+     *
+     * Expects: 14394329!SENDFILEMULTICAST#Christian:(1234)[80800;5;50123]{37563645}a_file.txt
+     *
+     * @throws CommandException In case the message could not be sent.
+     */
+    @Test
+    public void testSendMulticastFileMessage() throws CommandException {
+        final int userCode = 1234;
+        final long fileLength = 80800L;
+        final String fileName = "a_file.txt";
+
+        final FileToSend file = mock(FileToSend.class);
+        when(file.getName()).thenReturn(fileName);
+        when(file.length()).thenReturn(fileLength);
+        final int fileHash = file.hashCode();
+
+        final String info = "(" + userCode + ")" +
+                "[" + fileLength + ";5;50123]" +
+                "{" + fileHash + "}" +
+                fileName;
+
+        final User user = new User("TestUser", userCode);
+
+        messages.sendMulticastFile(user, file, 5, 50123);
+        verify(service).sendMessageToAllUsers(createMessage("SENDFILEMULTICAST") + info);
+    }
+
     /**
      * Tests sendFileAbort().
      *
@@ -215,7 +527,57 @@ public class NetworkMessagesTest {
 
         final User user = new User("TestUser", userCode);
 
-        messages.sendFileAccept(user, port, fileHash, fileName);
+        messages.sendFileAccept(user, port, fileHash, fileName, false, 0);
+        verify(service).sendMessageToAllUsers(createMessage("SENDFILEACCEPT") + info);
+    }
+
+    /**
+     * Tests sendFileAccept() with compression.
+     *
+     * Expects: 17247198!SENDFILEACCEPT#Christian:(4321)[20103;deflate]{8578765}some_file.txt
+     *
+     * @throws CommandException In case the message could not be sent.
+     */
+    @Test
+    public void testSendFileAcceptMessageWithCompression() throws CommandException {
+        final int userCode = 4321;
+        final int port = 20103;
+        final int fileHash = 8578765;
+        final String fileName = "some_file.txt";
+
+        final String info = "(" + userCode + ")" +
+                "[" + port + ";deflate]" +
+                "{" + fileHash + "}" +
+                fileName;
+
+        final User user = new User("TestUser", userCode);
+
+        messages.sendFileAccept(user, port, fileHash, fileName, true, 0);
+        verify(service).sendMessageToAllUsers(createMessage("SENDFILEACCEPT") + info);
+    }
+
+    /**
+     * Tests sendFileAccept() with a shared port.
+     *
+     * Expects: 17247198!SENDFILEACCEPT#Christian:(4321)[20103;deflate;id=7]{8578765}some_file.txt
+     *
+     * @throws CommandException In case the message could not be sent.
+     */
+    @Test
+    public void testSendFileAcceptMessageWithSharedPort() throws CommandException {
+        final int userCode = 4321;
+        final int port = 20103;
+        final int fileHash = 8578765;
+        final String fileName = "some_file.txt";
+
+        final String info = "(" + userCode + ")" +
+                "[" + port + ";deflate;id=7]" +
+                "{" + fileHash + "}" +
+                fileName;
+
+        final User user = new User("TestUser", userCode);
+
+        messages.sendFileAccept(user, port, fileHash, fileName, true, 7);
         verify(service).sendMessageToAllUsers(createMessage("SENDFILEACCEPT") + info);
     }
 
@@ -233,12 +595,149 @@ public class NetworkMessagesTest {
     /**
      * Tests sendIdleMessage().
      *
-     * Expects: 10223997!IDLE#Christian:
+     * Expects: 10223997!IDLE#Christian:[5]
      */
     @Test
     public void testSendIdleMessage() {
+        me.setPresenceVersion(5);
+
         messages.sendIdleMessage();
-        verify(service).sendMessageToAllUsers(createMessage("IDLE"));
+        verify(service).sendMessageToAllUsers(createMessage("IDLE") + "[5]");
+    }
+
+    /**
+     * Tests sendAwayPresenceMessage().
+     *
+     * Expects: 10223997!PRESENCE#Christian:[5]{1}Gone fishing
+     */
+    @Test
+    public void testSendAwayPresenceMessage() {
+        me.setPresenceVersion(5);
+
+        messages.sendAwayPresenceMessage(true, "Gone fishing");
+        verify(service).sendMessageToAllUsers(createMessage("PRESENCE") + "[5]{1}Gone fishing");
+    }
+
+    /**
+     * Tests sendAwayPresenceMessage().
+     *
+     * Expects: 10223997!PRESENCE#Christian:[6]{0}
+     */
+    @Test
+    public void testSendBackPresenceMessage() {
+        me.setPresenceVersion(6);
+
+        messages.sendAwayPresenceMessage(false, "");
+        verify(service).sendMessageToAllUsers(createMessage("PRESENCE") + "[6]{0}");
+    }
+
+    /**
+     * Tests sendNickPresenceMessage().
+     *
+     * Expects: 10223997!PRESENCE#NewNick:[7]
+     */
+    @Test
+    public void testSendNickPresenceMessage() {
+        me.setPresenceVersion(7);
+
+        messages.sendNickPresenceMessage("NewNick");
+        verify(service).sendMessageToAllUsers(createMessage("PRESENCE", "NewNick") + "[7]");
+    }
+
+    /**
+     * Tests sendPresenceMessage().
+     *
+     * Expects: 10223997!PRESENCE#Christian:[8]{1}Away, using tcp.
+     */
+    @Test
+    public void testSendPresenceMessageShouldUseTcp() {
+        final User user = new User("Niles", 435435);
+        me.setPresenceVersion(8);
+        me.setAway(true);
+        me.setAwayMsg("Away");
+        when(service.sendMessageToUserUsingTcp(anyString(), any(User.class))).thenReturn(true);
+
+        messages.sendPresenceMessage(user);
+
+        verify(service).sendMessageToUserUsingTcp(createMessage("PRESENCE") + "[8]{1}Away", user);
+        verify(service, never()).sendMessageToAllUsers(anyString());
+    }
+
+    /**
+     * Tests sendPresenceMessage().
+     *
+     * Expects: 10223997!PRESENCE#Christian:[8]{0} to all users, when tcp fails.
+     */
+    @Test
+    public void testSendPresenceMessageShouldSendToAllIfTcpFails() {
+        final User user = new User("Niles", 435435);
+        me.setPresenceVersion(8);
+
+        messages.sendPresenceMessage(user);
+
+        verify(service).sendMessageToUserUsingTcp(createMessage("PRESENCE") + "[8]{0}", user);
+        verify(service).sendMessageToAllUsers(createMessage("PRESENCE") + "[8]{0}");
+    }
+
+    /**
+     * Tests sendPresenceRequest().
+     *
+     * Expects: 10223997!GETPRESENCE#Christian:(435435), to all users when tcp fails.
+     */
+    @Test
+    public void testSendPresenceRequest() {
+        final User user = new User("Niles", 435435);
+
+        messages.sendPresenceRequest(user);
+
+        verify(service).sendMessageToUserUsingTcp(createMessage("GETPRESENCE") + "(435435)", user);
+        verify(service).sendMessageToAllUsers(createMessage("GETPRESENCE") + "(435435)");
+    }
+
+    /**
+     * Tests sendHistoryRequest().
+     *
+     * Expects: 10223997!GETHISTORY#Christian:(435435)15000, using only tcp.
+     */
+    @Test
+    public void testSendHistoryRequest() {
+        final User user = new User("Niles", 435435);
+        when(service.sendMessageToUserUsingTcp(anyString(), any(User.class))).thenReturn(true);
+
+        assertTrue(messages.sendHistoryRequest(user, 15000));
+
+        verify(service).sendMessageToUserUsingTcp(createMessage("GETHISTORY") + "(435435)15000", user);
+        verify(service, never()).sendMessageToAllUsers(anyString());
+    }
+
+    @Test
+    public void sendHistoryRequestShouldReturnFalseWhenTcpFails() {
+        final User user = new User("Niles", 435435);
+
+        assertFalse(messages.sendHistoryRequest(user, -1));
+
+        verify(service).sendMessageToUserUsingTcp(createMessage("GETHISTORY") + "(435435)-1", user);
+        verify(service, never()).sendMessageToAllUsers(anyString());
+    }
+
+    @Test
+    public void sendHistoryShouldSendCompressedMessagesUsingTcp() {
+        final User user = new User("Niles", 435435);
+        final long now = System.currentTimeMillis();
+        when(service.sendMessageToUserUsingTcp(anyString(), any(User.class))).thenReturn(true);
+
+        assertTrue(messages.sendHistory(user, Arrays.asList(new ChatHistory.Entry(now - 5000, 100, "John", 200, "Hello"))));
+
+        final ArgumentCaptor<String> messageCaptor = ArgumentCaptor.forClass(String.class);
+        verify(service).sendMessageToUserUsingTcp(messageCaptor.capture(), eq(user));
+        verify(service, never()).sendMessageToAllUsers(anyString());
+
+        final String prefix = createMessage("HISTORY") + "(435435)";
+        assertTrue(messageCaptor.getValue().startsWith(prefix));
+
+        final List<ChatHistory.Entry> entries = HistoryCodec.decode(messageCaptor.getValue().substring(prefix.length()), now);
+        assertEquals(1, entries.size());
+        assertEquals("Hello", entries.get(0).getMessage());
     }
 
     /**
@@ -290,7 +789,7 @@ public class NetworkMessagesTest {
     /**
      * Tests sendPrivateMessage().
      *
-     * Expects: 10897608!PRIVMSG#Christian:(435435)[-15987646]this is a private message
+     * Expects: 10897608!PRIVMSG#Christian:(435435){1}[-15987646]this is a private message
      *
      * @throws CommandException In case the message could not be sent.
      */
@@ -302,6 +801,7 @@ public class NetworkMessagesTest {
         final int userCode = 435435;
 
         final String message = "(" + userCode + ")" +
+                "{1}" +
                 "[" + settings.getOwnColor() + "]" +
                 privmsg;
 
@@ -313,6 +813,80 @@ public class NetworkMessagesTest {
         verify(service).sendMessageToUser(createMessage("PRIVMSG") + message, user);
     }
 
+    /**
+     * Tests sendRosterRequest().
+     *
+     * Expects: 10897608!GETROSTER#Christian:(435435)
+     */
+    @Test
+    public void testSendRosterRequest() {
+        final User user = new User("Niles", 435435);
+        when(service.sendMessageToUserUsingTcp(anyString(), any(User.class))).thenReturn(true);
+
+        assertTrue(messages.sendRosterRequest(user));
+        verify(service).sendMessageToUserUsingTcp(createMessage("GETROSTER") + "(435435)", user);
+    }
+
+    /**
+     * Tests sendRoster().
+     *
+     * Expects: 10897608!ROSTER#Christian:(435435) followed by the users, split over several messages.
+     */
+    @Test
+    public void testSendRosterShouldSplitUsersOverSeveralMessagesAndSkipTheUserAsking() {
+        final User user = new User("Niles", 435435);
+        final List<User> users = new ArrayList<>();
+        users.add(user);
+
+        for (int i = 0; i < 300; i++) {
+            final User otherUser = new User("User" + i, i);
+            otherUser.setAwayMsg("A long away message, to fill up the roster faster than with just the nick name");
+            users.add(otherUser);
+        }
+
+        when(service.sendMessageToUserUsingTcp(anyString(), any(User.class))).thenReturn(true);
+
+        assertTrue(messages.sendRoster(user, users));
+
+        final ArgumentCaptor<String> messageCaptor = ArgumentCaptor.forClass(String.class);
+        verify(service, atLeast(2)).sendMessageToUserUsingTcp(messageCaptor.capture(), eq(user));
+
+        final String header = createMessage("ROSTER") + "(435435)";
+        final List<User> sentUsers = new ArrayList<>();
+
+        for (final String message : messageCaptor.getAllValues()) {
+            assertTrue(message.startsWith(header));
+            assertTrue(message.length() <= header.length() + NetworkMessages.MAX_ROSTER_LENGTH);
+
+            sentUsers.addAll(RosterCodec.decode(message.substring(header.length()), 0));
+        }
+
+        assertEquals(300, sentUsers.size());
+        assertFalse(sentUsers.contains(user));
+    }
+
+    /**
+     * Tests sendRoster().
+     *
+     * Expects: false, and no more messages are sent after the first one fails.
+     */
+    @Test
+    public void testSendRosterShouldStopIfMessageFails() {
+        final User user = new User("Niles", 435435);
+        final List<User> users = new ArrayList<>();
+
+        for (int i = 0; i < 300; i++) {
+            final User otherUser = new User("User" + i, i);
+            otherUser.setAwayMsg("A long away message, to fill up the roster faster than with just the nick name");
+            users.add(otherUser);
+        }
+
+        when(service.sendMessageToUserUsingTcp(anyString(), any(User.class))).thenReturn(false);
+
+        assertFalse(messages.sendRoster(user, users));
+        verify(service, times(1)).sendMessageToUserUsingTcp(anyString(), eq(user));
+    }
+
     /**
      * Tests sendStoppedWritingMessage().
      *
@@ -31,6 +31,7 @@ import net.usikkert.kouchat.misc.ErrorHandler;
 import net.usikkert.kouchat.misc.User;
 import net.usikkert.kouchat.misc.UserList;
 import net.usikkert.kouchat.settings.Settings;
+import net.usikkert.kouchat.util.HashedWheelTimer;
 import net.usikkert.kouchat.util.TestUtils;
 
 import org.junit.Before;
@@ -60,6 +61,7 @@ public class NetworkServiceTest {
 
         when(settings.getMe()).thenReturn(mock(User.class));
         when(controller.getUserList()).thenReturn(mock(UserList.class));
+        when(controller.getTimer()).thenReturn(mock(HashedWheelTimer.class));
     }
 
     @Test
@@ -0,0 +1,103 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import static org.junit.Assert.*;
+
+import net.usikkert.kouchat.junit.ExpectedException;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Test of {@link RetransmitBuffer}.
+ *
+ * @author Christian Ihle
+ */
+public class RetransmitBufferTest {
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    private RetransmitBuffer buffer;
+
+    @Before
+    public void setUp() {
+        buffer = new RetransmitBuffer();
+    }
+
+    @Test
+    public void nextSequenceShouldStartAtOneAndIncrease() {
+        assertEquals(1, buffer.nextSequence(RetransmitBuffer.MAIN_CHAT));
+        assertEquals(2, buffer.nextSequence(RetransmitBuffer.MAIN_CHAT));
+        assertEquals(3, buffer.nextSequence(RetransmitBuffer.MAIN_CHAT));
+    }
+
+    @Test
+    public void nextSequenceShouldCountEachStreamSeparately() {
+        assertEquals(1, buffer.nextSequence(RetransmitBuffer.MAIN_CHAT));
+        assertEquals(1, buffer.nextSequence(100));
+        assertEquals(2, buffer.nextSequence(100));
+        assertEquals(1, buffer.nextSequence(200));
+        assertEquals(2, buffer.nextSequence(RetransmitBuffer.MAIN_CHAT));
+    }
+
+    @Test
+    public void addShouldThrowExceptionIfMessageIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Message can not be null");
+
+        buffer.add(RetransmitBuffer.MAIN_CHAT, 1, null);
+    }
+
+    @Test
+    public void getShouldReturnTheMessageFromTheCorrectStream() {
+        buffer.add(RetransmitBuffer.MAIN_CHAT, 1, "main 1");
+        buffer.add(100, 1, "private 1");
+        buffer.add(RetransmitBuffer.MAIN_CHAT, 2, "main 2");
+
+        assertEquals("main 1", buffer.get(RetransmitBuffer.MAIN_CHAT, 1));
+        assertEquals("main 2", buffer.get(RetransmitBuffer.MAIN_CHAT, 2));
+        assertEquals("private 1", buffer.get(100, 1));
+    }
+
+    @Test
+    public void getShouldReturnNullForUnknownMessages() {
+        buffer.add(RetransmitBuffer.MAIN_CHAT, 1, "main 1");
+
+        assertNull(buffer.get(RetransmitBuffer.MAIN_CHAT, 2));
+        assertNull(buffer.get(100, 1));
+    }
+
+    @Test
+    public void addShouldRemoveTheOldestMessageWhenFull() {
+        for (int sequence = 1; sequence <= RetransmitBuffer.MAX_MESSAGES + 1; sequence++) {
+            buffer.add(RetransmitBuffer.MAIN_CHAT, sequence, "message " + sequence);
+        }
+
+        assertNull(buffer.get(RetransmitBuffer.MAIN_CHAT, 1));
+        assertEquals("message 2", buffer.get(RetransmitBuffer.MAIN_CHAT, 2));
+        assertEquals("message 201", buffer.get(RetransmitBuffer.MAIN_CHAT, RetransmitBuffer.MAX_MESSAGES + 1));
+    }
+}
@@ -0,0 +1,196 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import net.usikkert.kouchat.junit.ExpectedException;
+import net.usikkert.kouchat.misc.User;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Test of {@link RosterCodec}.
+ *
+ * @author Christian Ihle
+ */
+public class RosterCodecTest {
+
+    private static final long NOW = 1_000_000L;
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    private User niles;
+    private User john;
+
+    @Before
+    public void setUp() {
+        niles = new User("Niles", 1);
+        niles.setAway(true);
+        niles.setAwayMsg("Gone\tfishing\nback\\soon");
+        niles.setIpAddress("192.168.1.1");
+        niles.setPrivateChatPort(40001);
+        niles.setTcpChatPort(40002);
+        niles.setClient("KouChat v1.4.0 Swing");
+        niles.setOperatingSystem("Linux");
+        niles.setLogonTime(NOW - 5000);
+        niles.setLastIdle(NOW - 1000);
+        niles.setIdleInterval(30000);
+        niles.setCapabilities(Arrays.asList(ClientCapability.DEFLATE, ClientCapability.ROSTER));
+        niles.setPresenceVersion(7);
+
+        john = new User("John", 2);
+    }
+
+    @Test
+    public void encodeShouldThrowExceptionIfUsersIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Users can not be null");
+
+        RosterCodec.encode(null, 1000, NOW);
+    }
+
+    @Test
+    public void encodeShouldReturnNoChunksIfNoUsers() {
+        assertTrue(RosterCodec.encode(Collections.<User>emptyList(), 1000, NOW).isEmpty());
+    }
+
+    @Test
+    public void encodeShouldPutOneUserOnEachLine() {
+        niles.setCapabilities(Arrays.asList(ClientCapability.ROSTER));
+
+        final List<String> chunks = RosterCodec.encode(Arrays.asList(niles, john), 1000, NOW);
+
+        assertEquals(1, chunks.size());
+        assertEquals("1\tNiles\t1\tGone\\tfishing\\nback\\\\soon\t192.168.1.1\t40001\t40002\tKouChat v1.4.0 Swing\t" +
+                             "Linux\t5000\t1000\t30000\troster\t7\n" +
+                             "2\tJohn\t0\t\t<unknown>\t0\t0\t<unknown>\t<unknown>\t" + NOW + "\t" + NOW + "\t0\t\t0",
+                     chunks.get(0));
+    }
+
+    @Test
+    public void encodeShouldSplitUsersIntoChunksWithoutSplittingAnyUser() {
+        final List<String> chunks = RosterCodec.encode(Arrays.asList(niles, john, niles), 200, NOW);
+
+        assertEquals(2, chunks.size());
+        assertEquals(2, RosterCodec.decode(chunks.get(0), NOW).size());
+        assertEquals(1, RosterCodec.decode(chunks.get(1), NOW).size());
+    }
+
+    @Test
+    public void encodeShouldPutUserLongerThanMaxLengthInChunkByItself() {
+        final List<String> chunks = RosterCodec.encode(Arrays.asList(john, niles, john), 10, NOW);
+
+        assertEquals(3, chunks.size());
+    }
+
+    @Test
+    public void decodeShouldThrowExceptionIfRosterIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Roster can not be null");
+
+        RosterCodec.decode(null, NOW);
+    }
+
+    @Test
+    public void decodeShouldRestoreAllTheFields() {
+        final String roster = RosterCodec.encode(Arrays.asList(niles), 1000, NOW).get(0);
+
+        final List<User> users = RosterCodec.decode(roster, NOW + 2000);
+
+        assertEquals(1, users.size());
+        final User user = users.get(0);
+
+        assertEquals(1, user.getCode());
+        assertEquals("Niles", user.getNick());
+        assertTrue(user.isAway());
+        assertEquals("Gone\tfishing\nback\\soon", user.getAwayMsg());
+        assertEquals("192.168.1.1", user.getIpAddress());
+        assertEquals(40001, user.getPrivateChatPort());
+        assertEquals(40002, user.getTcpChatPort());
+        assertEquals("KouChat v1.4.0 Swing", user.getClient());
+        assertEquals("Linux", user.getOperatingSystem());
+        assertEquals(NOW - 3000, user.getLogonTime());
+        assertEquals(NOW + 1000, user.getLastIdle());
+        assertEquals(30000, user.getIdleInterval());
+        assertTrue(user.hasCapability(ClientCapability.DEFLATE));
+        assertTrue(user.hasCapability(ClientCapability.ROSTER));
+        assertEquals(2, user.getCapabilities().size());
+        assertEquals(7, user.getPresenceVersion());
+    }
+
+    @Test
+    public void decodeShouldAcceptUserWithoutPresenceVersion() {
+        final String roster = "1\tNiles\t0\t\t<unknown>\t0\t0\t<unknown>\t<unknown>\t0\t0\t0\tdeflate";
+
+        final List<User> users = RosterCodec.decode(roster, NOW);
+
+        assertEquals(1, users.size());
+        assertEquals(0, users.get(0).getPresenceVersion());
+        assertTrue(users.get(0).hasCapability(ClientCapability.DEFLATE));
+    }
+
+    @Test
+    public void decodeShouldHandleUserWithoutCapabilities() {
+        final String roster = RosterCodec.encode(Arrays.asList(john), 1000, NOW).get(0);
+
+        final List<User> users = RosterCodec.decode(roster, NOW);
+
+        assertEquals(1, users.size());
+        assertEquals("John", users.get(0).getNick());
+        assertTrue(users.get(0).getCapabilities().isEmpty());
+    }
+
+    @Test
+    public void decodeShouldSkipUsersWithTooFewFields() {
+        final String roster = "1\tNiles\t0\n" + RosterCodec.encode(Arrays.asList(john), 1000, NOW).get(0);
+
+        final List<User> users = RosterCodec.decode(roster, NOW);
+
+        assertEquals(1, users.size());
+        assertEquals("John", users.get(0).getNick());
+    }
+
+    @Test
+    public void decodeShouldSkipUsersWithInvalidNumbers() {
+        final String roster = "x\tNiles\t0\t\t<unknown>\t0\t0\t<unknown>\t<unknown>\t0\t0\t0\t\n" +
+                RosterCodec.encode(Arrays.asList(john), 1000, NOW).get(0);
+
+        final List<User> users = RosterCodec.decode(roster, NOW);
+
+        assertEquals(1, users.size());
+        assertEquals("John", users.get(0).getNick());
+    }
+
+    @Test
+    public void decodeShouldReturnEmptyListForEmptyRoster() {
+        assertTrue(RosterCodec.decode("", NOW).isEmpty());
+    }
+}
@@ -0,0 +1,228 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import net.usikkert.kouchat.junit.ExpectedException;
+import net.usikkert.kouchat.misc.Controller;
+import net.usikkert.kouchat.misc.User;
+import net.usikkert.kouchat.util.HashedWheelTimer;
+import net.usikkert.kouchat.util.TimerHandle;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Test of {@link RosterRequester}.
+ *
+ * @author Christian Ihle
+ */
+public class RosterRequesterTest {
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    private RosterRequester rosterRequester;
+
+    private Controller controller;
+    private HashedWheelTimer timer;
+    private TimerHandle timerHandle;
+
+    private User niles;
+    private User john;
+
+    @Before
+    public void setUp() {
+        controller = mock(Controller.class);
+        timer = mock(HashedWheelTimer.class);
+        timerHandle = mock(TimerHandle.class);
+
+        when(timer.schedule(anyString(), any(Runnable.class), anyLong())).thenReturn(timerHandle);
+        when(controller.isNewUser(anyInt())).thenReturn(false);
+        when(controller.sendRosterRequest(any(User.class))).thenReturn(true);
+
+        rosterRequester = new RosterRequester(controller, timer);
+
+        niles = new User("Niles", 1);
+        niles.setTcpEnabled(true);
+        john = new User("John", 2);
+        john.setTcpEnabled(true);
+    }
+
+    @Test
+    public void constructorShouldThrowExceptionIfControllerIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Controller can not be null");
+
+        new RosterRequester(null, timer);
+    }
+
+    @Test
+    public void constructorShouldThrowExceptionIfTimerIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Timer can not be null");
+
+        new RosterRequester(controller, null);
+    }
+
+    @Test
+    public void addCandidateShouldThrowExceptionIfUserIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("User can not be null");
+
+        rosterRequester.addCandidate(null);
+    }
+
+    @Test
+    public void addCandidateShouldScheduleCheckOfTheFirstCandidate() {
+        rosterRequester.addCandidate(niles);
+
+        assertTrue(rosterRequester.isPending());
+        verify(timer).schedule("RosterRequester", rosterRequester, 0);
+    }
+
+    @Test
+    public void addCandidateShouldOnlyAskOneCandidateAtATime() {
+        rosterRequester.addCandidate(niles);
+        rosterRequester.addCandidate(john);
+
+        verify(timer, times(1)).schedule(anyString(), any(Runnable.class), anyLong());
+    }
+
+    @Test
+    public void runShouldSendRequestWhenTcpIsEnabledAndWaitForReply() {
+        rosterRequester.addCandidate(niles);
+        rosterRequester.run();
+
+        verify(controller).sendRosterRequest(niles);
+        verify(timer).schedule("RosterRequester", rosterRequester, RosterRequester.REPLY_TIMEOUT);
+    }
+
+    @Test
+    public void runShouldRetryLaterWhenTcpIsNotEnabledYet() {
+        niles.setTcpEnabled(false);
+
+        rosterRequester.addCandidate(niles);
+        rosterRequester.run();
+
+        verify(controller, never()).sendRosterRequest(any(User.class));
+        verify(timer).schedule("RosterRequester", rosterRequester, RosterRequester.RETRY_DELAY);
+    }
+
+    @Test
+    public void runShouldAskNextCandidateWhenTcpIsNeverEnabled() {
+        niles.setTcpEnabled(false);
+
+        rosterRequester.addCandidate(niles);
+        rosterRequester.addCandidate(john);
+
+        for (int i = 0; i < RosterRequester.MAX_TRIES; i++) {
+            rosterRequester.run();
+        }
+
+        verify(controller, never()).sendRosterRequest(niles);
+
+        rosterRequester.run();
+
+        verify(controller).sendRosterRequest(john);
+    }
+
+    @Test
+    public void runShouldAskNextCandidateWhenNoReplyArrives() {
+        rosterRequester.addCandidate(niles);
+        rosterRequester.addCandidate(john);
+
+        rosterRequester.run(); // Sends to niles
+        rosterRequester.run(); // Reply timeout
+        rosterRequester.run(); // Sends to john
+
+        verify(controller).sendRosterRequest(niles);
+        verify(controller).sendRosterRequest(john);
+    }
+
+    @Test
+    public void runShouldAskNextCandidateWhenRequestFails() {
+        when(controller.sendRosterRequest(niles)).thenReturn(false);
+
+        rosterRequester.addCandidate(niles);
+        rosterRequester.addCandidate(john);
+
+        rosterRequester.run();
+        rosterRequester.run();
+
+        verify(controller).sendRosterRequest(john);
+    }
+
+    @Test
+    public void runShouldSkipCandidatesThatAreNoLongerOnline() {
+        when(controller.isNewUser(2)).thenReturn(true);
+
+        rosterRequester.addCandidate(niles);
+        rosterRequester.addCandidate(john);
+
+        rosterRequester.run();
+        rosterRequester.run();
+
+        assertFalse(rosterRequester.isPending());
+        verify(controller, never()).sendRosterRequest(john);
+    }
+
+    @Test
+    public void addCandidateShouldIgnoreTheSameUserTwice() {
+        rosterRequester.addCandidate(niles);
+        rosterRequester.run();
+        rosterRequester.run(); // Reply timeout
+
+        rosterRequester.addCandidate(niles);
+
+        assertFalse(rosterRequester.isPending());
+    }
+
+    @Test
+    public void rosterArrivedShouldCancelPendingCheckAndIgnoreNewCandidates() {
+        rosterRequester.addCandidate(niles);
+        rosterRequester.rosterArrived(1);
+
+        assertFalse(rosterRequester.isPending());
+        verify(timerHandle).cancel();
+
+        rosterRequester.addCandidate(john);
+
+        assertFalse(rosterRequester.isPending());
+        verify(timer, times(1)).schedule(anyString(), any(Runnable.class), anyLong());
+    }
+
+    @Test
+    public void resetShouldAllowNewRequests() {
+        rosterRequester.addCandidate(niles);
+        rosterRequester.rosterArrived(1);
+        rosterRequester.reset();
+
+        rosterRequester.addCandidate(niles);
+
+        assertTrue(rosterRequester.isPending());
+    }
+}
@@ -0,0 +1,247 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import net.usikkert.kouchat.event.UserListListener;
+import net.usikkert.kouchat.junit.ExpectedException;
+import net.usikkert.kouchat.misc.Controller;
+import net.usikkert.kouchat.misc.User;
+import net.usikkert.kouchat.misc.UserList;
+import net.usikkert.kouchat.util.HashedWheelTimer;
+import net.usikkert.kouchat.util.TimerHandle;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+/**
+ * Test of {@link SequenceTracker}.
+ *
+ * @author Christian Ihle
+ */
+public class SequenceTrackerTest {
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    private SequenceTracker sequenceTracker;
+
+    private Controller controller;
+    private HashedWheelTimer timer;
+    private UserList userList;
+
+    private User niles;
+
+    @Before
+    public void setUp() {
+        controller = mock(Controller.class);
+        timer = mock(HashedWheelTimer.class);
+        userList = mock(UserList.class);
+
+        when(controller.getUserList()).thenReturn(userList);
+        when(timer.schedule(anyString(), any(Runnable.class), anyLong())).thenReturn(mock(TimerHandle.class));
+
+        sequenceTracker = new SequenceTracker(controller, timer);
+
+        niles = new User("Niles", 100);
+    }
+
+    @Test
+    public void constructorShouldThrowExceptionIfControllerIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Controller can not be null");
+
+        new SequenceTracker(null, timer);
+    }
+
+    @Test
+    public void constructorShouldThrowExceptionIfTimerIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Timer can not be null");
+
+        new SequenceTracker(controller, null);
+    }
+
+    @Test
+    public void messageArrivedShouldThrowExceptionIfUserIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("User can not be null");
+
+        sequenceTracker.messageArrived(null, false, 1);
+    }
+
+    @Test
+    public void messageArrivedShouldAcceptTheFirstMessageWithoutAskingForEarlierMessages() {
+        assertTrue(sequenceTracker.messageArrived(niles, false, 50));
+
+        assertFalse(sequenceTracker.isMissingMessages(100, false));
+        verifyZeroInteractions(timer);
+    }
+
+    @Test
+    public void messageArrivedShouldAcceptMessagesInOrder() {
+        assertTrue(sequenceTracker.messageArrived(niles, false, 1));
+        assertTrue(sequenceTracker.messageArrived(niles, false, 2));
+        assertTrue(sequenceTracker.messageArrived(niles, false, 3));
+
+        assertFalse(sequenceTracker.isMissingMessages(100, false));
+        verifyZeroInteractions(timer);
+    }
+
+    @Test
+    public void messageArrivedShouldRejectDuplicates() {
+        assertTrue(sequenceTracker.messageArrived(niles, false, 1));
+        assertTrue(sequenceTracker.messageArrived(niles, false, 2));
+
+        assertFalse(sequenceTracker.messageArrived(niles, false, 1));
+        assertFalse(sequenceTracker.messageArrived(niles, false, 2));
+    }
+
+    @Test
+    public void messageArrivedShouldRejectMessagesFromBeforeTheFirstMessage() {
+        assertTrue(sequenceTracker.messageArrived(niles, false, 10));
+
+        assertFalse(sequenceTracker.messageArrived(niles, false, 9));
+    }
+
+    @Test
+    public void messageArrivedShouldTrackTheMainChatAndPrivateChatSeparately() {
+        assertTrue(sequenceTracker.messageArrived(niles, false, 1));
+        assertTrue(sequenceTracker.messageArrived(niles, true, 1));
+        assertTrue(sequenceTracker.messageArrived(niles, true, 3));
+
+        assertFalse(sequenceTracker.isMissingMessages(100, false));
+        assertTrue(sequenceTracker.isMissingMessages(100, true));
+    }
+
+    @Test
+    public void messageArrivedShouldScheduleRequestForGapOnce() {
+        sequenceTracker.messageArrived(niles, false, 1);
+        sequenceTracker.messageArrived(niles, false, 3);
+        sequenceTracker.messageArrived(niles, false, 5);
+
+        assertTrue(sequenceTracker.isMissingMessages(100, false));
+        verify(timer).schedule(eq("SequenceTracker"), any(Runnable.class), eq((long) SequenceTracker.NAK_DELAY));
+    }
+
+    @Test
+    public void messageArrivedShouldAcceptMissingMessageOnce() {
+        sequenceTracker.messageArrived(niles, false, 1);
+        sequenceTracker.messageArrived(niles, false, 3);
+
+        assertTrue(sequenceTracker.messageArrived(niles, false, 2));
+        assertFalse(sequenceTracker.messageArrived(niles, false, 2));
+        assertFalse(sequenceTracker.isMissingMessages(100, false));
+    }
+
+    @Test
+    public void checkShouldNotAskForMessagesThatArrivedInTheMeantime() {
+        sequenceTracker.messageArrived(niles, false, 1);
+        sequenceTracker.messageArrived(niles, false, 3);
+        final Runnable check = getScheduledCheck(1);
+
+        sequenceTracker.messageArrived(niles, false, 2);
+        check.run();
+
+        verify(controller, never()).sendMessageRequest(any(User.class), anyBoolean(), anyListOf(Integer.class));
+        verify(timer, times(1)).schedule(anyString(), any(Runnable.class), anyLong());
+    }
+
+    @Test
+    public void checkShouldAskForMissingMessagesAndCheckAgainLater() {
+        sequenceTracker.messageArrived(niles, true, 1);
+        sequenceTracker.messageArrived(niles, true, 4);
+        getScheduledCheck(1).run();
+
+        verify(controller).sendMessageRequest(niles, true, Arrays.asList(2, 3));
+        verify(timer).schedule(eq("SequenceTracker"), any(Runnable.class), eq((long) SequenceTracker.REPAIR_TIMEOUT));
+    }
+
+    @Test
+    public void checkShouldGiveUpAfterMaxRequests() {
+        sequenceTracker.messageArrived(niles, false, 1);
+        sequenceTracker.messageArrived(niles, false, 3);
+
+        for (int i = 1; i <= SequenceTracker.MAX_REQUESTS + 1; i++) {
+            getScheduledCheck(i).run();
+        }
+
+        verify(controller, times(SequenceTracker.MAX_REQUESTS)).sendMessageRequest(niles, false, Arrays.asList(2));
+        assertFalse(sequenceTracker.isMissingMessages(100, false));
+        verify(timer, times(SequenceTracker.MAX_REQUESTS + 1)).schedule(anyString(), any(Runnable.class), anyLong());
+    }
+
+    @Test
+    public void checkShouldLimitTheNumberOfMessagesInEachRequest() {
+        sequenceTracker.messageArrived(niles, false, 1);
+        sequenceTracker.messageArrived(niles, false, SequenceTracker.MAX_MISSING_PER_REQUEST + 10);
+        getScheduledCheck(1).run();
+
+        final ArgumentCaptor<List> requestCaptor = ArgumentCaptor.forClass(List.class);
+        verify(controller).sendMessageRequest(eq(niles), eq(false), requestCaptor.capture());
+
+        assertEquals(SequenceTracker.MAX_MISSING_PER_REQUEST, requestCaptor.getValue().size());
+        assertEquals(2, requestCaptor.getValue().get(0));
+    }
+
+    @Test
+    public void messageArrivedShouldOnlyRememberTheWindow() {
+        sequenceTracker.messageArrived(niles, false, 1);
+        sequenceTracker.messageArrived(niles, false, 2);
+        sequenceTracker.messageArrived(niles, false, SequenceTracker.WINDOW + 2);
+
+        assertFalse(sequenceTracker.messageArrived(niles, false, 2));
+        assertTrue(sequenceTracker.messageArrived(niles, false, 3));
+    }
+
+    @Test
+    public void userRemovedShouldForgetTheUser() {
+        final ArgumentCaptor<UserListListener> listenerCaptor = ArgumentCaptor.forClass(UserListListener.class);
+        verify(userList).addUserListListener(listenerCaptor.capture());
+
+        sequenceTracker.messageArrived(niles, false, 1);
+        sequenceTracker.messageArrived(niles, false, 3);
+        final Runnable check = getScheduledCheck(1);
+
+        listenerCaptor.getValue().userRemoved(0, niles);
+        check.run();
+
+        assertFalse(sequenceTracker.isMissingMessages(100, false));
+        assertTrue(sequenceTracker.messageArrived(niles, false, 1));
+        verify(controller, never()).sendMessageRequest(any(User.class), anyBoolean(), anyListOf(Integer.class));
+    }
+
+    private Runnable getScheduledCheck(final int times) {
+        final ArgumentCaptor<Runnable> checkCaptor = ArgumentCaptor.forClass(Runnable.class);
+        verify(timer, times(times)).schedule(eq("SequenceTracker"), checkCaptor.capture(), anyLong());
+
+        return checkCaptor.getValue();
+    }
+}
@@ -0,0 +1,339 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+package net.usikkert.kouchat.net;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import net.usikkert.kouchat.junit.ExpectedException;
+import net.usikkert.kouchat.settings.Setting;
+import net.usikkert.kouchat.settings.Settings;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+/**
+ * Test of {@link TransferExecutor}.
+ *
+ * @author Christian Ihle
+ */
+public class TransferExecutorTest {
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    private TransferExecutor transferExecutor;
+
+    private Settings settings;
+    private ExecutorService executorService;
+    private List<Integer> startedTasks;
+
+    @Before
+    public void setUp() {
+        settings = new Settings();
+        settings.setMaxConcurrentSends(1);
+        settings.setMaxConcurrentReceives(1);
+
+        executorService = mock(ExecutorService.class);
+        transferExecutor = new TransferExecutor(settings, executorService);
+
+        startedTasks = new ArrayList<>();
+    }
+
+    @Test
+    public void constructorShouldThrowExceptionIfSettingsIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Settings can not be null");
+
+        new TransferExecutor(null);
+    }
+
+    @Test
+    public void constructorShouldThrowExceptionIfExecutorServiceIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Executor service can not be null");
+
+        new TransferExecutor(settings, null);
+    }
+
+    @Test
+    public void executeShouldThrowExceptionIfFileTransferIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("File transfer can not be null");
+
+        transferExecutor.execute(null, createTask(1));
+    }
+
+    @Test
+    public void executeShouldThrowExceptionIfTaskIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Task can not be null");
+
+        transferExecutor.execute(createFileSender(1), null);
+    }
+
+    @Test
+    public void executeShouldStartTransferRightAwayIfThereIsAFreeSlot() {
+        final FileSender fileSender = createFileSender(1);
+
+        transferExecutor.execute(fileSender, createTask(1));
+
+        verify(executorService).execute(any(Runnable.class));
+        verify(fileSender, never()).setQueued(anyBoolean());
+        assertEquals(1, transferExecutor.getRunning(FileTransfer.Direction.SEND));
+        assertEquals(0, transferExecutor.getQueued(FileTransfer.Direction.SEND));
+    }
+
+    @Test
+    public void executeShouldQueueTransferIfThereAreNoFreeSlots() {
+        final FileSender fileSender = createFileSender(2);
+
+        transferExecutor.execute(createFileSender(1), createTask(1));
+        transferExecutor.execute(fileSender, createTask(2));
+
+        verify(executorService).execute(any(Runnable.class));
+        verify(fileSender).setQueued(true);
+        assertEquals(1, transferExecutor.getRunning(FileTransfer.Direction.SEND));
+        assertEquals(1, transferExecutor.getQueued(FileTransfer.Direction.SEND));
+    }
+
+    @Test
+    public void executeShouldUseSeparateSlotsForSendsAndReceives() {
+        final FileReceiver fileReceiver = createFileReceiver(2);
+
+        transferExecutor.execute(createFileSender(1), createTask(1));
+        transferExecutor.execute(fileReceiver, createTask(2));
+
+        verify(executorService, times(2)).execute(any(Runnable.class));
+        verify(fileReceiver, never()).setQueued(anyBoolean());
+        assertEquals(1, transferExecutor.getRunning(FileTransfer.Direction.SEND));
+        assertEquals(1, transferExecutor.getRunning(FileTransfer.Direction.RECEIVE));
+    }
+
+    @Test
+    public void finishedTransferShouldStartNextInQueue() {
+        final FileSender fileSender = createFileSender(2);
+
+        transferExecutor.execute(createFileSender(1), createTask(1));
+        transferExecutor.execute(fileSender, createTask(2));
+
+        runTasks();
+
+        assertEquals(Arrays.asList(1, 2), startedTasks);
+        verify(fileSender).setQueued(false);
+        assertEquals(0, transferExecutor.getRunning(FileTransfer.Direction.SEND));
+        assertEquals(0, transferExecutor.getQueued(FileTransfer.Direction.SEND));
+    }
+
+    @Test
+    public void queuedTransfersShouldStartInTheOrderTheyWereQueued() {
+        for (int i = 1; i <= 5; i++) {
+            transferExecutor.execute(createFileReceiver(i), createTask(i));
+        }
+
+        runTasks();
+
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5), startedTasks);
+    }
+
+    @Test
+    public void queuedTransfersWithHigherPriorityShouldStartFirst() {
+        for (int i = 1; i <= 5; i++) {
+            transferExecutor.execute(createFileReceiver(i), createTask(i));
+        }
+
+        assertTrue(transferExecutor.setPriority(4, 10));
+        assertTrue(transferExecutor.setPriority(3, 10));
+        assertTrue(transferExecutor.setPriority(5, -1));
+
+        runTasks();
+
+        assertEquals(Arrays.asList(1, 3, 4, 2, 5), startedTasks);
+    }
+
+    @Test
+    public void prepareShouldThrowExceptionIfTaskIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Task can not be null");
+
+        transferExecutor.prepare(null);
+    }
+
+    @Test
+    public void prepareShouldRunTaskWithoutUsingASlot() {
+        final Runnable task = createTask(2);
+        transferExecutor.execute(createFileSender(1), createTask(1));
+
+        transferExecutor.prepare(task);
+
+        verify(executorService).execute(task);
+        assertEquals(1, transferExecutor.getRunning(FileTransfer.Direction.SEND));
+        assertEquals(0, transferExecutor.getQueued(FileTransfer.Direction.SEND));
+    }
+
+    @Test
+    public void setPriorityShouldReturnFalseIfTransferIsNotQueued() {
+        transferExecutor.execute(createFileSender(1), createTask(1));
+
+        assertFalse(transferExecutor.setPriority(1, 5));
+        assertFalse(transferExecutor.setPriority(2, 5));
+    }
+
+    @Test
+    public void getPriorityShouldReturnPriorityOfQueuedTransfer() {
+        transferExecutor.execute(createFileSender(1), createTask(1));
+        transferExecutor.execute(createFileSender(2), createTask(2));
+
+        assertEquals(TransferExecutor.DEFAULT_PRIORITY, transferExecutor.getPriority(2));
+
+        transferExecutor.setPriority(2, 7);
+
+        assertEquals(7, transferExecutor.getPriority(2));
+    }
+
+    @Test
+    public void getPriorityShouldReturnDefaultPriorityIfTransferIsNotQueued() {
+        assertEquals(TransferExecutor.DEFAULT_PRIORITY, transferExecutor.getPriority(100));
+    }
+
+    @Test
+    public void settingChangedShouldStartQueuedTransfersWhenLimitIsIncreased() {
+        for (int i = 1; i <= 4; i++) {
+            transferExecutor.execute(createFileSender(i), createTask(i));
+        }
+
+        settings.setMaxConcurrentSends(3);
+
+        verify(executorService, times(3)).execute(any(Runnable.class));
+        assertEquals(3, transferExecutor.getRunning(FileTransfer.Direction.SEND));
+        assertEquals(1, transferExecutor.getQueued(FileTransfer.Direction.SEND));
+    }
+
+    @Test
+    public void settingChangedShouldNotStopRunningTransfersWhenLimitIsDecreased() {
+        settings.setMaxConcurrentReceives(2);
+
+        for (int i = 1; i <= 3; i++) {
+            transferExecutor.execute(createFileReceiver(i), createTask(i));
+        }
+
+        settings.setMaxConcurrentReceives(1);
+
+        assertEquals(2, transferExecutor.getRunning(FileTransfer.Direction.RECEIVE));
+        assertEquals(1, transferExecutor.getQueued(FileTransfer.Direction.RECEIVE));
+
+        runTasks();
+
+        assertEquals(Arrays.asList(1, 2, 3), startedTasks);
+    }
+
+    @Test
+    public void settingChangedShouldIgnoreOtherSettings() {
+        transferExecutor.execute(createFileSender(1), createTask(1));
+        transferExecutor.execute(createFileSender(2), createTask(2));
+
+        transferExecutor.settingChanged(Setting.TRANSFER_RATE_LIMIT);
+
+        verify(executorService).execute(any(Runnable.class));
+    }
+
+    @Test
+    public void failingTaskShouldReleaseSlot() {
+        transferExecutor.execute(createFileSender(1), new Runnable() {
+            @Override
+            public void run() {
+                throw new RuntimeException("Failed");
+            }
+        });
+
+        transferExecutor.execute(createFileSender(2), createTask(2));
+
+        final ArgumentCaptor<Runnable> runnableCaptor = ArgumentCaptor.forClass(Runnable.class);
+        verify(executorService).execute(runnableCaptor.capture());
+
+        try {
+            runnableCaptor.getValue().run();
+            fail("Should have thrown exception");
+        }
+
+        catch (final RuntimeException e) {
+            assertEquals("Failed", e.getMessage());
+        }
+
+        verify(executorService, times(2)).execute(any(Runnable.class));
+        assertEquals(1, transferExecutor.getRunning(FileTransfer.Direction.SEND));
+    }
+
+    /**
+     * Runs the started tasks one by one, like the slots were all taken.
+     */
+    private void runTasks() {
+        int ran = 0;
+
+        while (true) {
+            final ArgumentCaptor<Runnable> runnableCaptor = ArgumentCaptor.forClass(Runnable.class);
+            verify(executorService, atLeast(0)).execute(runnableCaptor.capture());
+            final List<Runnable> runnables = runnableCaptor.getAllValues();
+
+            if (ran == runnables.size()) {
+                return;
+            }
+
+            runnables.get(ran).run();
+            ran++;
+        }
+    }
+
+    private Runnable createTask(final int taskId) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                startedTasks.add(taskId);
+            }
+        };
+    }
+
+    private FileSender createFileSender(final int id) {
+        final FileSender fileSender = mock(FileSender.class);
+
+        when(fileSender.getId()).thenReturn(id);
+        when(fileSender.getDirection()).thenReturn(FileTransfer.Direction.SEND);
+
+        return fileSender;
+    }
+
+    private FileReceiver createFileReceiver(final int id) {
+        final FileReceiver fileReceiver = mock(FileReceiver.class);
+
+        when(fileReceiver.getId()).thenReturn(id);
+        when(fileReceiver.getDirection()).thenReturn(FileTransfer.Direction.RECEIVE);
+
+        return fileReceiver;
+    }
+}
@@ -0,0 +1,348 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import net.usikkert.kouchat.junit.ExpectedException;
+import net.usikkert.kouchat.misc.User;
+import net.usikkert.kouchat.settings.Settings;
+import net.usikkert.kouchat.util.HashedWheelTimer;
+
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Test of {@link TransferList}.
+ *
+ * @author Christian Ihle
+ */
+public class TransferListTest {
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    private TransferList transferList;
+    private User user1;
+    private User user2;
+
+    @Before
+    public void setUp() {
+        transferList = new TransferList(new TransferScheduler(new Settings()), mock(HashedWheelTimer.class));
+
+        user1 = new User("User1", 1001);
+        user2 = new User("User2", 1002);
+    }
+
+    @Test
+    public void constructorShouldThrowExceptionIfTransferSchedulerIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Transfer scheduler can not be null");
+
+        new TransferList(null, mock(HashedWheelTimer.class));
+    }
+
+    @Test
+    public void constructorShouldThrowExceptionIfTimerIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Timer can not be null");
+
+        new TransferList(new TransferScheduler(new Settings()), null);
+    }
+
+    @Test
+    public void addShouldGiveUniqueIdsToSendersAndReceivers() {
+        final FileSender fileSender = transferList.addFileSender(user1, createFile("a.txt", 10));
+        final FileReceiver fileReceiver = transferList.addFileReceiver(user1, new File("b.txt"), 20);
+        final FileSender fileSender2 = transferList.addFileSender(user2, createFile("c.txt", 30));
+
+        assertEquals(1, fileSender.getId());
+        assertEquals(2, fileReceiver.getId());
+        assertEquals(3, fileSender2.getId());
+    }
+
+    @Test
+    public void getFileSenderShouldFindByUserAndFileNameAndHash() {
+        final FileToSend file = createFile("a.txt", 10);
+        final FileSender fileSender = transferList.addFileSender(user1, file);
+
+        assertSame(fileSender, transferList.getFileSender(user1, "a.txt", file.hashCode()));
+        assertNull(transferList.getFileSender(user1, "a.txt", file.hashCode() + 1));
+        assertNull(transferList.getFileSender(user1, "b.txt", file.hashCode()));
+        assertNull(transferList.getFileSender(user2, "a.txt", file.hashCode()));
+    }
+
+    @Test
+    public void getFileSenderShouldNotFindUserWithSameCodeButDifferentObject() {
+        final FileToSend file = createFile("a.txt", 10);
+        transferList.addFileSender(user1, file);
+
+        assertNull(transferList.getFileSender(new User("User1", 1001), "a.txt", file.hashCode()));
+    }
+
+    @Test
+    public void getFileSenderShouldFindTheNextSenderOfTheSameFileAfterRemove() {
+        final FileToSend file = createFile("a.txt", 10);
+        final FileSender fileSender1 = transferList.addFileSender(user1, file);
+        final FileSender fileSender2 = transferList.addFileSender(user1, file);
+
+        assertSame(fileSender1, transferList.getFileSender(user1, "a.txt", file.hashCode()));
+
+        transferList.removeFileSender(fileSender1);
+        assertSame(fileSender2, transferList.getFileSender(user1, "a.txt", file.hashCode()));
+
+        transferList.removeFileSender(fileSender2);
+        assertNull(transferList.getFileSender(user1, "a.txt", file.hashCode()));
+    }
+
+    @Test
+    public void getFileSenderShouldFindTheSenderWithTheSameHashAmongSendersOfFilesWithTheSameName() {
+        final FileToSend file1 = createFile("a.txt", 10);
+        final FileToSend file2 = createFile("a.txt", 20);
+        final FileSender fileSender1 = transferList.addFileSender(user1, file1);
+        final FileSender fileSender2 = transferList.addFileSender(user1, file2);
+
+        assertSame(fileSender1, transferList.getFileSender(user1, "a.txt", file1.hashCode()));
+        assertSame(fileSender2, transferList.getFileSender(user1, "a.txt", file2.hashCode()));
+    }
+
+    @Test
+    public void getFileSenderShouldFindByUserAndFileName() {
+        final FileSender fileSender1 = transferList.addFileSender(user2, createFile("a.txt", 10));
+        final FileSender fileSender2 = transferList.addFileSender(user1, createFile("a.txt", 20));
+        final FileSender fileSender3 = transferList.addFileSender(user1, createFile("a.txt", 30));
+
+        assertSame(fileSender1, transferList.getFileSender(user2, "a.txt"));
+        assertSame(fileSender2, transferList.getFileSender(user1, "a.txt"));
+        assertNull(transferList.getFileSender(user1, "b.txt"));
+
+        transferList.removeFileSender(fileSender2);
+        assertSame(fileSender3, transferList.getFileSender(user1, "a.txt"));
+
+        transferList.removeFileSender(fileSender3);
+        assertNull(transferList.getFileSender(user1, "a.txt"));
+        assertSame(fileSender1, transferList.getFileSender(user2, "a.txt"));
+    }
+
+    @Test
+    public void getFileSenderShouldFindByUserAndId() {
+        final FileSender fileSender = transferList.addFileSender(user1, createFile("a.txt", 10));
+
+        assertSame(fileSender, transferList.getFileSender(user1, fileSender.getId()));
+        assertNull(transferList.getFileSender(user2, fileSender.getId()));
+        assertNull(transferList.getFileSender(user1, fileSender.getId() + 1));
+    }
+
+    @Test
+    public void getFileReceiverShouldFindByUserAndId() {
+        final FileReceiver fileReceiver = transferList.addFileReceiver(user1, new File("a.txt"), 10);
+
+        assertSame(fileReceiver, transferList.getFileReceiver(user1, fileReceiver.getId()));
+        assertNull(transferList.getFileReceiver(user2, fileReceiver.getId()));
+        assertNull(transferList.getFileReceiver(user1, fileReceiver.getId() + 1));
+    }
+
+    @Test
+    public void getFileReceiverShouldFindByCurrentFileName() {
+        final FileReceiver fileReceiver = transferList.addFileReceiver(user1, new File("a.txt"), 10);
+        fileReceiver.setFile(new File("b.txt"));
+
+        assertNull(transferList.getFileReceiver(user1, "a.txt"));
+        assertSame(fileReceiver, transferList.getFileReceiver(user1, "b.txt"));
+    }
+
+    @Test
+    public void getFileTransferShouldFindReceiverBeforeSender() {
+        final FileSender fileSender = transferList.addFileSender(user1, createFile("a.txt", 10));
+        final FileReceiver fileReceiver = transferList.addFileReceiver(user1, new File("a.txt"), 10);
+
+        assertSame(fileReceiver, transferList.getFileTransfer(user1, "a.txt"));
+        assertSame(fileSender, transferList.getFileTransfer(user1, fileSender.getId()));
+        assertSame(fileReceiver, transferList.getFileTransfer(user1, fileReceiver.getId()));
+    }
+
+    @Test
+    public void getFileSendersShouldReturnSnapshotInOrderOfId() {
+        final FileSender fileSender1 = transferList.addFileSender(user1, createFile("a.txt", 10));
+        final FileSender fileSender2 = transferList.addFileSender(user2, createFile("b.txt", 10));
+        final FileSender fileSender3 = transferList.addFileSender(user1, createFile("c.txt", 10));
+
+        final List<FileSender> fileSenders = transferList.getFileSenders();
+        transferList.removeFileSender(fileSender2);
+
+        assertEquals(3, fileSenders.size());
+        assertSame(fileSender1, fileSenders.get(0));
+        assertSame(fileSender2, fileSenders.get(1));
+        assertSame(fileSender3, fileSenders.get(2));
+
+        final List<FileSender> user1Senders = transferList.getFileSenders(user1);
+        assertEquals(2, user1Senders.size());
+        assertSame(fileSender1, user1Senders.get(0));
+        assertSame(fileSender3, user1Senders.get(1));
+    }
+
+    @Test
+    public void getFileReceiversShouldReturnSnapshotForUser() {
+        final FileReceiver fileReceiver1 = transferList.addFileReceiver(user1, new File("a.txt"), 10);
+        transferList.addFileReceiver(user2, new File("b.txt"), 10);
+
+        final List<FileReceiver> fileReceivers = transferList.getFileReceivers(user1);
+        transferList.removeFileReceiver(fileReceiver1);
+
+        assertEquals(1, fileReceivers.size());
+        assertSame(fileReceiver1, fileReceivers.get(0));
+        assertEquals(1, transferList.getFileReceivers().size());
+        assertTrue(transferList.getFileReceivers(user1).isEmpty());
+    }
+
+    @Test
+    public void getFileSendersShouldReturnUnmodifiableList() {
+        expectedException.expect(UnsupportedOperationException.class);
+
+        transferList.getFileSenders().add(null);
+    }
+
+    @Test
+    public void concurrentAddAndRemoveShouldKeepTheIndexesConsistent() throws InterruptedException {
+        final int threads = 8;
+        final int transfersPerThread = 500;
+        final ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        final CountDownLatch done = new CountDownLatch(threads);
+
+        for (int i = 0; i < threads; i++) {
+            final User user = new User("User" + i, i);
+
+            executorService.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < transfersPerThread; j++) {
+                        final FileToSend file = createFile("file" + (j % 10), j);
+                        final FileSender fileSender = transferList.addFileSender(user, file);
+                        assertSame(fileSender, transferList.getFileSender(user, fileSender.getId()));
+
+                        if (j % 2 == 0) {
+                            transferList.removeFileSender(fileSender);
+                        }
+                    }
+
+                    done.countDown();
+                }
+            });
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        executorService.shutdown();
+
+        final List<FileSender> fileSenders = transferList.getFileSenders();
+        assertEquals(threads * transfersPerThread / 2, fileSenders.size());
+
+        for (final FileSender fileSender : fileSenders) {
+            final FileToSend file = fileSender.getFile();
+            assertSame(fileSender, transferList.getFileSender(fileSender.getUser(), file.getName(), file.hashCode()));
+        }
+    }
+
+    /**
+     * Measures the lookups done for each file transfer message, with many transfers in the list.
+     */
+    @Test
+    @Ignore("Run manually")
+    public void benchmarkLookupsWithThousandsOfTransfers() {
+        final int numberOfUsers = 50;
+        final int transfersPerUser = 200;
+        final int lookups = 1000000;
+
+        final List<User> users = new ArrayList<>();
+        final List<FileSender> fileSenders = new ArrayList<>();
+
+        for (int i = 0; i < numberOfUsers; i++) {
+            final User user = new User("User" + i, i);
+            users.add(user);
+
+            for (int j = 0; j < transfersPerUser; j++) {
+                fileSenders.add(transferList.addFileSender(user, createFile("file" + j + ".txt", j)));
+                transferList.addFileReceiver(user, new File("received" + j + ".txt"), j);
+            }
+        }
+
+        long found = 0;
+        long start = System.nanoTime();
+
+        for (int i = 0; i < lookups; i++) {
+            final FileSender fileSender = fileSenders.get(i % fileSenders.size());
+            final FileToSend file = fileSender.getFile();
+
+            if (transferList.getFileSender(fileSender.getUser(), file.getName(), file.hashCode()) != null) {
+                found++;
+            }
+        }
+
+        printResult("getFileSender(user, fileName, fileHash)", lookups, System.nanoTime() - start);
+        start = System.nanoTime();
+
+        for (int i = 0; i < lookups; i++) {
+            final User user = users.get(i % numberOfUsers);
+
+            if (transferList.getFileTransfer(user, (i % (fileSenders.size() * 2)) + 1) != null) {
+                found++;
+            }
+        }
+
+        printResult("getFileTransfer(user, id)", lookups, System.nanoTime() - start);
+        start = System.nanoTime();
+
+        for (int i = 0; i < 1000; i++) {
+            found += transferList.getFileSenders(users.get(i % numberOfUsers)).size();
+        }
+
+        printResult("getFileSenders(user)", 1000, System.nanoTime() - start);
+        start = System.nanoTime();
+
+        for (final FileSender fileSender : fileSenders) {
+            transferList.removeFileSender(fileSender);
+        }
+
+        printResult("removeFileSender()", fileSenders.size(), System.nanoTime() - start);
+        System.out.println("Found: " + found);
+    }
+
+    private void printResult(final String operation, final int count, final long nanos) {
+        System.out.printf("%s: %d calls in %d ms, %d ns/call%n",
+                          operation, count, TimeUnit.NANOSECONDS.toMillis(nanos), nanos / count);
+    }
+
+    private FileToSend createFile(final String name, final long length) {
+        return new FileToSend(mock(FileToSend.InputStreamOpener.class), name, length);
+    }
+}
@@ -0,0 +1,186 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import net.usikkert.kouchat.junit.ExpectedException;
+import net.usikkert.kouchat.settings.Settings;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Test of {@link TransferScheduler}.
+ *
+ * @author Christian Ihle
+ */
+public class TransferSchedulerTest {
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    private TransferScheduler transferScheduler;
+
+    private Settings settings;
+    private FileTransfer fileTransfer;
+
+    @Before
+    public void setUp() {
+        settings = new Settings();
+        transferScheduler = new TransferScheduler(settings);
+
+        fileTransfer = mock(FileTransfer.class);
+        when(fileTransfer.getId()).thenReturn(5);
+    }
+
+    @Test
+    public void constructorShouldThrowExceptionIfSettingsIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Settings can not be null");
+
+        new TransferScheduler(null);
+    }
+
+    @Test
+    public void constructorShouldUseRateLimitFromSettings() {
+        settings.setTransferRateLimit(10);
+
+        assertEquals(10240, new TransferScheduler(settings).getBytesPerSecond());
+    }
+
+    @Test
+    public void defaultRateLimitShouldBeUnlimited() {
+        assertEquals(0, transferScheduler.getBytesPerSecond());
+    }
+
+    @Test
+    public void settingChangedShouldUpdateRateLimit() {
+        settings.setTransferRateLimit(20);
+
+        assertEquals(20480, transferScheduler.getBytesPerSecond());
+    }
+
+    @Test
+    public void registerShouldAddTransferWithDefaultWeight() {
+        assertEquals(0, transferScheduler.getActiveTransfers());
+
+        transferScheduler.register(fileTransfer);
+
+        assertEquals(1, transferScheduler.getActiveTransfers());
+        assertEquals(TransferScheduler.DEFAULT_WEIGHT, transferScheduler.getWeight(5));
+    }
+
+    @Test
+    public void unregisterShouldRemoveTransfer() {
+        transferScheduler.register(fileTransfer);
+        transferScheduler.unregister(fileTransfer);
+
+        assertEquals(0, transferScheduler.getActiveTransfers());
+        assertEquals(0, transferScheduler.getWeight(5));
+    }
+
+    @Test
+    public void setWeightShouldChangeWeightOfActiveTransfer() {
+        transferScheduler.register(fileTransfer);
+
+        assertTrue(transferScheduler.setWeight(5, 3));
+        assertEquals(3, transferScheduler.getWeight(5));
+    }
+
+    @Test
+    public void setWeightShouldReturnFalseIfTransferIsNotActive() {
+        assertFalse(transferScheduler.setWeight(5, 3));
+    }
+
+    @Test
+    public void setWeightShouldThrowExceptionIfWeightIsLessThanOne() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Weight must be at least 1");
+
+        transferScheduler.setWeight(5, 0);
+    }
+
+    @Test
+    public void acquireShouldNotWaitWhenUnlimited() {
+        transferScheduler.register(fileTransfer);
+
+        final long start = System.currentTimeMillis();
+
+        for (int i = 0; i < 100; i++) {
+            transferScheduler.acquire(fileTransfer, 1024 * 1024);
+        }
+
+        // 100 MB would take at least 10 seconds if the rate was limited
+        assertTrue(System.currentTimeMillis() - start < 1000);
+    }
+
+    @Test
+    public void shareShouldNotWaitWhenWithinTheRate() {
+        final TransferScheduler.Share share = new TransferScheduler.Share(1);
+
+        share.reserve(0, 10000, 1000);
+
+        assertEquals(0, share.reserve(1000, 10000, 1100));
+    }
+
+    @Test
+    public void shareShouldWaitForTheCreditsToBeEarnedBack() {
+        final TransferScheduler.Share share = new TransferScheduler.Share(1);
+
+        assertEquals(100, share.reserve(1000, 10000, 1000));
+        assertEquals(200, share.reserve(1000, 10000, 1000));
+    }
+
+    @Test
+    public void shareShouldNotSaveUpMoreThanTheBurstLimit() {
+        final TransferScheduler.Share share = new TransferScheduler.Share(1);
+
+        share.reserve(0, 10000, 1000);
+
+        // 100 ms worth of credits at most, even after a long pause
+        assertEquals(0, share.reserve(1000, 10000, 60000));
+        assertEquals(100, share.reserve(1000, 10000, 60000));
+    }
+
+    @Test
+    public void acquireShouldGiveMoreBandwidthToTransfersWithHigherWeight() {
+        settings.setTransferRateLimit(1000);
+
+        final FileTransfer otherTransfer = mock(FileTransfer.class);
+        when(otherTransfer.getId()).thenReturn(6);
+
+        transferScheduler.register(fileTransfer);
+        transferScheduler.register(otherTransfer);
+        transferScheduler.setWeight(6, 3);
+
+        // Weight 1 of 4 gives 256 KB/s, so 25.6 KB takes about 100 ms
+        final long start = System.currentTimeMillis();
+        transferScheduler.acquire(fileTransfer, 26214);
+        final long time = System.currentTimeMillis() - start;
+
+        assertTrue("Time was " + time, time >= 90);
+    }
+}
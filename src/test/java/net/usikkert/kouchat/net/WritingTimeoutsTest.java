@@ -0,0 +1,159 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.Arrays;
+
+import net.usikkert.kouchat.junit.ExpectedException;
+import net.usikkert.kouchat.misc.Controller;
+import net.usikkert.kouchat.misc.User;
+import net.usikkert.kouchat.util.HashedWheelTimer;
+import net.usikkert.kouchat.util.TimerHandle;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+/**
+ * Test of {@link WritingTimeouts}.
+ *
+ * @author Christian Ihle
+ */
+public class WritingTimeoutsTest {
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    private WritingTimeouts writingTimeouts;
+
+    private Controller controller;
+    private HashedWheelTimer timer;
+    private TimerHandle timerHandle;
+
+    private User niles;
+
+    @Before
+    public void setUp() {
+        controller = mock(Controller.class);
+        timer = mock(HashedWheelTimer.class);
+        timerHandle = mock(TimerHandle.class);
+
+        when(timer.schedule(anyString(), any(Runnable.class), anyLong())).thenReturn(timerHandle);
+
+        writingTimeouts = new WritingTimeouts(controller, timer);
+
+        niles = new User("Niles", 100);
+        niles.setCapabilities(Arrays.asList(ClientCapability.WRITING_TIMEOUT));
+    }
+
+    @Test
+    public void constructorShouldThrowExceptionIfControllerIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Controller can not be null");
+
+        new WritingTimeouts(null, timer);
+    }
+
+    @Test
+    public void constructorShouldThrowExceptionIfTimerIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Timer can not be null");
+
+        new WritingTimeouts(controller, null);
+    }
+
+    @Test
+    public void writingChangedShouldThrowExceptionIfUserIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("User can not be null");
+
+        writingTimeouts.writingChanged(null, true);
+    }
+
+    @Test
+    public void writingChangedShouldScheduleTimeoutWhenWriting() {
+        writingTimeouts.writingChanged(niles, true);
+
+        verify(timer).schedule(eq("WritingTimeouts"), any(Runnable.class), eq((long) WritingTimeouts.TIMEOUT));
+        assertTrue(writingTimeouts.isPending(100));
+    }
+
+    @Test
+    public void writingChangedShouldUseLegacyTimeoutForUserWithoutCapability() {
+        writingTimeouts.writingChanged(new User("John", 101), true);
+
+        verify(timer).schedule(eq("WritingTimeouts"), any(Runnable.class), eq((long) WritingTimeouts.LEGACY_TIMEOUT));
+    }
+
+    @Test
+    public void writingChangedShouldReplaceTimeoutWhenWritingAgain() {
+        writingTimeouts.writingChanged(niles, true);
+        writingTimeouts.writingChanged(niles, true);
+
+        verify(timerHandle).cancel();
+        verify(timer, times(2)).schedule(anyString(), any(Runnable.class), anyLong());
+        assertTrue(writingTimeouts.isPending(100));
+    }
+
+    @Test
+    public void writingChangedShouldCancelTimeoutWhenStoppedWriting() {
+        writingTimeouts.writingChanged(niles, true);
+        writingTimeouts.writingChanged(niles, false);
+
+        verify(timerHandle).cancel();
+        assertFalse(writingTimeouts.isPending(100));
+    }
+
+    @Test
+    public void timeoutShouldClearTheWritingState() {
+        writingTimeouts.writingChanged(niles, true);
+
+        getScheduledTimeout().run();
+
+        verify(controller).changeWriting(100, false);
+        assertFalse(writingTimeouts.isPending(100));
+    }
+
+    @Test
+    public void timeoutShouldDoNothingIfReplaced() {
+        writingTimeouts.writingChanged(niles, true);
+        final Runnable oldTimeout = getScheduledTimeout();
+        writingTimeouts.writingChanged(niles, true);
+
+        oldTimeout.run();
+
+        verify(controller, never()).changeWriting(anyInt(), anyBoolean());
+        assertTrue(writingTimeouts.isPending(100));
+    }
+
+    private Runnable getScheduledTimeout() {
+        final ArgumentCaptor<Runnable> timeoutCaptor = ArgumentCaptor.forClass(Runnable.class);
+        verify(timer, atLeastOnce()).schedule(anyString(), timeoutCaptor.capture(), anyLong());
+
+        return timeoutCaptor.getValue();
+    }
+}
@@ -101,8 +101,11 @@ public class PropertyFileSettingsLoaderTest {
         properties.setProperty(BROWSER.getKey(), "opera");
         properties.setProperty(LOOK_AND_FEEL.getKey(), "sega");
         properties.setProperty(NETWORK_INTERFACE.getKey(), "eth5");
+        properties.setProperty(TRANSFER_RATE_LIMIT.getKey(), "250");
+        properties.setProperty(MAX_CONCURRENT_SENDS.getKey(), "5");
+        properties.setProperty(MAX_CONCURRENT_RECEIVES.getKey(), "2");
 
-        assertEquals(11, properties.size());
+        assertEquals(14, properties.size());
 
         when(propertyTools.loadProperties(anyString())).thenReturn(properties);
 
@@ -122,6 +125,9 @@ public class PropertyFileSettingsLoaderTest {
         assertEquals("opera", settings.getBrowser());
         assertEquals("sega", settings.getLookAndFeel());
         assertEquals("eth5", settings.getNetworkInterface());
+        assertEquals(250, settings.getTransferRateLimit());
+        assertEquals(5, settings.getMaxConcurrentSends());
+        assertEquals(2, settings.getMaxConcurrentReceives());
     }
 
     @Test
@@ -143,6 +143,9 @@ public class PropertyFileSettingsSaverTest {
         settings.setBrowser("firefox");
         settings.setLookAndFeel("starwars");
         settings.setNetworkInterface("wlan2");
+        settings.setTransferRateLimit(500);
+        settings.setMaxConcurrentSends(4);
+        settings.setMaxConcurrentReceives(6);
 
         settingsSaver.saveSettings();
 
@@ -152,7 +155,7 @@ public class PropertyFileSettingsSaverTest {
 
         final Properties properties = propertiesCaptor.getValue();
 
-        assertEquals(11, properties.size());
+        assertEquals(14, properties.size());
 
         assertEquals("Linda", properties.get(NICK_NAME.getKey()));
         assertEquals("100", properties.get(OWN_COLOR.getKey()));
@@ -165,6 +168,9 @@ public class PropertyFileSettingsSaverTest {
         assertEquals("firefox", properties.get(BROWSER.getKey()));
         assertEquals("starwars", properties.get(LOOK_AND_FEEL.getKey()));
         assertEquals("wlan2", properties.get(NETWORK_INTERFACE.getKey()));
+        assertEquals("500", properties.get(TRANSFER_RATE_LIMIT.getKey()));
+        assertEquals("4", properties.get(MAX_CONCURRENT_SENDS.getKey()));
+        assertEquals("6", properties.get(MAX_CONCURRENT_RECEIVES.getKey()));
     }
 
     @Test
@@ -182,7 +188,7 @@ public class PropertyFileSettingsSaverTest {
 
         final Properties properties = propertiesCaptor.getValue();
 
-        assertEquals(11, properties.size());
+        assertEquals(14, properties.size());
 
         assertEquals("", properties.get(NICK_NAME.getKey()));
         assertEquals("", properties.get(BROWSER.getKey()));
@@ -118,6 +118,75 @@ public class SettingsTest {
         assertEquals(Setting.LOGGING, lastChangedSetting);
     }
 
+    @Test
+    public void setTransferRateLimitShouldNotifyListenersIfSettingIsChanged() {
+        settings.setTransferRateLimit(100);
+
+        assertEquals(100, settings.getTransferRateLimit());
+        assertEquals(Setting.TRANSFER_RATE_LIMIT, lastChangedSetting);
+    }
+
+    @Test
+    public void setTransferRateLimitShouldNotNotifyListenersIfSettingIsUnchanged() {
+        settings.setTransferRateLimit(0);
+
+        assertEquals(0, settings.getTransferRateLimit());
+        assertNull(lastChangedSetting);
+    }
+
+    @Test
+    public void setTransferRateLimitShouldUseZeroForNegativeValues() {
+        settings.setTransferRateLimit(-10);
+
+        assertEquals(0, settings.getTransferRateLimit());
+    }
+
+    @Test
+    public void setMaxConcurrentSendsShouldNotifyListenersIfSettingIsChanged() {
+        settings.setMaxConcurrentSends(5);
+
+        assertEquals(5, settings.getMaxConcurrentSends());
+        assertEquals(Setting.MAX_CONCURRENT_SENDS, lastChangedSetting);
+    }
+
+    @Test
+    public void setMaxConcurrentSendsShouldNotNotifyListenersIfSettingIsUnchanged() {
+        settings.setMaxConcurrentSends(3);
+
+        assertEquals(3, settings.getMaxConcurrentSends());
+        assertNull(lastChangedSetting);
+    }
+
+    @Test
+    public void setMaxConcurrentSendsShouldUseOneForValuesBelowOne() {
+        settings.setMaxConcurrentSends(0);
+
+        assertEquals(1, settings.getMaxConcurrentSends());
+    }
+
+    @Test
+    public void setMaxConcurrentReceivesShouldNotifyListenersIfSettingIsChanged() {
+        settings.setMaxConcurrentReceives(5);
+
+        assertEquals(5, settings.getMaxConcurrentReceives());
+        assertEquals(Setting.MAX_CONCURRENT_RECEIVES, lastChangedSetting);
+    }
+
+    @Test
+    public void setMaxConcurrentReceivesShouldNotNotifyListenersIfSettingIsUnchanged() {
+        settings.setMaxConcurrentReceives(3);
+
+        assertEquals(3, settings.getMaxConcurrentReceives());
+        assertNull(lastChangedSetting);
+    }
+
+    @Test
+    public void setMaxConcurrentReceivesShouldUseOneForValuesBelowOne() {
+        settings.setMaxConcurrentReceives(-2);
+
+        assertEquals(1, settings.getMaxConcurrentReceives());
+    }
+
     @Test
     public void isLoggingShouldBeTrueIfAlwaysLogIsEnabled() {
         assertFalse(settings.isLogging());
@@ -192,5 +261,9 @@ public class SettingsTest {
         assertFalse(settings.isNoPrivateChat());
         assertFalse(settings.isAlwaysLog());
         assertEquals(Constants.APP_LOG_FOLDER, settings.getLogLocation());
+
+        assertEquals(0, settings.getTransferRateLimit());
+        assertEquals(3, settings.getMaxConcurrentSends());
+        assertEquals(3, settings.getMaxConcurrentReceives());
     }
 }
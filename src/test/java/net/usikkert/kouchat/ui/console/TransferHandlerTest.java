@@ -33,6 +33,8 @@ import net.usikkert.kouchat.net.FileReceiver;
 import net.usikkert.kouchat.net.FileSender;
 import net.usikkert.kouchat.net.FileToSend;
 import net.usikkert.kouchat.net.FileTransfer;
+import net.usikkert.kouchat.net.TransferScheduler;
+import net.usikkert.kouchat.util.HashedWheelTimer;
 
 import org.junit.Before;
 import org.junit.Rule;
@@ -110,7 +112,8 @@ public class TransferHandlerTest {
 
     @Test
     public void statusTransferringWhenReceivingShouldShowSystemMessage() {
-        final FileReceiver fileReceiver = new FileReceiver(new User("Dude", 1234), new File("sunset.jpg"), 100, 1);
+        final FileReceiver fileReceiver = new FileReceiver(new User("Dude", 1234), new File("sunset.jpg"), 100, 1,
+                                                            mock(TransferScheduler.class), mock(HashedWheelTimer.class));
         final TransferHandler fileReceiverTransferHandler =
                 new TransferHandler(fileReceiver, messageController, messages);
 
@@ -121,7 +124,8 @@ public class TransferHandlerTest {
 
     @Test
     public void statusTransferringWhenSendingShouldDoNothing() {
-        final FileSender fileSender = new FileSender(new User("Dude", 1234), new FileToSend(new File("sunset.jpg")), 2);
+        final FileSender fileSender = new FileSender(new User("Dude", 1234), new FileToSend(new File("sunset.jpg")), 2,
+                                                      mock(TransferScheduler.class), mock(HashedWheelTimer.class));
         final TransferHandler fileSenderTransferHandler = new TransferHandler(fileSender, messageController, messages);
 
         fileSenderTransferHandler.statusTransferring();
@@ -134,6 +138,18 @@ public class TransferHandlerTest {
         transferHandler.statusWaiting();
     }
 
+    @Test
+    public void statusQueuedShouldShowSystemMessage() {
+        final FileSender fileSender = new FileSender(new User("Dude", 1234), new FileToSend(new File("sunset.jpg")), 2,
+                                                      mock(TransferScheduler.class), mock(HashedWheelTimer.class));
+        final TransferHandler fileSenderTransferHandler = new TransferHandler(fileSender, messageController, messages);
+
+        fileSenderTransferHandler.statusQueued();
+
+        verify(messageController).showSystemMessage(
+                "Queued file transfer of sunset.jpg with Dude, waiting for other file transfers to finish");
+    }
+
     @Test
     public void transferUpdateShouldDoNothing() {
         transferHandler.transferUpdate();
@@ -45,7 +45,6 @@ import net.usikkert.kouchat.misc.Topic;
 import net.usikkert.kouchat.misc.User;
 import net.usikkert.kouchat.misc.UserList;
 import net.usikkert.kouchat.net.FileReceiver;
-import net.usikkert.kouchat.net.FileToSend;
 import net.usikkert.kouchat.settings.Settings;
 import net.usikkert.kouchat.ui.PrivateChatWindow;
 import net.usikkert.kouchat.ui.swing.messages.SwingMessages;
@@ -634,7 +633,7 @@ public class SwingMediatorTest {
     }
 
     @Test
-    public void sendFileShouldNotSendIfFileIsDirectory() {
+    public void sendFileShouldSendDirectory() throws CommandException {
         final JFileChooser fileChooser = mock(JFileChooser.class);
         when(fileChooser.showOpenDialog(null)).thenReturn(JFileChooser.APPROVE_OPTION);
 
@@ -648,8 +647,9 @@ public class SwingMediatorTest {
         mediator.sendFile(user, null);
 
         verify(uiTools).createFileChooser("Open");
+        verify(fileChooser).setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
         verify(uiTools, never()).showWarningMessage(anyString(), anyString());
-        verifyZeroInteractions(cmdParser);
+        verify(cmdParser).sendFileOrFolder(user, selectedFile.getAbsoluteFile());
     }
 
     @Test
@@ -668,7 +668,7 @@ public class SwingMediatorTest {
 
         verify(uiTools).createFileChooser("Open");
         verify(uiTools, never()).showWarningMessage(anyString(), anyString());
-        verify(cmdParser).sendFile(user, new FileToSend(selectedFile.getAbsoluteFile()));
+        verify(cmdParser).sendFileOrFolder(user, selectedFile.getAbsoluteFile());
     }
 
     @Test
@@ -683,13 +683,13 @@ public class SwingMediatorTest {
 
         when(uiTools.createFileChooser(anyString())).thenReturn(fileChooser);
 
-        doThrow(new CommandException("Don't send file")).when(cmdParser).sendFile(any(User.class), any(FileToSend.class));
+        doThrow(new CommandException("Don't send file")).when(cmdParser).sendFileOrFolder(any(User.class), any(File.class));
 
         mediator.sendFile(user, null);
 
         verify(uiTools).createFileChooser("Open");
         verify(uiTools).showWarningMessage("Don't send file", "Send file");
-        verify(cmdParser).sendFile(user, new FileToSend(selectedFile.getAbsoluteFile()));
+        verify(cmdParser).sendFileOrFolder(user, selectedFile.getAbsoluteFile());
     }
 
     @Test
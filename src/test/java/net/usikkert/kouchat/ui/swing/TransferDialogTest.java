@@ -380,6 +380,14 @@ public class TransferDialogTest {
         verify(uiTools).invokeLater(any(Runnable.class));
     }
 
+    @Test
+    public void statusQueuedShouldSetCorrectStatusText() {
+        transferDialog.statusQueued();
+
+        assertEquals("Queued...", statusLabel.getText());
+        verify(uiTools).invokeLater(any(Runnable.class));
+    }
+
     @Test
     public void statusConnectingShouldSetCorrectStatusText() {
         transferDialog.statusConnecting();
@@ -0,0 +1,404 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.ui.swing;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.Arrays;
+
+import javax.swing.SwingUtilities;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+
+import net.usikkert.kouchat.misc.User;
+import net.usikkert.kouchat.misc.UserList;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+/**
+ * Test of {@link UserListModel}.
+ *
+ * @author Christian Ihle
+ */
+@SuppressWarnings("HardCodedStringLiteral")
+public class UserListModelTest {
+
+    private UserListModel userListModel;
+
+    private UserList userList;
+    private ListDataListener listDataListener;
+
+    private User a;
+    private User b;
+    private User c;
+    private User d;
+    private User e;
+
+    @Before
+    public void setUp() {
+        a = new User("A", 1);
+        b = new User("B", 2);
+        c = new User("C", 3);
+        d = new User("D", 4);
+        e = new User("E", 5);
+
+        userList = mock(UserList.class);
+        setSnapshot(a, b, c, d, e);
+
+        userListModel = new UserListModel(userList);
+        listDataListener = mock(ListDataListener.class);
+        userListModel.addListDataListener(listDataListener);
+    }
+
+    @Test
+    public void constructorShouldRegisterAsListener() {
+        final UserList otherUserList = mock(UserList.class);
+
+        final UserListModel model = new UserListModel(otherUserList);
+
+        verify(otherUserList).addUserListListener(model);
+    }
+
+    @Test
+    public void constructorShouldShowTheUsersInTheList() {
+        assertEquals(5, userListModel.getSize());
+        assertSame(a, userListModel.getElementAt(0));
+        assertSame(e, userListModel.getElementAt(4));
+    }
+
+    @Test
+    public void fireCollectedEventsShouldDoNothingWithoutChanges() throws Exception {
+        runOnEventDispatchThread(new Runnable() {
+            @Override
+            public void run() {
+                userListModel.fireCollectedEvents();
+            }
+        });
+
+        verifyZeroInteractions(listDataListener);
+    }
+
+    @Test
+    public void modelShouldShowTheOldUsersUntilTheEventsAreSent() throws Exception {
+        final User x = new User("X", 10);
+        setSnapshot(a, b, x, c, d, e);
+
+        runOnEventDispatchThread(new Runnable() {
+            @Override
+            public void run() {
+                userListModel.userAdded(2, x);
+
+                assertEquals(5, userListModel.getSize());
+                assertSame(c, userListModel.getElementAt(2));
+
+                userListModel.fireCollectedEvents();
+
+                assertEquals(6, userListModel.getSize());
+                assertSame(x, userListModel.getElementAt(2));
+            }
+        });
+    }
+
+    @Test
+    public void fireCollectedEventsShouldSendExactEventForSingleAddedUser() throws Exception {
+        final User x = new User("X", 10);
+        setSnapshot(a, b, x, c, d, e);
+
+        runOnEventDispatchThread(new Runnable() {
+            @Override
+            public void run() {
+                userListModel.userAdded(2, x);
+                userListModel.fireCollectedEvents();
+            }
+        });
+
+        final ListDataEvent event = captureIntervalAdded();
+        assertEquals(2, event.getIndex0());
+        assertEquals(2, event.getIndex1());
+        verifyNoMoreInteractions(listDataListener);
+    }
+
+    @Test
+    public void fireCollectedEventsShouldSendExactEventForSingleRemovedUser() throws Exception {
+        setSnapshot(a, b, c, e);
+
+        runOnEventDispatchThread(new Runnable() {
+            @Override
+            public void run() {
+                userListModel.userRemoved(3, d);
+                userListModel.fireCollectedEvents();
+            }
+        });
+
+        final ListDataEvent event = captureIntervalRemoved();
+        assertEquals(3, event.getIndex0());
+        assertEquals(3, event.getIndex1());
+        verifyNoMoreInteractions(listDataListener);
+    }
+
+    @Test
+    public void fireCollectedEventsShouldSendExactEventForSingleChangedUser() throws Exception {
+        runOnEventDispatchThread(new Runnable() {
+            @Override
+            public void run() {
+                userListModel.userChanged(1, b);
+                userListModel.fireCollectedEvents();
+            }
+        });
+
+        final ListDataEvent event = captureContentsChanged();
+        assertEquals(1, event.getIndex0());
+        assertEquals(1, event.getIndex1());
+        verifyNoMoreInteractions(listDataListener);
+    }
+
+    @Test
+    public void fireCollectedEventsShouldSendExactEventsForUserMovedDown() throws Exception {
+        setSnapshot(a, c, d, b, e);
+
+        runOnEventDispatchThread(new Runnable() {
+            @Override
+            public void run() {
+                userListModel.userMoved(1, 3, b);
+                userListModel.fireCollectedEvents();
+            }
+        });
+
+        final ListDataEvent removedEvent = captureIntervalRemoved();
+        assertEquals(1, removedEvent.getIndex0());
+        assertEquals(1, removedEvent.getIndex1());
+
+        final ListDataEvent addedEvent = captureIntervalAdded();
+        assertEquals(3, addedEvent.getIndex0());
+        assertEquals(3, addedEvent.getIndex1());
+        verifyNoMoreInteractions(listDataListener);
+    }
+
+    @Test
+    public void fireCollectedEventsShouldSendExactEventsForUserMovedUp() throws Exception {
+        setSnapshot(d, a, b, c, e);
+
+        runOnEventDispatchThread(new Runnable() {
+            @Override
+            public void run() {
+                userListModel.userMoved(3, 0, d);
+                userListModel.fireCollectedEvents();
+            }
+        });
+
+        final ListDataEvent removedEvent = captureIntervalRemoved();
+        assertEquals(3, removedEvent.getIndex0());
+        assertEquals(3, removedEvent.getIndex1());
+
+        final ListDataEvent addedEvent = captureIntervalAdded();
+        assertEquals(0, addedEvent.getIndex0());
+        assertEquals(0, addedEvent.getIndex1());
+        verifyNoMoreInteractions(listDataListener);
+    }
+
+    @Test
+    public void fireCollectedEventsShouldMergeChangesToTheSameRows() throws Exception {
+        runOnEventDispatchThread(new Runnable() {
+            @Override
+            public void run() {
+                userListModel.userChanged(3, d);
+                userListModel.userChanged(1, b);
+                userListModel.userChanged(1, b);
+                userListModel.fireCollectedEvents();
+            }
+        });
+
+        final ListDataEvent event = captureContentsChanged();
+        assertEquals(1, event.getIndex0());
+        assertEquals(3, event.getIndex1());
+        verifyNoMoreInteractions(listDataListener);
+    }
+
+    @Test
+    public void fireCollectedEventsShouldMergeManyAddedUsersIntoOneAddedAndOneChangedEvent() throws Exception {
+        final User x = new User("X", 10);
+        final User y = new User("Y", 11);
+        final User z = new User("Z", 12);
+        setSnapshot(a, x, b, c, y, d, e, z);
+
+        runOnEventDispatchThread(new Runnable() {
+            @Override
+            public void run() {
+                userListModel.userAdded(4, y);
+                userListModel.userAdded(1, x);
+                userListModel.userAdded(7, z);
+                userListModel.fireCollectedEvents();
+            }
+        });
+
+        final ListDataEvent addedEvent = captureIntervalAdded();
+        assertEquals(5, addedEvent.getIndex0());
+        assertEquals(7, addedEvent.getIndex1());
+
+        final ListDataEvent changedEvent = captureContentsChanged();
+        assertEquals(1, changedEvent.getIndex0());
+        assertEquals(4, changedEvent.getIndex1());
+        verifyNoMoreInteractions(listDataListener);
+    }
+
+    @Test
+    public void fireCollectedEventsShouldMergeManyRemovedUsersIntoOneRemovedAndOneChangedEvent() throws Exception {
+        setSnapshot(b, d, e);
+
+        runOnEventDispatchThread(new Runnable() {
+            @Override
+            public void run() {
+                userListModel.userRemoved(0, a);
+                userListModel.userRemoved(1, c);
+                userListModel.fireCollectedEvents();
+            }
+        });
+
+        final ListDataEvent removedEvent = captureIntervalRemoved();
+        assertEquals(1, removedEvent.getIndex0());
+        assertEquals(2, removedEvent.getIndex1());
+
+        final ListDataEvent changedEvent = captureContentsChanged();
+        assertEquals(0, changedEvent.getIndex0());
+        assertEquals(0, changedEvent.getIndex1());
+        verifyNoMoreInteractions(listDataListener);
+    }
+
+    @Test
+    public void fireCollectedEventsShouldMergeBatchOfAddedUsers() throws Exception {
+        final User niles = new User("Niles", 10);
+        final User john = new User("John", 11);
+        setSnapshot(a, b, c, d, e, john, niles);
+
+        runOnEventDispatchThread(new Runnable() {
+            @Override
+            public void run() {
+                userListModel.usersAdded(Arrays.asList(niles, john));
+                userListModel.fireCollectedEvents();
+            }
+        });
+
+        final ListDataEvent addedEvent = captureIntervalAdded();
+        assertEquals(5, addedEvent.getIndex0());
+        assertEquals(6, addedEvent.getIndex1());
+        verifyNoMoreInteractions(listDataListener);
+    }
+
+    @Test
+    public void fireCollectedEventsShouldContinueFromTheUsersShown() throws Exception {
+        final User x = new User("X", 10);
+        final User y = new User("Y", 11);
+        final User z = new User("Z", 12);
+
+        runOnEventDispatchThread(new Runnable() {
+            @Override
+            public void run() {
+                setSnapshot(a, b, c, d, e, x);
+                userListModel.userAdded(5, x);
+                userListModel.fireCollectedEvents();
+
+                setSnapshot(a, b, c, d, e, x, y, z);
+                userListModel.userAdded(6, y);
+                userListModel.userAdded(7, z);
+                userListModel.fireCollectedEvents();
+            }
+        });
+
+        final ArgumentCaptor<ListDataEvent> eventCaptor = ArgumentCaptor.forClass(ListDataEvent.class);
+        verify(listDataListener, times(2)).intervalAdded(eventCaptor.capture());
+
+        final ListDataEvent lastEvent = eventCaptor.getAllValues().get(1);
+        assertEquals(6, lastEvent.getIndex0());
+        assertEquals(7, lastEvent.getIndex1());
+        assertEquals(8, userListModel.getSize());
+    }
+
+    @Test
+    public void fireCollectedEventsShouldMatchTheUsersShownWhenTheListChangedAgainBeforeTheEventsAreCollected()
+            throws Exception {
+        final User x = new User("X", 10);
+
+        // X was added and E removed, but only the event for X has been collected so far
+        setSnapshot(a, b, x, c, d);
+
+        runOnEventDispatchThread(new Runnable() {
+            @Override
+            public void run() {
+                userListModel.userAdded(2, x);
+                userListModel.fireCollectedEvents();
+            }
+        });
+
+        final ListDataEvent changedEvent = captureContentsChanged();
+        assertEquals(2, changedEvent.getIndex0());
+        assertEquals(4, changedEvent.getIndex1());
+        verifyNoMoreInteractions(listDataListener);
+        assertEquals(5, userListModel.getSize());
+        assertSame(d, userListModel.getElementAt(4));
+
+        runOnEventDispatchThread(new Runnable() {
+            @Override
+            public void run() {
+                userListModel.userRemoved(5, e);
+                userListModel.fireCollectedEvents();
+            }
+        });
+
+        verifyNoMoreInteractions(listDataListener);
+    }
+
+    private ListDataEvent captureIntervalAdded() {
+        final ArgumentCaptor<ListDataEvent> eventCaptor = ArgumentCaptor.forClass(ListDataEvent.class);
+        verify(listDataListener).intervalAdded(eventCaptor.capture());
+
+        return eventCaptor.getValue();
+    }
+
+    private ListDataEvent captureIntervalRemoved() {
+        final ArgumentCaptor<ListDataEvent> eventCaptor = ArgumentCaptor.forClass(ListDataEvent.class);
+        verify(listDataListener).intervalRemoved(eventCaptor.capture());
+
+        return eventCaptor.getValue();
+    }
+
+    private ListDataEvent captureContentsChanged() {
+        final ArgumentCaptor<ListDataEvent> eventCaptor = ArgumentCaptor.forClass(ListDataEvent.class);
+        verify(listDataListener).contentsChanged(eventCaptor.capture());
+
+        return eventCaptor.getValue();
+    }
+
+    private void setSnapshot(final User... users) {
+        when(userList.getSnapshot()).thenReturn(Arrays.asList(users));
+    }
+
+    /**
+     * Collects and sends the events on the event dispatch thread, so the timer of the model can't send them first.
+     */
+    private void runOnEventDispatchThread(final Runnable runnable) throws Exception {
+        SwingUtilities.invokeAndWait(runnable);
+    }
+}
@@ -0,0 +1,312 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+package net.usikkert.kouchat.util;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.usikkert.kouchat.junit.ExpectedException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Test of {@link HashedWheelTimer}.
+ *
+ * @author Christian Ihle
+ */
+public class HashedWheelTimerTest {
+
+    private static final long TICK = 10;
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    private HashedWheelTimer timer;
+
+    @Before
+    public void setUp() {
+        timer = new HashedWheelTimer("TestTimer", TICK, 8);
+    }
+
+    @After
+    public void tearDown() {
+        timer.stop();
+    }
+
+    @Test
+    public void constructorShouldThrowExceptionIfNameIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Name can not be empty");
+
+        new HashedWheelTimer(null);
+    }
+
+    @Test
+    public void constructorShouldThrowExceptionIfTickDurationIsNotPositive() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Tick duration must be positive");
+
+        new HashedWheelTimer("Timer", 0, 8);
+    }
+
+    @Test
+    public void constructorShouldThrowExceptionIfWheelSizeIsNotPowerOfTwo() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Wheel size must be a power of 2");
+
+        new HashedWheelTimer("Timer", TICK, 6);
+    }
+
+    @Test
+    public void constructorShouldUseDefaults() {
+        final HashedWheelTimer defaultTimer = new HashedWheelTimer("Timer");
+
+        assertEquals(HashedWheelTimer.DEFAULT_TICK_DURATION, defaultTimer.getTickDuration());
+        assertEquals(HashedWheelTimer.DEFAULT_WHEEL_SIZE, defaultTimer.getWheelSize());
+    }
+
+    @Test
+    public void scheduleShouldThrowExceptionIfTaskIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Task can not be null");
+
+        timer.schedule("Task", null, 10);
+    }
+
+    @Test
+    public void scheduleAtFixedRateShouldThrowExceptionIfPeriodIsNotPositive() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Period must be positive");
+
+        timer.scheduleAtFixedRate("Task", new CountingTask(), 10, 0);
+    }
+
+    @Test
+    public void scheduleShouldRunTaskOnceAfterDelay() throws InterruptedException {
+        final CountingTask task = new CountingTask();
+        final long start = System.nanoTime();
+
+        final TimerHandle handle = timer.schedule("Task", task, 50);
+
+        assertTrue(task.await(1));
+        final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue("Ran too early: " + elapsed, elapsed >= 50);
+        assertTrue(handle.isExpired());
+        assertFalse(handle.isPending());
+        assertFalse(handle.cancel());
+
+        Thread.sleep(50);
+        assertEquals(1, task.getCount());
+    }
+
+    @Test
+    public void scheduleShouldNotRunTaskEarlyWhenDelayIsMoreThanOneRoundOfTheWheel() throws InterruptedException {
+        final CountingTask task = new CountingTask();
+        final long start = System.nanoTime();
+
+        timer.schedule("Task", task, TICK * 8 * 3);
+
+        assertTrue(task.await(1));
+        final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue("Ran too early: " + elapsed, elapsed >= TICK * 8 * 3);
+    }
+
+    @Test
+    public void cancelShouldStopTaskFromRunning() throws InterruptedException {
+        final CountingTask task = new CountingTask();
+
+        final TimerHandle handle = timer.schedule("Task", task, 50);
+
+        assertTrue(handle.isPending());
+        assertTrue(handle.cancel());
+        assertTrue(handle.isCancelled());
+        assertFalse(handle.isPending());
+        assertFalse(handle.cancel());
+        assertEquals(0, timer.getPendingTimerCount());
+
+        Thread.sleep(100);
+        assertEquals(0, task.getCount());
+    }
+
+    @Test
+    public void scheduleAtFixedRateShouldRunUntilCancelled() throws InterruptedException {
+        final CountingTask task = new CountingTask(3);
+
+        final TimerHandle handle = timer.scheduleAtFixedRate("Task", task, 0, 20);
+
+        assertTrue(task.await(1));
+        assertTrue(handle.isPeriodic());
+        assertTrue(handle.isPending());
+        assertTrue(handle.cancel());
+
+        final int count = task.getCount();
+        Thread.sleep(60);
+
+        assertEquals(count, task.getCount());
+        assertEquals(0, timer.getPendingTimerCount());
+    }
+
+    @Test
+    public void tasksShouldRunInDeadlineOrder() throws InterruptedException {
+        final List<Integer> order = new CopyOnWriteArrayList<>();
+        final CountDownLatch latch = new CountDownLatch(3);
+
+        timer.schedule("Task3", new OrderTask(order, 3, latch), 60);
+        timer.schedule("Task1", new OrderTask(order, 1, latch), 20);
+        timer.schedule("Task2", new OrderTask(order, 2, latch), 40);
+
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+        assertEquals(3, order.size());
+        assertEquals(1, order.get(0).intValue());
+        assertEquals(2, order.get(1).intValue());
+        assertEquals(3, order.get(2).intValue());
+    }
+
+    @Test
+    public void taskThatFailsShouldNotStopTheTimer() throws InterruptedException {
+        final CountingTask task = new CountingTask();
+
+        timer.schedule("Failing", new Runnable() {
+            @Override
+            public void run() {
+                throw new RuntimeException("Failing on purpose");
+            }
+        }, 0);
+
+        timer.schedule("Task", task, 20);
+
+        assertTrue(task.await(1));
+    }
+
+    @Test
+    public void tasksShouldBeAbleToScheduleOtherTasks() throws InterruptedException {
+        final CountingTask task = new CountingTask();
+
+        timer.schedule("Outer", new Runnable() {
+            @Override
+            public void run() {
+                timer.schedule("Inner", task, 0);
+            }
+        }, 0);
+
+        assertTrue(task.await(1));
+    }
+
+    @Test
+    public void getPendingTimersShouldBeOrderedByDeadline() {
+        timer.schedule("Late", new CountingTask(), 60000);
+        timer.scheduleAtFixedRate("Periodic", new CountingTask(), 30000, 30000);
+        timer.schedule("Early", new CountingTask(), 10000);
+
+        final List<TimerHandle> pendingTimers = timer.getPendingTimers();
+
+        assertEquals(3, timer.getPendingTimerCount());
+        assertEquals(3, pendingTimers.size());
+        assertEquals("Early", pendingTimers.get(0).getName());
+        assertEquals("Periodic", pendingTimers.get(1).getName());
+        assertEquals("Late", pendingTimers.get(2).getName());
+
+        final long delay = pendingTimers.get(0).getDelay();
+        assertTrue("Delay: " + delay, delay > 9000 && delay <= 10000);
+    }
+
+    @Test
+    public void getPendingTimersShouldBeEmptyWhenNothingIsScheduled() {
+        assertEquals(Collections.emptyList(), timer.getPendingTimers());
+        assertEquals(0, timer.getPendingTimerCount());
+    }
+
+    @Test
+    public void stopShouldDropPendingTasksAndCancelNewTasks() throws InterruptedException {
+        final CountingTask task = new CountingTask();
+        timer.schedule("Task", task, 20);
+
+        timer.stop();
+
+        assertTrue(timer.isStopped());
+        assertEquals(0, timer.getPendingTimerCount());
+
+        final TimerHandle handle = timer.schedule("Task", task, 0);
+        assertTrue(handle.isCancelled());
+
+        Thread.sleep(60);
+        assertEquals(0, task.getCount());
+    }
+
+    private static class CountingTask implements Runnable {
+
+        private final AtomicInteger count = new AtomicInteger();
+        private final CountDownLatch latch;
+
+        CountingTask() {
+            this(1);
+        }
+
+        CountingTask(final int expectedRuns) {
+            latch = new CountDownLatch(expectedRuns);
+        }
+
+        @Override
+        public void run() {
+            count.incrementAndGet();
+            latch.countDown();
+        }
+
+        boolean await(final int seconds) throws InterruptedException {
+            return latch.await(seconds, TimeUnit.SECONDS);
+        }
+
+        int getCount() {
+            return count.get();
+        }
+    }
+
+    private static class OrderTask implements Runnable {
+
+        private final List<Integer> order;
+        private final int number;
+        private final CountDownLatch latch;
+
+        OrderTask(final List<Integer> order, final int number, final CountDownLatch latch) {
+            this.order = order;
+            this.number = number;
+            this.latch = latch;
+        }
+
+        @Override
+        public void run() {
+            order.add(number);
+            latch.countDown();
+        }
+    }
+}
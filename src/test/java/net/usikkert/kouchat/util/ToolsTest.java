@@ -29,6 +29,7 @@ import java.io.IOException;
 
 import net.usikkert.kouchat.junit.ExpectedException;
 
+import org.joda.time.DateTime;
 import org.junit.Rule;
 import org.junit.Test;
 
@@ -43,6 +44,22 @@ public class ToolsTest {
     @Rule
     public ExpectedException expectedException = ExpectedException.none();
 
+    @Test
+    public void getTimeShouldShowHoursMinutesAndSecondsOfTheTime() {
+        final long time = new DateTime().withDate(2014, 5, 13).withTime(9, 5, 28, 0).getMillis();
+
+        assertEquals("[09:05:28]", Tools.getTime(time));
+    }
+
+    @Test
+    public void secondsToStringShouldShowHoursMinutesAndSeconds() {
+        assertEquals("00:00:00", Tools.secondsToString(0));
+        assertEquals("00:00:59", Tools.secondsToString(59));
+        assertEquals("00:01:00", Tools.secondsToString(60));
+        assertEquals("01:02:03", Tools.secondsToString(3723));
+        assertEquals("123:00:01", Tools.secondsToString(123 * 3600 + 1));
+    }
+
     /**
      * Tests that capitalization of the first letter in a word works as expected.
      */
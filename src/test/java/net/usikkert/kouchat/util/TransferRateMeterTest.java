@@ -0,0 +1,234 @@
+
+/***************************************************************************
+ *   Copyright 2006-2019 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.util;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.usikkert.kouchat.junit.ExpectedException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Test of {@link TransferRateMeter}.
+ *
+ * @author Christian Ihle
+ */
+public class TransferRateMeterTest {
+
+    private static final long START = 1000000000L;
+    private static final long TICK = TimeUnit.MILLISECONDS.toNanos(TransferRateMeter.TICK_INTERVAL);
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    private HashedWheelTimer timer;
+    private TransferRateMeter rateMeter;
+
+    @Before
+    public void setUp() {
+        timer = new HashedWheelTimer("TestTimer");
+        rateMeter = new TransferRateMeter(timer);
+        rateMeter.prepare(10000000, START);
+    }
+
+    @After
+    public void tearDown() {
+        timer.stop();
+    }
+
+    @Test
+    public void constructorShouldThrowExceptionIfTimerIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Timer can not be null");
+
+        new TransferRateMeter(null);
+    }
+
+    @Test
+    public void ratesShouldBeZeroBeforeFirstTick() {
+        rateMeter.addBytes(1024);
+
+        assertEquals(1024, rateMeter.getBytes());
+        assertEquals(0, rateMeter.getBytesPerSec());
+        assertEquals(0, rateMeter.getSmoothedBytesPerSec());
+        assertEquals(0, rateMeter.getAverageBytesPerSec());
+        assertEquals(-1, rateMeter.getSecondsLeft());
+    }
+
+    @Test
+    public void tickShouldCalculateRatesFromBytesSinceLastTick() {
+        rateMeter.addBytes(20000);
+        rateMeter.tick(START + TICK);
+
+        assertEquals(100000, rateMeter.getBytesPerSec());
+        assertEquals(100000, rateMeter.getSmoothedBytesPerSec());
+        assertEquals(100000, rateMeter.getAverageBytesPerSec());
+
+        rateMeter.addBytes(40000);
+        rateMeter.tick(START + 2 * TICK);
+
+        assertEquals(200000, rateMeter.getBytesPerSec());
+        assertEquals(150000, rateMeter.getAverageBytesPerSec());
+    }
+
+    @Test
+    public void smoothedRateShouldMoveSlowlyTowardsCurrentRate() {
+        rateMeter.addBytes(20000);
+        rateMeter.tick(START + TICK);
+
+        rateMeter.addBytes(40000);
+        rateMeter.tick(START + 2 * TICK);
+
+        final long smoothed = rateMeter.getSmoothedBytesPerSec();
+        assertTrue("Was " + smoothed, smoothed > 100000 && smoothed < 110000);
+
+        // 30 seconds at the new rate should be enough to reach it
+        for (int i = 3; i < 153; i++) {
+            rateMeter.addBytes(40000);
+            rateMeter.tick(START + i * TICK);
+        }
+
+        assertEquals(200000, rateMeter.getSmoothedBytesPerSec(), 100);
+    }
+
+    @Test
+    public void smoothedRateShouldWeighLongerTicksMore() {
+        final TransferRateMeter slowTicks = new TransferRateMeter(timer);
+        slowTicks.prepare(10000000, START);
+
+        rateMeter.addBytes(20000);
+        rateMeter.tick(START + TICK);
+        rateMeter.addBytes(40000);
+        rateMeter.tick(START + 2 * TICK);
+
+        slowTicks.addBytes(20000);
+        slowTicks.tick(START + TICK);
+        slowTicks.addBytes(400000);
+        slowTicks.tick(START + 11 * TICK);
+
+        assertTrue(slowTicks.getSmoothedBytesPerSec() > rateMeter.getSmoothedBytesPerSec());
+    }
+
+    @Test
+    public void tickWithoutTimeSpentShouldBeIgnored() {
+        rateMeter.addBytes(20000);
+        rateMeter.tick(START + TICK);
+        rateMeter.addBytes(20000);
+        rateMeter.tick(START + TICK);
+
+        assertEquals(100000, rateMeter.getBytesPerSec());
+        assertEquals(40000, rateMeter.getBytes());
+    }
+
+    @Test
+    public void secondsLeftShouldUseSmoothedRate() {
+        rateMeter.addBytes(20000);
+        rateMeter.tick(START + TICK);
+
+        // 9980000 bytes left at 100000 bytes per second
+        assertEquals(100, rateMeter.getSecondsLeft());
+
+        rateMeter.addBytes(9980000);
+        assertEquals(0, rateMeter.getSecondsLeft());
+    }
+
+    @Test
+    public void averageShouldNotOverflowWithLargeTransfers() {
+        rateMeter.addBytes(20L * 1024 * 1024 * 1024);
+        rateMeter.tick(START + TimeUnit.SECONDS.toNanos(10));
+
+        assertEquals(2L * 1024 * 1024 * 1024, rateMeter.getAverageBytesPerSec());
+        assertEquals(2L * 1024 * 1024 * 1024, rateMeter.getBytesPerSec());
+    }
+
+    @Test
+    public void prepareShouldResetTheMeter() {
+        rateMeter.addBytes(20000);
+        rateMeter.tick(START + TICK);
+
+        rateMeter.prepare(500, START + 2 * TICK);
+
+        assertEquals(0, rateMeter.getBytes());
+        assertEquals(0, rateMeter.getBytesPerSec());
+        assertEquals(0, rateMeter.getSmoothedBytesPerSec());
+        assertEquals(0, rateMeter.getAverageBytesPerSec());
+    }
+
+    @Test
+    public void startShouldRunCallbackOnEveryTickUntilStopped() throws InterruptedException {
+        final CountDownLatch ticks = new CountDownLatch(3);
+        final AtomicInteger callbacks = new AtomicInteger();
+
+        rateMeter.start(1000, new Runnable() {
+            @Override
+            public void run() {
+                callbacks.incrementAndGet();
+                ticks.countDown();
+            }
+        });
+
+        rateMeter.addBytes(1000);
+        assertTrue(ticks.await(5, TimeUnit.SECONDS));
+
+        rateMeter.stop();
+        final int callbacksAfterStop = callbacks.get();
+        Thread.sleep(TransferRateMeter.TICK_INTERVAL * 2);
+
+        assertEquals(callbacksAfterStop, callbacks.get());
+        assertTrue(rateMeter.getAverageBytesPerSec() > 0);
+    }
+
+    @Test
+    public void stopShouldDoFinalTickWithTheLastBytes() {
+        final AtomicInteger callbacks = new AtomicInteger();
+
+        rateMeter.start(1000, new Runnable() {
+            @Override
+            public void run() {
+                callbacks.incrementAndGet();
+            }
+        });
+
+        rateMeter.addBytes(1000);
+        rateMeter.stop();
+
+        assertTrue(callbacks.get() >= 1);
+        assertTrue(rateMeter.getAverageBytesPerSec() > 0);
+        assertEquals(0, rateMeter.getSecondsLeft());
+    }
+
+    @Test
+    public void stopShouldDoNothingIfNotStarted() {
+        rateMeter.addBytes(1000);
+        rateMeter.stop();
+
+        assertEquals(0, rateMeter.getAverageBytesPerSec());
+    }
+}